@@ -15,18 +15,25 @@ import com.bhyoo.onedrive.exceptions.InternalException;
 import com.bhyoo.onedrive.exceptions.InvalidJsonException;
 import com.bhyoo.onedrive.network.async.*;
 import com.bhyoo.onedrive.network.sync.SyncResponse;
+import com.bhyoo.onedrive.utils.ByteBufStream;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 import lombok.experimental.Delegate;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import static com.bhyoo.onedrive.container.items.pointer.Operator.*;
+import static io.netty.handler.codec.http.HttpMethod.DELETE;
 import static io.netty.handler.codec.http.HttpMethod.GET;
 import static java.net.HttpURLConnection.*;
 
@@ -41,6 +48,10 @@ public class Client {
 	 * It makes possible to multi client usage
 	 */
 	private @NotNull final RequestTool requestTool;
+	/**
+	 * {@code true} if {@link Transport} is created by this client, so it has to be closed with this client.
+	 */
+	private final boolean ownsTransport;
 
 	@Delegate(types = AbstractAuthHelper.class)
 	private @NotNull final AuthHelper authHelper;
@@ -88,7 +99,51 @@ public class Client {
 	 */
 	public Client(@NotNull String clientId, @NotNull String[] scope, @NotNull String redirectURL,
 				  @NotNull String clientSecret, boolean withLogin) {
-		requestTool = new RequestTool(this);
+		this(clientId, scope, redirectURL, clientSecret, withLogin, Transport.defaultTransport(), false);
+	}
+
+	/**
+	 * Construct with own {@link Transport} that is made from {@code transportConfig}. The transport will be closed
+	 * by {@link #close()}.
+	 *
+	 * @param clientId        Client id that MS gave to programmer for identify programmer's applications.
+	 * @param scope           Array of scopes that client requires.
+	 * @param redirectURL     Redirect URL that programmer already set in Application setting. It must matches with
+	 *                        set one!
+	 * @param clientSecret    Client secret key that MS gave to programmer.
+	 * @param withLogin       if {@code true} construct with login.
+	 * @param transportConfig settings of network resources of this client.
+	 *
+	 * @see #Client(String, String[], String, String, boolean)
+	 */
+	public Client(@NotNull String clientId, @NotNull String[] scope, @NotNull String redirectURL,
+				  @NotNull String clientSecret, boolean withLogin, @NotNull TransportConfig transportConfig) {
+		this(clientId, scope, redirectURL, clientSecret, withLogin, new Transport(transportConfig), true);
+	}
+
+	/**
+	 * Construct with {@link Transport} that can be shared with other clients. {@link #close()} does not close it.
+	 *
+	 * @param clientId     Client id that MS gave to programmer for identify programmer's applications.
+	 * @param scope        Array of scopes that client requires.
+	 * @param redirectURL  Redirect URL that programmer already set in Application setting. It must matches with set
+	 *                     one!
+	 * @param clientSecret Client secret key that MS gave to programmer.
+	 * @param withLogin    if {@code true} construct with login.
+	 * @param transport    network resources that this client sends requests through.
+	 *
+	 * @see #Client(String, String[], String, String, boolean)
+	 */
+	public Client(@NotNull String clientId, @NotNull String[] scope, @NotNull String redirectURL,
+				  @NotNull String clientSecret, boolean withLogin, @NotNull Transport transport) {
+		this(clientId, scope, redirectURL, clientSecret, withLogin, transport, false);
+	}
+
+	private Client(@NotNull String clientId, @NotNull String[] scope, @NotNull String redirectURL,
+				   @NotNull String clientSecret, boolean withLogin, @NotNull Transport transport,
+				   boolean ownsTransport) {
+		this.ownsTransport = ownsTransport;
+		requestTool = new RequestTool(this, transport);
 
 		this.authHelper = new AuthHelper(scope, clientId, clientSecret, redirectURL, this.requestTool);
 
@@ -381,7 +436,7 @@ public class Client {
 		// if not 202 Accepted raise ErrorResponseException
 		RequestTool.errorHandling(response, HTTP_ACCEPTED);
 
-		return new AsyncJobMonitor(response.getHeader().get("Location").get(0));
+		return new AsyncJobMonitor(response.getHeader().get("Location").get(0), requestTool.connectionPool());
 	}
 
 
@@ -419,6 +474,17 @@ public class Client {
 		return moveItem(src.toASCIIApi(), content);
 	}
 
+	/**
+	 * Move {@code src} into {@code dest} folder with {@code newName}. It renames {@code src} if {@code dest} is its
+	 * parent.
+	 */
+	@NotNull
+	public DriveItem moveItem(@NotNull BasePointer src, @NotNull BasePointer dest,
+							  @NotNull String newName) throws ErrorResponseException {
+		byte[] content = ("{\"parentReference\":" + dest.toJson() + ",\"name\":\"" + newName + "\"}").getBytes();
+		return moveItem(src.toASCIIApi(), content);
+	}
+
 	@NotNull
 	private DriveItem moveItem(@NotNull String api, @NotNull byte[] content) throws ErrorResponseException {
 		authHelper.checkExpired();
@@ -538,8 +604,50 @@ public class Client {
 		return _downloadAsync(pointer.resolveOperator(Operator.CONTENT), downloadFolder, newName);
 	}
 
+	/**
+	 * Download {@code file} and check its content against hash of {@code file} while it is being received. The
+	 * result is {@link DownloadFuture#integrity()}, and the future fails if content does not match.
+	 */
+	public void download(@NotNull FileItem file, @NotNull Path downloadFolder,
+						 @Nullable String newName) throws IOException {
+		downloadAsync(file, downloadFolder, newName).syncUninterruptibly();
+	}
+
+	/**
+	 * @see #download(FileItem, Path, String)
+	 */
+	public DownloadFuture downloadAsync(@NotNull FileItem file, @NotNull Path downloadFolder,
+										@Nullable String newName) throws IOException {
+		return _downloadAsync(file.getIdPointer().resolveOperator(Operator.CONTENT), downloadFolder, newName, file);
+	}
+
 	private DownloadFuture _downloadAsync(@NotNull String api, @NotNull Path downloadFolder,
 										  @Nullable String newName) throws IOException {
+		return _downloadAsync(api, downloadFolder, newName, null);
+	}
+
+	/**
+	 * Download every file under {@code folder} into {@code downloadFolder}, keeping structure of sub folders, with
+	 * default concurrency of {@link TreeDownload}. Use {@link TreeDownload} directly to tune it.
+	 *
+	 * @return started download, that reports its progress and failures
+	 */
+	public @NotNull TreeDownload downloadTree(@NotNull FolderItem folder, @NotNull Path downloadFolder) {
+		return new TreeDownload(this, folder, downloadFolder).start();
+	}
+
+	/**
+	 * @see #downloadTree(FolderItem, Path)
+	 */
+	public @NotNull TreeDownload downloadTree(@NotNull BasePointer folder, @NotNull Path downloadFolder) {
+		return new TreeDownload(this, folder, downloadFolder).start();
+	}
+
+	/**
+	 * @param file content is checked against its hash, if it is given.
+	 */
+	private DownloadFuture _downloadAsync(@NotNull String api, @NotNull Path downloadFolder,
+										  @Nullable String newName, @Nullable FileItem file) throws IOException {
 		downloadFolder = downloadFolder.toAbsolutePath().normalize();
 
 		// it's illegal if and only if `downloadFolder` exists but not directory.
@@ -548,7 +656,182 @@ public class Client {
 
 		Files.createDirectories(downloadFolder);
 
-		return new AsyncDownloadClient(getFullToken(), RequestTool.api2Uri(api), downloadFolder, newName).execute();
+		AsyncDownloadClient client = new AsyncDownloadClient(requestTool.connectionPool(), getFullToken(),
+				RequestTool.api2Uri(api), downloadFolder, newName)
+				.setOptions(requestTool.requestOptions())
+				.setSegments(requestTool.getDownloadSegments())
+				.setResumable(requestTool.isResumableDownloads());
+		if (file != null) {
+			client.setExpectedHashes(file.getQuickXorHash(), file.getSHA1(), file.getCRC32())
+					.setLocation(file.getDownloadUrl());
+		}
+
+		return client.execute();
+	}
+
+
+	/**
+	 * Download content of file into {@code target} while it is being received, without staging it on disk.
+	 *
+	 * @param target channel in blocking mode. It is not closed.
+	 *
+	 * @return how many bytes are written
+	 *
+	 * @throws IOException if connection is lost before whole content is received. {@code target} has only part of
+	 *                     content then.
+	 */
+	public long downloadTo(@NotNull BasePointer file, @NotNull WritableByteChannel target)
+			throws IOException, ErrorResponseException {
+		ResponseFuture future = _downloadStream(file.resolveOperator(Operator.CONTENT));
+		try (ByteBufStream stream = future.getNow()) {
+			return checkReceived(future, stream.transferTo(target));
+		}
+	}
+
+	public long downloadTo(@NotNull String fileId, @NotNull WritableByteChannel target)
+			throws IOException, ErrorResponseException {
+		ResponseFuture future = _downloadStream(Client.ITEM_ID_PREFIX + fileId + "/content");
+		try (ByteBufStream stream = future.getNow()) {
+			return checkReceived(future, stream.transferTo(target));
+		}
+	}
+
+	/**
+	 * Download content of file into {@code out} while it is being received, without staging it on disk.
+	 *
+	 * @param out it is not closed.
+	 *
+	 * @return how many bytes are written
+	 *
+	 * @throws IOException if connection is lost before whole content is received. {@code out} has only part of
+	 *                     content then.
+	 */
+	public long downloadTo(@NotNull BasePointer file, @NotNull OutputStream out)
+			throws IOException, ErrorResponseException {
+		ResponseFuture future = _downloadStream(file.resolveOperator(Operator.CONTENT));
+		try (ByteBufStream stream = future.getNow()) {
+			return checkReceived(future, stream.transferTo(out));
+		}
+	}
+
+	public long downloadTo(@NotNull String fileId, @NotNull OutputStream out)
+			throws IOException, ErrorResponseException {
+		ResponseFuture future = _downloadStream(Client.ITEM_ID_PREFIX + fileId + "/content");
+		try (ByteBufStream stream = future.getNow()) {
+			return checkReceived(future, stream.transferTo(out));
+		}
+	}
+
+	/**
+	 * @param transferred bytes that are taken from body of {@code future}
+	 *
+	 * @return {@code transferred}
+	 *
+	 * @throws IOException if body did not end with its last part, or it is shorter than <code>Content-Length</code>.
+	 */
+	private static long checkReceived(@NotNull ResponseFuture future, long transferred) throws IOException {
+		if (!future.getNow().isEnded()) {
+			throw new IOException("Content ended after " + transferred + " bytes, before it is fully received");
+		}
+
+		long expected = HttpUtil.getContentLength(future.response(), -1L);
+		if (expected >= 0 && expected != transferred) {
+			throw new IOException("Received " + transferred + " bytes, but Content-Length is " + expected);
+		}
+		return transferred;
+	}
+
+	/**
+	 * Hand content of file to {@code sink} part by part as it arrives. {@link DownloadFuture} completes with
+	 * {@code null} after the sink takes all of it.
+	 */
+	public DownloadFuture downloadAsync(@NotNull BasePointer file, @NotNull DownloadSink sink) {
+		return _downloadAsync(file.resolveOperator(Operator.CONTENT), sink, null);
+	}
+
+	public DownloadFuture downloadAsync(@NotNull String fileId, @NotNull DownloadSink sink) {
+		return _downloadAsync(Client.ITEM_ID_PREFIX + fileId + "/content", sink, null);
+	}
+
+	/**
+	 * Same as {@link #downloadAsync(BasePointer, DownloadSink)}, but content is checked against hash of {@code file}
+	 * before {@link DownloadSink#onComplete()}.
+	 */
+	public DownloadFuture downloadAsync(@NotNull FileItem file, @NotNull DownloadSink sink) {
+		return _downloadAsync(file.getIdPointer().resolveOperator(Operator.CONTENT), sink, file);
+	}
+
+	private DownloadFuture _downloadAsync(@NotNull String api, @NotNull DownloadSink sink, @Nullable FileItem file) {
+		AsyncDownloadClient client =
+				new AsyncDownloadClient(requestTool.connectionPool(), getFullToken(), RequestTool.api2Uri(api), sink)
+						.setOptions(requestTool.requestOptions());
+		if (file != null) {
+			client.setExpectedHashes(file.getQuickXorHash(), file.getSHA1(), file.getCRC32())
+					.setLocation(file.getDownloadUrl());
+		}
+
+		return client.execute();
+	}
+
+	/**
+	 * Open content of {@code file} as read-only channel that fetches only parts that are read, by range requests.
+	 * It suits reading headers or indexes of large files. Download URL of {@code file} is used while it is valid.
+	 * The channel must be closed.
+	 *
+	 * @see RemoteByteChannel
+	 */
+	public @NotNull RemoteByteChannel openChannel(@NotNull FileItem file) {
+		return openChannel(file, RemoteByteChannel.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param blockSize how many bytes are fetched and cached together
+	 *
+	 * @see #openChannel(FileItem)
+	 */
+	public @NotNull RemoteByteChannel openChannel(@NotNull FileItem file, int blockSize) {
+		Long size = file.getSize();
+		if (size == null) throw new IllegalArgumentException("Size of " + file.getName() + " is unknown");
+
+		return new AsyncDownloadClient(requestTool.connectionPool(), getFullToken(),
+				RequestTool.api2Uri(file.getIdPointer().resolveOperator(Operator.CONTENT)))
+				.setOptions(requestTool.requestOptions())
+				.setLocation(file.getDownloadUrl())
+				.openChannel(size, blockSize);
+	}
+
+	/**
+	 * Same as {@link #openChannel(FileItem, int)}, for file that is not fetched. Location of content is asked when
+	 * the first block is read.
+	 *
+	 * @param size size of content of {@code file}
+	 */
+	public @NotNull RemoteByteChannel openChannel(@NotNull BasePointer file, long size, int blockSize) {
+		return new AsyncDownloadClient(requestTool.connectionPool(), getFullToken(),
+				RequestTool.api2Uri(file.resolveOperator(Operator.CONTENT)))
+				.setOptions(requestTool.requestOptions())
+				.openChannel(size, blockSize);
+	}
+
+	/**
+	 * @return response whose body is being received. Caller must close the body.
+	 */
+	private @NotNull ResponseFuture _downloadStream(@NotNull String api) throws ErrorResponseException {
+		ResponseFuture future = new AsyncDownloadClient(requestTool.connectionPool(), getFullToken(),
+				RequestTool.api2Uri(api))
+				.setOptions(requestTool.requestOptions())
+				.executeStreaming()
+				.syncUninterruptibly();
+
+		ByteBufStream stream = future.getNow();
+		try {
+			RequestTool.errorHandling(future.response(), stream, HTTP_OK);
+		}
+		catch (ErrorResponseException | RuntimeException e) {
+			stream.close();
+			throw e;
+		}
+		return future;
 	}
 
 
@@ -684,14 +967,28 @@ public class Client {
 
 
 	public void deleteItem(@NotNull String id) throws ErrorResponseException {
-		SyncResponse response = requestTool.newRequest(Client.ITEM_ID_PREFIX + id).doDelete();
-
-		// if response isn't 204 No Content
-		RequestTool.errorHandling(response, HTTP_NO_CONTENT);
+		deleteItemByApi(Client.ITEM_ID_PREFIX + id);
 	}
 
 	public void deleteItem(@NotNull BasePointer pointer) throws ErrorResponseException {
-		SyncResponse response = requestTool.newRequest(pointer.toASCIIApi()).doDelete();
+		deleteItemByApi(pointer.toASCIIApi());
+	}
+
+	private void deleteItemByApi(@NotNull String api) throws ErrorResponseException {
+		if (requestTool.isBatchingEnabled()) {
+			ResponseFuture future = requestTool.doBatchable(DELETE, api, null).syncUninterruptibly();
+
+			try {
+				// if response isn't 204 No Content
+				RequestTool.errorHandling(future.response(), future.getNow(), HTTP_NO_CONTENT);
+			}
+			finally {
+				future.getNow().close();
+			}
+			return;
+		}
+
+		SyncResponse response = requestTool.newRequest(api).doDelete();
 
 		// if response isn't 204 No Content
 		RequestTool.errorHandling(response, HTTP_NO_CONTENT);
@@ -737,6 +1034,160 @@ public class Client {
 
 
 
+	/*
+	 *************************************************************
+	 *
+	 * Transport
+	 *
+	 *************************************************************
+	 */
+
+
+	/**
+	 * Multiplex non-upload requests over one HTTP/2 connection per host if server supports it. Uploads always use
+	 * HTTP/1.1, and hosts that refuse HTTP/2 on ALPN fall back to it too.<br>
+	 * It affects every client that shares {@link #transport()} with this client.
+	 *
+	 * @param enabled {@code true} to try HTTP/2 first
+	 *
+	 * @return this client
+	 */
+	public @NotNull Client setHttp2Enabled(boolean enabled) {
+		requestTool.connectionPool().setHttp2Enabled(enabled);
+		return this;
+	}
+
+	public boolean isHttp2Enabled() {
+		return requestTool.connectionPool().isHttp2Enabled();
+	}
+
+	/**
+	 * Coalesce {@link #getItemAsync(String)}, {@link #deleteItem(String)} and {@link #moveItem(String, String)}
+	 * families that are called concurrently into Graph JSON batch requests. Window and batch size can be tuned
+	 * through {@link RequestTool#batcher()}.
+	 *
+	 * @param enabled {@code true} to batch concurrent metadata requests
+	 *
+	 * @return this client
+	 */
+	public @NotNull Client setBatchingEnabled(boolean enabled) {
+		requestTool.setBatchingEnabled(enabled);
+		return this;
+	}
+
+	public boolean isBatchingEnabled() {
+		return requestTool.isBatchingEnabled();
+	}
+
+	/**
+	 * Limit requests of this client per {@link EndpointClass}.
+	 * Share one limiter between every client of the same account, so that they hold below the limit of service
+	 * together. Requests that exceed the rate are delayed, not rejected.
+	 *
+	 * @param rateLimiter limiter to use. {@code null} to send requests without limit.
+	 *
+	 * @return this client
+	 */
+	public @NotNull Client setRateLimiter(@Nullable RateLimiter rateLimiter) {
+		requestTool.setRateLimiter(rateLimiter);
+		return this;
+	}
+
+	public @Nullable RateLimiter getRateLimiter() {
+		return requestTool.getRateLimiter();
+	}
+
+	/**
+	 * Limit how long each request of this client may take. Requests that exceed their deadline fail, and their
+	 * connections are closed.
+	 *
+	 * @param deadlines deadlines to use. {@link Deadlines#none()} to wait forever.
+	 *
+	 * @return this client
+	 */
+	public @NotNull Client setDeadlines(@NotNull Deadlines deadlines) {
+		requestTool.setDeadlines(deadlines);
+		return this;
+	}
+
+	public @NotNull Deadlines getDeadlines() {
+		return requestTool.getDeadlines();
+	}
+
+	/**
+	 * Hedge metadata reads of this client: if a read is slower than most of recent ones, its copy is sent and
+	 * whichever responds first is taken. Hedges are limited to small share of requests by budget of
+	 * {@code hedgePolicy}.
+	 *
+	 * @param hedgePolicy policy to use. {@code null} to disable hedging.
+	 *
+	 * @return this client
+	 */
+	public @NotNull Client setHedgePolicy(@Nullable HedgePolicy hedgePolicy) {
+		requestTool.setHedgePolicy(hedgePolicy);
+		return this;
+	}
+
+	public @Nullable HedgePolicy getHedgePolicy() {
+		return requestTool.getHedgePolicy();
+	}
+
+	/**
+	 * Download files of this client by up to {@code downloadSegments} range requests in parallel. Each range is at
+	 * least a few megabytes, so small files are still downloaded in one response.
+	 *
+	 * @param downloadSegments how many ranges are downloaded in parallel at most. {@code 1} to download in one
+	 *                         response.
+	 *
+	 * @return this client
+	 */
+	public @NotNull Client setDownloadSegments(int downloadSegments) {
+		requestTool.setDownloadSegments(downloadSegments);
+		return this;
+	}
+
+	public int getDownloadSegments() {
+		return requestTool.getDownloadSegments();
+	}
+
+	/**
+	 * Make downloads of this client resumable: if a download fails, downloading the same file to the same place
+	 * again continues from bytes that are written, as long as remote content is not changed.
+	 *
+	 * @param resumableDownloads {@code true} to make downloads resumable
+	 *
+	 * @return this client
+	 */
+	public @NotNull Client setResumableDownloads(boolean resumableDownloads) {
+		requestTool.setResumableDownloads(resumableDownloads);
+		return this;
+	}
+
+	public boolean isResumableDownloads() {
+		return requestTool.isResumableDownloads();
+	}
+
+	public @NotNull Transport transport() {
+		return requestTool.transport();
+	}
+
+	/**
+	 * Send requests that wait in batch window, and close {@link Transport} if this client owns it.
+	 * Shared transport is left open.
+	 *
+	 * @return future that completes when owned transport is terminated
+	 */
+	public @NotNull Future<?> close() {
+		requestTool.batcher().flush();
+
+		if (ownsTransport) return requestTool.transport().close();
+		return ImmediateEventExecutor.INSTANCE.newSucceededFuture(null);
+	}
+
+
+
+
+
 	/*
 	 *************************************************************
 	 *
@@ -16,28 +16,25 @@ import com.bhyoo.onedrive.network.sync.SyncResponse;
 import com.bhyoo.onedrive.utils.ByteBufStream;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
-import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import javax.net.ssl.HttpsURLConnection;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import static io.netty.handler.codec.http.HttpHeaderNames.*;
 import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_JSON;
@@ -51,7 +48,6 @@ import static java.net.HttpURLConnection.HTTP_OK;
 /**
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
-@SuppressWarnings("unchecked")
 public class RequestTool {
 	public static final String SCHEME = "https";
 	public static final String REAL_HOST = "graph.microsoft.com";
@@ -60,52 +56,144 @@ public class RequestTool {
 	 * OneDrive API base URL.
 	 */
 	public static final String BASE_URL = SCHEME + "://" + HOST;
-	public static final JsonFactory jsonFactory;
-	private static final EventLoopGroup group;
-	private static final Class<? extends SocketChannel> socketChannelClass;
+	public static final JsonFactory jsonFactory = new JsonFactory();
 
-	static {
-		EventLoopGroup tmpGroup;
-		Class<? extends SocketChannel> tmpClass;
-		ClassLoader classLoader = ClassLoader.getSystemClassLoader();
+	@Getter private final Client client;
+	private final @NotNull Transport transport;
+	private final @NotNull ConnectionPool connectionPool;
+	private final @NotNull RequestBatcher batcher;
+	@Getter private volatile boolean batchingEnabled;
+	/**
+	 * Limiter that every request of this {@code RequestTool} waits for. {@code null} if not limited.
+	 */
+	@Getter private volatile @Nullable RateLimiter rateLimiter;
+	/**
+	 * Deadlines of every request of this {@code RequestTool}.
+	 */
+	@Getter private volatile @NotNull Deadlines deadlines = new Deadlines();
+	/**
+	 * Policy that idempotent metadata reads of this {@code RequestTool} are hedged by. {@code null} if not hedged.
+	 */
+	@Getter private volatile @Nullable HedgePolicy hedgePolicy;
+	/**
+	 * How many ranges of a file are downloaded in parallel at most. {@code 1} if downloaded in one response.
+	 */
+	@Getter private volatile int downloadSegments = 1;
+	/**
+	 * {@code true} if downloads of this {@code RequestTool} can continue from where they failed.
+	 */
+	@Getter private volatile boolean resumableDownloads;
 
-		try {
-			Class<?> loadClass = classLoader.loadClass("io.netty.channel.epoll.EpollEventLoopGroup");
-			tmpGroup = (EventLoopGroup) loadClass.getConstructor(int.class).newInstance(4);
-			tmpClass = (Class<? extends SocketChannel>)
-					classLoader.loadClass("io.netty.channel.epoll.EpollSocketChannel");
-		}
-		catch (Exception e) {
-			try {
-				Class<?> loadClass = classLoader.loadClass("io.netty.channel.kqueue.KQueueEventLoopGroup");
-				tmpGroup = (EventLoopGroup) loadClass.getConstructor(int.class).newInstance(4);
-				tmpClass = (Class<? extends SocketChannel>)
-						classLoader.loadClass("io.netty.channel.kqueue.KQueueSocketChannel");
-			}
-			catch (Exception e1) {
-				tmpGroup = new NioEventLoopGroup(4);
-				tmpClass = NioSocketChannel.class;
-			}
-		}
 
-		group = tmpGroup;
-		socketChannelClass = tmpClass;
+	public RequestTool(final @NotNull Client client) {
+		this(client, Transport.defaultTransport());
+	}
 
+	public RequestTool(final @NotNull Client client, final @NotNull Transport transport) {
+		this.client = client;
+		this.transport = transport;
+		this.connectionPool = transport.getConnectionPool();
+		this.batcher = new RequestBatcher(this, connectionPool);
+	}
 
-		jsonFactory = new JsonFactory();
+
+	/**
+	 * @return transport that every asynchronous request of this {@code RequestTool} goes through.
+	 */
+	public @NotNull Transport transport() {return transport;}
+
+	/**
+	 * @return keep-alive connection pool that every asynchronous request of this {@code RequestTool} goes through.
+	 */
+	public @NotNull ConnectionPool connectionPool() {return connectionPool;}
+
+	/**
+	 * @return batcher that coalesces requests of this {@code RequestTool} if batching is enabled.
+	 */
+	public @NotNull RequestBatcher batcher() {return batcher;}
+
+	/**
+	 * If enabled, metadata requests that can be batched ({@link #doBatchable(HttpMethod, String, byte[])},
+	 * {@link #getItemAsync(String)} and {@link #patchMetadataAsync(String, byte[])}) go through {@link #batcher()}.
+	 *
+	 * @param batchingEnabled {@code true} to coalesce concurrent requests into JSON batch
+	 */
+	public void setBatchingEnabled(boolean batchingEnabled) {
+		this.batchingEnabled = batchingEnabled;
+		if (!batchingEnabled) batcher.flush();
 	}
 
-	@Getter private final Client client;
+	/**
+	 * Limit requests of this {@code RequestTool} with {@code rateLimiter}. To hold below the limit of service, share
+	 * one limiter between every {@link Client} of the same account.
+	 *
+	 * @param rateLimiter limiter to use. {@code null} to send requests without limit.
+	 */
+	public void setRateLimiter(@Nullable RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	public void setDeadlines(@NotNull Deadlines deadlines) {
+		this.deadlines = deadlines;
+	}
 
+	/**
+	 * Send a copy of slow {@link #getItemAsync(String)} and {@link #doAsync(HttpMethod, URI, RequestPriority) GET}
+	 * as {@code hedgePolicy} says, and take whichever responds first. Requests that are batched or streamed are not
+	 * hedged.
+	 *
+	 * @param hedgePolicy policy to use. {@code null} to disable hedging.
+	 */
+	public void setHedgePolicy(@Nullable HedgePolicy hedgePolicy) {
+		this.hedgePolicy = hedgePolicy;
+	}
 
-	public RequestTool(final @NotNull Client client) {
-		this.client = client;
+	/**
+	 * Download large files by {@code downloadSegments} range requests in parallel, over pooled connections.
+	 *
+	 * @param downloadSegments how many ranges are downloaded in parallel at most. {@code 1} to download in one
+	 *                         response.
+	 */
+	public void setDownloadSegments(int downloadSegments) {
+		if (downloadSegments < 1) {
+			throw new IllegalArgumentException("downloadSegments must be positive : " + downloadSegments);
+		}
+		this.downloadSegments = downloadSegments;
+	}
+
+	/**
+	 * Record progress of downloads in a checkpoint file next to each file, so failed download of the same content
+	 * continues from written bytes instead of from the beginning.
+	 *
+	 * @param resumableDownloads {@code true} to make downloads resumable
+	 */
+	public void setResumableDownloads(boolean resumableDownloads) {
+		this.resumableDownloads = resumableDownloads;
 	}
 
+	/**
+	 * @return new options that every request of this {@code RequestTool} is sent with. Requests are owned by
+	 * {@link #getClient() client}, so requests of other clients take turns with them when they wait.
+	 */
+	public @NotNull RequestOptions requestOptions() {
+		return new RequestOptions().setRateLimiter(rateLimiter).setOwner(client).setDeadlines(deadlines);
+	}
 
-	public static EventLoopGroup group() {return group;}
+	/**
+	 * @deprecated each {@link Client} has its own {@link Transport}. Use {@link Client#transport()} instead.
+	 * @return event loop group of {@link Transport#defaultTransport()}
+	 */
+	@Deprecated
+	public static EventLoopGroup group() {return Transport.defaultTransport().getGroup();}
 
-	public static Class<? extends SocketChannel> socketChannelClass() {return socketChannelClass;}
+	/**
+	 * @deprecated each {@link Client} has its own {@link Transport}. Use {@link Client#transport()} instead.
+	 * @return socket channel class of {@link Transport#defaultTransport()}
+	 */
+	@Deprecated
+	public static Class<? extends SocketChannel> socketChannelClass() {
+		return Transport.defaultTransport().getSocketChannelClass();
+	}
 
 	public static URI api2Uri(@NotNull String api) {
 		try {
@@ -131,7 +219,7 @@ public class RequestTool {
 	private static @NotNull AbstractDriveItem parseDriveItem(@NotNull SyncResponse response, int expectedCode,
 															 @NotNull Client client) throws ErrorResponseException {
 		try {
-			JsonParser parser = jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(jsonFactory);
 			parser.nextToken();
 
 			if (response.getCode() == expectedCode) {
@@ -146,6 +234,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 
 	private static @NotNull AbstractDriveItem parseDriveItem(@NotNull HttpResponse response,
@@ -169,21 +260,27 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			byteBufStream.close();
+		}
 	}
 
 	public static void errorHandling(@NotNull SyncResponse response, int expectedCode) throws ErrorResponseException {
-		if (response.getCode() != expectedCode) {
-			try {
-				JsonParser parser = jsonFactory.createParser(response.getContent());
+		try {
+			if (response.getCode() != expectedCode) {
+				JsonParser parser = response.createParser(jsonFactory);
 				parser.nextToken();
 				ErrorResponse error = ErrorResponse.deserialize(parser, true);
 				throw new ErrorResponseException(expectedCode, response.getCode(),
 						error.getCode(), error.getMessage());
 			}
-			catch (IOException e) {
-				// FIXME: custom exception
-				throw new RuntimeException("DEV: Unrecognizable json response.", e);
-			}
+		}
+		catch (IOException e) {
+			// FIXME: custom exception
+			throw new RuntimeException("DEV: Unrecognizable json response.", e);
+		}
+		finally {
+			response.release();
 		}
 	}
 
@@ -201,6 +298,9 @@ public class RequestTool {
 				// FIXME: custom exception
 				throw new RuntimeException("DEV: Unrecognizable json response.", e);
 			}
+			finally {
+				byteBufStream.close();
+			}
 		}
 	}
 
@@ -228,7 +328,8 @@ public class RequestTool {
 	@NotNull
 	public SyncRequest newRequest(@NotNull String api) {
 		try {
-			return new SyncRequest(new URL(BASE_URL + api))
+			return new SyncRequest(new URL(BASE_URL + api), connectionPool)
+					.setOptions(requestOptions())
 					.setHeader(AUTHORIZATION, client.getFullToken())
 					.setHeader(ACCEPT_ENCODING, GZIP)
 					.setHeader(ACCEPT, APPLICATION_JSON);
@@ -258,7 +359,8 @@ public class RequestTool {
 	 */
 	@NotNull
 	public SyncRequest newRequest(@NotNull URL url) {
-		return new SyncRequest(url)
+		return new SyncRequest(url, connectionPool)
+				.setOptions(requestOptions())
 				.setHeader(AUTHORIZATION, client.getFullToken())
 				.setHeader(ACCEPT_ENCODING, GZIP)
 				.setHeader(ACCEPT, APPLICATION_JSON);
@@ -279,35 +381,155 @@ public class RequestTool {
 	}
 
 	public ResponseFuture doAsync(@NotNull HttpMethod method, @NotNull URI uri) {
-		return new AsyncClient(group, method, uri)
+		return doAsync(method, uri, null);
+	}
+
+	/**
+	 * @param priority priority of request among waiting requests. {@code null} to decide by kind of request.
+	 */
+	public ResponseFuture doAsync(final @NotNull HttpMethod method, final @NotNull URI uri,
+								  final @Nullable RequestPriority priority) {
+		HedgePolicy policy = hedgePolicy;
+		if (policy == null || !GET.equals(method)) return sendAsync(method, uri, priority);
+
+		final ResponsePromise promise = new DefaultResponsePromise(connectionPool.getGroup().next());
+		new HedgedCall<ByteBufStream>(policy, connectionPool.getGroup().next(), promise) {
+			@Override protected @NotNull Future<ByteBufStream> send() {
+				return sendAsync(method, uri, priority);
+			}
+
+			@Override protected void onWin(@NotNull Future<ByteBufStream> winner) {
+				ResponseFuture response = (ResponseFuture) winner;
+				promise.setResponse(response.response()).setChannel(response.channel());
+			}
+
+			@Override protected void discard(ByteBufStream value) {
+				if (!value.isClosed()) value.close();
+			}
+		}.start();
+
+		return promise;
+	}
+
+	private ResponseFuture sendAsync(@NotNull HttpMethod method, @NotNull URI uri, @Nullable RequestPriority priority) {
+		return new AsyncClient(connectionPool, method, uri)
+				.setOptions(requestOptions().setPriority(priority))
 				.setHeader(AUTHORIZATION, client.getFullToken())
 				.execute();
 	}
 
-	public DriveItemFuture getItemAsync(@NotNull String asciiApi) {
-		final DefaultFullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, GET, BASE_URL + asciiApi);
-		request.headers()
-				.set(HttpHeaderNames.HOST, REAL_HOST)
-				.set(ACCEPT_ENCODING, GZIP)
-				.set(AUTHORIZATION, client.getFullToken());
+	public ResponseFuture doAsyncStreaming(@NotNull HttpMethod method, @NotNull String api) {
+		return doAsyncStreaming(method, api2Uri(api), null);
+	}
+
+	/**
+	 * Same as {@link #doAsync(HttpMethod, URI, RequestPriority)}, but future completes as soon as header of response
+	 * arrives, so big body (like listing of children) is parsed while it is being received, without holding all of it
+	 * in memory. The body must be read on other thread than event loop.
+	 */
+	public ResponseFuture doAsyncStreaming(@NotNull HttpMethod method, @NotNull URI uri,
+										   @Nullable RequestPriority priority) {
+		return new AsyncClient(connectionPool, method, uri)
+				.setStreaming(true)
+				.setOptions(requestOptions().setPriority(priority))
+				.setHeader(AUTHORIZATION, client.getFullToken())
+				.execute();
+	}
 
-		DefaultDriveItemPromise promise = new DefaultDriveItemPromise(group.next());
+	/**
+	 * Send request that can be coalesced into JSON batch if batching is enabled.
+	 *
+	 * @param method  HTTP method of request
+	 * @param api     API to request. It must starts with <code>/</code>, and must be encoded.
+	 * @param content JSON body of request. {@code null} if request has no body.
+	 *
+	 * @return future of response
+	 */
+	public ResponseFuture doBatchable(@NotNull HttpMethod method, @NotNull String api, @Nullable byte[] content) {
+		if (batchingEnabled) return batcher.enqueue(method, api, content);
+
+		AsyncClient asyncClient = new AsyncClient(connectionPool, method, api2Uri(api), content)
+				.setOptions(requestOptions())
+				.setHeader(AUTHORIZATION, client.getFullToken());
+		if (content != null) {
+			asyncClient.setHeader(CONTENT_TYPE, APPLICATION_JSON);
+			asyncClient.setHeader(CONTENT_LENGTH, String.valueOf(content.length));
+		}
 
+		return asyncClient.execute();
+	}
 
-		// Configure the client.
-		Bootstrap bootstrap = new Bootstrap()
-				.group(group)
-				.channel(socketChannelClass())
-				.handler(new AsyncDefaultInitializer(new DriveItemHandler(promise, this)));
+	public DriveItemFuture getItemAsync(final @NotNull String asciiApi) {
+		if (batchingEnabled) {
+			final DefaultDriveItemPromise promise = new DefaultDriveItemPromise(connectionPool.getGroup().next());
 
+			final ResponseFuture batched = batcher.enqueue(GET, asciiApi, null);
+			batched.addListener(new ResponseFutureListener() {
+				@Override public void operationComplete(final ResponseFuture future) {
+					if (!future.isSuccess()) {
+						promise.tryFailure(future.cause());
+						return;
+					}
+					if (promise.isDone()) {
+						// cancelled by its caller (e.g. timeout of getItem()), so nobody reads it
+						future.getNow().close();
+						return;
+					}
 
-		bootstrap.connect(REAL_HOST, 443).addListener(new ChannelFutureListener() {
-			@Override public void operationComplete(ChannelFuture future) {
-				if (future.isSuccess()) {
-					future.channel().writeAndFlush(request);
+					try {
+						transport.getParseExecutor().execute(new Runnable() {
+							@Override public void run() {
+								try {
+									DriveItem item =
+											parseDriveItemAndHandle(future.response(), future.getNow(), HTTP_OK);
+									promise.trySuccess(item);
+								}
+								catch (Exception e) {
+									promise.tryFailure(e);
+								}
+							}
+						});
+					}
+					catch (RejectedExecutionException e) {
+						// transport is closed, so the response is never parsed
+						future.getNow().close();
+						promise.tryFailure(e);
+					}
+				}
+			});
+			// cancelled request is dropped from batch if it is not sent yet
+			promise.addListener(new FutureListener<DriveItem>() {
+				@Override public void operationComplete(Future<DriveItem> future) {
+					if (future.isCancelled()) batched.cancel(false);
 				}
+			});
+
+			return promise;
+		}
+
+		HedgePolicy policy = hedgePolicy;
+		if (policy == null) return sendItemRequest(asciiApi);
+
+		DefaultDriveItemPromise promise = new DefaultDriveItemPromise(connectionPool.getGroup().next());
+		new HedgedCall<DriveItem>(policy, connectionPool.getGroup().next(), promise) {
+			@Override protected @NotNull Future<DriveItem> send() {
+				return sendItemRequest(asciiApi);
 			}
-		});
+		}.start();
+
+		return promise;
+	}
+
+	private @NotNull DefaultDriveItemPromise sendItemRequest(@NotNull String asciiApi) {
+		final DefaultFullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, GET, BASE_URL + asciiApi);
+		request.headers()
+				.set(HttpHeaderNames.HOST, REAL_HOST)
+				.set(ACCEPT_ENCODING, GZIP)
+				.set(AUTHORIZATION, client.getFullToken());
+
+		DefaultDriveItemPromise promise = new DefaultDriveItemPromise(connectionPool.getGroup().next());
+
+		connectionPool.send(api2Uri(asciiApi), request, new DriveItemHandler(promise, this), promise, requestOptions());
 
 		return promise;
 	}
@@ -323,50 +545,23 @@ public class RequestTool {
 	 *********************************************/
 
 	public DriveItem getItem(@NotNull String asciiApi) throws ErrorResponseException {
-		HttpsURLConnection httpsConnection;
-
-		try {
-			httpsConnection = (HttpsURLConnection) new URL(BASE_URL + asciiApi).openConnection();
-		}
-		catch (IOException e) {
-			// FIXME: custom exception
-			throw new RuntimeException(e);
-		}
-
-		httpsConnection.setRequestProperty(AUTHORIZATION.toString(), client.getFullToken());
-		httpsConnection.setRequestProperty(ACCEPT.toString(), APPLICATION_JSON.toString());
-		httpsConnection.setRequestProperty(ACCEPT_ENCODING.toString(), GZIP.toString());
-
-		try {
-			int code = httpsConnection.getResponseCode();
-			InputStream body;
-
-			if (code == HTTP_OK) {
-				if ("gzip".equals(httpsConnection.getContentEncoding()))
-					body = new GZIPInputStream(httpsConnection.getInputStream());
-				else
-					body = httpsConnection.getInputStream();
+		DriveItemFuture future = getItemAsync(asciiApi);
 
-				JsonParser parser = jsonFactory.createParser(body);
-				parser.nextToken();
-				return AbstractDriveItem.deserialize(client, parser, true);
-			}
-			else {
-				body = httpsConnection.getErrorStream();
-				JsonParser parser = jsonFactory.createParser(body);
-				parser.nextToken();
-
-				ErrorResponse error = ErrorResponse.deserialize(parser, true);
-				throw new ErrorResponseException(HTTP_OK, code, error.getCode(), error.getMessage());
-			}
-		}
-		catch (IOException e) {
+		if (!future.awaitUninterruptibly(SyncRequest.DEFAULT_TIMEOUT_MILLIS)) {
+			future.cancel(false);
 			// FIXME: custom exception
-			throw new RuntimeException("DEV: Unrecognizable json response.", e);
+			throw new RuntimeException(SyncRequest.NETWORK_ERR_MSG, new TimeoutException(
+					"GET " + asciiApi + " is not responded in " + SyncRequest.DEFAULT_TIMEOUT_MILLIS + "ms"));
 		}
-		finally {
-			httpsConnection.disconnect();
+		else if (future.isSuccess()) {
+			return future.getNow();
 		}
+
+		Throwable cause = future.cause();
+		if (cause instanceof ErrorResponseException) throw (ErrorResponseException) cause;
+		else if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		// FIXME: custom exception
+		throw new RuntimeException(SyncRequest.NETWORK_ERR_MSG, cause);
 	}
 
 
@@ -378,7 +573,13 @@ public class RequestTool {
 	}
 
 	public ResponseFuture patchMetadataAsync(@NotNull String api, byte[] content) {
-		AsyncClient asyncClient = new AsyncClient(group, PATCH, api2Uri(api), content);
+		if (batchingEnabled) {
+			HttpHeaders headers = new DefaultHttpHeaders().set("Prefer", "respond-async");
+			return batcher.enqueue(PATCH, api, content, headers);
+		}
+
+		AsyncClient asyncClient = new AsyncClient(connectionPool, PATCH, api2Uri(api), content)
+				.setOptions(requestOptions());
 
 		asyncClient.setHeader(AUTHORIZATION, client.getFullToken());
 		asyncClient.setHeader(CONTENT_TYPE, APPLICATION_JSON);
@@ -390,14 +591,7 @@ public class RequestTool {
 
 	public ResponseFuture patchMetadataAsync(@NotNull String api, byte[] content,
 											 @NotNull ResponseFutureListener handler) {
-		AsyncClient asyncClient = new AsyncClient(group, PATCH, api2Uri(api), content);
-
-		asyncClient.setHeader(AUTHORIZATION, client.getFullToken());
-		asyncClient.setHeader(CONTENT_TYPE, APPLICATION_JSON);
-		asyncClient.setHeader(CONTENT_LENGTH, String.valueOf(content.length));
-		asyncClient.setHeader("Prefer", "respond-async");
-
-		return asyncClient.execute().addListener(handler);
+		return patchMetadataAsync(api, content).addListener(handler);
 	}
 
 
@@ -420,30 +614,11 @@ public class RequestTool {
 				.set(CONTENT_LENGTH, "0")
 				.set(AUTHORIZATION, client.getFullToken());
 
-		String host = uri.getHost();
-		int port = 443;
-
-		ResponsePromise responsePromise = new DefaultResponsePromise(group.next());
+		ResponsePromise responsePromise = new DefaultResponsePromise(connectionPool.getGroup().next());
 
-		// Configure the client.
-		Bootstrap bootstrap = new Bootstrap()
-				.group(group)
-				.channel(socketChannelClass)
-				.handler(new AsyncDefaultInitializer(new AsyncClientHandler(responsePromise)));
+		connectionPool.send(uri, request, new AsyncClientHandler(responsePromise), responsePromise, requestOptions());
 
-
-		bootstrap.connect(host, port).addListener(new ChannelFutureListener() {
-			@Override public void operationComplete(ChannelFuture future) {
-				if (future.isSuccess()) {
-					future.channel().writeAndFlush(request);
-				}
-				else {
-					future.channel().close();
-				}
-			}
-		});
-
-		final DefaultUploadPromise uploadPromise = new DefaultUploadPromise(group.next(), filePath);
+		final DefaultUploadPromise uploadPromise = new DefaultUploadPromise(connectionPool.getGroup().next(), filePath);
 
 		responsePromise.addListener(new ResponseFutureListener() {
 			@Override public void operationComplete(ResponseFuture future) throws Exception {
@@ -452,8 +627,9 @@ public class RequestTool {
 						UploadSession session = parseUploadSessionAndHandle(future.response(), future.get(), HTTP_OK);
 						uploadPromise.setUploadURI(new URI(session.getUploadUrl()));
 
-						AsyncUploadClient uploadClient = new AsyncUploadClient(group, uploadPromise);
-						uploadClient.execute();
+						new AsyncUploadClient(connectionPool, uploadPromise)
+								.setOptions(requestOptions())
+								.execute();
 					}
 					catch (ErrorResponseException err) {
 						uploadPromise.setFailure(err);
@@ -498,39 +674,25 @@ public class RequestTool {
 	public DefaultDriveItemPromise simpleUploadAsync(@NotNull String api, @NotNull final Path filePath) {
 		final URI uri = api2Uri(api);
 
-		String host = uri.getHost();
-		int port = 443;
+		DefaultDriveItemPromise promise = new DefaultDriveItemPromise(connectionPool.getGroup().next());
 
-		DefaultDriveItemPromise promise = new DefaultDriveItemPromise(group.next());
+		DefaultHttpRequest request;
+		try {
+			byte[] content = Files.readAllBytes(filePath);
 
-		// Configure the client.
-		Bootstrap bootstrap = new Bootstrap()
-				.group(group)
-				.channel(socketChannelClass)
-				.handler(new AsyncDefaultInitializer(new DriveItemHandler(promise, this, HTTP_CREATED)));
+			request = new DefaultFullHttpRequest(HTTP_1_1, PUT, uri.toASCIIString(), Unpooled.wrappedBuffer(content));
+			request.headers()
+					.set(HttpHeaderNames.HOST, uri.getHost())
+					.set(ACCEPT_ENCODING, GZIP)
+					.set(CONTENT_LENGTH, content.length)
+					.set(AUTHORIZATION, client.getFullToken());
+		}
+		catch (IOException e) {
+			promise.setFailure(e);
+			return promise;
+		}
 
-		bootstrap.connect(host, port).addListener(new ChannelFutureListener() {
-			@Override public void operationComplete(ChannelFuture future) throws IOException {
-				if (future.isSuccess()) {
-					DefaultHttpRequest request = new DefaultFullHttpRequest(
-							HTTP_1_1,
-							PUT,
-							uri.toASCIIString(),
-							Unpooled.wrappedBuffer(Files.readAllBytes(filePath)));
-
-					request.headers()
-							.set(HttpHeaderNames.HOST, uri.getHost())
-							.set(ACCEPT_ENCODING, GZIP)
-							.set(CONTENT_LENGTH, Files.size(filePath))
-							.set(AUTHORIZATION, client.getFullToken());
-
-					future.channel().writeAndFlush(request);
-				}
-				else {
-					future.channel().close();
-				}
-			}
-		});
+		connectionPool.send(uri, request, new DriveItemHandler(promise, this, HTTP_CREATED), promise, requestOptions());
 
 		return promise;
 	}
@@ -557,7 +719,7 @@ public class RequestTool {
 	public @NotNull DriveItemPage parseDriveItemPageAndHandle(@NotNull SyncResponse response, int expectedCode)
 			throws ErrorResponseException {
 		try {
-			JsonParser parser = jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(jsonFactory);
 			parser.nextToken();
 
 			if (response.getCode() == expectedCode) {
@@ -572,12 +734,15 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 
 	public @NotNull DriveItemPager parseDriveItemPagerAndHandle(@NotNull SyncResponse response, int expectedCode)
 			throws ErrorResponseException {
 		try {
-			JsonParser parser = jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(jsonFactory);
 			parser.nextToken();
 
 			if (response.getCode() == expectedCode) {
@@ -592,6 +757,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 
 	/*
@@ -601,7 +769,7 @@ public class RequestTool {
 	public @NotNull Drive parseDriveAndHandle(@NotNull SyncResponse response, int expectedCode)
 			throws ErrorResponseException {
 		try {
-			JsonParser parser = jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(jsonFactory);
 			parser.nextToken();
 
 			if (response.getCode() == expectedCode) {
@@ -616,12 +784,15 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 
 	public @NotNull DrivePage parseDrivePageAndHandle(@NotNull SyncResponse response, int expectedCode)
 			throws ErrorResponseException {
 		try {
-			JsonParser parser = jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(jsonFactory);
 			parser.nextToken();
 
 			if (response.getCode() == expectedCode) {
@@ -636,12 +807,15 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 
 	public @NotNull DrivePager parseDrivePagerAndHandle(@NotNull SyncResponse response, int expectedCode)
 			throws ErrorResponseException {
 		try {
-			JsonParser parser = jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(jsonFactory);
 			parser.nextToken();
 
 			if (response.getCode() == expectedCode) {
@@ -656,12 +830,15 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 
 	public @NotNull AuthenticationInfo parseAuthAndHandle(@NotNull SyncResponse response, int expectedCode)
 			throws ErrorResponseException {
 		try {
-			JsonParser parser = jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(jsonFactory);
 			parser.nextToken();
 
 			if (response.getCode() == expectedCode) {
@@ -676,6 +853,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 
 
@@ -705,6 +885,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			byteBufStream.close();
+		}
 	}
 
 	public @NotNull DriveItemPager parseDriveItemPagerAndHandle(@NotNull HttpResponse response,
@@ -727,6 +910,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			byteBufStream.close();
+		}
 	}
 
 	public @NotNull DriveItem[] parseDriveItemRecursiveAndHandle(@NotNull HttpResponse response,
@@ -749,6 +935,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			byteBufStream.close();
+		}
 	}
 
 	public @NotNull DrivePage parseDrivePageAndHandle(@NotNull HttpResponse response,
@@ -771,6 +960,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			byteBufStream.close();
+		}
 	}
 
 	public @NotNull DrivePager parseDrivePagerAndHandle(@NotNull HttpResponse response,
@@ -793,6 +985,9 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			byteBufStream.close();
+		}
 	}
 
 	public @NotNull UploadSession parseUploadSessionAndHandle(@NotNull HttpResponse response,
@@ -815,5 +1010,8 @@ public class RequestTool {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			byteBufStream.close();
+		}
 	}
 }
@@ -0,0 +1,224 @@
+package com.bhyoo.onedrive.client;
+
+import com.bhyoo.onedrive.network.async.ConnectionPool;
+import com.bhyoo.onedrive.network.async.RequestScheduler;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network resources that {@link Client}s send requests through: event loop group, socket channel type, buffer
+ * allocator, executor that parses responses and keep-alive connection pool.<br>
+ * <br>
+ * A {@link Client} constructed with {@link TransportConfig} owns its transport and closes it with itself. A transport
+ * that passed to {@link Client} directly can be shared by many clients, and must be closed by its creator.
+ * Clients constructed without any of them share {@link #defaultTransport()}.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class Transport {
+	private static @Nullable Transport defaultTransport;
+
+	@Getter private final @NotNull EventLoopGroup group;
+	@Getter private final @NotNull Class<? extends SocketChannel> socketChannelClass;
+	@Getter private final @NotNull ByteBufAllocator allocator;
+	@Getter private final @NotNull Executor parseExecutor;
+	@Getter private final @NotNull ConnectionPool connectionPool;
+	private final boolean ownsGroup;
+	private final @Nullable ExecutorService ownedParseExecutor;
+	@Getter private volatile boolean closed;
+
+
+	public Transport() {
+		this(new TransportConfig());
+	}
+
+	public Transport(@NotNull TransportConfig config) {
+		EventLoopGroup externalGroup = config.getEventLoopGroup();
+
+		if (externalGroup != null) {
+			this.group = externalGroup;
+			this.ownsGroup = false;
+			this.socketChannelClass = config.getSocketChannelClass() != null ?
+					config.getSocketChannelClass() :
+					channelClassOf(externalGroup);
+		}
+		else {
+			Class<? extends SocketChannel> channelClass = config.getSocketChannelClass();
+			EventLoopGroup tmpGroup = null;
+
+			if (channelClass == null || !NioSocketChannel.class.equals(channelClass)) {
+				tmpGroup = nativeGroup(config.getIoThreads(), channelClass);
+			}
+
+			if (tmpGroup == null) {
+				tmpGroup = new NioEventLoopGroup(config.getIoThreads(), new DefaultThreadFactory("onedrive-io"));
+				channelClass = NioSocketChannel.class;
+			}
+			else if (channelClass == null) {
+				channelClass = channelClassOf(tmpGroup);
+			}
+
+			this.group = tmpGroup;
+			this.ownsGroup = true;
+			this.socketChannelClass = channelClass;
+		}
+
+		if (config.getParseExecutor() != null) {
+			this.parseExecutor = config.getParseExecutor();
+			this.ownedParseExecutor = null;
+		}
+		else {
+			this.ownedParseExecutor = Executors.newFixedThreadPool(
+					config.getParseThreads(), new DefaultThreadFactory("onedrive-parse", true));
+			this.parseExecutor = ownedParseExecutor;
+		}
+
+		this.allocator = config.getAllocator();
+		this.connectionPool = new ConnectionPool(group, socketChannelClass, allocator,
+				config.getMaxConnectionsPerHost(), config.getIdleTimeoutMillis());
+		this.connectionPool.setHttp2Enabled(config.isHttp2Enabled());
+		this.connectionPool.setRetryPolicy(config.getRetryPolicy());
+		this.connectionPool.setBlockingExecutor(parseExecutor);
+
+		int maxInFlightPerHost = config.getMaxInFlightPerHost();
+		if (maxInFlightPerHost == 0) maxInFlightPerHost = config.getMaxConnectionsPerHost();
+		this.connectionPool.setScheduler(new RequestScheduler(config.getMaxInFlight(), maxInFlightPerHost));
+
+		if (config.getWarmUpConnections() > 0) {
+			warmUp(URI.create(RequestTool.SCHEME + "://" + RequestTool.REAL_HOST), config.getWarmUpConnections());
+		}
+	}
+
+
+	/**
+	 * @return transport that shared by clients that constructed without {@link Transport} or {@link TransportConfig}.
+	 * If it is closed, new one is created.
+	 */
+	public static synchronized @NotNull Transport defaultTransport() {
+		if (defaultTransport == null || defaultTransport.isClosed()) {
+			defaultTransport = new Transport();
+		}
+		return defaultTransport;
+	}
+
+
+	/**
+	 * Prepare what the first request to host of {@code uri} would wait for, in background: TLS context, DNS
+	 * resolution and {@code connections} pooled connections that finished TLS handshake. Run it while doing other
+	 * things (e.g. login) to cut latency of the first requests after start.
+	 *
+	 * @return future that succeeds when connections are ready
+	 *
+	 * @see ConnectionPool#preconnect(URI, int)
+	 */
+	public @NotNull Future<Void> warmUp(final @NotNull URI uri, final int connections) {
+		final Promise<Void> promise = group.next().newPromise();
+
+		try {
+			// loading TLS context and DNS block, so event loop does not run it.
+			parseExecutor.execute(new Runnable() {
+				@Override public void run() {
+					connectionPool.preconnect(uri, connections).addListener(new PromiseNotifier<>(promise));
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			promise.setFailure(e);
+		}
+
+		return promise;
+	}
+
+	/**
+	 * Close every pooled connection, and shut down event loop group and parse executor if this transport created
+	 * them. Externally supplied ones are left as they are.
+	 *
+	 * @return future that completes when event loop group is terminated
+	 */
+	public synchronized @NotNull Future<?> close() {
+		if (closed) return terminationFuture();
+		closed = true;
+
+		connectionPool.close();
+		if (ownedParseExecutor != null) ownedParseExecutor.shutdown();
+
+		if (ownsGroup) return group.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+		return ImmediateEventExecutor.INSTANCE.newSucceededFuture(null);
+	}
+
+	private @NotNull Future<?> terminationFuture() {
+		if (ownsGroup) return group.terminationFuture();
+		return ImmediateEventExecutor.INSTANCE.newSucceededFuture(null);
+	}
+
+
+	/**
+	 * @return Epoll or KQueue event loop group if it is available and matches with {@code channelClass}, otherwise
+	 * {@code null}.
+	 */
+	private static @Nullable EventLoopGroup nativeGroup(int threads,
+														@Nullable Class<? extends SocketChannel> channelClass) {
+		ClassLoader classLoader = Transport.class.getClassLoader();
+		String[] groupNames = {
+				"io.netty.channel.epoll.EpollEventLoopGroup",
+				"io.netty.channel.kqueue.KQueueEventLoopGroup"
+		};
+
+		for (String groupName : groupNames) {
+			String channelName = groupName.replace("EventLoopGroup", "SocketChannel");
+			if (channelClass != null && !channelClass.getName().equals(channelName)) continue;
+
+			try {
+				// `Epoll` and `KQueue` classes tell whether native library can be loaded.
+				Class<?> checker = classLoader.loadClass(groupName.replace("EventLoopGroup", ""));
+				if (!(Boolean) checker.getMethod("isAvailable").invoke(null)) continue;
+
+				Class<?> loadClass = classLoader.loadClass(groupName);
+				return (EventLoopGroup) loadClass
+						.getConstructor(int.class, ThreadFactory.class)
+						.newInstance(threads, new DefaultThreadFactory("onedrive-io"));
+			}
+			catch (Exception | LinkageError ignored) {
+			}
+		}
+
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static @NotNull Class<? extends SocketChannel> channelClassOf(@NotNull EventLoopGroup group) {
+		if (group instanceof NioEventLoopGroup) return NioSocketChannel.class;
+
+		String groupName = group.getClass().getName();
+		if (groupName.endsWith("EventLoopGroup")) {
+			try {
+				return (Class<? extends SocketChannel>) group.getClass().getClassLoader()
+						.loadClass(groupName.replace("EventLoopGroup", "SocketChannel"));
+			}
+			catch (ClassNotFoundException ignored) {
+			}
+		}
+
+		throw new IllegalArgumentException(
+				"Can not infer socket channel class of " + groupName + ". Set it with TransportConfig.");
+	}
+}
@@ -0,0 +1,147 @@
+package com.bhyoo.onedrive.client;
+
+import com.bhyoo.onedrive.network.async.ConnectionPool;
+import com.bhyoo.onedrive.network.async.RequestScheduler;
+import com.bhyoo.onedrive.network.async.RetryPolicy;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Settings of {@link Transport}. Every setter returns {@code this}, so it can be chained.<br>
+ * <br>
+ * Example:<br>
+ * {@code new Transport(new TransportConfig().setIoThreads(32).setMaxConnectionsPerHost(64))}
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class TransportConfig {
+	public static final int DEFAULT_IO_THREADS = 4;
+
+	/**
+	 * Number of event loop threads. {@code 0} means Netty's default (twice of available processors).
+	 * Ignored if {@link #getEventLoopGroup()} is set.
+	 */
+	@Getter private int ioThreads = DEFAULT_IO_THREADS;
+	/**
+	 * Externally managed event loop group. {@link Transport} never shuts it down.
+	 */
+	@Getter private @Nullable EventLoopGroup eventLoopGroup;
+	/**
+	 * Socket channel class that matches with event loop group. If {@code null}, it is chosen by type of group.
+	 */
+	@Getter private @Nullable Class<? extends SocketChannel> socketChannelClass;
+	@Getter private @NotNull ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+	/**
+	 * Executor that parses response body off the event loop. If {@code null}, {@link Transport} makes its own one
+	 * that has {@link #getParseThreads()} daemon threads.
+	 */
+	@Getter private @Nullable Executor parseExecutor;
+	@Getter private int parseThreads = Runtime.getRuntime().availableProcessors();
+	@Getter private int maxConnectionsPerHost = ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+	@Getter private long idleTimeoutMillis = ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS;
+	@Getter private boolean http2Enabled;
+	/**
+	 * How throttled or failed requests are sent again. {@link RetryPolicy#none()} disables retry.
+	 */
+	@Getter private @NotNull RetryPolicy retryPolicy = new RetryPolicy();
+	/**
+	 * Bound of requests in flight of all hosts. Others wait in {@link RequestScheduler}.
+	 */
+	@Getter private int maxInFlight = RequestScheduler.DEFAULT_MAX_IN_FLIGHT;
+	/**
+	 * Bound of requests in flight per host. {@code 0} means same as {@link #getMaxConnectionsPerHost()}.
+	 */
+	@Getter private int maxInFlightPerHost;
+	/**
+	 * Connections to graph API host that {@link Transport} opens in background as soon as it is created, so that
+	 * login and the first requests of {@link Client} do not wait for TLS, DNS and handshakes one after another.
+	 * {@code 0} disables warm-up.
+	 *
+	 * @see Transport#warmUp(java.net.URI, int)
+	 */
+	@Getter private int warmUpConnections;
+
+
+	public @NotNull TransportConfig setIoThreads(int ioThreads) {
+		if (ioThreads < 0) throw new IllegalArgumentException("ioThreads must not be negative : " + ioThreads);
+		this.ioThreads = ioThreads;
+		return this;
+	}
+
+	public @NotNull TransportConfig setEventLoopGroup(@Nullable EventLoopGroup eventLoopGroup) {
+		this.eventLoopGroup = eventLoopGroup;
+		return this;
+	}
+
+	public @NotNull TransportConfig setSocketChannelClass(@Nullable Class<? extends SocketChannel> channelClass) {
+		this.socketChannelClass = channelClass;
+		return this;
+	}
+
+	public @NotNull TransportConfig setAllocator(@NotNull ByteBufAllocator allocator) {
+		this.allocator = allocator;
+		return this;
+	}
+
+	public @NotNull TransportConfig setParseExecutor(@Nullable Executor parseExecutor) {
+		this.parseExecutor = parseExecutor;
+		return this;
+	}
+
+	public @NotNull TransportConfig setParseThreads(int parseThreads) {
+		if (parseThreads <= 0) throw new IllegalArgumentException("parseThreads must be positive : " + parseThreads);
+		this.parseThreads = parseThreads;
+		return this;
+	}
+
+	public @NotNull TransportConfig setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		if (maxConnectionsPerHost <= 0) {
+			throw new IllegalArgumentException("maxConnectionsPerHost must be positive : " + maxConnectionsPerHost);
+		}
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		return this;
+	}
+
+	public @NotNull TransportConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		return this;
+	}
+
+	public @NotNull TransportConfig setHttp2Enabled(boolean http2Enabled) {
+		this.http2Enabled = http2Enabled;
+		return this;
+	}
+
+	public @NotNull TransportConfig setRetryPolicy(@NotNull RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	public @NotNull TransportConfig setMaxInFlight(int maxInFlight) {
+		if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive : " + maxInFlight);
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+
+	public @NotNull TransportConfig setMaxInFlightPerHost(int maxInFlightPerHost) {
+		if (maxInFlightPerHost < 0) {
+			throw new IllegalArgumentException("maxInFlightPerHost must not be negative : " + maxInFlightPerHost);
+		}
+		this.maxInFlightPerHost = maxInFlightPerHost;
+		return this;
+	}
+
+	public @NotNull TransportConfig setWarmUpConnections(int warmUpConnections) {
+		if (warmUpConnections < 0) {
+			throw new IllegalArgumentException("warmUpConnections must not be negative : " + warmUpConnections);
+		}
+		this.warmUpConnections = warmUpConnections;
+		return this;
+	}
+}
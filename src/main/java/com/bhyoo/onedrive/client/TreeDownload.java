@@ -0,0 +1,414 @@
+package com.bhyoo.onedrive.client;
+
+import com.bhyoo.onedrive.container.items.FileItem;
+import com.bhyoo.onedrive.container.items.FolderItem;
+import com.bhyoo.onedrive.container.items.pointer.BasePointer;
+import com.bhyoo.onedrive.network.async.DownloadFuture;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads every file under a remote folder into a local folder, keeping structure of sub folders.<br>
+ * <br>
+ * Folders are listed up to {@link #setMaxListings(int) maxListings} at a time on
+ * {@link Transport#getParseExecutor() parse executor}, and files that are found are downloaded while other folders
+ * are still being listed, up to {@link #setMaxTransfers(int) maxTransfers} at a time. Local folder of each remote
+ * folder is created right after it is found, before any file in it is downloaded. An item that is reached twice
+ * (e.g. through shared folder) is downloaded once.<br>
+ * <br>
+ * Failure of a listing or a file does not stop others. {@link #future()} completes after everything is tried, and
+ * fails if anything failed, with each failure {@link Throwable#getSuppressed() suppressed} in its cause. Progress and
+ * each failure can be read while it is running.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class TreeDownload {
+	public static final int DEFAULT_MAX_TRANSFERS = 8;
+	public static final int DEFAULT_MAX_LISTINGS = 2;
+
+	private final @NotNull Client client;
+	private final @NotNull Executor executor;
+	private final @NotNull Promise<Void> promise;
+	private final @NotNull Path downloadFolder;
+	private final @Nullable FolderItem rootFolder;
+	private final @Nullable BasePointer rootPointer;
+	private int maxTransfers = DEFAULT_MAX_TRANSFERS;
+	private int maxListings = DEFAULT_MAX_LISTINGS;
+
+	/**
+	 * Id of every item that is reached, to download each of them once.
+	 */
+	private final @NotNull Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final @NotNull Map<Path, Throwable> failures = new ConcurrentHashMap<>();
+	/**
+	 * Guarded by {@code this}.
+	 */
+	private final @NotNull Queue<Listing> pendingListings = new ArrayDeque<>();
+	private final @NotNull Queue<Transfer> pendingTransfers = new ArrayDeque<>();
+	private final @NotNull Set<DownloadFuture> transfers = new HashSet<>();
+	private int activeListings;
+	/**
+	 * Transfers that took their slot, including ones that are still starting.
+	 */
+	private int activeTransfers;
+	/**
+	 * Listings and files that are found but not finished yet. Download finishes when it reaches 0.
+	 */
+	private final @NotNull AtomicInteger remaining = new AtomicInteger();
+
+	private final @NotNull AtomicInteger foldersFound = new AtomicInteger();
+	private final @NotNull AtomicInteger foldersListed = new AtomicInteger();
+	private final @NotNull AtomicInteger filesFound = new AtomicInteger();
+	private final @NotNull AtomicInteger filesDone = new AtomicInteger();
+	private final @NotNull AtomicInteger filesFailed = new AtomicInteger();
+	private final @NotNull AtomicLong bytesFound = new AtomicLong();
+	private final @NotNull AtomicLong bytesDone = new AtomicLong();
+
+
+	/**
+	 * @param folder         remote folder to download. Its children are used if they are fetched already.
+	 * @param downloadFolder local folder that content of {@code folder} is downloaded into.
+	 */
+	public TreeDownload(@NotNull Client client, @NotNull FolderItem folder, @NotNull Path downloadFolder) {
+		this(client, folder, null, downloadFolder);
+	}
+
+	/**
+	 * @param folder         pointer of remote folder to download.
+	 * @param downloadFolder local folder that content of {@code folder} is downloaded into.
+	 */
+	public TreeDownload(@NotNull Client client, @NotNull BasePointer folder, @NotNull Path downloadFolder) {
+		this(client, null, folder, downloadFolder);
+	}
+
+	private TreeDownload(@NotNull Client client, @Nullable FolderItem rootFolder, @Nullable BasePointer rootPointer,
+						 @NotNull Path downloadFolder) {
+		this.client = client;
+		this.executor = client.transport().getParseExecutor();
+		this.promise = client.transport().getGroup().next().newPromise();
+		this.rootFolder = rootFolder;
+		this.rootPointer = rootPointer;
+		this.downloadFolder = downloadFolder.toAbsolutePath().normalize();
+	}
+
+
+	/**
+	 * @param maxTransfers how many files are downloaded at a time at most
+	 */
+	public @NotNull TreeDownload setMaxTransfers(int maxTransfers) {
+		if (maxTransfers < 1) throw new IllegalArgumentException("maxTransfers must be positive : " + maxTransfers);
+		this.maxTransfers = maxTransfers;
+		return this;
+	}
+
+	/**
+	 * @param maxListings how many folders are listed at a time at most. Each of them occupies a thread of parse
+	 *                    executor while it is listed.
+	 */
+	public @NotNull TreeDownload setMaxListings(int maxListings) {
+		if (maxListings < 1) throw new IllegalArgumentException("maxListings must be positive : " + maxListings);
+		this.maxListings = maxListings;
+		return this;
+	}
+
+	/**
+	 * Start download. Cancel {@link #future()} to stop it, which cancels files that are being downloaded too.
+	 *
+	 * @return this
+	 */
+	public @NotNull TreeDownload start() {
+		promise.addListener(new FutureListener<Void>() {
+			@Override public void operationComplete(Future<Void> future) {
+				if (future.isCancelled()) cancelTransfers();
+			}
+		});
+
+		try {
+			Files.createDirectories(downloadFolder);
+		}
+		catch (IOException e) {
+			promise.tryFailure(e);
+			return this;
+		}
+
+		remaining.incrementAndGet();
+		foldersFound.incrementAndGet();
+		enqueue(new Listing(rootFolder, downloadFolder));
+		return this;
+	}
+
+
+	/**
+	 * @return future that completes after every folder is listed and every file is tried.
+	 */
+	public @NotNull Future<Void> future() {
+		return promise;
+	}
+
+	/**
+	 * @return local path of each file or folder that failed, with its cause. It grows while download is running.
+	 */
+	public @NotNull Map<Path, Throwable> failures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	public int getFoldersFound() {return foldersFound.get();}
+
+	public int getFoldersListed() {return foldersListed.get();}
+
+	/**
+	 * @return files that are found so far. It grows until every folder is listed.
+	 */
+	public int getFilesFound() {return filesFound.get();}
+
+	public int getFilesDone() {return filesDone.get();}
+
+	public int getFilesFailed() {return filesFailed.get();}
+
+	/**
+	 * @return total size of files that are found so far.
+	 */
+	public long getBytesFound() {return bytesFound.get();}
+
+	/**
+	 * @return total size of files that are downloaded successfully.
+	 */
+	public long getBytesDone() {return bytesDone.get();}
+
+	public boolean isListingDone() {return foldersListed.get() == foldersFound.get();}
+
+
+	/*
+	 * Listing
+	 */
+
+	private void enqueue(@NotNull Listing listing) {
+		synchronized (this) {
+			pendingListings.add(listing);
+		}
+		pumpListings();
+	}
+
+	private void pumpListings() {
+		while (true) {
+			final Listing listing;
+			synchronized (this) {
+				if (promise.isDone() || activeListings >= maxListings || pendingListings.isEmpty()) return;
+				listing = pendingListings.poll();
+				activeListings++;
+			}
+
+			try {
+				executor.execute(new Runnable() {
+					@Override public void run() {
+						list(listing);
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				listed(listing, e);
+			}
+		}
+	}
+
+	/**
+	 * List {@code listing}, and create local folder of each sub folder before its files are downloaded.
+	 */
+	private void list(@NotNull Listing listing) {
+		try {
+			if (promise.isDone()) return;
+
+			FolderItem folder = listing.folder;
+			if (folder == null) {
+				assert rootPointer != null : "Both of folder and pointer are null";
+				// children are listed by paging below, because expanded children do not have next page
+				folder = client.getFolder(rootPointer, false);
+			}
+			seen.add(folder.getId());
+
+			for (FolderItem child : folder.folderChildren()) {
+				if (!seen.add(child.getId())) continue;
+
+				Path path = listing.path.resolve(child.getName());
+				Files.createDirectories(path);
+
+				remaining.incrementAndGet();
+				foldersFound.incrementAndGet();
+				enqueue(new Listing(child, path));
+			}
+
+			for (FileItem child : folder.fileChildren()) {
+				if (!seen.add(child.getId())) continue;
+
+				remaining.incrementAndGet();
+				filesFound.incrementAndGet();
+				Long size = child.getSize();
+				if (size != null) bytesFound.addAndGet(size);
+				enqueue(new Transfer(child, listing.path));
+			}
+
+			listed(listing, null);
+		}
+		catch (Throwable e) {
+			listed(listing, e);
+		}
+	}
+
+	private void listed(@NotNull Listing listing, @Nullable Throwable cause) {
+		if (cause != null) failures.put(listing.path, cause);
+
+		synchronized (this) {
+			activeListings--;
+		}
+		foldersListed.incrementAndGet();
+		finishOne();
+		pumpListings();
+	}
+
+
+	/*
+	 * Transfer
+	 */
+
+	private void enqueue(@NotNull Transfer transfer) {
+		synchronized (this) {
+			pendingTransfers.add(transfer);
+		}
+		pumpTransfers();
+	}
+
+	private void pumpTransfers() {
+		while (true) {
+			final Transfer transfer;
+			synchronized (this) {
+				if (promise.isDone() || activeTransfers >= maxTransfers || pendingTransfers.isEmpty()) return;
+				transfer = pendingTransfers.poll();
+				// taken before it starts, so other threads that pump at the same time see it
+				activeTransfers++;
+			}
+
+			final DownloadFuture future;
+			try {
+				future = download(transfer.file, transfer.folder);
+			}
+			catch (Throwable e) {
+				transferred(transfer, null, e);
+				continue;
+			}
+
+			boolean cancelled;
+			synchronized (this) {
+				transfers.add(future);
+				// cancelled while it was starting, so `cancelTransfers()` could miss it
+				cancelled = promise.isCancelled();
+			}
+			if (cancelled) future.cancel(false);
+			future.addListener(new FutureListener<File>() {
+				@Override public void operationComplete(Future<File> f) {
+					transferred(transfer, future, f.isSuccess() ? null : f.cause());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Start download of {@code file} into {@code folder}.
+	 */
+	@NotNull DownloadFuture download(@NotNull FileItem file, @NotNull Path folder) throws IOException {
+		return client.downloadAsync(file, folder, file.getName());
+	}
+
+	private void transferred(final @NotNull Transfer transfer, @Nullable DownloadFuture future,
+							 @Nullable Throwable cause) {
+		if (cause != null) {
+			failures.put(transfer.folder.resolve(transfer.file.getName()), cause);
+			filesFailed.incrementAndGet();
+		}
+		else {
+			filesDone.incrementAndGet();
+			Long size = transfer.file.getSize();
+			if (size != null) bytesDone.addAndGet(size);
+		}
+
+		synchronized (this) {
+			if (future != null) transfers.remove(future);
+			activeTransfers--;
+		}
+		finishOne();
+
+		// next download touches file system before it is sent, so it does not start on event loop
+		try {
+			executor.execute(new Runnable() {
+				@Override public void run() {
+					pumpTransfers();
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			promise.tryFailure(e);
+		}
+	}
+
+
+	private void finishOne() {
+		if (remaining.decrementAndGet() != 0) return;
+
+		if (failures.isEmpty()) {
+			promise.trySuccess(null);
+			return;
+		}
+
+		IOException cause = new IOException(failures.size() + " of " + (foldersFound.get() + filesFound.get()) +
+				" items in " + downloadFolder + " failed to download");
+		for (Throwable failure : failures.values()) cause.addSuppressed(failure);
+		promise.tryFailure(cause);
+	}
+
+	private void cancelTransfers() {
+		List<DownloadFuture> running;
+		synchronized (this) {
+			running = new ArrayList<>(transfers);
+			pendingTransfers.clear();
+			pendingListings.clear();
+		}
+		for (DownloadFuture future : running) future.cancel(false);
+	}
+
+
+	private static final class Listing {
+		/**
+		 * {@code null} for root folder that is given by pointer.
+		 */
+		private final @Nullable FolderItem folder;
+		private final @NotNull Path path;
+
+		Listing(@Nullable FolderItem folder, @NotNull Path path) {
+			this.folder = folder;
+			this.path = path;
+		}
+	}
+
+	private static final class Transfer {
+		private final @NotNull FileItem file;
+		private final @NotNull Path folder;
+
+		Transfer(@NotNull FileItem file, @NotNull Path folder) {
+			this.file = file;
+			this.folder = folder;
+		}
+	}
+}
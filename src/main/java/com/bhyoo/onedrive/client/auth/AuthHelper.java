@@ -122,9 +122,10 @@ public class AuthHelper implements AbstractAuthHelper {
 	@Override public void logout() {
 		String url = AUTH_URL + "/logout"; // AUTH_URL + "/logout?post_logout_redirect_uri=" + redirectURL;
 
-		SyncResponse response = new SyncRequest(url).doGet();
+		SyncResponse response = new SyncRequest(url, requestTool.connectionPool()).doGet();
 
 		// TODO: error handling
+		response.release();
 
 		authCode = null;
 		fullToken = null;
@@ -244,7 +245,7 @@ public class AuthHelper implements AbstractAuthHelper {
 	 * @throws InternalException    if the underlying input source has problems during parsing response body.
 	 */
 	private @NotNull String getToken(String httpBody) {
-		SyncResponse response = new SyncRequest(AUTH_URL + "/token")
+		SyncResponse response = new SyncRequest(AUTH_URL + "/token", requestTool.connectionPool())
 				.setHeader(CONTENT_TYPE, APPLICATION_X_WWW_FORM_URLENCODED)
 				.doPost(httpBody);
 
@@ -1,18 +1,17 @@
 package com.bhyoo.onedrive.container;
 
 import com.bhyoo.onedrive.client.RequestTool;
+import com.bhyoo.onedrive.client.Transport;
+import com.bhyoo.onedrive.network.async.ConnectionPool;
 import com.bhyoo.onedrive.network.sync.SyncRequest;
 import com.bhyoo.onedrive.network.sync.SyncResponse;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import lombok.Getter;
-import lombok.SneakyThrows;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.logging.Logger;
 
 import static io.netty.handler.codec.http.HttpHeaderNames.ACCEPT;
@@ -25,6 +24,7 @@ import static io.netty.handler.codec.http.HttpHeaderValues.GZIP;
  */
 public class AsyncJobMonitor {
 	protected @NotNull String url;
+	private final @NotNull ConnectionPool connectionPool;
 	@Getter protected @NotNull String operation;
 	@Getter protected @Nullable String resourceId;
 	@Getter protected @NotNull Double percentageComplete;
@@ -33,14 +33,18 @@ public class AsyncJobMonitor {
 
 
 	public AsyncJobMonitor(@NotNull String url) {
+		this(url, Transport.defaultTransport().getConnectionPool());
+	}
+
+	public AsyncJobMonitor(@NotNull String url, @NotNull ConnectionPool connectionPool) {
 		this.url = url;
+		this.connectionPool = connectionPool;
 
 		update();
 	}
 
-	@SneakyThrows(MalformedURLException.class)
 	public AsyncJobMonitor update() {
-		SyncResponse response = new SyncRequest(new URL(this.url))
+		SyncResponse response = new SyncRequest(this.url, connectionPool)
 				.setHeader(ACCEPT, APPLICATION_JSON)
 				.setHeader(ACCEPT_ENCODING, GZIP)
 				.doGet();
@@ -48,7 +52,7 @@ public class AsyncJobMonitor {
 		// TODO: error handling
 
 		try {
-			JsonParser parser = RequestTool.jsonFactory.createParser(response.getContent());
+			JsonParser parser = response.createParser(RequestTool.jsonFactory);
 			parser.nextToken();
 
 			while (parser.nextToken() != JsonToken.END_OBJECT) {
@@ -85,5 +89,8 @@ public class AsyncJobMonitor {
 			// FIXME: custom exception
 			throw new RuntimeException("DEV: Unrecognizable json response.", e);
 		}
+		finally {
+			response.release();
+		}
 	}
 }
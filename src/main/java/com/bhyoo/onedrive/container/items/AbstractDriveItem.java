@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
@@ -116,6 +117,7 @@ abstract public class AbstractDriveItem extends AbstractBaseItem implements Driv
 		@Nullable LocationFacet location = null;
 		@Nullable PhotoFacet photo = null;
 		@Nullable VideoFacet video = null;
+		@Nullable URL downloadUrl = null;
 
 		// FolderItem
 		@Nullable FolderFacet folder = null;
@@ -223,6 +225,9 @@ abstract public class AbstractDriveItem extends AbstractBaseItem implements Driv
 				case "video":
 					video = VideoFacet.deserialize(parser);
 					break;
+				case "@microsoft.graph.downloadUrl":
+					downloadUrl = new URL(parser.getText());
+					break;
 
 				case "folder":
 					folder = FolderFacet.deserialize(parser);
@@ -291,7 +296,7 @@ abstract public class AbstractDriveItem extends AbstractBaseItem implements Driv
 				return new DefaultFileItem(id, creator, createdDateTime, description, eTag, lastModifier,
 						lastModifiedDateTime, name, webUrl, client, cTag, deleted, fileSystemInfo, parentReference,
 						searchResult, shared, sharePointIds, size, webDavUrl, audio, file, image, location, photo,
-						video);
+						video, downloadUrl);
 			}
 		}
 		else if (folder != null) {
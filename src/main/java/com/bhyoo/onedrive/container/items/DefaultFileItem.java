@@ -10,19 +10,32 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.net.URI;
+import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class DefaultFileItem extends AbstractDriveItem implements FileItem {
+	/**
+	 * How long <code>@microsoft.graph.downloadUrl</code> is used after it is fetched. Service keeps it valid only for a
+	 * short time and does not tell exactly how long, so it is shorter than that.
+	 */
+	public static final long DOWNLOAD_URL_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
 	@Getter(onMethod = @__(@Override)) protected @Nullable AudioFacet audio;
 	protected @NotNull FileFacet file;
 	@Getter(onMethod = @__(@Override)) protected @Nullable ImageFacet image;
 	@Getter(onMethod = @__(@Override)) protected @Nullable LocationFacet location;
 	@Getter(onMethod = @__(@Override)) protected @Nullable PhotoFacet photo;
 	@Getter(onMethod = @__(@Override)) protected @Nullable VideoFacet video;
+	protected @Nullable URL downloadUrl;
+	/**
+	 * {@link System#nanoTime()} when {@link #downloadUrl} expires.
+	 */
+	protected long downloadUrlExpiry;
 
 
 	DefaultFileItem(@NotNull String id, @NotNull IdentitySet creator, @NotNull String createdDateTime,
@@ -33,7 +46,8 @@ public class DefaultFileItem extends AbstractDriveItem implements FileItem {
 					@Nullable SearchResultFacet searchResult, @Nullable SharedFacet shared,
 					@Nullable SharePointIdsFacet sharePointIds, @NotNull Long size, URI webDavUrl,
 					@Nullable AudioFacet audio, @NotNull FileFacet file, @Nullable ImageFacet image,
-					@Nullable LocationFacet location, @Nullable PhotoFacet photo, @Nullable VideoFacet video) {
+					@Nullable LocationFacet location, @Nullable PhotoFacet photo, @Nullable VideoFacet video,
+					@Nullable URL downloadUrl) {
 		super(id, creator, createdDateTime, description, eTag, lastModifier, lastModifiedDateTime, name, webUrl,
 				client, cTag, deleted, fileSystemInfo, parentReference, searchResult, shared, sharePointIds, size,
 				webDavUrl);
@@ -43,6 +57,7 @@ public class DefaultFileItem extends AbstractDriveItem implements FileItem {
 		this.location = location;
 		this.photo = photo;
 		this.video = video;
+		setDownloadUrl(downloadUrl);
 
 		createPointers();
 	}
@@ -50,36 +65,36 @@ public class DefaultFileItem extends AbstractDriveItem implements FileItem {
 	@Override
 	public void download(@NotNull String path) throws IOException {
 		assert this.name != null : "this.name is null";
-		client.download(idPointer, Paths.get(path), this.name);
+		client.download(this, Paths.get(path), this.name);
 	}
 
 	@Override
 	public void download(@NotNull String path, @NotNull String newName) throws IOException {
-		client.download(idPointer, Paths.get(path), newName);
+		client.download(this, Paths.get(path), newName);
 	}
 
 	@Override
 	public void download(@NotNull Path folderPath) throws IOException {
 		assert this.name != null : "this.name is null";
-		client.download(idPointer, folderPath, this.name);
+		client.download(this, folderPath, this.name);
 	}
 
 	// TODO: handling overwriting file
 
 	@Override
 	public void download(@NotNull Path folderPath, String newName) throws IOException {
-		client.download(idPointer, folderPath, newName);
+		client.download(this, folderPath, newName);
 	}
 
 
 	@Override
 	public @NotNull DownloadFuture downloadAsync(@NotNull Path folderPath) throws IOException {
-		return client.downloadAsync(idPointer, folderPath, this.name);
+		return client.downloadAsync(this, folderPath, this.name);
 	}
 
 	@Override
 	public @NotNull DownloadFuture downloadAsync(@NotNull Path folderPath, String newName) throws IOException {
-		return client.downloadAsync(idPointer, folderPath, newName);
+		return client.downloadAsync(this, folderPath, newName);
 	}
 
 
@@ -95,6 +110,13 @@ public class DefaultFileItem extends AbstractDriveItem implements FileItem {
 		this.location = item.location;
 		this.photo = item.photo;
 		this.video = item.video;
+		this.downloadUrl = item.downloadUrl;
+		this.downloadUrlExpiry = item.downloadUrlExpiry;
+	}
+
+	private void setDownloadUrl(@Nullable URL downloadUrl) {
+		this.downloadUrl = downloadUrl;
+		this.downloadUrlExpiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DOWNLOAD_URL_LIFETIME_MILLIS);
 	}
 
 
@@ -119,4 +141,11 @@ public class DefaultFileItem extends AbstractDriveItem implements FileItem {
 
 	@Override
 	public @Nullable String getQuickXorHash() {return this.file.getQuickXorHash();}
+
+	@Override
+	public @Nullable URL getDownloadUrl() {
+		URL downloadUrl = this.downloadUrl;
+		if (downloadUrl == null || System.nanoTime() - downloadUrlExpiry >= 0) return null;
+		return downloadUrl;
+	}
 }
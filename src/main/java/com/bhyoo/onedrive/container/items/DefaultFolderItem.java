@@ -10,6 +10,7 @@ import com.bhyoo.onedrive.container.pager.DriveItemPager.DriveItemPage;
 import com.bhyoo.onedrive.exceptions.ErrorResponseException;
 import com.bhyoo.onedrive.exceptions.InternalException;
 import com.bhyoo.onedrive.network.async.DriveItemFuture;
+import com.bhyoo.onedrive.network.async.RequestPriority;
 import com.bhyoo.onedrive.network.async.ResponseFuture;
 import com.bhyoo.onedrive.network.async.UploadFuture;
 import lombok.Getter;
@@ -118,7 +119,7 @@ public class DefaultFolderItem extends AbstractDriveItem implements FolderItem {
 	protected void parseChildren(@Nullable URI nextLink) {
 		while (nextLink != null) {
 			ResponseFuture responseFuture = client.requestTool()
-					.doAsync(GET, nextLink)
+					.doAsyncStreaming(GET, nextLink, RequestPriority.BACKGROUND)
 					.syncUninterruptibly();
 
 			try {
@@ -143,7 +144,7 @@ public class DefaultFolderItem extends AbstractDriveItem implements FolderItem {
 		fileChildren = new ArrayList<>();
 
 		ResponseFuture responseFuture = client.requestTool()
-				.doAsync(GET, idPointer.resolveOperator(Operator.CHILDREN))
+				.doAsyncStreaming(GET, idPointer.resolveOperator(Operator.CHILDREN))
 				.syncUninterruptibly();
 
 		addChildren(client.requestTool()
@@ -7,6 +7,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.net.URL;
 import java.nio.file.Path;
 
 public interface FileItem extends DriveItem {
@@ -86,6 +87,12 @@ public interface FileItem extends DriveItem {
 
 	@Nullable String getQuickXorHash();
 
+	/**
+	 * @return pre-authenticated URL of content that came with metadata of this item, or {@code null} if it did not
+	 * or it is expired. Downloads of this item use it instead of asking location of content again.
+	 */
+	@Nullable URL getDownloadUrl();
+
 
 	@Nullable AudioFacet getAudio();
 
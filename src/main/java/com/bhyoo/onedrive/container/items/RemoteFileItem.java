@@ -8,6 +8,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.net.URI;
+import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -28,36 +29,36 @@ public class RemoteFileItem extends AbstractRemoteItem implements FileItem {
 	@Override
 	public void download(@NotNull String path) throws IOException {
 		assert this.name != null : "this.name is null";
-		client.download(idPointer, Paths.get(path), this.name);
+		client.download(this, Paths.get(path), this.name);
 	}
 
 	@Override
 	public void download(@NotNull String path, @NotNull String newName) throws IOException {
-		client.download(idPointer, Paths.get(path), newName);
+		client.download(this, Paths.get(path), newName);
 	}
 
 	@Override
 	public void download(@NotNull Path folderPath) throws IOException {
 		assert this.name != null : "this.name is null";
-		client.download(idPointer, folderPath, this.name);
+		client.download(this, folderPath, this.name);
 	}
 
 	// TODO: handling overwriting file
 
 	@Override
 	public void download(@NotNull Path folderPath, String newName) throws IOException {
-		client.download(idPointer, folderPath, newName);
+		client.download(this, folderPath, newName);
 	}
 
 
 	@Override
 	public @NotNull DownloadFuture downloadAsync(@NotNull Path folderPath) throws IOException {
-		return client.downloadAsync(idPointer, folderPath, this.name);
+		return client.downloadAsync(this, folderPath, this.name);
 	}
 
 	@Override
 	public @NotNull DownloadFuture downloadAsync(@NotNull Path folderPath, String newName) throws IOException {
-		return client.downloadAsync(idPointer, folderPath, newName);
+		return client.downloadAsync(this, folderPath, newName);
 	}
 
 
@@ -81,6 +82,11 @@ public class RemoteFileItem extends AbstractRemoteItem implements FileItem {
 		return remoteItem.getFile().getQuickXorHash();
 	}
 
+	/**
+	 * Remote item does not come with location of its content.
+	 */
+	@Override public @Nullable URL getDownloadUrl() {return null;}
+
 	@Override public @Nullable AudioFacet getAudio() {return null;}
 
 	@Override public @Nullable ImageFacet getImage() {return null;}
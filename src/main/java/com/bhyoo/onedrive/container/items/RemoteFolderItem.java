@@ -91,7 +91,7 @@ public class RemoteFolderItem extends AbstractRemoteItem implements FolderItem {
 		fileChildren = new ArrayList<>();
 
 		ResponseFuture responseFuture = client.requestTool()
-				.doAsync(HttpMethod.GET, remotePointer.resolveOperator(Operator.CHILDREN))
+				.doAsyncStreaming(HttpMethod.GET, remotePointer.resolveOperator(Operator.CHILDREN))
 				.syncUninterruptibly();
 
 		addChildren(client.requestTool()
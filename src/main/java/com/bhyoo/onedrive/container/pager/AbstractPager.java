@@ -54,7 +54,9 @@ abstract public class AbstractPager<T> implements Iterable<T> {
 			}
 			else if (currentPage == null || currentPage.nextLink == null) throw new NoSuchElementException();
 			else {
-				ResponseFuture responseFuture = requestTool.doAsync(GET, currentPage.nextLink).syncUninterruptibly();
+				ResponseFuture responseFuture = requestTool
+						.doAsyncStreaming(GET, currentPage.nextLink, null)
+						.syncUninterruptibly();
 				try {
 					currentPage = parse(responseFuture);
 					return currentPage.value;
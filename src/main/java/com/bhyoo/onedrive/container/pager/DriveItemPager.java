@@ -5,7 +5,9 @@ import com.bhyoo.onedrive.client.RequestTool;
 import com.bhyoo.onedrive.container.items.AbstractDriveItem;
 import com.bhyoo.onedrive.container.items.DriveItem;
 import com.bhyoo.onedrive.exceptions.ErrorResponseException;
+import com.bhyoo.onedrive.network.async.RequestPriority;
 import com.bhyoo.onedrive.network.async.ResponseFuture;
+import com.bhyoo.onedrive.network.async.ResponseFutureListener;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import lombok.SneakyThrows;
@@ -38,50 +40,72 @@ public class DriveItemPager extends AbstractPager<DriveItem[]> {
 															boolean autoClose) throws IOException {
 		@Nullable URI nextLink;
 		@NotNull ArrayList<DriveItem> items = new ArrayList<>();
-		@Nullable JsonParser currentParser = parser;
-
-		do {
-			@Nullable ResponseFuture responseFuture = null;
-			nextLink = null;
-
-			while (currentParser.nextToken() != JsonToken.END_OBJECT) {
-				String currentName = currentParser.getCurrentName();
-				currentParser.nextToken();
-
-				switch (currentName) {
-					case "@odata.nextLink":
-						nextLink = new URI(currentParser.getText());
-						responseFuture = client.requestTool().doAsync(GET, nextLink);
-						break;
-					case "@odata.deltaLink":
-						break;
-					case "value":
-						while (currentParser.nextToken() != JsonToken.END_ARRAY) {
-							items.add(AbstractDriveItem.deserialize(client, currentParser, false));
-						}
-						break;
-					case "@odata.context":
-						// TODO
-						break;
-					default:
-						Logger.getGlobal().info("Unknown attribute detected in DriveItemPager : " + currentName);
+		@NotNull JsonParser currentParser = parser;
+		@Nullable ResponseFuture responseFuture = null;
+		boolean parsed = false;
+
+		try {
+			do {
+				nextLink = null;
+
+				while (currentParser.nextToken() != JsonToken.END_OBJECT) {
+					String currentName = currentParser.getCurrentName();
+					currentParser.nextToken();
+
+					switch (currentName) {
+						case "@odata.nextLink":
+							nextLink = new URI(currentParser.getText());
+							// following pages are crawled while this page is parsed, so they yield to others
+							responseFuture = client.requestTool()
+									.doAsyncStreaming(GET, nextLink, RequestPriority.BACKGROUND);
+							break;
+						case "@odata.deltaLink":
+							break;
+						case "value":
+							while (currentParser.nextToken() != JsonToken.END_ARRAY) {
+								items.add(AbstractDriveItem.deserialize(client, currentParser, false));
+							}
+							break;
+						case "@odata.context":
+							// TODO
+							break;
+						default:
+							Logger.getGlobal().info("Unknown attribute detected in DriveItemPager : " + currentName);
+					}
 				}
-			}
 
-			if (responseFuture != null) {
-				responseFuture.syncUninterruptibly();
-				if (parser != currentParser) currentParser.close();
-				currentParser = RequestTool.jsonFactory.createParser(responseFuture.getNow());
-				currentParser.nextToken();
-			}
-		} while (nextLink != null);
-
-		if (currentParser != parser) currentParser.close();
-		if (autoClose) parser.close();
+				if (responseFuture != null) {
+					responseFuture.syncUninterruptibly();
+					if (parser != currentParser) currentParser.close();
+					currentParser = RequestTool.jsonFactory.createParser(responseFuture.getNow());
+					responseFuture = null;
+					currentParser.nextToken();
+				}
+			} while (nextLink != null);
+			parsed = true;
+		}
+		finally {
+			// the prefetched page and the page being parsed hold pooled connections until they are closed
+			if (!parsed && responseFuture != null) abandon(responseFuture);
+			if (currentParser != parser) currentParser.close();
+			if (autoClose || !parsed) parser.close();
+		}
 
 		return items.toArray(new DriveItem[0]);
 	}
 
+	/**
+	 * Cancel {@code pending}, or close its stream if it arrived already.
+	 */
+	private static void abandon(@NotNull ResponseFuture pending) {
+		pending.addListener(new ResponseFutureListener() {
+			@Override public void operationComplete(ResponseFuture future) {
+				if (future.isSuccess() && !future.getNow().isClosed()) future.getNow().close();
+			}
+		});
+		pending.cancel(false);
+	}
+
 	@Override public @NotNull Iterator<DriveItem[]> iterator() {return new ItemPageIterator(requestTool, page);}
 
 
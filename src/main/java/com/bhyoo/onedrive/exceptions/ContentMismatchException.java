@@ -0,0 +1,26 @@
+package com.bhyoo.onedrive.exceptions;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Downloaded content does not match hash that OneDrive reports for the file. Content could be broken on the way, or
+ * the file could be changed after its hash was fetched, so download it again.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class ContentMismatchException extends IOException implements OneDriveServerException {
+	private static final long serialVersionUID = 3264018466359162716L;
+	@Getter private final @NotNull String algorithm;
+	@Getter private final @NotNull String expected;
+	@Getter private final @NotNull String actual;
+
+	public ContentMismatchException(@NotNull String algorithm, @NotNull String expected, @NotNull String actual) {
+		super(algorithm + " of downloaded content is " + actual + ", but " + expected + " is expected.");
+		this.algorithm = algorithm;
+		this.expected = expected;
+		this.actual = actual;
+	}
+}
@@ -0,0 +1,175 @@
+package com.bhyoo.onedrive.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attributes of items by their path, that expire after a while. Paths that do not exist are kept too, and a path is
+ * known to be missing without asking if whole children of its parent are listed recently.<br>
+ * <br>
+ * It holds up to {@code maxEntries} paths, and evicts the least recently used one above it.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class AttributeCache {
+	static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	static final int DEFAULT_MAX_ENTRIES = 200000;
+	/**
+	 * Result of lookup of a path that is known to be missing.
+	 */
+	static final Entry MISSING = new Entry(null, Long.MAX_VALUE);
+
+	private final long ttlNanos;
+	private final int maxEntries;
+	/**
+	 * Guarded by {@code this}.
+	 */
+	private final @NotNull LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+
+	AttributeCache(long ttlMillis, int maxEntries) {
+		if (ttlMillis < 0) throw new IllegalArgumentException("Negative ttl : " + ttlMillis);
+		if (maxEntries < 0) throw new IllegalArgumentException("Negative maxEntries : " + maxEntries);
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.maxEntries = maxEntries;
+	}
+
+
+	/**
+	 * @param path   key of path
+	 * @param parent key of its parent, or {@code null} for root
+	 *
+	 * @return entry of {@code path} that is not expired, or {@link #MISSING} if parent is listed without it.
+	 * {@code null} if it is unknown.
+	 */
+	synchronized @Nullable Entry lookup(@NotNull String path, @Nullable String parent) {
+		Entry entry = fresh(path);
+		if (entry != null) return entry;
+
+		if (parent != null) {
+			Entry parentEntry = fresh(parent);
+			if (parentEntry != null && parentEntry.listed) return MISSING;
+		}
+		return null;
+	}
+
+	synchronized void put(@NotNull String path, @NotNull OneDriveFileAttributes attributes) {
+		entries.put(path, new Entry(attributes, System.nanoTime() + ttlNanos));
+		trim();
+	}
+
+	synchronized void putMissing(@NotNull String path) {
+		entries.put(path, new Entry(null, System.nanoTime() + ttlNanos));
+		trim();
+	}
+
+	/**
+	 * Record that whole children of {@code folder} are put, so other names in it do not exist.
+	 *
+	 * @param since when listing started. Listing does not count if {@code folder} is changed after it.
+	 */
+	synchronized void listed(@NotNull String folder, long since) {
+		Entry entry = fresh(folder);
+		if (entry != null && entry.attributes != null && entry.attributes.isDirectory() && entry.since <= since) {
+			entry.listed = true;
+		}
+	}
+
+	/**
+	 * Forget {@code path} and everything under it, and that its parent is listed.
+	 */
+	synchronized void invalidate(@NotNull String path, @Nullable String parent) {
+		String prefix = path.endsWith("/") ? path : path + '/';
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			String key = iterator.next().getKey();
+			if (key.equals(path) || key.startsWith(prefix)) iterator.remove();
+		}
+
+		if (parent != null) {
+			// fresh entry of parent starts without listing
+			Entry entry = entries.get(parent);
+			if (entry != null) entries.put(parent, new Entry(entry.attributes, entry.expiry));
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private @Nullable Entry fresh(@NotNull String path) {
+		Entry entry = entries.get(path);
+		if (entry == null) return null;
+
+		if (System.nanoTime() - entry.expiry >= 0) {
+			entries.remove(path);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Evict least recently used paths above {@code maxEntries}. Parent of evicted path is not listed anymore,
+	 * otherwise the path would look missing.
+	 */
+	private void trim() {
+		if (entries.size() <= maxEntries) return;
+
+		List<String> evicted = new ArrayList<>();
+		Iterator<String> iterator = entries.keySet().iterator();
+		while (entries.size() > maxEntries && iterator.hasNext()) {
+			evicted.add(iterator.next());
+			iterator.remove();
+		}
+
+		for (String path : evicted) {
+			String parent = parentOf(path);
+			if (parent == null) continue;
+
+			Entry entry = entries.get(parent);
+			if (entry != null) entry.listed = false;
+		}
+	}
+
+	/**
+	 * @return key of parent of {@code path}, or {@code null} if it is root.
+	 */
+	static @Nullable String parentOf(@NotNull String path) {
+		int slash = path.lastIndexOf('/');
+		if (slash < 0 || path.length() == 1) return null;
+		return slash == 0 ? "/" : path.substring(0, slash);
+	}
+
+
+	static final class Entry {
+		/**
+		 * {@code null} if the path does not exist.
+		 */
+		final @Nullable OneDriveFileAttributes attributes;
+		final long expiry;
+		/**
+		 * {@link System#nanoTime()} when it is put.
+		 */
+		final long since = System.nanoTime();
+		/**
+		 * {@code true} if whole children of this folder are put. Guarded by the cache.
+		 */
+		boolean listed;
+
+		Entry(@Nullable OneDriveFileAttributes attributes, long expiry) {
+			this.attributes = attributes;
+			this.expiry = expiry;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.bhyoo.onedrive.fs;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Converts glob of {@link java.nio.file.FileSystem#getPathMatcher(String)} to regular expression, with separator
+ * <code>/</code>.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class Globs {
+	private static final String REGEX_META = "\\^$.|?*+()[]{}";
+
+	private Globs() {}
+
+	static @NotNull String toRegex(@NotNull String glob) {
+		StringBuilder regex = new StringBuilder("^");
+		boolean inGroup = false;
+
+		for (int i = 0, length = glob.length(); i < length; i++) {
+			char ch = glob.charAt(i);
+
+			switch (ch) {
+				case '\\':
+					if (++i >= length) throw new PatternSyntaxException("No character to escape", glob, i - 1);
+					appendLiteral(regex, glob.charAt(i));
+					break;
+				case '*':
+					if (i + 1 < length && glob.charAt(i + 1) == '*') {
+						regex.append(".*");
+						i++;
+					}
+					else {
+						regex.append("[^/]*");
+					}
+					break;
+				case '?':
+					regex.append("[^/]");
+					break;
+				case '[':
+					i = appendBracket(regex, glob, i);
+					break;
+				case '{':
+					if (inGroup) throw new PatternSyntaxException("Nested group", glob, i);
+					regex.append("(?:");
+					inGroup = true;
+					break;
+				case '}':
+					if (inGroup) {
+						regex.append(')');
+						inGroup = false;
+					}
+					else {
+						appendLiteral(regex, ch);
+					}
+					break;
+				case ',':
+					if (inGroup) regex.append('|');
+					else appendLiteral(regex, ch);
+					break;
+				default:
+					appendLiteral(regex, ch);
+			}
+		}
+
+		if (inGroup) throw new PatternSyntaxException("Missing '}'", glob, glob.length());
+		return regex.append('$').toString();
+	}
+
+	/**
+	 * @param begin index of <code>[</code>
+	 *
+	 * @return index of <code>]</code> that closes the bracket
+	 */
+	private static int appendBracket(@NotNull StringBuilder regex, @NotNull String glob, int begin) {
+		// a bracket never matches separator
+		regex.append("[[^/]&&[");
+
+		int i = begin + 1;
+		if (i < glob.length() && glob.charAt(i) == '!') {
+			regex.append('^');
+			i++;
+		}
+		else if (i < glob.length() && glob.charAt(i) == '^') {
+			regex.append("\\^");
+			i++;
+		}
+
+		for (; i < glob.length(); i++) {
+			char ch = glob.charAt(i);
+			if (ch == ']') {
+				regex.append("]]");
+				return i;
+			}
+			if (ch == '/') throw new PatternSyntaxException("Separator in bracket", glob, i);
+			if (ch == '\\' || ch == '[' || ch == '&') regex.append('\\');
+			regex.append(ch);
+		}
+
+		throw new PatternSyntaxException("Missing ']'", glob, begin);
+	}
+
+	private static void appendLiteral(@NotNull StringBuilder regex, char ch) {
+		if (REGEX_META.indexOf(ch) >= 0) regex.append('\\');
+		regex.append(ch);
+	}
+}
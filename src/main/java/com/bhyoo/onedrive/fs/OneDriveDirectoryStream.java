@@ -0,0 +1,185 @@
+package com.bhyoo.onedrive.fs;
+
+import com.bhyoo.onedrive.client.RequestTool;
+import com.bhyoo.onedrive.container.items.DriveItem;
+import com.bhyoo.onedrive.container.items.pointer.Operator;
+import com.bhyoo.onedrive.container.pager.DriveItemPager.DriveItemPage;
+import com.bhyoo.onedrive.exceptions.ErrorResponseException;
+import com.bhyoo.onedrive.network.async.ResponseFuture;
+import com.bhyoo.onedrive.network.async.ResponseFutureListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Children of a folder, that are fetched page by page while they are iterated. The next page is requested as soon as
+ * the current page arrives, so it is received while the current page is iterated.<br>
+ * <br>
+ * Attributes of every child are cached, so reading them later does not ask server again. If whole children are
+ * iterated, names that are not among them are known to be missing too.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class OneDriveDirectoryStream implements DirectoryStream<Path> {
+	/**
+	 * Children per page. Server uses smaller one if it is too large.
+	 */
+	static final int PAGE_SIZE = 1000;
+
+	private final @NotNull OneDriveFileSystem fileSystem;
+	private final @NotNull OneDrivePath dir;
+	private final @NotNull Filter<? super Path> filter;
+	private final @NotNull RequestTool requestTool;
+	private boolean open = true;
+	private boolean iterated;
+	/**
+	 * Request of the page that is not parsed yet.
+	 */
+	private @Nullable ResponseFuture next;
+
+
+	OneDriveDirectoryStream(@NotNull OneDriveFileSystem fileSystem, @NotNull OneDrivePath dir,
+							@NotNull Filter<? super Path> filter) {
+		this.fileSystem = fileSystem;
+		this.dir = dir;
+		this.filter = filter;
+		this.requestTool = fileSystem.getClient().requestTool();
+	}
+
+
+	@Override public synchronized @NotNull Iterator<Path> iterator() {
+		if (!open) throw new IllegalStateException("Directory stream is closed");
+		if (iterated) throw new IllegalStateException("Iterator is already obtained");
+		iterated = true;
+
+		long since = System.nanoTime();
+		next = requestTool.doAsyncStreaming(GET,
+				dir.pointer().resolveOperator(Operator.CHILDREN) + "?$top=" + PAGE_SIZE);
+		return new ChildIterator(since);
+	}
+
+	@Override public synchronized void close() {
+		if (!open) return;
+		open = false;
+		abandon();
+	}
+
+	/**
+	 * Cancel the next page, or release it if it arrived already.
+	 */
+	private void abandon() {
+		ResponseFuture next = this.next;
+		this.next = null;
+		if (next == null) return;
+
+		next.addListener(new ResponseFutureListener() {
+			@Override public void operationComplete(ResponseFuture future) {
+				if (future.isSuccess() && !future.getNow().isClosed()) future.getNow().close();
+			}
+		});
+		next.cancel(false);
+	}
+
+	/**
+	 * @return the next page, or {@code null} if there is no more page or the stream is closed.
+	 */
+	private synchronized @Nullable DriveItemPage nextPage() throws IOException {
+		ResponseFuture future = this.next;
+		this.next = null;
+		if (!open || future == null) return null;
+
+		future.awaitUninterruptibly();
+		if (!future.isSuccess()) throw new IOException("Failed to list " + dir, future.cause());
+
+		DriveItemPage page;
+		try {
+			page = requestTool.parseDriveItemPageAndHandle(future.response(), future.getNow(), HTTP_OK);
+		}
+		catch (ErrorResponseException e) {
+			throw OneDriveFileSystem.translate(e, dir, null);
+		}
+		finally {
+			if (!future.getNow().isClosed()) future.getNow().close();
+		}
+
+		URI nextLink = page.getNextLink();
+		if (nextLink != null) this.next = requestTool.doAsyncStreaming(GET, nextLink, null);
+		return page;
+	}
+
+
+	private final class ChildIterator implements Iterator<Path> {
+		/**
+		 * When listing started.
+		 */
+		private final long since;
+		private @NotNull DriveItem[] page = new DriveItem[0];
+		private int index;
+		private @Nullable Path next;
+		private boolean done;
+
+		ChildIterator(long since) {
+			this.since = since;
+		}
+
+		@Override public boolean hasNext() {
+			if (next == null && !done) advance();
+			return next != null;
+		}
+
+		@Override public @NotNull Path next() {
+			if (!hasNext()) throw new NoSuchElementException();
+
+			Path next = this.next;
+			this.next = null;
+			return next;
+		}
+
+		@Override public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void advance() {
+			try {
+				while (true) {
+					if (index == page.length) {
+						DriveItemPage nextPage = nextPage();
+						if (nextPage == null) {
+							done = true;
+							if (open) fileSystem.cache().listed(dir.key(), since);
+							return;
+						}
+						page = nextPage.getValue();
+						index = 0;
+						continue;
+					}
+
+					DriveItem item = page[index];
+					// children of a page are not needed after it is iterated
+					page[index++] = null;
+
+					OneDrivePath child = dir.resolveName(item.getName());
+					fileSystem.cache(child.key(), item);
+					if (filter.accept(child)) {
+						next = child;
+						return;
+					}
+				}
+			}
+			catch (IOException e) {
+				done = true;
+				throw new DirectoryIteratorException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.bhyoo.onedrive.fs;
+
+import com.bhyoo.onedrive.container.facet.FileSystemInfoFacet;
+import com.bhyoo.onedrive.container.items.DriveItem;
+import com.bhyoo.onedrive.container.items.FileItem;
+import com.bhyoo.onedrive.container.items.FolderItem;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Attributes of an item in {@link OneDriveFileSystem}. It keeps only what attributes need instead of whole
+ * {@link DriveItem}, so many of them can be cached.<br>
+ * <br>
+ * Times are from file system info of the item (times that client set) if it has one, and from the item otherwise.
+ * Last access time is the same as last modified time.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class OneDriveFileAttributes implements BasicFileAttributes {
+	private static final Pattern DATE_TIME = Pattern.compile(
+			"(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2}):(\\d{2})(?:\\.(\\d+))?(Z|[+-]\\d{2}:\\d{2})?");
+
+	private final @NotNull String id;
+	private final @NotNull String eTag;
+	private final long size;
+	private final @NotNull FileTime creationTime;
+	private final @NotNull FileTime lastModifiedTime;
+	private final boolean directory;
+	private final boolean regularFile;
+	private final long childCount;
+
+
+	OneDriveFileAttributes(@NotNull DriveItem item) {
+		this(item.getId(), item.getETag(), item.getSize() == null ? 0 : item.getSize(),
+				createdOf(item), lastModifiedOf(item), item instanceof FolderItem, item instanceof FileItem,
+				item instanceof FolderItem ? ((FolderItem) item).childCount() : -1);
+	}
+
+	OneDriveFileAttributes(@NotNull String id, @NotNull String eTag, long size, @NotNull FileTime creationTime,
+						   @NotNull FileTime lastModifiedTime, boolean directory, boolean regularFile,
+						   long childCount) {
+		this.id = id;
+		this.eTag = eTag;
+		this.size = size;
+		this.creationTime = creationTime;
+		this.lastModifiedTime = lastModifiedTime;
+		this.directory = directory;
+		this.regularFile = regularFile;
+		this.childCount = childCount;
+	}
+
+	private static @NotNull FileTime createdOf(@NotNull DriveItem item) {
+		FileSystemInfoFacet info = item.getFileSystemInfo();
+		return parseTime(info != null ? info.getCreatedDateTime() : item.getCreatedDateTime());
+	}
+
+	private static @NotNull FileTime lastModifiedOf(@NotNull DriveItem item) {
+		FileSystemInfoFacet info = item.getFileSystemInfo();
+		return parseTime(info != null ? info.getLastModifiedDateTime() : item.getLastModifiedDateTime());
+	}
+
+
+	/**
+	 * @return id of the item
+	 */
+	public @NotNull String getId() {
+		return id;
+	}
+
+	public @NotNull String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @return how many children the folder has, or {@code -1} if it is not a folder.
+	 */
+	public long getChildCount() {
+		return childCount;
+	}
+
+	@Override public @NotNull FileTime lastModifiedTime() {
+		return lastModifiedTime;
+	}
+
+	@Override public @NotNull FileTime lastAccessTime() {
+		return lastModifiedTime;
+	}
+
+	@Override public @NotNull FileTime creationTime() {
+		return creationTime;
+	}
+
+	@Override public boolean isRegularFile() {
+		return regularFile;
+	}
+
+	@Override public boolean isDirectory() {
+		return directory;
+	}
+
+	@Override public boolean isSymbolicLink() {
+		return false;
+	}
+
+	/**
+	 * @return {@code true} for items that are neither file nor folder (e.g. OneNote package).
+	 */
+	@Override public boolean isOther() {
+		return !directory && !regularFile;
+	}
+
+	@Override public long size() {
+		return size;
+	}
+
+	@Override public @NotNull Object fileKey() {
+		return id;
+	}
+
+
+	/**
+	 * @param dateTime ISO 8601 date and time that OneDrive gives (e.g. <code>2017-08-14T12:34:56.789Z</code>)
+	 *
+	 * @return the time, or epoch if it is not recognizable.
+	 */
+	static @NotNull FileTime parseTime(@Nullable String dateTime) {
+		if (dateTime == null) return FileTime.fromMillis(0);
+
+		Matcher matcher = DATE_TIME.matcher(dateTime.trim());
+		if (!matcher.matches()) return FileTime.fromMillis(0);
+
+		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)) - 1,
+				Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)),
+				Integer.parseInt(matcher.group(5)), Integer.parseInt(matcher.group(6)));
+		long millis = calendar.getTimeInMillis();
+
+		String fraction = matcher.group(7);
+		if (fraction != null) millis += Integer.parseInt((fraction + "00").substring(0, 3));
+
+		String zone = matcher.group(8);
+		if (zone != null && !"Z".equals(zone)) {
+			long offset = TimeUnit.HOURS.toMillis(Integer.parseInt(zone.substring(1, 3))) +
+					TimeUnit.MINUTES.toMillis(Integer.parseInt(zone.substring(4, 6)));
+			millis += zone.charAt(0) == '+' ? -offset : offset;
+		}
+
+		return FileTime.fromMillis(millis);
+	}
+}
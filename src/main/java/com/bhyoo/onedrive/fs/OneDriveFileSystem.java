@@ -0,0 +1,493 @@
+package com.bhyoo.onedrive.fs;
+
+import com.bhyoo.onedrive.client.Client;
+import com.bhyoo.onedrive.container.AsyncJobMonitor;
+import com.bhyoo.onedrive.container.AsyncJobStatus;
+import com.bhyoo.onedrive.container.items.DriveItem;
+import com.bhyoo.onedrive.container.items.FileItem;
+import com.bhyoo.onedrive.container.items.FolderItem;
+import com.bhyoo.onedrive.container.items.pointer.Operator;
+import com.bhyoo.onedrive.container.items.pointer.PathPointer;
+import com.bhyoo.onedrive.exceptions.ErrorResponseException;
+import com.bhyoo.onedrive.network.async.RemoteByteChannel;
+import com.bhyoo.onedrive.network.async.UploadFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static java.net.HttpURLConnection.*;
+
+/**
+ * A drive of OneDrive as {@link FileSystem}. Its only root is root folder of the drive.<br>
+ * <br>
+ * Attributes of items are cached for a while, and listing a folder caches attributes of its children. So walking a
+ * tree asks each folder once, instead of each item. Changes that are made through this file system update the cache,
+ * but changes that are made elsewhere are seen after the cache expires.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ * @see OneDriveFileSystemProvider
+ */
+public class OneDriveFileSystem extends FileSystem {
+	/**
+	 * Files up to this size are uploaded by one request, and larger ones by upload session.
+	 */
+	static final long SIMPLE_UPLOAD_MAX = 4 * 1024 * 1024;
+	private static final long COPY_POLL_MIN_MILLIS = 100;
+	private static final long COPY_POLL_MAX_MILLIS = 2000;
+
+	private final @NotNull OneDriveFileSystemProvider provider;
+	private final @NotNull Client client;
+	private final @NotNull String authority;
+	private final @Nullable String driveId;
+	private final @NotNull AttributeCache cache;
+	private final @NotNull OneDrivePath root;
+	private volatile boolean open = true;
+
+
+	/**
+	 * @param authority id of drive, or {@link OneDriveFileSystemProvider#DEFAULT_DRIVE} for default drive of the
+	 *                  account of {@code client}
+	 */
+	OneDriveFileSystem(@NotNull OneDriveFileSystemProvider provider, @NotNull Client client,
+					   @NotNull String authority, @NotNull AttributeCache cache) {
+		this.provider = provider;
+		this.client = client;
+		this.authority = authority;
+		this.driveId = OneDriveFileSystemProvider.DEFAULT_DRIVE.equals(authority) ? null : authority;
+		this.cache = cache;
+		this.root = new OneDrivePath(this, "/");
+	}
+
+
+	public @NotNull Client getClient() {
+		return client;
+	}
+
+	/**
+	 * @return id of drive, or {@link OneDriveFileSystemProvider#DEFAULT_DRIVE}.
+	 */
+	public @NotNull String getAuthority() {
+		return authority;
+	}
+
+	@NotNull OneDrivePath getRoot() {
+		return root;
+	}
+
+	@NotNull PathPointer rootPointer() {
+		return new PathPointer("/", driveId);
+	}
+
+
+	@Override public @NotNull FileSystemProvider provider() {
+		return provider;
+	}
+
+	/**
+	 * Close this file system and drop its cache. {@link Client} is not closed.
+	 */
+	@Override public void close() {
+		if (!open) return;
+		open = false;
+
+		cache.clear();
+		provider.remove(this);
+	}
+
+	@Override public boolean isOpen() {
+		return open;
+	}
+
+	@Override public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override public @NotNull String getSeparator() {
+		return "/";
+	}
+
+	@Override public @NotNull Iterable<Path> getRootDirectories() {
+		return Collections.<Path>singletonList(root);
+	}
+
+	@Override public @NotNull Iterable<FileStore> getFileStores() {
+		return Collections.emptyList();
+	}
+
+	@Override public @NotNull Set<String> supportedFileAttributeViews() {
+		return Collections.singleton("basic");
+	}
+
+	@Override public @NotNull OneDrivePath getPath(@NotNull String first, @NotNull String... more) {
+		if (more.length == 0) return new OneDrivePath(this, first);
+
+		StringBuilder builder = new StringBuilder(first);
+		for (String name : more) {
+			if (name.isEmpty()) continue;
+			if (builder.length() > 0) builder.append('/');
+			builder.append(name);
+		}
+		return new OneDrivePath(this, builder.toString());
+	}
+
+	/**
+	 * @param syntaxAndPattern <code>glob:</code> or <code>regex:</code> pattern, that is matched with whole string of
+	 *                         path.
+	 */
+	@Override public @NotNull PathMatcher getPathMatcher(@NotNull String syntaxAndPattern) {
+		int colon = syntaxAndPattern.indexOf(':');
+		if (colon <= 0) throw new IllegalArgumentException("No syntax : " + syntaxAndPattern);
+
+		String syntax = syntaxAndPattern.substring(0, colon);
+		String pattern = syntaxAndPattern.substring(colon + 1);
+		final Pattern regex;
+		if ("glob".equalsIgnoreCase(syntax)) regex = Pattern.compile(Globs.toRegex(pattern));
+		else if ("regex".equalsIgnoreCase(syntax)) regex = Pattern.compile(pattern);
+		else throw new UnsupportedOperationException("Unknown syntax : " + syntax);
+
+		return new PathMatcher() {
+			@Override public boolean matches(Path path) {
+				return regex.matcher(path.toString()).matches();
+			}
+		};
+	}
+
+	@Override public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException("OneDrive has no user principal");
+	}
+
+	@Override public WatchService newWatchService() {
+		throw new UnsupportedOperationException("OneDrive can not be watched");
+	}
+
+	private void ensureOpen() {
+		if (!open) throw new ClosedFileSystemException();
+	}
+
+
+	/*
+	 * Operations of provider
+	 */
+
+	/**
+	 * @param cached {@code false} to ask server even if it is cached
+	 *
+	 * @throws NoSuchFileException if {@code path} does not exist
+	 */
+	@NotNull OneDriveFileAttributes attributes(@NotNull OneDrivePath path, boolean cached) throws IOException {
+		ensureOpen();
+		String key = path.key();
+
+		if (cached) {
+			AttributeCache.Entry entry = cache.lookup(key, parentKey(path));
+			if (entry != null) {
+				if (entry.attributes == null) throw new NoSuchFileException(path.toString());
+				return entry.attributes;
+			}
+		}
+
+		try {
+			return cache(key, client.getItem(path.pointer()));
+		}
+		catch (ErrorResponseException e) {
+			if (e.getGivenResponse() == HTTP_NOT_FOUND) cache.putMissing(key);
+			throw translate(e, path, null);
+		}
+	}
+
+	/**
+	 * @return attributes of {@code path}, or {@code null} if it does not exist.
+	 */
+	@Nullable OneDriveFileAttributes attributesIfExists(@NotNull OneDrivePath path) throws IOException {
+		try {
+			return attributes(path, true);
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@NotNull OneDriveFileAttributes cache(@NotNull String key, @NotNull DriveItem item) {
+		OneDriveFileAttributes attributes = new OneDriveFileAttributes(item);
+		cache.put(key, attributes);
+		return attributes;
+	}
+
+	@NotNull AttributeCache cache() {
+		return cache;
+	}
+
+	@NotNull DirectoryStream<Path> newDirectoryStream(@NotNull OneDrivePath dir,
+													  @NotNull DirectoryStream.Filter<? super Path> filter)
+			throws IOException {
+		if (!attributes(dir, true).isDirectory()) throw new NotDirectoryException(dir.toString());
+		return new OneDriveDirectoryStream(this, dir, filter);
+	}
+
+	void createDirectory(@NotNull OneDrivePath dir) throws IOException {
+		if (dir.isRoot() || attributesIfExists(dir) != null) throw new FileAlreadyExistsException(dir.toString());
+		OneDrivePath parent = checkParent(dir);
+
+		FolderItem created;
+		try {
+			created = client.createFolder(parent.pointer(), nameOf(dir));
+		}
+		catch (ErrorResponseException e) {
+			throw translate(e, dir, null);
+		}
+		finally {
+			cache.invalidate(dir.key(), parentKey(dir));
+		}
+		cache(dir.key(), created);
+	}
+
+	void delete(@NotNull OneDrivePath path) throws IOException {
+		if (path.isRoot()) throw new FileSystemException(path.toString(), null, "Root can not be deleted");
+
+		// server deletes folder with its children, but file system deletes only empty folder
+		OneDriveFileAttributes attributes = attributes(path, false);
+		if (attributes.getChildCount() > 0) throw new DirectoryNotEmptyException(path.toString());
+
+		try {
+			client.deleteItem(path.pointer());
+		}
+		catch (ErrorResponseException e) {
+			throw translate(e, path, null);
+		}
+		finally {
+			cache.invalidate(path.key(), parentKey(path));
+		}
+		cache.putMissing(path.key());
+	}
+
+	void copy(@NotNull OneDrivePath source, @NotNull OneDrivePath target, @NotNull CopyOption... options)
+			throws IOException {
+		OneDriveFileAttributes attributes = attributes(source, true);
+		if (source.key().equals(target.key())) return;
+		prepareTarget(target, options);
+
+		// like other file systems, copy of folder does not copy its children
+		if (attributes.isDirectory()) {
+			createDirectory(target);
+			return;
+		}
+
+		OneDrivePath parent = checkParent(target);
+		try {
+			AsyncJobMonitor monitor = client.copyItem(source.pointer(), parent.pointer(), nameOf(target));
+			await(monitor, source, target);
+		}
+		catch (ErrorResponseException e) {
+			throw translate(e, source, target);
+		}
+		finally {
+			cache.invalidate(target.key(), parentKey(target));
+		}
+	}
+
+	void move(@NotNull OneDrivePath source, @NotNull OneDrivePath target, @NotNull CopyOption... options)
+			throws IOException {
+		if (source.isRoot()) throw new FileSystemException(source.toString(), null, "Root can not be moved");
+		attributes(source, true);
+		if (source.key().equals(target.key())) return;
+		prepareTarget(target, options);
+
+		OneDrivePath parent = checkParent(target);
+		try {
+			DriveItem moved = client.moveItem(source.pointer(), parent.pointer(), nameOf(target));
+			cache.invalidate(target.key(), parentKey(target));
+			cache(target.key(), moved);
+		}
+		catch (ErrorResponseException e) {
+			throw translate(e, source, target);
+		}
+		finally {
+			cache.invalidate(source.key(), parentKey(source));
+		}
+	}
+
+	/**
+	 * Delete {@code target} if it exists and {@link StandardCopyOption#REPLACE_EXISTING} is given.
+	 */
+	private void prepareTarget(@NotNull OneDrivePath target, @NotNull CopyOption... options) throws IOException {
+		if (attributesIfExists(target) == null) return;
+		if (!Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING)) {
+			throw new FileAlreadyExistsException(target.toString());
+		}
+		delete(target);
+	}
+
+	private void await(@NotNull AsyncJobMonitor monitor, @NotNull OneDrivePath source, @NotNull OneDrivePath target)
+			throws IOException {
+		long interval = COPY_POLL_MIN_MILLIS;
+		while (monitor.getStatus() != AsyncJobStatus.COMPLETED) {
+			if (monitor.getStatus() == AsyncJobStatus.FAILED) {
+				throw new FileSystemException(source.toString(), target.toString(),
+						"Copying failed : " + monitor.getStatusDescription());
+			}
+
+			try {
+				Thread.sleep(interval);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while copying " + source + " to " + target);
+			}
+			interval = Math.min(interval * 2, COPY_POLL_MAX_MILLIS);
+			monitor.update();
+		}
+	}
+
+	/**
+	 * @return parent of {@code path}, that is checked to be a folder.
+	 */
+	private @NotNull OneDrivePath checkParent(@NotNull OneDrivePath path) throws IOException {
+		OneDrivePath parent = path.toAbsolutePath().normalize().getParent();
+		if (parent == null) throw new FileSystemException(path.toString(), null, "Root has no parent");
+		if (!attributes(parent, true).isDirectory()) throw new NotDirectoryException(parent.toString());
+		return parent;
+	}
+
+
+	/*
+	 * Content
+	 */
+
+	@NotNull SeekableByteChannel newReadChannel(@NotNull OneDrivePath path) throws IOException {
+		OneDriveFileAttributes attributes = attributes(path, true);
+		if (attributes.isDirectory()) throw new FileSystemException(path.toString(), null, "Is a directory");
+
+		return client.openChannel(path.pointer(), attributes.size(), RemoteByteChannel.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Content is written into a local file first, and uploaded when the channel is closed. Existing content is
+	 * downloaded into it first unless it is truncated, and the channel is not opened unless whole of it is
+	 * downloaded. Otherwise partial content would replace the remote file on close.
+	 */
+	@NotNull SeekableByteChannel newWriteChannel(@NotNull OneDrivePath path, @NotNull Set<? extends OpenOption> options)
+			throws IOException {
+		OneDriveFileAttributes attributes = attributesIfExists(path);
+		if (attributes != null) {
+			if (options.contains(StandardOpenOption.CREATE_NEW)) throw new FileAlreadyExistsException(path.toString());
+			if (attributes.isDirectory()) throw new FileSystemException(path.toString(), null, "Is a directory");
+		}
+		else {
+			if (!options.contains(StandardOpenOption.CREATE) && !options.contains(StandardOpenOption.CREATE_NEW)) {
+				throw new NoSuchFileException(path.toString());
+			}
+			checkParent(path);
+		}
+
+		Set<OpenOption> stagingOptions = new HashSet<>();
+		stagingOptions.add(StandardOpenOption.WRITE);
+		if (options.contains(StandardOpenOption.READ)) stagingOptions.add(StandardOpenOption.READ);
+		if (options.contains(StandardOpenOption.APPEND)) stagingOptions.add(StandardOpenOption.APPEND);
+
+		Path staging = Files.createTempFile("onedrive-", ".upload");
+		try {
+			if (attributes != null && attributes.size() > 0 &&
+					!options.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+				long received;
+				try (FileChannel channel = FileChannel.open(staging, StandardOpenOption.WRITE)) {
+					received = client.downloadTo(path.pointer(), channel);
+				}
+				if (received != attributes.size()) {
+					cache.invalidate(path.key(), parentKey(path));
+					throw new FileSystemException(path.toString(), null,
+							"Downloaded " + received + " bytes of existing content, but its size is " +
+									attributes.size());
+				}
+			}
+
+			return new UploadChannel(this, path, staging, FileChannel.open(staging, stagingOptions));
+		}
+		catch (ErrorResponseException e) {
+			Files.deleteIfExists(staging);
+			throw translate(e, path, null);
+		}
+		catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(staging);
+			throw e;
+		}
+	}
+
+	/**
+	 * Upload {@code content} as content of {@code path}. Small content is uploaded by one request, and others by
+	 * upload session.
+	 */
+	void upload(@NotNull OneDrivePath path, @NotNull Path content) throws IOException {
+		PathPointer pointer = path.pointer();
+		FileItem uploaded;
+
+		try {
+			if (Files.size(content) <= SIMPLE_UPLOAD_MAX) {
+				uploaded = client.requestTool().simpleUpload(pointer.resolveOperator(Operator.CONTENT), content);
+			}
+			else {
+				UploadFuture future = client.requestTool()
+						.upload(pointer.resolveOperator(Operator.CREATE_UPLOAD_SESSION), content)
+						.awaitUninterruptibly();
+				if (!future.isSuccess()) throw new IOException("Failed to upload " + path, future.cause());
+				uploaded = future.getNow();
+			}
+		}
+		catch (ErrorResponseException e) {
+			throw translate(e, path, null);
+		}
+		finally {
+			cache.invalidate(path.key(), parentKey(path));
+		}
+
+		cache(path.key(), uploaded);
+	}
+
+
+	private static @Nullable String parentKey(@NotNull OneDrivePath path) {
+		OneDrivePath parent = path.toAbsolutePath().normalize().getParent();
+		return parent == null ? null : parent.toString();
+	}
+
+	private static @NotNull String nameOf(@NotNull OneDrivePath path) {
+		OneDrivePath name = path.toAbsolutePath().normalize().getFileName();
+		assert name != null : "Name of root is asked";
+		return name.toString();
+	}
+
+	/**
+	 * @return exception of file system that fits {@code e}
+	 */
+	static @NotNull IOException translate(@NotNull ErrorResponseException e, @NotNull Path path,
+										  @Nullable Path other) {
+		String file = path.toString();
+		String otherFile = other == null ? null : other.toString();
+
+		FileSystemException translated;
+		switch (e.getGivenResponse()) {
+			case HTTP_NOT_FOUND:
+				translated = new NoSuchFileException(file, otherFile, e.getErrorMessage());
+				break;
+			case HTTP_CONFLICT:
+				translated = new FileAlreadyExistsException(otherFile != null ? otherFile : file, null,
+						e.getErrorMessage());
+				break;
+			case HTTP_UNAUTHORIZED:
+			case HTTP_FORBIDDEN:
+				translated = new AccessDeniedException(file, otherFile, e.getErrorMessage());
+				break;
+			default:
+				translated = new FileSystemException(file, otherFile, e.getMessage());
+		}
+		translated.initCause(e);
+		return translated;
+	}
+}
@@ -0,0 +1,283 @@
+package com.bhyoo.onedrive.fs;
+
+import com.bhyoo.onedrive.client.Client;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+
+/**
+ * Provider of {@link OneDriveFileSystem}s, with URI <code>onedrive://{drive-id}/{path}</code>. Drive id
+ * {@value #DEFAULT_DRIVE} is default drive of the account.<br>
+ * <br>
+ * A file system is created with {@link Client} that accesses the drive, by
+ * <code>FileSystems.newFileSystem(URI.create("onedrive://me/"), Collections.singletonMap("client", client))</code>.
+ * Cache of attributes can be tuned by {@value #ENV_CACHE_TTL_MILLIS} and {@value #ENV_CACHE_MAX_ENTRIES} of
+ * environment.<br>
+ * <br>
+ * Content is read by range requests through {@link com.bhyoo.onedrive.network.async.RemoteByteChannel}, and written
+ * into a local file first and uploaded when the channel is closed. Only <code>basic</code> attributes are
+ * supported, and they can not be changed.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class OneDriveFileSystemProvider extends FileSystemProvider {
+	public static final String SCHEME = "onedrive";
+	/**
+	 * Authority of default drive of the account.
+	 */
+	public static final String DEFAULT_DRIVE = "me";
+	/**
+	 * Key of environment for {@link Client} of file system. It is required.
+	 */
+	public static final String ENV_CLIENT = "client";
+	/**
+	 * Key of environment for how long attributes are cached, in milliseconds.
+	 */
+	public static final String ENV_CACHE_TTL_MILLIS = "cacheTtlMillis";
+	/**
+	 * Key of environment for how many paths are cached at most.
+	 */
+	public static final String ENV_CACHE_MAX_ENTRIES = "cacheMaxEntries";
+
+	/**
+	 * Open file systems by their authority. Guarded by itself.
+	 */
+	private final @NotNull Map<String, OneDriveFileSystem> fileSystems = new HashMap<>();
+
+
+	@Override public @NotNull String getScheme() {
+		return SCHEME;
+	}
+
+	@Override public @NotNull OneDriveFileSystem newFileSystem(URI uri, Map<String, ?> env) {
+		String authority = authorityOf(uri);
+
+		Object client = env.get(ENV_CLIENT);
+		if (!(client instanceof Client)) {
+			throw new IllegalArgumentException("Environment has no " + Client.class.getName() + " as " + ENV_CLIENT);
+		}
+		AttributeCache cache = new AttributeCache(
+				longOf(env, ENV_CACHE_TTL_MILLIS, AttributeCache.DEFAULT_TTL_MILLIS),
+				(int) longOf(env, ENV_CACHE_MAX_ENTRIES, AttributeCache.DEFAULT_MAX_ENTRIES));
+
+		synchronized (fileSystems) {
+			if (fileSystems.containsKey(authority)) throw new FileSystemAlreadyExistsException(uri.toString());
+
+			OneDriveFileSystem fileSystem = new OneDriveFileSystem(this, (Client) client, authority, cache);
+			fileSystems.put(authority, fileSystem);
+			return fileSystem;
+		}
+	}
+
+	@Override public @NotNull OneDriveFileSystem getFileSystem(URI uri) {
+		String authority = authorityOf(uri);
+		synchronized (fileSystems) {
+			OneDriveFileSystem fileSystem = fileSystems.get(authority);
+			if (fileSystem == null) throw new FileSystemNotFoundException(uri.toString());
+			return fileSystem;
+		}
+	}
+
+	@Override public @NotNull Path getPath(URI uri) {
+		String path = uri.getPath();
+		return getFileSystem(uri).getPath(path == null || path.isEmpty() ? "/" : path);
+	}
+
+	void remove(@NotNull OneDriveFileSystem fileSystem) {
+		synchronized (fileSystems) {
+			if (fileSystems.get(fileSystem.getAuthority()) == fileSystem) fileSystems.remove(fileSystem.getAuthority());
+		}
+	}
+
+	private @NotNull String authorityOf(@NotNull URI uri) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("URI scheme is not " + SCHEME + " : " + uri);
+		}
+		// drive id of OneDrive for Business is not a host name (e.g. b!xxx)
+		String authority = uri.getAuthority();
+		if (authority == null || authority.isEmpty()) throw new IllegalArgumentException("No drive id : " + uri);
+		return authority;
+	}
+
+	private static long longOf(@NotNull Map<String, ?> env, @NotNull String key, long defaultValue) {
+		Object value = env.get(key);
+		if (value == null) return defaultValue;
+		if (value instanceof Number) return ((Number) value).longValue();
+		return Long.parseLong(value.toString());
+	}
+
+
+	@Override public @NotNull SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+																 FileAttribute<?>... attrs) throws IOException {
+		if (attrs.length > 0) {
+			throw new UnsupportedOperationException("Attributes can not be set : " + attrs[0].name());
+		}
+
+		OneDrivePath file = OneDrivePath.of(path);
+		if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+			if (options.contains(StandardOpenOption.READ) && options.contains(StandardOpenOption.APPEND)) {
+				throw new IllegalArgumentException("READ and APPEND can not be used together");
+			}
+			return file.getFileSystem().newWriteChannel(file, options);
+		}
+		return file.getFileSystem().newReadChannel(file);
+	}
+
+	@Override public @NotNull DirectoryStream<Path> newDirectoryStream(Path dir,
+																	   DirectoryStream.Filter<? super Path> filter)
+			throws IOException {
+		OneDrivePath folder = OneDrivePath.of(dir);
+		return folder.getFileSystem().newDirectoryStream(folder, filter);
+	}
+
+	@Override public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+		if (attrs.length > 0) {
+			throw new UnsupportedOperationException("Attributes can not be set : " + attrs[0].name());
+		}
+
+		OneDrivePath folder = OneDrivePath.of(dir);
+		folder.getFileSystem().createDirectory(folder);
+	}
+
+	@Override public void delete(Path path) throws IOException {
+		OneDrivePath file = OneDrivePath.of(path);
+		file.getFileSystem().delete(file);
+	}
+
+	/**
+	 * Copy is done by server, and it waits until the server completes it.
+	 */
+	@Override public void copy(Path source, Path target, CopyOption... options) throws IOException {
+		OneDrivePath from = OneDrivePath.of(source);
+		from.getFileSystem().copy(from, sameFileSystem(from, target), options);
+	}
+
+	/**
+	 * Move is done by one request, so it is atomic.
+	 */
+	@Override public void move(Path source, Path target, CopyOption... options) throws IOException {
+		OneDrivePath from = OneDrivePath.of(source);
+		from.getFileSystem().move(from, sameFileSystem(from, target), options);
+	}
+
+	private static @NotNull OneDrivePath sameFileSystem(@NotNull OneDrivePath source, @NotNull Path target) {
+		OneDrivePath to = OneDrivePath.of(target);
+		if (to.getFileSystem() != source.getFileSystem()) {
+			throw new ProviderMismatchException("Items can not be copied nor moved to other drive");
+		}
+		return to;
+	}
+
+	@Override public boolean isSameFile(Path path, Path path2) throws IOException {
+		if (path.equals(path2)) return true;
+		if (!(path instanceof OneDrivePath) || !(path2 instanceof OneDrivePath)) return false;
+
+		OneDrivePath first = (OneDrivePath) path, second = (OneDrivePath) path2;
+		if (first.getFileSystem() != second.getFileSystem()) return false;
+		return first.getFileSystem().attributes(first, true).getId()
+				.equals(second.getFileSystem().attributes(second, true).getId());
+	}
+
+	@Override public boolean isHidden(Path path) {
+		return false;
+	}
+
+	@Override public FileStore getFileStore(Path path) {
+		throw new UnsupportedOperationException("OneDrive has no file store");
+	}
+
+	/**
+	 * Checks only that {@code path} exists. Permission of the account is checked by each operation.
+	 */
+	@Override public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		OneDrivePath file = OneDrivePath.of(path);
+		file.getFileSystem().attributes(file, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override public @Nullable <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type,
+																				   LinkOption... options) {
+		final OneDrivePath file = OneDrivePath.of(path);
+		if (type != BasicFileAttributeView.class) return null;
+
+		return (V) new BasicFileAttributeView() {
+			@Override public String name() {
+				return "basic";
+			}
+
+			@Override public BasicFileAttributes readAttributes() throws IOException {
+				return file.getFileSystem().attributes(file, true);
+			}
+
+			@Override public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+				if (lastModifiedTime != null || lastAccessTime != null || createTime != null) {
+					throw new UnsupportedOperationException("Times of OneDrive item can not be set");
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param type {@link BasicFileAttributes} or {@link OneDriveFileAttributes}
+	 */
+	@Override public @NotNull <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type,
+																			  LinkOption... options)
+			throws IOException {
+		if (type != BasicFileAttributes.class && type != OneDriveFileAttributes.class) {
+			throw new UnsupportedOperationException("Unsupported attributes : " + type.getName());
+		}
+
+		OneDrivePath file = OneDrivePath.of(path);
+		return type.cast(file.getFileSystem().attributes(file, true));
+	}
+
+	@Override public @NotNull Map<String, Object> readAttributes(Path path, String attributes,
+																 LinkOption... options) throws IOException {
+		String names = attributes;
+		int colon = attributes.indexOf(':');
+		if (colon >= 0) {
+			String view = attributes.substring(0, colon);
+			if (!"basic".equals(view)) throw new UnsupportedOperationException("Unsupported view : " + view);
+			names = attributes.substring(colon + 1);
+		}
+
+		OneDrivePath file = OneDrivePath.of(path);
+		OneDriveFileAttributes read = file.getFileSystem().attributes(file, true);
+
+		Map<String, Object> all = new HashMap<>();
+		all.put("size", read.size());
+		all.put("creationTime", read.creationTime());
+		all.put("lastModifiedTime", read.lastModifiedTime());
+		all.put("lastAccessTime", read.lastAccessTime());
+		all.put("isRegularFile", read.isRegularFile());
+		all.put("isDirectory", read.isDirectory());
+		all.put("isSymbolicLink", read.isSymbolicLink());
+		all.put("isOther", read.isOther());
+		all.put("fileKey", read.fileKey());
+
+		if ("*".equals(names)) return all;
+
+		Map<String, Object> result = new HashMap<>();
+		for (String name : names.split(",")) {
+			if ("*".equals(name)) return all;
+			if (!all.containsKey(name)) throw new IllegalArgumentException("Unknown attribute : " + name);
+			result.put(name, all.get(name));
+		}
+		return result;
+	}
+
+	@Override public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+		throw new UnsupportedOperationException("Attributes of OneDrive item can not be set");
+	}
+}
@@ -0,0 +1,290 @@
+package com.bhyoo.onedrive.fs;
+
+import com.bhyoo.onedrive.container.items.pointer.PathPointer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Path of an item in {@link OneDriveFileSystem}. Names are separated by <code>/</code>, and relative path is resolved
+ * against root of the drive.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public final class OneDrivePath implements Path {
+	private static final String[] EMPTY = new String[0];
+
+	private final @NotNull OneDriveFileSystem fileSystem;
+	private final boolean absolute;
+	private final @NotNull String[] names;
+	private @Nullable String string;
+
+
+	OneDrivePath(@NotNull OneDriveFileSystem fileSystem, @NotNull String path) {
+		this.fileSystem = fileSystem;
+		this.absolute = path.startsWith("/");
+
+		List<String> names = new ArrayList<>();
+		for (String name : path.split("/")) {
+			if (!name.isEmpty()) names.add(name);
+		}
+		this.names = names.toArray(EMPTY);
+	}
+
+	private OneDrivePath(@NotNull OneDriveFileSystem fileSystem, boolean absolute, @NotNull String[] names) {
+		this.fileSystem = fileSystem;
+		this.absolute = absolute;
+		this.names = names;
+	}
+
+	static @NotNull OneDrivePath of(@Nullable Path path) {
+		if (path == null) throw new NullPointerException();
+		if (!(path instanceof OneDrivePath)) throw new ProviderMismatchException();
+		return (OneDrivePath) path;
+	}
+
+
+	/**
+	 * @return pointer of this path in its drive
+	 */
+	@NotNull PathPointer pointer() {
+		PathPointer pointer = fileSystem.rootPointer();
+		for (String name : toAbsolutePath().normalize().names) pointer = pointer.resolve(name);
+		return pointer;
+	}
+
+	/**
+	 * @return absolute and normalized form of this path, that identifies the item.
+	 */
+	@NotNull String key() {
+		return toAbsolutePath().normalize().toString();
+	}
+
+	boolean isRoot() {
+		return absolute && names.length == 0;
+	}
+
+
+	@Override public @NotNull OneDriveFileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	@Override public boolean isAbsolute() {
+		return absolute;
+	}
+
+	@Override public @Nullable OneDrivePath getRoot() {
+		return absolute ? fileSystem.getRoot() : null;
+	}
+
+	@Override public @Nullable OneDrivePath getFileName() {
+		if (names.length == 0) return null;
+		return new OneDrivePath(fileSystem, false, new String[]{names[names.length - 1]});
+	}
+
+	@Override public @Nullable OneDrivePath getParent() {
+		if (names.length == 0) return null;
+		if (names.length == 1) return getRoot();
+		return new OneDrivePath(fileSystem, absolute, Arrays.copyOf(names, names.length - 1));
+	}
+
+	@Override public int getNameCount() {
+		return names.length;
+	}
+
+	@Override public @NotNull OneDrivePath getName(int index) {
+		return subpath(index, index + 1);
+	}
+
+	@Override public @NotNull OneDrivePath subpath(int beginIndex, int endIndex) {
+		if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) {
+			throw new IllegalArgumentException("Wrong range " + beginIndex + '-' + endIndex + " of " + this);
+		}
+		return new OneDrivePath(fileSystem, false, Arrays.copyOfRange(names, beginIndex, endIndex));
+	}
+
+	@Override public boolean startsWith(@NotNull Path other) {
+		if (!(other instanceof OneDrivePath)) return false;
+
+		OneDrivePath that = (OneDrivePath) other;
+		if (that.fileSystem != fileSystem || that.absolute != absolute || that.names.length > names.length) {
+			return false;
+		}
+		if (!absolute && that.names.length == 0) return names.length == 0;
+
+		for (int i = 0; i < that.names.length; i++) {
+			if (!names[i].equals(that.names[i])) return false;
+		}
+		return true;
+	}
+
+	@Override public boolean startsWith(@NotNull String other) {
+		return startsWith(fileSystem.getPath(other));
+	}
+
+	@Override public boolean endsWith(@NotNull Path other) {
+		if (!(other instanceof OneDrivePath)) return false;
+
+		OneDrivePath that = (OneDrivePath) other;
+		if (that.fileSystem != fileSystem) return false;
+		if (that.absolute) return equals(that);
+		if (that.names.length > names.length) return false;
+		if (that.names.length == 0) return names.length == 0;
+
+		for (int i = 1; i <= that.names.length; i++) {
+			if (!names[names.length - i].equals(that.names[that.names.length - i])) return false;
+		}
+		return true;
+	}
+
+	@Override public boolean endsWith(@NotNull String other) {
+		return endsWith(fileSystem.getPath(other));
+	}
+
+	@Override public @NotNull OneDrivePath normalize() {
+		List<String> normalized = new ArrayList<>(names.length);
+		for (String name : names) {
+			if (".".equals(name)) continue;
+
+			if ("..".equals(name)) {
+				int last = normalized.size() - 1;
+				if (last >= 0 && !"..".equals(normalized.get(last))) {
+					normalized.remove(last);
+					continue;
+				}
+				// parent of root is root
+				if (absolute) continue;
+			}
+			normalized.add(name);
+		}
+
+		if (normalized.size() == names.length) return this;
+		return new OneDrivePath(fileSystem, absolute, normalized.toArray(EMPTY));
+	}
+
+	@Override public @NotNull OneDrivePath resolve(@NotNull Path other) {
+		OneDrivePath that = of(other);
+		if (that.absolute) return that;
+		if (that.names.length == 0) return this;
+
+		String[] names = Arrays.copyOf(this.names, this.names.length + that.names.length);
+		System.arraycopy(that.names, 0, names, this.names.length, that.names.length);
+		return new OneDrivePath(fileSystem, absolute, names);
+	}
+
+	@Override public @NotNull OneDrivePath resolve(@NotNull String other) {
+		return resolve(fileSystem.getPath(other));
+	}
+
+	/**
+	 * Same as {@code resolve(name)}, for a name that is given by server and could contain any character.
+	 */
+	@NotNull OneDrivePath resolveName(@NotNull String name) {
+		String[] names = Arrays.copyOf(this.names, this.names.length + 1);
+		names[this.names.length] = name;
+		return new OneDrivePath(fileSystem, absolute, names);
+	}
+
+	@Override public @NotNull Path resolveSibling(@NotNull Path other) {
+		OneDrivePath parent = getParent();
+		return parent == null ? of(other) : parent.resolve(other);
+	}
+
+	@Override public @NotNull Path resolveSibling(@NotNull String other) {
+		return resolveSibling(fileSystem.getPath(other));
+	}
+
+	@Override public @NotNull OneDrivePath relativize(@NotNull Path other) {
+		OneDrivePath that = of(other);
+		if (that.absolute != absolute) {
+			throw new IllegalArgumentException("Only paths of the same type can be relativized : " + this + ", " +
+					that);
+		}
+
+		int common = 0;
+		while (common < names.length && common < that.names.length && names[common].equals(that.names[common])) {
+			common++;
+		}
+
+		List<String> relative = new ArrayList<>();
+		for (int i = common; i < names.length; i++) relative.add("..");
+		relative.addAll(Arrays.asList(that.names).subList(common, that.names.length));
+		return new OneDrivePath(fileSystem, false, relative.toArray(EMPTY));
+	}
+
+	@Override public @NotNull URI toUri() {
+		try {
+			return new URI(OneDriveFileSystemProvider.SCHEME, fileSystem.getAuthority(), key(), null, null);
+		}
+		catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override public @NotNull OneDrivePath toAbsolutePath() {
+		return absolute ? this : new OneDrivePath(fileSystem, true, names);
+	}
+
+	@Override public @NotNull OneDrivePath toRealPath(@NotNull LinkOption... options) throws IOException {
+		OneDrivePath real = toAbsolutePath().normalize();
+		fileSystem.attributes(real, true);
+		return real;
+	}
+
+	@Override public File toFile() {
+		throw new UnsupportedOperationException("Path of OneDrive is not a local file : " + this);
+	}
+
+	@Override public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events,
+									   WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException("OneDrive path can not be watched");
+	}
+
+	@Override public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+		throw new UnsupportedOperationException("OneDrive path can not be watched");
+	}
+
+	@Override public @NotNull Iterator<Path> iterator() {
+		List<Path> paths = new ArrayList<>(names.length);
+		for (String name : names) paths.add(new OneDrivePath(fileSystem, false, new String[]{name}));
+		return paths.iterator();
+	}
+
+	@Override public int compareTo(@NotNull Path other) {
+		return toString().compareTo(of(other).toString());
+	}
+
+	@Override public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof OneDrivePath)) return false;
+
+		OneDrivePath that = (OneDrivePath) obj;
+		return that.fileSystem == fileSystem && that.toString().equals(toString());
+	}
+
+	@Override public int hashCode() {
+		return toString().hashCode();
+	}
+
+	@Override public @NotNull String toString() {
+		String string = this.string;
+		if (string != null) return string;
+
+		StringBuilder builder = new StringBuilder();
+		if (absolute) builder.append('/');
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0) builder.append('/');
+			builder.append(names[i]);
+		}
+		return this.string = builder.toString();
+	}
+}
@@ -0,0 +1,80 @@
+package com.bhyoo.onedrive.fs;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes content into a local staging file, and uploads it as content of the remote file when it is closed. So it can
+ * be written at any position, and remote file changes only once, with whole content.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class UploadChannel implements SeekableByteChannel {
+	private final @NotNull OneDriveFileSystem fileSystem;
+	private final @NotNull OneDrivePath path;
+	private final @NotNull Path staging;
+	private final @NotNull FileChannel channel;
+
+
+	UploadChannel(@NotNull OneDriveFileSystem fileSystem, @NotNull OneDrivePath path, @NotNull Path staging,
+				  @NotNull FileChannel channel) {
+		this.fileSystem = fileSystem;
+		this.path = path;
+		this.staging = staging;
+		this.channel = channel;
+	}
+
+
+	@Override public int read(ByteBuffer dst) throws IOException {
+		return channel.read(dst);
+	}
+
+	@Override public int write(ByteBuffer src) throws IOException {
+		return channel.write(src);
+	}
+
+	@Override public long position() throws IOException {
+		return channel.position();
+	}
+
+	@Override public @NotNull UploadChannel position(long newPosition) throws IOException {
+		channel.position(newPosition);
+		return this;
+	}
+
+	@Override public long size() throws IOException {
+		return channel.size();
+	}
+
+	@Override public @NotNull UploadChannel truncate(long size) throws IOException {
+		channel.truncate(size);
+		return this;
+	}
+
+	@Override public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	/**
+	 * Upload whole content, and delete the staging file even if it fails.
+	 *
+	 * @throws IOException if upload fails
+	 */
+	@Override public void close() throws IOException {
+		if (!channel.isOpen()) return;
+
+		try {
+			channel.close();
+			fileSystem.upload(path, staging);
+		}
+		finally {
+			Files.deleteIfExists(staging);
+		}
+	}
+}
@@ -25,6 +25,10 @@ public abstract class AbstractClient {
 	@NotNull @Getter protected final HttpMethod method;
 	@Nullable @Getter protected final byte[] content;
 	@NotNull protected final DefaultFullHttpRequest request;
+	/**
+	 * How {@link ConnectionPool} schedules and limits this request.
+	 */
+	@NotNull @Getter protected RequestOptions options = new RequestOptions();
 
 
 	public AbstractClient(@NotNull HttpMethod method, @NotNull URI uri, @Nullable byte[] content) {
@@ -62,5 +66,10 @@ public abstract class AbstractClient {
 		return this;
 	}
 
+	@NotNull public AbstractClient setOptions(@NotNull RequestOptions options) {
+		this.options = options;
+		return this;
+	}
+
 	public abstract Future<?> execute();
 }
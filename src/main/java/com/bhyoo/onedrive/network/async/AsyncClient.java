@@ -1,10 +1,5 @@
 package com.bhyoo.onedrive.network.async;
 
-import com.bhyoo.onedrive.client.RequestTool;
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
-import io.netty.channel.EventLoopGroup;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.util.AsciiString;
 import org.jetbrains.annotations.NotNull;
@@ -16,18 +11,19 @@ import java.net.URI;
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class AsyncClient extends AbstractClient {
-	@NotNull private final EventLoopGroup group;
+	@NotNull private final ConnectionPool connectionPool;
+	private boolean streaming;
 
 
-	public AsyncClient(@NotNull EventLoopGroup group, @NotNull HttpMethod method, @NotNull URI uri) {
+	public AsyncClient(@NotNull ConnectionPool connectionPool, @NotNull HttpMethod method, @NotNull URI uri) {
 		super(method, uri, null);
-		this.group = group;
+		this.connectionPool = connectionPool;
 	}
 
-	public AsyncClient(@NotNull EventLoopGroup group, @NotNull HttpMethod method, @NotNull URI uri,
+	public AsyncClient(@NotNull ConnectionPool connectionPool, @NotNull HttpMethod method, @NotNull URI uri,
 					   @Nullable byte[] content) {
 		super(method, uri, content);
-		this.group = group;
+		this.connectionPool = connectionPool;
 	}
 
 
@@ -41,26 +37,29 @@ public class AsyncClient extends AbstractClient {
 		return this;
 	}
 
+	@Override public @NotNull AsyncClient setOptions(@NotNull RequestOptions options) {
+		super.setOptions(options);
+		return this;
+	}
 
-	@Override
-	public ResponseFuture execute() {
-		String host = uri.getHost();
-		int port = 443;
 
-		ResponsePromise promise = new DefaultResponsePromise(group.next());
+	/**
+	 * @param streaming if {@code true}, future completes as soon as header of response arrives and body can be read
+	 *                  while it is being received. The body must not be read on event loop then.
+	 *
+	 * @see AsyncClientHandler
+	 */
+	public @NotNull AsyncClient setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		return this;
+	}
 
-		// Configure the client.
-		Bootstrap bootstrap = new Bootstrap()
-				.group(group)
-				.channel(RequestTool.socketChannelClass())
-				.handler(new AsyncDefaultInitializer(new AsyncClientHandler(promise)));
 
+	@Override
+	public ResponseFuture execute() {
+		ResponsePromise promise = new DefaultResponsePromise(connectionPool.getGroup().next());
 
-		bootstrap.connect(host, port).addListener(new ChannelFutureListener() {
-			@Override public void operationComplete(ChannelFuture future) {
-				future.channel().writeAndFlush(request);
-			}
-		});
+		connectionPool.send(uri, request, new AsyncClientHandler(promise, streaming), promise, options);
 
 		return promise;
 	}
@@ -3,48 +3,93 @@ package com.bhyoo.onedrive.network.async;
 import com.bhyoo.onedrive.utils.ByteBufStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.http.HttpContent;
-import io.netty.handler.codec.http.HttpObject;
-import io.netty.handler.codec.http.HttpResponse;
-import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.*;
 
+import java.nio.channels.ClosedChannelException;
+
+import static com.bhyoo.onedrive.utils.ByteBufStream.DEFAULT_HIGH_WATER_MARK;
+import static com.bhyoo.onedrive.utils.ByteBufStream.DEFAULT_LOW_WATER_MARK;
+
+/**
+ * Completes {@link ResponsePromise} with body of the response.<br>
+ * <br>
+ * By default the promise is completed once whole body is received. In streaming mode, it is completed as soon as
+ * header arrives and body is read while it is being received, with backpressure on the connection. So in streaming
+ * mode, the body must not be read on event loop (e.g. in listener of the promise).
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
 public class AsyncClientHandler extends SimpleChannelInboundHandler<HttpObject> {
-	private final ByteBufStream resultStream = new ByteBufStream();
+	private ByteBufStream resultStream;
 	private final ResponsePromise responsePromise;
+	private final boolean streaming;
+	private boolean keepAlive = true;
+	private boolean finished;
 
 
 	public AsyncClientHandler(ResponsePromise responsePromise) {
+		this(responsePromise, false);
+	}
+
+	public AsyncClientHandler(ResponsePromise responsePromise, boolean streaming) {
 		this.responsePromise = responsePromise;
+		this.streaming = streaming;
 	}
 
 	@Override
-	public void channelActive(ChannelHandlerContext ctx) throws Exception {
-		super.channelActive(ctx);
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		super.handlerAdded(ctx);
+		resultStream = new ByteBufStream(ctx.alloc().compositeBuffer());
 		responsePromise.setChannel(ctx.channel());
 	}
 
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		super.channelInactive(ctx);
+		fail(ctx, new ClosedChannelException());
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-		super.exceptionCaught(ctx, cause);
-		responsePromise.setFailure(cause);
-		ctx.close();
+		fail(ctx, cause);
+	}
+
+	private void fail(ChannelHandlerContext ctx, Throwable cause) {
+		// promise could be cancelled by its waiter already, but connection must be returned anyway.
+		boolean handedOut = !responsePromise.tryFailure(cause) && responsePromise.isSuccess();
+		if (!finished) {
+			// in streaming mode, consumer reads what is received and then gets the cause instead of end of body.
+			if (handedOut) resultStream.fail(cause);
+			else resultStream.close();
+		}
+		ConnectionPool.release(ctx.channel(), false);
 	}
 
 	@Override
 	protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
 		if (msg instanceof HttpResponse) {
-			responsePromise.setResponse((HttpResponse) msg);
+			HttpResponse response = (HttpResponse) msg;
+			responsePromise.setResponse(response);
+			keepAlive = HttpUtil.isKeepAlive(response);
+
+			if (streaming) {
+				resultStream.setBackpressure(ctx.channel(), DEFAULT_HIGH_WATER_MARK, DEFAULT_LOW_WATER_MARK);
+				if (!responsePromise.trySuccess(resultStream)) resultStream.close();
+			}
 		}
 
 		if (msg instanceof HttpContent) {
 			HttpContent content = (HttpContent) msg;
 
-			resultStream.writeByteBuf(content.content());
+			// consumer could stop reading at any time in streaming mode. rest of the body is discarded then.
+			resultStream.offer(content.content());
 
 			// if this message is last of response
 			if (content instanceof LastHttpContent) {
-				ctx.close();
-				responsePromise.trySuccess(resultStream);
+				finished = true;
+				ConnectionPool.release(ctx.channel(), keepAlive);
+				resultStream.setNoMoreBuf();
+				if (!streaming && !responsePromise.trySuccess(resultStream)) resultStream.close();
 			}
 		}
 	}
@@ -6,34 +6,26 @@ import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpContentDecompressor;
-import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.ssl.SslProvider;
 import org.jetbrains.annotations.NotNull;
-
-import javax.net.ssl.SSLException;
+import org.jetbrains.annotations.Nullable;
 
 public class AsyncDefaultInitializer extends ChannelInitializer<SocketChannel> {
-	protected static final SslContext sslContext;
-
-	static {
-		SslContext sslContext1;
-		try {
-			sslContext1 = SslContextBuilder.forClient().sslProvider(SslProvider.JDK).build();
-		}
-		catch (SSLException e) {
-			e.printStackTrace();
-			System.err.println("Fail to initialize SslContext.");
-			System.exit(1);
-			sslContext1 = null;
-		}
-		sslContext = sslContext1;
-	}
-
 	private final ChannelHandler handler;
+	private final @Nullable String host;
+	private final int port;
 
 	public AsyncDefaultInitializer(@NotNull ChannelHandler handler) {
+		this(handler, null, -1);
+	}
+
+	/**
+	 * @param host peer host. it is used for SNI and TLS session resumption.
+	 * @param port peer port.
+	 */
+	public AsyncDefaultInitializer(@NotNull ChannelHandler handler, @Nullable String host, int port) {
 		this.handler = handler;
+		this.host = host;
+		this.port = port;
 	}
 
 	@Override
@@ -41,7 +33,12 @@ public class AsyncDefaultInitializer extends ChannelInitializer<SocketChannel> {
 		ChannelPipeline pipeline = ch.pipeline();
 
 		// Enable HTTPS.
-		pipeline.addLast("ssl", sslContext.newHandler(ch.alloc()));
+		if (host != null) {
+			pipeline.addLast("ssl", SslContexts.http1().newHandler(ch.alloc(), host, port));
+		}
+		else {
+			pipeline.addLast("ssl", SslContexts.http1().newHandler(ch.alloc()));
+		}
 		//		pipeline.addLast(new LoggingHandler(LogLevel.INFO));
 
 		pipeline.addLast("codec", new HttpClientCodec());
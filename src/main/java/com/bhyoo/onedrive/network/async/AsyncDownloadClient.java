@@ -1,46 +1,81 @@
 package com.bhyoo.onedrive.network.async;
 
 import com.bhyoo.onedrive.client.RequestTool;
-import com.bhyoo.onedrive.exceptions.ErrorResponseException;
 import com.bhyoo.onedrive.utils.ByteBufStream;
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.Channel;
-import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ChannelHandler;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.util.AsciiString;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.file.Path;
-import java.util.concurrent.ExecutionException;
 
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
 
 /**
+ * Downloads content of an item. Location of the content is asked to the API first, and the content is downloaded
+ * from there into a file, a {@link DownloadSink} or a {@link #executeStreaming() stream}, or read part by part
+ * through {@link #openChannel(long) channel}.
+ *
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class AsyncDownloadClient extends AbstractClient {
+	private final @NotNull ConnectionPool connectionPool;
 	private final @NotNull String accessToken;
-	private final @NotNull Path downloadFolder;
+	private final @Nullable Path downloadFolder;
 	private final @Nullable String newName;
+	private final @Nullable DownloadSink sink;
+	private int segments = 1;
+	private boolean resumable;
+	private @Nullable String quickXorHash, sha1Hash, crc32Hash;
+	private @Nullable URL location;
 
 
-	public AsyncDownloadClient(@NotNull String accessToken, @NotNull URI itemURI, @NotNull Path downloadFolder) {
-		this(accessToken, itemURI, downloadFolder, null);
+	public AsyncDownloadClient(@NotNull ConnectionPool connectionPool, @NotNull String accessToken,
+							   @NotNull URI itemURI, @NotNull Path downloadFolder) {
+		this(connectionPool, accessToken, itemURI, downloadFolder, null);
 	}
 
-	public AsyncDownloadClient(@NotNull String accessToken, @NotNull URI itemURI,
-							   @NotNull Path downloadFolder, @Nullable String newName) {
+	public AsyncDownloadClient(@NotNull ConnectionPool connectionPool, @NotNull String accessToken,
+							   @NotNull URI itemURI, @NotNull Path downloadFolder, @Nullable String newName) {
+		this(connectionPool, accessToken, itemURI, downloadFolder, newName, null);
+	}
+
+	/**
+	 * Download content only by {@link #executeStreaming()}.
+	 */
+	public AsyncDownloadClient(@NotNull ConnectionPool connectionPool, @NotNull String accessToken,
+							   @NotNull URI itemURI) {
+		this(connectionPool, accessToken, itemURI, null, null, null);
+	}
+
+	/**
+	 * Download into {@code sink} instead of a file. {@link DownloadFuture} of it completes with {@code null}.
+	 */
+	public AsyncDownloadClient(@NotNull ConnectionPool connectionPool, @NotNull String accessToken,
+							   @NotNull URI itemURI, @NotNull DownloadSink sink) {
+		this(connectionPool, accessToken, itemURI, null, null, sink);
+	}
+
+	private AsyncDownloadClient(@NotNull ConnectionPool connectionPool, @NotNull String accessToken,
+								@NotNull URI itemURI, @Nullable Path downloadFolder, @Nullable String newName,
+								@Nullable DownloadSink sink) {
 		super(HttpMethod.GET, itemURI, null);
+		this.connectionPool = connectionPool;
 		this.accessToken = accessToken;
 		this.downloadFolder = downloadFolder;
 		this.newName = newName;
+		this.sink = sink;
 	}
 
 	@Override public @NotNull AsyncDownloadClient setHeader(AsciiString header, CharSequence value) {
@@ -53,79 +88,287 @@ public class AsyncDownloadClient extends AbstractClient {
 		return this;
 	}
 
+	@Override public @NotNull AsyncDownloadClient setOptions(@NotNull RequestOptions options) {
+		super.setOptions(options);
+		return this;
+	}
+
+	/**
+	 * Download content by {@code segments} range requests in parallel, into a file that is allocated first. Content
+	 * that is smaller than {@value SegmentedDownload#SEGMENT_SIZE_MIN} bytes per range is split into fewer ranges.
+	 * It is ignored if content is downloaded into {@link DownloadSink} or stream.
+	 *
+	 * @param segments how many ranges are downloaded in parallel at most. {@code 1} downloads in one response.
+	 */
+	public @NotNull AsyncDownloadClient setSegments(int segments) {
+		if (segments < 1) throw new IllegalArgumentException("segments must be positive : " + segments);
+		this.segments = segments;
+		return this;
+	}
+
+	/**
+	 * Record progress of download in a checkpoint file next to the file, and continue from it if the same content
+	 * is downloaded to the same file later. The checkpoint is deleted when download completes. Content that does not
+	 * have <code>ETag</code> nor <code>Last-Modified</code> can not be resumed. It is ignored if content is
+	 * downloaded into {@link DownloadSink} or stream.
+	 *
+	 * @param resumable {@code true} to make download resumable
+	 */
+	public @NotNull AsyncDownloadClient setResumable(boolean resumable) {
+		this.resumable = resumable;
+		return this;
+	}
+
+	/**
+	 * Check content against hashes that OneDrive reports for it (e.g. {@link
+	 * com.bhyoo.onedrive.container.facet.FileFacet FileFacet}), while it is being received. The first given one of
+	 * quickXorHash, SHA-1 and CRC32 is used, and result is {@link DownloadFuture#integrity()}. Content that is
+	 * downloaded by ranges is not checked, because it does not arrive in order.
+	 */
+	public @NotNull AsyncDownloadClient setExpectedHashes(@Nullable String quickXorHash, @Nullable String sha1Hash,
+														  @Nullable String crc32Hash) {
+		this.quickXorHash = quickXorHash;
+		this.sha1Hash = sha1Hash;
+		this.crc32Hash = crc32Hash;
+		return this;
+	}
+
+	/**
+	 * Download from {@code location} directly, without asking location of content to the API first. It saves one
+	 * round-trip per download.
+	 *
+	 * @param location pre-authenticated URL of content that is not expired (e.g.
+	 *                 <code>@microsoft.graph.downloadUrl</code> of item). {@code null} to ask it.
+	 */
+	public @NotNull AsyncDownloadClient setLocation(@Nullable URL location) {
+		this.location = location;
+		return this;
+	}
+
 	@Override
 	public DownloadFuture execute() {
-		EventLoopGroup group = RequestTool.group();
-
-		DownloadPromise downloadPromise = new DefaultDownloadPromise(group.next())
+		DownloadPromise downloadPromise = new DefaultDownloadPromise(connectionPool.getGroup().next())
 				.setPath(downloadFolder);
 
-		DownloadListener listener = new DownloadListener(downloadPromise, request, newName);
+		connectionPool.watchTotal(downloadPromise, options.getDeadlines(), "Downloading " + uri);
+		start(downloadPromise, new DownloadListener(downloadPromise));
+
+		return downloadPromise;
+	}
+
+	/**
+	 * Download content as a stream that can be read while it is being received, with backpressure on the
+	 * connection. The future completes as soon as header of content arrives, whatever its status is. The stream must
+	 * not be read on event loop.
+	 *
+	 * @see AsyncClient#setStreaming(boolean)
+	 */
+	public @NotNull ResponseFuture executeStreaming() {
+		final ResponsePromise promise = new DefaultResponsePromise(connectionPool.getGroup().next());
+
+		connectionPool.watchTotal(promise, options.getDeadlines(), "Downloading " + uri);
+		start(promise, new Locator(promise) {
+			@Override void fetch(@NotNull URL location, boolean given) throws Exception {
+				URI uri = location.toURI();
+				ChannelHandler handler = new AsyncClientHandler(promise, true);
+				connectionPool.send(uri, contentRequest(uri), given ? relocating(handler, promise, this) : handler,
+						promise, contentOptions());
+			}
+		});
+
+		return promise;
+	}
+
+	/**
+	 * Open content as read-only channel that fetches only blocks that are read, by range requests. Location of
+	 * content is asked when the first block is read, if it is not {@link #setLocation(URL) given}. The channel must
+	 * be closed.
+	 *
+	 * @param size size of content
+	 */
+	public @NotNull RemoteByteChannel openChannel(long size) {
+		return openChannel(size, RemoteByteChannel.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param size      size of content
+	 * @param blockSize how many bytes are fetched and cached together
+	 *
+	 * @see #openChannel(long)
+	 */
+	public @NotNull RemoteByteChannel openChannel(long size, int blockSize) {
+		return new RemoteByteChannel(connectionPool, this, size, blockSize, contentOptions());
+	}
+
+	/**
+	 * @return {@link #location} if it is given, or location that is asked to the API.
+	 */
+	@NotNull Future<URL> locateContent() {
+		EventExecutor executor = connectionPool.getGroup().next();
+		if (location != null) return executor.newSucceededFuture(location);
+
+		final Promise<URL> promise = executor.newPromise();
+		locate(promise, new Locator(promise) {
+			@Override void fetch(@NotNull URL location, boolean given) {
+				promise.trySuccess(location);
+			}
+		});
+		return promise;
+	}
 
-		new AsyncClient(group, method, uri)
+	/**
+	 * Fetch content from {@link #location} if it is given, or ask location of it first.
+	 */
+	private void start(@NotNull Promise<?> promise, @NotNull Locator locator) {
+		if (location == null) {
+			locate(promise, locator);
+			return;
+		}
+
+		try {
+			locator.fetch(location, true);
+		}
+		catch (Exception e) {
+			promise.tryFailure(e);
+		}
+	}
+
+	/**
+	 * @return {@code handler} of content from {@link #location} that is given. If the service rejects the location,
+	 * location is asked with {@code locator} once, the way {@link RemoteByteChannel} does.
+	 */
+	private @NotNull ChannelHandler relocating(@NotNull ChannelHandler handler, @NotNull Promise<?> promise,
+											   @NotNull Locator locator) {
+		return new RelocatingHandler(handler, relocation(promise, locator));
+	}
+
+	private @NotNull Runnable relocation(final @NotNull Promise<?> promise, final @NotNull Locator locator) {
+		return new Runnable() {
+			@Override public void run() {
+				locate(promise, locator);
+			}
+		};
+	}
+
+	/**
+	 * Ask location of content with {@code locator}. It stops asking if {@code promise} fails.
+	 */
+	private void locate(@NotNull Promise<?> promise, @NotNull Locator locator) {
+		final ResponseFuture responseFuture = new AsyncClient(connectionPool, method, uri)
+				.setOptions(options)
 				.setHeader(HttpHeaderNames.AUTHORIZATION, accessToken)
 				.execute()
-				.addListener(listener);
+				.addListener(locator);
 
-		return downloadPromise;
+		// abandoned download stops asking location of content too
+		promise.addListener(new FutureListener<Object>() {
+			@Override public void operationComplete(Future<Object> future) {
+				if (!future.isSuccess()) responseFuture.cancel(false);
+			}
+		});
+	}
+
+	/**
+	 * @return options of requests to location of content. Download host is not graph API, so rate limit of graph
+	 * does not apply, and total deadline is already applied to whole download.
+	 */
+	private @NotNull RequestOptions contentOptions() {
+		Deadlines deadlines = options.getDeadlines();
+		return new RequestOptions()
+				.setPriority(RequestPriority.BULK)
+				.setOwner(options.getOwner())
+				.setDeadlines(new Deadlines()
+						.setConnectTimeoutMillis(deadlines.getConnectTimeoutMillis())
+						.setFirstByteTimeoutMillis(deadlines.getFirstByteTimeoutMillis())
+						.setIdleReadTimeoutMillis(deadlines.getIdleReadTimeoutMillis()));
+	}
+
+	/**
+	 * @return new verifier for each response, because it hashes content from the beginning.
+	 */
+	private @Nullable ContentVerifier verifier() {
+		return ContentVerifier.of(quickXorHash, sha1Hash, crc32Hash);
+	}
+
+	/**
+	 * @param location pre-authenticated URL of content. It does not need authorization.
+	 */
+	static @NotNull DefaultFullHttpRequest contentRequest(@NotNull URI location) {
+		DefaultFullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.GET, location.toASCIIString());
+		request.headers().set(HttpHeaderNames.HOST, location.getHost());
+		return request;
 	}
 
-	static class DownloadListener implements ResponseFutureListener {
-		private final DownloadPromise promise;
-		private final DefaultFullHttpRequest request;
-		private final @Nullable String newName;
 
-		DownloadListener(DownloadPromise promise, DefaultFullHttpRequest request,
-						 @Nullable String newName) {
+	/**
+	 * Fails {@code promise} with error response, or passes location of content to {@link #fetch(URL)}.
+	 */
+	private static abstract class Locator implements ResponseFutureListener {
+		private final @NotNull Promise<?> promise;
+
+		Locator(@NotNull Promise<?> promise) {
 			this.promise = promise;
-			this.request = request;
-			this.newName = newName;
 		}
 
-		@Override public void operationComplete(ResponseFuture future)
-				throws ExecutionException, InterruptedException, ErrorResponseException, MalformedURLException {
-			HttpResponse response = future.response();
-			ByteBufStream result = future.get();
+		/**
+		 * @param given {@code true} if {@code location} is {@link AsyncDownloadClient#setLocation(URL) given}, not asked.
+		 */
+		abstract void fetch(@NotNull URL location, boolean given) throws Exception;
 
-			// if response is valid
+		@Override public void operationComplete(ResponseFuture future) {
 			if (!future.isSuccess()) {
-				// TODO: handle error
+				promise.tryFailure(future.cause());
+				return;
 			}
-			else if (response.status().code() == HTTP_MOVED_TEMP) {
-				String uriStr = response.headers().get(HttpHeaderNames.LOCATION);
-				URL url = new URL(uriStr);
-
-				String host = url.getHost();
-				int port = 443;
 
-				// set downloadPromise's URI
-				promise.setURI(url);
+			HttpResponse response = future.response();
+			ByteBufStream result = future.getNow();
+			try {
+				if (response.status().code() == HTTP_MOVED_TEMP) {
+					fetch(new URL(response.headers().get(HttpHeaderNames.LOCATION)), false);
+				}
+				else {
+					RequestTool.errorHandling(response, result, HTTP_MOVED_TEMP);
+				}
+			}
+			catch (Exception e) {
+				promise.tryFailure(e);
+			}
+			finally {
+				if (!result.isClosed()) result.close();
+			}
+		}
+	}
 
-				// change request's url to location of file
-				request.setUri(uriStr);
+	private class DownloadListener extends Locator {
+		private final @NotNull DownloadPromise promise;
 
-				AsyncDownloadHandler downloadHandler = new AsyncDownloadHandler(promise, newName);
+		DownloadListener(@NotNull DownloadPromise promise) {
+			super(promise);
+			this.promise = promise;
+		}
 
-				// Configure the client.
-				Bootstrap bootstrap = new Bootstrap()
-						.group(RequestTool.group())
-						.channel(RequestTool.socketChannelClass())
-						.handler(new AsyncDefaultInitializer(downloadHandler));
+		@Override void fetch(@NotNull URL url, boolean given) throws Exception {
+			URI location = url.toURI();
 
-				// wait until be connected, and get channel
-				Channel channel = bootstrap.connect(host, port).syncUninterruptibly().channel();
+			// set downloadPromise's URI
+			promise.setURI(url);
 
-				// Send the HTTP request.
-				channel.writeAndFlush(request);
+			// connections to download host are pooled like API host, so it is connected without blocking event loop
+			if (sink != null) {
+				ChannelHandler handler = new DownloadSinkHandler(promise, sink, verifier());
+				connectionPool.send(location, contentRequest(location),
+						given ? relocating(handler, promise, this) : handler, promise, contentOptions());
+			}
+			// resuming needs range requests too
+			else if (segments > 1 || resumable) {
+				new SegmentedDownload(connectionPool, promise, location, newName, segments, resumable,
+						contentOptions(), given ? relocation(promise, this) : null).start();
 			}
 			else {
-				try {
-					RequestTool.errorHandling(response, result, HTTP_MOVED_TEMP);
-				}
-				catch (Exception e) {
-					promise.setFailure(e);
-					throw e;
-				}
+				ChannelHandler handler = new AsyncDownloadHandler(promise, newName, verifier());
+				connectionPool.send(location, contentRequest(location),
+						given ? relocating(handler, promise, this) : handler, promise, contentOptions());
 			}
 		}
 	}
@@ -1,5 +1,6 @@
 package com.bhyoo.onedrive.network.async;
 
+import com.bhyoo.onedrive.exceptions.ContentMismatchException;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -7,39 +8,77 @@ import io.netty.handler.codec.http.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
 
 /**
+ * Writes body of download response into a file, and completes {@link DownloadPromise} with it.<br>
+ * <br>
+ * It handles one response on a connection of {@link ConnectionPool}, so the connection goes back to the pool after
+ * the response instead of being closed. If {@link ContentVerifier} is given, content is hashed as it is written and
+ * checked before the promise completes.
+ *
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class AsyncDownloadHandler extends SimpleChannelInboundHandler<HttpObject> {
 	private final DownloadPromise promise;
 	private final @Nullable String newName;
+	private final @Nullable ContentVerifier verifier;
 	private FileChannel fileChannel;
+	private boolean keepAlive;
+	private boolean done;
 
 	public AsyncDownloadHandler(DownloadPromise promise, @Nullable String newName) {
+		this(promise, newName, null);
+	}
+
+	AsyncDownloadHandler(DownloadPromise promise, @Nullable String newName, @Nullable ContentVerifier verifier) {
 		this.promise = promise;
 		this.newName = newName;
+		this.verifier = verifier;
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		super.channelInactive(ctx);
+		fail(ctx, new ClosedChannelException());
 	}
 
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-		super.exceptionCaught(ctx, cause);
-		promise.setFailure(cause);
-		ctx.close();
+		fail(ctx, cause);
+	}
+
+	private void fail(ChannelHandlerContext ctx, Throwable cause) throws IOException {
+		if (done) return;
+		done = true;
+
+		// promise could be completed already by cancellation or deadline
+		promise.tryFailure(cause);
+		ConnectionPool.release(ctx.channel(), false);
+		if (fileChannel != null) fileChannel.close();
 	}
 
 	@Override
 	protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+		if (done) return;
+
 		if (msg instanceof HttpResponse) {
 			HttpResponse response = (HttpResponse) msg;
 			promise.setResponse(response);
-			// TODO: error handling, if response code isn't 200 OK
+			keepAlive = HttpUtil.isKeepAlive(response);
+			promise.progress().setTotalBytes(HttpUtil.getContentLength(response, -1L));
+
+			if (response.status().code() != HttpResponseStatus.OK.code()) {
+				throw new IOException("Unexpected response to download : " + response.status());
+			}
 
 			if (newName == null) {
 				String disposition = response.headers().get(HttpHeaderNames.CONTENT_DISPOSITION);
+				if (disposition == null) throw new IOException("Response has no file name : " + promise.remoteURI());
 				String fileName = Extractor.extract(disposition);
 				promise.setPath(promise.downloadPath().resolve(fileName));
 			}
@@ -59,14 +98,24 @@ public class AsyncDownloadHandler extends SimpleChannelInboundHandler<HttpObject
 			HttpContent content = (HttpContent) msg;
 
 			ByteBuf byteBuf = content.content();
-			int remaining = byteBuf.readableBytes();
-
-			ByteBuffer nioBuffer = byteBuf.internalNioBuffer(0, remaining);
-			fileChannel.write(nioBuffer);
+			for (ByteBuffer nioBuffer : byteBuf.nioBuffers()) {
+				while (nioBuffer.hasRemaining()) fileChannel.write(nioBuffer);
+			}
+			if (verifier != null) verifier.update(byteBuf);
+			promise.progress().add(byteBuf.readableBytes());
 
 			if (content instanceof LastHttpContent) {
+				done = true;
+				ConnectionPool.release(ctx.channel(), keepAlive);
 				fileChannel.close();
-				ctx.close();
+
+				try {
+					if (verifier != null) verifier.verify(promise);
+				}
+				catch (ContentMismatchException e) {
+					promise.tryFailure(e);
+					return;
+				}
 				promise.trySuccess(promise.downloadPath().toFile());
 			}
 		}
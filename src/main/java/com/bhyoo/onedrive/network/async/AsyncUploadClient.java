@@ -1,10 +1,11 @@
 package com.bhyoo.onedrive.network.async;
 
-import com.bhyoo.onedrive.client.RequestTool;
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.EventLoopGroup;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
 import static io.netty.handler.codec.http.HttpMethod.PUT;
 
 /**
@@ -12,32 +13,43 @@ import static io.netty.handler.codec.http.HttpMethod.PUT;
  */
 public class AsyncUploadClient extends AbstractClient {
 	private final UploadPromise uploadPromise;
-	private final EventLoopGroup group;
+	private final ConnectionPool connectionPool;
 
-	public AsyncUploadClient(@NotNull EventLoopGroup group, UploadPromise uploadPromise) {
+	public AsyncUploadClient(@NotNull ConnectionPool connectionPool, UploadPromise uploadPromise) {
 		super(PUT, uploadPromise.uploadURI(), null);
 		this.uploadPromise = uploadPromise;
-		this.group = group;
+		this.connectionPool = connectionPool;
+	}
+
+	/**
+	 * @param options each fragment waits for {@link EndpointClass#UPLOAD} bucket of its rate limiter.
+	 */
+	@Override public @NotNull AsyncUploadClient setOptions(@NotNull RequestOptions options) {
+		super.setOptions(options);
+		return this;
 	}
 
 
 	@Override
 	public UploadFuture execute() {
-		String host = uri.getHost();
-		int port = 443;
-
-		// Configure SSL context.
-
-		AsyncUploadHandler clientHandler = new AsyncUploadHandler(uploadPromise, request);
-
-		// Configure the client.
-		Bootstrap bootstrap = new Bootstrap()
-				.group(group)
-				.channel(RequestTool.socketChannelClass())
-				.handler(new AsyncDefaultInitializer(clientHandler));
-
-
-		bootstrap.connect(host, port);
+		// open the file before taking a connection, so a missing file does not hold one
+		FileChannel fileChannel;
+		try {
+			fileChannel = FileChannel.open(uploadPromise.filePath(), StandardOpenOption.READ);
+		}
+		catch (IOException e) {
+			request.release();
+			uploadPromise.tryFailure(e);
+			return uploadPromise;
+		}
+
+		RateLimiter rateLimiter = options.getRateLimiter();
+		RateLimiter.Bucket bucket = rateLimiter == null ? null : rateLimiter.bucket(EndpointClass.UPLOAD);
+		AsyncUploadHandler clientHandler = new AsyncUploadHandler(
+				uploadPromise, fileChannel, request, connectionPool, bucket, options.getOwner());
+
+		// the handler starts sending fragments as soon as it is attached to the connection
+		connectionPool.acquire(uri, clientHandler, uploadPromise, options);
 
 		return uploadPromise;
 	}
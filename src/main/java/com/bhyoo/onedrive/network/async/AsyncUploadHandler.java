@@ -1,21 +1,34 @@
 package com.bhyoo.onedrive.network.async;
 
+import com.bhyoo.onedrive.client.RequestTool;
+import com.bhyoo.onedrive.container.items.FileItem;
+import com.bhyoo.onedrive.utils.ByteBufStream;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
-import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
 
 import static io.netty.handler.codec.http.HttpHeaderNames.*;
-import static io.netty.handler.codec.http.HttpHeaderValues.CLOSE;
 import static java.net.HttpURLConnection.*;
 
 /**
+ * Uploads file fragment by fragment on one connection.<br>
+ * <br>
+ * A fragment that is throttled or failed by server is sent again according to {@link ConnectionPool#getRetryPolicy()}
+ * after the delay, and the delay is shared with other requests to the upload host. Other responses fail the upload.
+ * If {@link RateLimiter.Bucket} is given, each fragment waits for its token before it is written. If the upload is
+ * cancelled or failed by its deadline, the connection is closed and the fragment buffer is released.
+ *
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 class AsyncUploadHandler extends SimpleChannelInboundHandler<HttpObject> {
@@ -24,35 +37,81 @@ class AsyncUploadHandler extends SimpleChannelInboundHandler<HttpObject> {
 	private final UploadPromise promise;
 	private final FullHttpRequest request;
 	private final ByteBuf byteBuf;
-	private FileChannel fileChannel;
+	private final ConnectionPool connectionPool;
+	private final InetSocketAddress address;
+	private final @Nullable Object owner;
+	private final @Nullable RateLimiter.Bucket bucket;
+	private final FileChannel fileChannel;
+	private HttpResponse response;
 	private int status;
+	private boolean keepAlive;
 	private int currentFragSize;
 	private long currentFilePosition;
+	/**
+	 * Bytes that server accepted.
+	 */
+	private long acknowledged;
+	private int fragmentAttempts;
+	private ByteBufStream errorStream;
+	private boolean finished;
 
-	public AsyncUploadHandler(UploadPromise promise, DefaultFullHttpRequest request) {
+	/**
+	 * @param fileChannel opened {@link UploadPromise#filePath()}. It is closed when the upload is done.
+	 */
+	public AsyncUploadHandler(UploadPromise promise, FileChannel fileChannel, DefaultFullHttpRequest request,
+							  ConnectionPool connectionPool, @Nullable RateLimiter.Bucket bucket,
+							  @Nullable Object owner) {
 		this.promise = promise;
-		this.byteBuf = PooledByteBufAllocator.DEFAULT.directBuffer(UPLOAD_FRAGMENT_SIZE_MAX);
+		this.fileChannel = fileChannel;
+		this.connectionPool = connectionPool;
+		this.bucket = bucket;
+		this.owner = owner;
+		this.address = ConnectionPool.addressOf(promise.uploadURI());
+		this.byteBuf = connectionPool.getAllocator().directBuffer(UPLOAD_FRAGMENT_SIZE_MAX);
 		// TODO: `AsyncUploadClient` would be useless (make request independently in refactoring)
 		request.content().release();
 		this.request = request.replace(byteBuf);
-		this.request.headers().set(CONNECTION, HttpHeaderValues.KEEP_ALIVE);
 
 		currentFragSize = 0;
 		currentFilePosition = 0;
 	}
 
 	@Override
-	public void channelActive(ChannelHandlerContext ctx) throws Exception {
-		super.channelActive(ctx);
-		fileChannel = FileChannel.open(promise.filePath(), StandardOpenOption.READ);
-		ctx.writeAndFlush(nextRequest());
+	public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+		super.handlerAdded(ctx);
+
+		// cancelled or deadline expired, so stop uploading and close the connection.
+		promise.addListener(new FutureListener<FileItem>() {
+			@Override public void operationComplete(final Future<FileItem> future) {
+				if (future.isSuccess()) return;
+
+				ctx.executor().execute(new Runnable() {
+					@Override public void run() {
+						fail(ctx, future.cause());
+					}
+				});
+			}
+		});
+		if (promise.isDone()) return;
+
+		try {
+			promise.progress().setTotalBytes(fileChannel.size());
+			writeFragment(ctx, nextRequest());
+		}
+		catch (IOException e) {
+			fail(ctx, e);
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		super.channelInactive(ctx);
+		fail(ctx, new ClosedChannelException());
 	}
 
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-		super.exceptionCaught(ctx, cause);
-		promise.setFailure(cause);
-		ctx.close();
+		fail(ctx, cause);
 	}
 
 	@Override
@@ -63,13 +122,16 @@ class AsyncUploadHandler extends SimpleChannelInboundHandler<HttpObject> {
 
 	private FullHttpRequest nextRequest() throws IOException {
 		if (currentFragSize < UPLOAD_FRAGMENT_SIZE_MAX) currentFragSize += UPLOAD_FRAGMENT_SIZE_MIN << 2;
+		fragmentAttempts = 1;
 
 		// reset internal buffer status
-		byteBuf.clear().writerIndex(currentFragSize).retain();
+		byteBuf.clear();
 
 		// read from file channel
 		ByteBuffer nioBuffer = byteBuf.internalNioBuffer(0, currentFragSize);
 		int readBytes = fileChannel.read(nioBuffer);
+		// encoder releases content after writing, but it could be sent again.
+		byteBuf.writerIndex(readBytes).retain();
 
 		long oldPosition = currentFilePosition;
 		currentFilePosition += readBytes;
@@ -80,39 +142,132 @@ class AsyncUploadHandler extends SimpleChannelInboundHandler<HttpObject> {
 				.set(CONTENT_RANGE,
 						"bytes " + oldPosition + '-' + (currentFilePosition - 1) + '/' + fileChannel.size());
 
-		// if this is last request, release internal buffer
-		if (currentFilePosition == fileChannel.size()) {
-			request.headers().set(CONNECTION, CLOSE);
-			byteBuf.release();
-		}
+		return request;
+	}
 
+	/**
+	 * @return the fragment that sent last time.
+	 */
+	private FullHttpRequest sameRequest() {
+		fragmentAttempts++;
+		byteBuf.readerIndex(0).retain();
 		return request;
 	}
 
+	/**
+	 * Write {@code fragment} as soon as {@link #bucket} allows.
+	 */
+	private void writeFragment(final ChannelHandlerContext ctx, final FullHttpRequest fragment) {
+		long wait = bucket == null ? 0 : bucket.reserveNanos(1);
+		if (wait <= 0) {
+			ctx.writeAndFlush(fragment);
+			return;
+		}
+
+		ctx.executor().schedule(new Runnable() {
+			@Override public void run() {
+				if (finished) fragment.release();
+				else ctx.writeAndFlush(fragment);
+			}
+		}, wait, TimeUnit.NANOSECONDS);
+	}
+
 	@Override
-	protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+	protected void channelRead0(final ChannelHandlerContext ctx, HttpObject msg) throws Exception {
 		if (msg instanceof HttpResponse) {
-			HttpResponse response = (HttpResponse) msg;
+			response = (HttpResponse) msg;
 			status = response.status().code();
+			keepAlive = HttpUtil.isKeepAlive(response);
+			if (!isExpected(status)) errorStream = new ByteBufStream(ctx.alloc().compositeBuffer());
 		}
 
 		if (msg instanceof HttpContent) {
+			if (errorStream != null) errorStream.writeByteBuf(((HttpContent) msg).content());
+
 			if (msg instanceof LastHttpContent) {
 				switch (status) {
 					case HTTP_ACCEPTED:
-						ctx.write(nextRequest());
+						acknowledge();
+						writeFragment(ctx, nextRequest());
 						break;
 					case HTTP_OK:
 					case HTTP_CREATED:
-						ctx.close();
-						fileChannel.close();
+						acknowledge();
+						finish(ctx, keepAlive);
 						// TODO: fill argument
 						promise.trySuccess(null);
 						break;
 					default:
+						ByteBufStream stream = errorStream;
+						errorStream = null;
+						handleError(ctx, stream);
 						break;
 				}
 			}
 		}
 	}
+
+	private void acknowledge() {
+		promise.progress().add(currentFilePosition - acknowledged);
+		acknowledged = currentFilePosition;
+	}
+
+	private static boolean isExpected(int status) {
+		return status == HTTP_ACCEPTED || status == HTTP_OK || status == HTTP_CREATED;
+	}
+
+	private void handleError(final ChannelHandlerContext ctx, ByteBufStream stream) {
+		RetryPolicy policy = connectionPool.getRetryPolicy();
+
+		if (keepAlive && policy.shouldRetry(request.method(), status, fragmentAttempts)) {
+			stream.close();
+
+			long delay = policy.delayMillis(fragmentAttempts, response.headers().get(RETRY_AFTER));
+			if (status == RetryPolicy.TOO_MANY_REQUESTS || status == RetryPolicy.SERVICE_UNAVAILABLE) {
+				connectionPool.throttleState().throttle(owner, address, delay);
+			}
+
+			ctx.executor().schedule(new Runnable() {
+				@Override public void run() {
+					if (!finished) writeFragment(ctx, sameRequest());
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		stream.setNoMoreBuf();
+		try {
+			RequestTool.errorHandling(response, stream, HTTP_ACCEPTED);
+			// FIXME: custom exception
+			fail(ctx, new RuntimeException("Unexpected upload response : " + response.status()));
+		}
+		catch (Exception e) {
+			fail(ctx, e);
+		}
+		finally {
+			// parser closes it when it reads whole error
+			if (!stream.isClosed()) stream.close();
+		}
+	}
+
+	private void fail(ChannelHandlerContext ctx, Throwable cause) {
+		promise.tryFailure(cause);
+		finish(ctx, false);
+	}
+
+	private void finish(ChannelHandlerContext ctx, boolean keepAlive) {
+		if (finished) return;
+		finished = true;
+
+		byteBuf.release();
+		if (errorStream != null) errorStream.close();
+		try {
+			fileChannel.close();
+		}
+		catch (IOException e) {
+			promise.tryFailure(e);
+		}
+
+		ConnectionPool.release(ctx.channel(), keepAlive);
+	}
 }
@@ -0,0 +1,735 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPoolHandler;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http2.*;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps HTTPS connections alive and reuses them per remote host, so that consecutive requests to the same host
+ * (mostly <code>graph.microsoft.com</code>) skip TCP and TLS handshake.<br>
+ * <br>
+ * Every pooled channel has <code>ssl</code>, <code>codec</code>, <code>inflater</code>, <code>idle</code> and
+ * <code>evictor</code> handlers. A request handler is attached as <code>handler</code> when the channel is acquired,
+ * and it is detached when the channel is {@link #release(Channel, boolean) released}.
+ * Idle connections are closed after {@code idleTimeoutMillis}, and closed connections are discarded by health check
+ * on next acquisition.<br>
+ * <br>
+ * If {@link #setHttp2Enabled(boolean) HTTP/2 is enabled}, single request-response exchanges that go through
+ * {@link #send(URI, HttpRequest, ChannelHandler, Promise)} are multiplexed as streams of one shared connection per
+ * host. Hosts that refuse <code>h2</code> on ALPN fall back to the HTTP/1.1 pool.<br>
+ * <br>
+ * Throttled or failed exchanges are sent again according to {@link #setRetryPolicy(RetryPolicy) retry policy}, and
+ * once a host throttles a request, every request of this pool to the host waits until the throttling ends.
+ * Number of requests in flight is bounded by {@link #setScheduler(RequestScheduler) scheduler}, and each call is
+ * limited by {@link Deadlines} of its {@link RequestOptions}. While a handler is attached, <code>deadline</code>
+ * handler sits before it to enforce read limits.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class ConnectionPool {
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 16;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+	public static final String HANDLER_NAME = "handler";
+	public static final String DEADLINE_NAME = "deadline";
+	private static final int HTTPS_PORT = 443;
+
+	private static final AttributeKey<ConnectionPool> OWNER = AttributeKey.valueOf(ConnectionPool.class, "OWNER");
+	private static final AttributeKey<InetSocketAddress> ADDRESS =
+			AttributeKey.valueOf(ConnectionPool.class, "ADDRESS");
+	private static final AttributeKey<Boolean> IN_USE = AttributeKey.valueOf(ConnectionPool.class, "IN_USE");
+
+	@Getter private final @NotNull EventLoopGroup group;
+	@Getter private final @NotNull Class<? extends SocketChannel> channelClass;
+	@Getter private final @NotNull ByteBufAllocator allocator;
+	@Getter private final int maxConnectionsPerHost;
+	@Getter private final long idleTimeoutMillis;
+	private final @NotNull Bootstrap bootstrap;
+	private final @NotNull AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> pools;
+	private final @NotNull ConcurrentMap<InetSocketAddress, Future<Channel>> http2Connections =
+			new ConcurrentHashMap<>();
+	private final @NotNull Set<InetSocketAddress> http1OnlyHosts =
+			Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+	@Getter private volatile boolean http2Enabled;
+	@Getter private volatile @NotNull RetryPolicy retryPolicy = new RetryPolicy();
+	@Getter private volatile @NotNull RequestScheduler scheduler;
+	/**
+	 * Runs work that blocks and so must not run on event loop (e.g. forcing file to disk).
+	 */
+	@Getter private volatile @NotNull Executor blockingExecutor = GlobalEventExecutor.INSTANCE;
+	private final @NotNull ThrottleState throttleState = new ThrottleState();
+
+
+	public ConnectionPool(@NotNull EventLoopGroup group, @NotNull Class<? extends SocketChannel> channelClass) {
+		this(group, channelClass, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	public ConnectionPool(@NotNull EventLoopGroup group, @NotNull Class<? extends SocketChannel> channelClass,
+						  int maxConnectionsPerHost, long idleTimeoutMillis) {
+		this(group, channelClass, ByteBufAllocator.DEFAULT, maxConnectionsPerHost, idleTimeoutMillis);
+	}
+
+	public ConnectionPool(@NotNull EventLoopGroup group, @NotNull Class<? extends SocketChannel> channelClass,
+						  @NotNull ByteBufAllocator allocator, int maxConnectionsPerHost, long idleTimeoutMillis) {
+		if (maxConnectionsPerHost <= 0) {
+			throw new IllegalArgumentException("maxConnectionsPerHost must be positive : " + maxConnectionsPerHost);
+		}
+
+		this.group = group;
+		this.channelClass = channelClass;
+		this.allocator = allocator;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.scheduler = new RequestScheduler(RequestScheduler.DEFAULT_MAX_IN_FLIGHT, maxConnectionsPerHost);
+
+		this.bootstrap = new Bootstrap()
+				.group(group)
+				.channel(channelClass)
+				.option(ChannelOption.ALLOCATOR, allocator)
+				.option(ChannelOption.SO_KEEPALIVE, true)
+				.option(ChannelOption.TCP_NODELAY, true);
+
+		this.pools = new AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool>() {
+			@Override protected FixedChannelPool newPool(InetSocketAddress address) {
+				return new FixedChannelPool(
+						bootstrap.clone().remoteAddress(address),
+						new PoolHandler(address),
+						ChannelHealthChecker.ACTIVE,
+						null, -1,
+						ConnectionPool.this.maxConnectionsPerHost,
+						Integer.MAX_VALUE,
+						true,
+						// LIFO, so rarely used connections become idle and get evicted.
+						true);
+			}
+		};
+	}
+
+
+	static @NotNull InetSocketAddress addressOf(@NotNull URI uri) {
+		int port = uri.getPort() == -1 ? HTTPS_PORT : uri.getPort();
+		return InetSocketAddress.createUnresolved(uri.getHost(), port);
+	}
+
+	/**
+	 * Enable or disable HTTP/2 for {@link #send(URI, HttpRequest, ChannelHandler, Promise)}. It has no effect if
+	 * current runtime does not support ALPN.
+	 *
+	 * @param http2Enabled {@code true} to try HTTP/2 first
+	 */
+	public void setHttp2Enabled(boolean http2Enabled) {
+		this.http2Enabled = http2Enabled;
+	}
+
+	/**
+	 * @param retryPolicy policy of exchanges that start after this call. {@link RetryPolicy#none()} disables retry.
+	 */
+	public void setRetryPolicy(@NotNull RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @param scheduler scheduler that bounds requests that are sent after this call
+	 */
+	public void setScheduler(@NotNull RequestScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param blockingExecutor executor of blocking work. {@link GlobalEventExecutor} by default.
+	 */
+	public void setBlockingExecutor(@NotNull Executor blockingExecutor) {
+		this.blockingExecutor = blockingExecutor;
+	}
+
+	/**
+	 * @return {@code true} if current runtime supports ALPN, so HTTP/2 can be negotiated.
+	 */
+	public static boolean isHttp2Available() {
+		return SslContexts.http2() != null;
+	}
+
+	/**
+	 * Acquire connection to host of {@code uri}, and attach {@code handler} on it.
+	 * The connection is exclusive until it is released, so {@code handler} can send multiple requests on it.
+	 * If the host is throttled, acquisition waits until the throttling ends.<br>
+	 * If acquisition fails, {@code promise} will be failed with the cause.
+	 *
+	 * @param uri     URI to connect. only host and port are used.
+	 * @param handler handler that processes response. it will be detached when the channel is released.
+	 * @param promise promise of this request.
+	 *
+	 * @return future of acquired channel
+	 */
+	public @NotNull Future<Channel> acquire(@NotNull URI uri, @NotNull ChannelHandler handler,
+											@NotNull Promise<?> promise) {
+		return acquire(uri, handler, promise, new RequestOptions());
+	}
+
+	/**
+	 * Same as {@link #acquire(URI, ChannelHandler, Promise)}, but waits in {@link #getScheduler() scheduler} as
+	 * {@code options} says. Its default priority is {@link RequestPriority#BULK}, and the connection is counted as
+	 * in flight until {@code promise} completes.
+	 */
+	public @NotNull Future<Channel> acquire(@NotNull URI uri, final @NotNull ChannelHandler handler,
+											final @NotNull Promise<?> promise, @NotNull RequestOptions options) {
+		final InetSocketAddress address = addressOf(uri);
+		final Promise<Channel> acquired = group.next().newPromise();
+
+		promise.addListener(new FutureListener<Object>() {
+			@Override public void operationComplete(Future<Object> future) {
+				acquired.tryFailure(new IllegalStateException("Request completed before acquiring connection"));
+			}
+		});
+
+		final Deadlines deadlines = options.getDeadlines();
+		watchTotal(promise, deadlines, "Acquiring connection to " + address);
+
+		RequestPriority priority = options.getPriority() != null ? options.getPriority() : RequestPriority.BULK;
+		scheduler.submit(address, priority, options.getOwner(), promise, new Runnable() {
+			@Override public void run() {
+				long throttled = throttleState.remainingMillis(address);
+				if (throttled <= 0) {
+					acquire(address, handler, promise, deadlines, acquired);
+					return;
+				}
+
+				group.schedule(new Runnable() {
+					@Override public void run() {
+						acquire(address, handler, promise, deadlines, acquired);
+					}
+				}, throttled, TimeUnit.MILLISECONDS);
+			}
+		});
+
+		return acquired;
+	}
+
+	/**
+	 * Acquire connection for {@code acquired}, failing {@code promise} if it takes longer than connect limit.
+	 */
+	private void acquire(final @NotNull InetSocketAddress address, @NotNull ChannelHandler handler,
+						 final @NotNull Promise<?> promise, @NotNull Deadlines deadlines,
+						 @NotNull Promise<Channel> acquired) {
+		final long timeoutMillis = deadlines.getConnectTimeoutMillis();
+		if (timeoutMillis > 0) {
+			final ScheduledFuture<?> timer = group.schedule(new Runnable() {
+				@Override public void run() {
+					promise.tryFailure(new ConnectTimeoutException(
+							"Connection to " + address + " is not ready in " + timeoutMillis + "ms"));
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+
+			acquired.addListener(new FutureListener<Channel>() {
+				@Override public void operationComplete(Future<Channel> future) {
+					timer.cancel(false);
+				}
+			});
+		}
+
+		cascade(acquire(address, handler, promise, deadlines), acquired, promise);
+	}
+
+	private @NotNull Future<Channel> acquire(@NotNull InetSocketAddress address, final @NotNull ChannelHandler handler,
+											 final @NotNull Promise<?> promise, final @NotNull Deadlines deadlines) {
+		return pools.get(address).acquire().addListener(new FutureListener<Channel>() {
+			@Override public void operationComplete(Future<Channel> future) {
+				if (future.isSuccess()) {
+					ChannelPipeline pipeline = future.getNow().pipeline();
+					if (deadlines.hasReadDeadline()) {
+						pipeline.addLast(DEADLINE_NAME, new ReadDeadlineHandler(deadlines));
+					}
+					pipeline.addLast(HANDLER_NAME, handler);
+				}
+				else {
+					promise.tryFailure(future.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Acquire connection (or HTTP/2 stream) to host of {@code uri}, attach {@code handler} and send {@code request}.
+	 * {@code handler} must handle only one response.<br>
+	 * <br>
+	 * The request is sent again as {@link #getRetryPolicy()} says, and {@code handler} is attached only for the
+	 * response that is not retried. So {@code request} must be {@link io.netty.handler.codec.http.FullHttpRequest}
+	 * to be sent more than once.
+	 *
+	 * @see #acquire(URI, ChannelHandler, Promise)
+	 */
+	public void send(@NotNull URI uri, @NotNull HttpRequest request, @NotNull ChannelHandler handler,
+					 @NotNull Promise<?> promise) {
+		send(uri, request, handler, promise, new RequestOptions());
+	}
+
+	/**
+	 * Same as {@link #send(URI, HttpRequest, ChannelHandler, Promise)}, but sent as {@code options} says. The request
+	 * waits in {@link #getScheduler() scheduler} first, and then every try waits for a token of
+	 * {@link RequestOptions#getRateLimiter() rate limiter}. Bucket and default priority are chosen by
+	 * {@link EndpointClass#of(HttpMethod, URI)}.
+	 */
+	public void send(@NotNull URI uri, @NotNull HttpRequest request, @NotNull ChannelHandler handler,
+					 @NotNull Promise<?> promise, @NotNull RequestOptions options) {
+		InetSocketAddress address = addressOf(uri);
+		EndpointClass endpointClass = EndpointClass.of(request.method(), uri);
+
+		RateLimiter rateLimiter = options.getRateLimiter();
+		RateLimiter.Bucket bucket = rateLimiter == null ? null : rateLimiter.bucket(endpointClass);
+		final RetryingExchange exchange =
+				new RetryingExchange(this, address, options.getOwner(), request, handler, promise, bucket,
+						options.getDeadlines());
+		watchTotal(promise, options.getDeadlines(), request.method() + " " + uri);
+
+		scheduler.submit(address, options.priorityOf(endpointClass), options.getOwner(), promise, new Runnable() {
+			@Override public void run() {
+				exchange.start();
+			}
+		});
+	}
+
+	/**
+	 * Acquire connection to {@code address}, or open stream on its HTTP/2 connection if it is enabled.
+	 */
+	@NotNull Future<Channel> connect(@NotNull InetSocketAddress address, @NotNull ChannelHandler handler,
+									 @NotNull Promise<?> promise, @NotNull Deadlines deadlines) {
+		if (http2Enabled && isHttp2Available() && !http1OnlyHosts.contains(address)) {
+			return openStream(address, handler, promise, deadlines);
+		}
+		else {
+			return acquire(address, handler, promise, deadlines);
+		}
+	}
+
+	/**
+	 * Open up to {@code connections} connections to host of {@code uri} ahead of requests, and leave them idle in
+	 * the pool. If HTTP/2 is used for the host, only one connection is opened because every request shares it.<br>
+	 * <br>
+	 * It blocks while TLS context is loaded and the host is resolved, so call it on other thread than event loop.
+	 *
+	 * @return future that succeeds when connections finish TLS handshake. It fails if none of them could be opened.
+	 */
+	public @NotNull Future<Void> preconnect(@NotNull URI uri, int connections) {
+		final InetSocketAddress address = addressOf(uri);
+		final Promise<Void> promise = group.next().newPromise();
+
+		try {
+			SslContexts.http1();
+			// result is cached by JVM, so connections do not wait for DNS on event loop.
+			InetAddress.getAllByName(address.getHostString());
+		}
+		catch (UnknownHostException | RuntimeException e) {
+			return promise.setFailure(e);
+		}
+
+		if (http2Enabled && isHttp2Available() && !http1OnlyHosts.contains(address)) {
+			preconnectHttp2(address, connections, promise);
+		}
+		else {
+			preconnectHttp1(address, connections, promise);
+		}
+		return promise;
+	}
+
+	private void preconnectHttp2(final @NotNull InetSocketAddress address, final int connections,
+								 final @NotNull Promise<Void> promise) {
+		http2Connection(address).addListener(new FutureListener<Channel>() {
+			@Override public void operationComplete(Future<Channel> future) {
+				if (future.isSuccess()) promise.trySuccess(null);
+				else if (http1OnlyHosts.contains(address)) preconnectHttp1(address, connections, promise);
+				else promise.tryFailure(future.cause());
+			}
+		});
+	}
+
+	private void preconnectHttp1(@NotNull InetSocketAddress address, int connections,
+								 final @NotNull Promise<Void> promise) {
+		int count = Math.min(connections, maxConnectionsPerHost);
+		if (count <= 0) {
+			promise.trySuccess(null);
+			return;
+		}
+
+		final AtomicInteger remaining = new AtomicInteger(count);
+		final Queue<Channel> opened = new ConcurrentLinkedQueue<>();
+		FixedChannelPool pool = pools.get(address);
+
+		// hold every connection until all of them are ready, so that each acquisition opens a new one.
+		for (int i = 0; i < count; i++) {
+			final Promise<Channel> handshaken = group.next().newPromise();
+			handshaken.addListener(new FutureListener<Channel>() {
+				@Override public void operationComplete(Future<Channel> future) {
+					if (future.isSuccess()) opened.add(future.getNow());
+					if (remaining.decrementAndGet() != 0) return;
+
+					if (opened.isEmpty()) promise.tryFailure(future.cause());
+					else promise.trySuccess(null);
+					for (Channel channel : opened) release(channel, true);
+				}
+			});
+
+			pool.acquire().addListener(new FutureListener<Channel>() {
+				@Override public void operationComplete(Future<Channel> future) {
+					if (!future.isSuccess()) {
+						handshaken.tryFailure(future.cause());
+						return;
+					}
+
+					final Channel channel = future.getNow();
+					channel.pipeline().get(SslHandler.class).handshakeFuture().addListener(
+							new FutureListener<Channel>() {
+								@Override public void operationComplete(Future<Channel> future) {
+									if (future.isSuccess()) {
+										handshaken.trySuccess(channel);
+									}
+									else {
+										release(channel, false);
+										handshaken.tryFailure(future.cause());
+									}
+								}
+							});
+				}
+			});
+		}
+	}
+
+	/**
+	 * Fail {@code promise} with {@link TimeoutException} if it does not complete in total limit of {@code deadlines}.
+	 *
+	 * @param description what {@code promise} is waiting for, to be written in message of the exception
+	 */
+	void watchTotal(final @NotNull Promise<?> promise, @NotNull Deadlines deadlines,
+					final @NotNull String description) {
+		final long timeoutMillis = deadlines.getTotalTimeoutMillis();
+		if (timeoutMillis <= 0 || promise.isDone()) return;
+
+		final ScheduledFuture<?> timer = group.schedule(new Runnable() {
+			@Override public void run() {
+				promise.tryFailure(new TimeoutException(description + " is not completed in " + timeoutMillis + "ms"));
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+
+		promise.addListener(new FutureListener<Object>() {
+			@Override public void operationComplete(Future<Object> future) {
+				timer.cancel(false);
+			}
+		});
+	}
+
+	@NotNull ThrottleState throttleState() {
+		return throttleState;
+	}
+
+	/**
+	 * Return {@code channel} to the pool that it came from. It is safe to call this multiple times.
+	 *
+	 * @param channel   channel to release
+	 * @param keepAlive {@code false} if the connection can not be reused (e.g. <code>Connection: close</code> or
+	 *                  error)
+	 */
+	public static void release(@NotNull Channel channel, boolean keepAlive) {
+		// a stream is never reused, but its connection is.
+		if (channel instanceof Http2StreamChannel) {
+			channel.close();
+			return;
+		}
+
+		if (!keepAlive) channel.close();
+
+		ConnectionPool owner = channel.attr(OWNER).get();
+		Boolean inUse = channel.attr(IN_USE).getAndSet(false);
+
+		if (owner != null && inUse != null && inUse) {
+			owner.pools.get(channel.attr(ADDRESS).get()).release(channel);
+		}
+	}
+
+	public void close() {
+		pools.close();
+
+		for (Future<Channel> connection : http2Connections.values()) {
+			if (connection.isSuccess()) connection.getNow().close();
+		}
+		http2Connections.clear();
+	}
+
+
+	/**
+	 * Open new stream on shared HTTP/2 connection of {@code address}, and attach {@code handler} on it.
+	 * If the host refuses HTTP/2, channel is acquired from HTTP/1.1 pool instead.
+	 */
+	private @NotNull Future<Channel> openStream(final @NotNull InetSocketAddress address,
+												final @NotNull ChannelHandler handler,
+												final @NotNull Promise<?> promise,
+												final @NotNull Deadlines deadlines) {
+		final Promise<Channel> streamPromise = group.next().newPromise();
+
+		http2Connection(address).addListener(new FutureListener<Channel>() {
+			@Override public void operationComplete(Future<Channel> future) {
+				if (future.isSuccess()) {
+					Future<Http2StreamChannel> stream = new Http2StreamChannelBootstrap(future.getNow())
+							.handler(new StreamInitializer(handler, deadlines))
+							.open();
+					cascade(stream, streamPromise, promise);
+				}
+				else if (http1OnlyHosts.contains(address)) {
+					cascade(acquire(address, handler, promise, deadlines), streamPromise, promise);
+				}
+				else {
+					promise.tryFailure(future.cause());
+					streamPromise.tryFailure(future.cause());
+				}
+			}
+		});
+
+		return streamPromise;
+	}
+
+	/**
+	 * @return future of HTTP/2 connection to {@code address} that has finished negotiation.
+	 */
+	private @NotNull Future<Channel> http2Connection(final @NotNull InetSocketAddress address) {
+		Future<Channel> connection = http2Connections.get(address);
+
+		if (connection != null && (!connection.isDone() || connection.isSuccess() && connection.getNow().isActive())) {
+			return connection;
+		}
+
+		final Promise<Channel> negotiated = group.next().newPromise();
+
+		boolean registered = connection == null ?
+				http2Connections.putIfAbsent(address, negotiated) == null :
+				http2Connections.replace(address, connection, negotiated);
+		// other thread already started new connection
+		if (!registered) return http2Connection(address);
+
+		negotiated.addListener(new FutureListener<Channel>() {
+			@Override public void operationComplete(Future<Channel> future) {
+				if (future.isSuccess()) {
+					future.getNow().closeFuture().addListener(new ChannelFutureListener() {
+						@Override public void operationComplete(ChannelFuture future) {
+							http2Connections.remove(address, negotiated);
+						}
+					});
+				}
+				else {
+					http2Connections.remove(address, negotiated);
+				}
+			}
+		});
+
+		bootstrap.clone()
+				.remoteAddress(address)
+				.handler(new Http2Initializer(address, negotiated))
+				.connect()
+				.addListener(new ChannelFutureListener() {
+					@Override public void operationComplete(ChannelFuture future) {
+						if (!future.isSuccess()) negotiated.tryFailure(future.cause());
+					}
+				});
+
+		return negotiated;
+	}
+
+	private static <C extends Channel> void cascade(@NotNull Future<C> from, final @NotNull Promise<Channel> to,
+													final @NotNull Promise<?> requestPromise) {
+		from.addListener(new GenericFutureListener<Future<C>>() {
+			@Override public void operationComplete(Future<C> future) {
+				if (future.isSuccess()) {
+					// waiter gave up (e.g. connect limit), so return the connection that is not used yet.
+					if (!to.trySuccess(future.getNow())) release(future.getNow(), true);
+				}
+				else {
+					requestPromise.tryFailure(future.cause());
+					to.tryFailure(future.cause());
+				}
+			}
+		});
+	}
+
+
+	private class PoolHandler implements ChannelPoolHandler {
+		private final @NotNull InetSocketAddress address;
+
+		PoolHandler(@NotNull InetSocketAddress address) {this.address = address;}
+
+		@Override public void channelCreated(Channel ch) {
+			ch.attr(OWNER).set(ConnectionPool.this);
+			ch.attr(ADDRESS).set(address);
+
+			ChannelPipeline pipeline = ch.pipeline();
+
+			// pass peer host for SNI and TLS session reuse
+			SslContext sslContext = SslContexts.http1();
+			pipeline.addLast("ssl", sslContext.newHandler(ch.alloc(), address.getHostString(), address.getPort()));
+			pipeline.addLast("codec", new HttpClientCodec());
+			pipeline.addLast("inflater", new HttpContentDecompressor());
+			pipeline.addLast("idle", new IdleStateHandler(0, 0, idleTimeoutMillis, TimeUnit.MILLISECONDS));
+			pipeline.addLast("evictor", new IdleEvictor());
+		}
+
+		@Override public void channelAcquired(Channel ch) {
+			ch.attr(IN_USE).set(true);
+		}
+
+		@Override public void channelReleased(Channel ch) {
+			ch.attr(IN_USE).set(false);
+			if (ch.pipeline().get(HANDLER_NAME) != null) ch.pipeline().remove(HANDLER_NAME);
+			if (ch.pipeline().get(DEADLINE_NAME) != null) ch.pipeline().remove(DEADLINE_NAME);
+		}
+	}
+
+	/**
+	 * Negotiates protocol of new connection. If server selects <code>h2</code>, frame codec and stream multiplexer
+	 * are installed. Otherwise the host is marked as HTTP/1.1 only and the connection is closed.
+	 */
+	private class Http2Initializer extends ChannelInitializer<Channel> {
+		private final @NotNull InetSocketAddress address;
+		private final @NotNull Promise<Channel> negotiated;
+
+		Http2Initializer(@NotNull InetSocketAddress address, @NotNull Promise<Channel> negotiated) {
+			this.address = address;
+			this.negotiated = negotiated;
+		}
+
+		@Override protected void initChannel(Channel ch) {
+			SslContext sslContext = SslContexts.http2();
+			assert sslContext != null : "ALPN is not supported";
+
+			ChannelPipeline pipeline = ch.pipeline();
+			pipeline.addLast("ssl", sslContext.newHandler(ch.alloc(), address.getHostString(), address.getPort()));
+			String fallback = ApplicationProtocolNames.HTTP_1_1;
+			pipeline.addLast("negotiator", new ApplicationProtocolNegotiationHandler(fallback) {
+				@Override protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+					if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+						ctx.pipeline().addLast("codec", Http2FrameCodecBuilder.forClient().build());
+						ctx.pipeline().addLast("multiplexer", new Http2MultiplexHandler(new PushRejector()));
+						ctx.pipeline().addLast("idle",
+								new IdleStateHandler(0, 0, idleTimeoutMillis, TimeUnit.MILLISECONDS));
+						ctx.pipeline().addLast("evictor", new Http2IdleEvictor());
+						negotiated.trySuccess(ctx.channel());
+					}
+					else {
+						http1OnlyHosts.add(address);
+						negotiated.tryFailure(new IllegalStateException(address + " does not support HTTP/2"));
+						ctx.close();
+					}
+				}
+
+				@Override protected void handshakeFailure(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+					negotiated.tryFailure(cause);
+					super.handshakeFailure(ctx, cause);
+				}
+			});
+		}
+	}
+
+	private static class StreamInitializer extends ChannelInitializer<Channel> {
+		private final @NotNull ChannelHandler handler;
+		private final @NotNull Deadlines deadlines;
+
+		StreamInitializer(@NotNull ChannelHandler handler, @NotNull Deadlines deadlines) {
+			this.handler = handler;
+			this.deadlines = deadlines;
+		}
+
+		@Override protected void initChannel(Channel ch) {
+			ChannelPipeline pipeline = ch.pipeline();
+			pipeline.addLast("codec", new Http2StreamFrameToHttpObjectCodec(false));
+			pipeline.addLast("inflater", new HttpContentDecompressor());
+			if (deadlines.hasReadDeadline()) pipeline.addLast(DEADLINE_NAME, new ReadDeadlineHandler(deadlines));
+			pipeline.addLast(HANDLER_NAME, handler);
+		}
+	}
+
+	/**
+	 * Server push is not used, so every stream that server initiates is closed immediately.
+	 */
+	@ChannelHandler.Sharable
+	private static class PushRejector extends ChannelInboundHandlerAdapter {
+		@Override public void channelActive(ChannelHandlerContext ctx) {
+			ctx.close();
+		}
+	}
+
+	/**
+	 * Closes HTTP/2 connection that has no active stream during idle timeout.
+	 */
+	private static class Http2IdleEvictor extends ChannelInboundHandlerAdapter {
+		@Override public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.ALL_IDLE) {
+				Http2FrameCodec codec = ctx.pipeline().get(Http2FrameCodec.class);
+				if (codec == null || codec.connection().numActiveStreams() == 0) ctx.close();
+			}
+			else {
+				super.userEventTriggered(ctx, evt);
+			}
+		}
+	}
+
+	/**
+	 * Closes connection that stays in pool without any traffic. Errors on idle connection also close it, instead of
+	 * propagating to the end of pipeline.
+	 */
+	private static class IdleEvictor extends ChannelDuplexHandler {
+		@Override public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.ALL_IDLE) {
+				if (!isInUse(ctx.channel())) ctx.close();
+			}
+			else {
+				super.userEventTriggered(ctx, evt);
+			}
+		}
+
+		@Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+			if (isInUse(ctx.channel())) super.exceptionCaught(ctx, cause);
+			else ctx.close();
+		}
+
+		private static boolean isInUse(Channel channel) {
+			Boolean inUse = channel.attr(IN_USE).get();
+			return inUse != null && inUse;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.bhyoo.onedrive.network.async;
+
+import com.bhyoo.onedrive.exceptions.ContentMismatchException;
+import com.bhyoo.onedrive.utils.QuickXorHash;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.base64.Base64;
+import io.netty.util.CharsetUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes content of a download as it arrives, with one of hashes that OneDrive reports for the file, and checks it
+ * at the end. So content is verified without reading the file again.<br>
+ * <br>
+ * quickXorHash is preferred because OneDrive for Business reports only it, and SHA-1 or CRC32 is used otherwise.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+abstract class ContentVerifier {
+	private final @NotNull String algorithm;
+	private final @NotNull String expected;
+
+	private ContentVerifier(@NotNull String algorithm, @NotNull String expected) {
+		this.algorithm = algorithm;
+		this.expected = expected;
+	}
+
+	/**
+	 * @return verifier of the first hash that is given, or {@code null} if none is given.
+	 */
+	static @Nullable ContentVerifier of(@Nullable String quickXorHash, @Nullable String sha1Hash,
+										@Nullable String crc32Hash) {
+		if (quickXorHash != null) return new QuickXor(quickXorHash);
+		if (sha1Hash != null) return new Sha1(sha1Hash);
+		if (crc32Hash != null) return new Crc32(crc32Hash);
+		return null;
+	}
+
+	void update(@NotNull ByteBuf content) {
+		for (ByteBuffer nioBuffer : content.nioBuffers()) update(nioBuffer);
+	}
+
+	/**
+	 * Hash remaining bytes of {@code buffer}, and move its position to the end.
+	 */
+	abstract void update(@NotNull ByteBuffer buffer);
+
+	/**
+	 * @return hash of content in the same form as OneDrive reports.
+	 */
+	abstract @NotNull String actual();
+
+	/**
+	 * Hex of SHA-1 and CRC32 could be in any case.
+	 */
+	boolean matches(@NotNull String expected, @NotNull String actual) {
+		return expected.equalsIgnoreCase(actual);
+	}
+
+	/**
+	 * Check content that is hashed so far, and record the result to {@code promise}.
+	 *
+	 * @throws ContentMismatchException if content does not match
+	 */
+	void verify(@NotNull DownloadPromise promise) throws ContentMismatchException {
+		String actual = actual();
+		if (matches(expected, actual)) {
+			promise.setIntegrity(DownloadIntegrity.VERIFIED);
+		}
+		else {
+			promise.setIntegrity(DownloadIntegrity.MISMATCH);
+			throw new ContentMismatchException(algorithm, expected, actual);
+		}
+	}
+
+
+	private static final class QuickXor extends ContentVerifier {
+		private final QuickXorHash hash = new QuickXorHash();
+
+		QuickXor(@NotNull String expected) {
+			super("quickXorHash", expected);
+		}
+
+		@Override void update(@NotNull ByteBuffer buffer) {
+			hash.update(buffer);
+			buffer.position(buffer.limit());
+		}
+
+		@Override @NotNull String actual() {
+			ByteBuf digest = Unpooled.wrappedBuffer(hash.digest());
+			ByteBuf encoded = Base64.encode(digest, false);
+			try {
+				return encoded.toString(CharsetUtil.US_ASCII);
+			}
+			finally {
+				digest.release();
+				encoded.release();
+			}
+		}
+
+		/**
+		 * Base64 is case sensitive.
+		 */
+		@Override boolean matches(@NotNull String expected, @NotNull String actual) {
+			return expected.equals(actual);
+		}
+	}
+
+	private static final class Sha1 extends ContentVerifier {
+		private final MessageDigest digest;
+
+		Sha1(@NotNull String expected) {
+			super("sha1Hash", expected);
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			}
+			catch (NoSuchAlgorithmException e) {
+				// every Java platform has SHA-1
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override void update(@NotNull ByteBuffer buffer) {
+			digest.update(buffer);
+		}
+
+		@Override @NotNull String actual() {
+			return ByteBufUtil.hexDump(digest.digest());
+		}
+	}
+
+	private static final class Crc32 extends ContentVerifier {
+		private static final int CHUNK_SIZE = 8192;
+		private final CRC32 crc = new CRC32();
+
+		Crc32(@NotNull String expected) {
+			super("crc32Hash", expected);
+		}
+
+		@Override void update(@NotNull ByteBuffer buffer) {
+			if (buffer.hasArray()) {
+				crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				buffer.position(buffer.limit());
+				return;
+			}
+
+			// CRC32 of Java 7 takes only array
+			byte[] chunk = new byte[Math.min(buffer.remaining(), CHUNK_SIZE)];
+			while (buffer.hasRemaining()) {
+				int length = Math.min(buffer.remaining(), chunk.length);
+				buffer.get(chunk, 0, length);
+				crc.update(chunk, 0, length);
+			}
+		}
+
+		/**
+		 * OneDrive reports CRC32 in little endian.
+		 */
+		@Override @NotNull String actual() {
+			return String.format("%08X", Integer.reverseBytes((int) crc.getValue()));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.bhyoo.onedrive.network.async;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time limits of one call of {@link ConnectionPool}. {@code 0} disables each of them.
+ * <ul>
+ * <li>connect: from start of a try until connection (or HTTP/2 stream) is ready to write. It includes waiting for
+ * free connection of the pool, TCP connect and TLS handshake.</li>
+ * <li>first-byte: from when the request is completely written until the first byte of response arrives.</li>
+ * <li>idle-read: longest gap between two reads while response is being received.</li>
+ * <li>total: from the call until its future completes, including waiting in {@link RequestScheduler} and retries.
+ * </li>
+ * </ul>
+ * A try that exceeds connect, first-byte or idle-read limit fails with {@link java.io.IOException}, so it is retried
+ * as {@link RetryPolicy} says. A call that exceeds total limit fails with
+ * {@link java.util.concurrent.TimeoutException}. In every case the connection is closed and its buffers are
+ * released.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class Deadlines {
+	public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	public static final long DEFAULT_FIRST_BYTE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+	public static final long DEFAULT_IDLE_READ_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+	@Getter private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	@Getter private long firstByteTimeoutMillis = DEFAULT_FIRST_BYTE_TIMEOUT_MILLIS;
+	@Getter private long idleReadTimeoutMillis = DEFAULT_IDLE_READ_TIMEOUT_MILLIS;
+	/**
+	 * Disabled by default, because downloads and uploads could take any time.
+	 */
+	@Getter private long totalTimeoutMillis;
+
+
+	/**
+	 * @return deadlines that never expire.
+	 */
+	public static @NotNull Deadlines none() {
+		return new Deadlines()
+				.setConnectTimeoutMillis(0)
+				.setFirstByteTimeoutMillis(0)
+				.setIdleReadTimeoutMillis(0);
+	}
+
+
+	public @NotNull Deadlines setConnectTimeoutMillis(long connectTimeoutMillis) {
+		this.connectTimeoutMillis = checkTimeout("connectTimeoutMillis", connectTimeoutMillis);
+		return this;
+	}
+
+	public @NotNull Deadlines setFirstByteTimeoutMillis(long firstByteTimeoutMillis) {
+		this.firstByteTimeoutMillis = checkTimeout("firstByteTimeoutMillis", firstByteTimeoutMillis);
+		return this;
+	}
+
+	public @NotNull Deadlines setIdleReadTimeoutMillis(long idleReadTimeoutMillis) {
+		this.idleReadTimeoutMillis = checkTimeout("idleReadTimeoutMillis", idleReadTimeoutMillis);
+		return this;
+	}
+
+	public @NotNull Deadlines setTotalTimeoutMillis(long totalTimeoutMillis) {
+		this.totalTimeoutMillis = checkTimeout("totalTimeoutMillis", totalTimeoutMillis);
+		return this;
+	}
+
+	/**
+	 * @return {@code true} if first-byte or idle-read limit is set, so {@link ReadDeadlineHandler} is needed.
+	 */
+	boolean hasReadDeadline() {
+		return firstByteTimeoutMillis > 0 || idleReadTimeoutMillis > 0;
+	}
+
+	private static long checkTimeout(@NotNull String name, long value) {
+		if (value < 0) throw new IllegalArgumentException(name + " must not be negative : " + value);
+		return value;
+	}
+}
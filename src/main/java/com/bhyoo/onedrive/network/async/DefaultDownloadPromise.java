@@ -4,7 +4,9 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.util.concurrent.DefaultPromise;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 import io.netty.util.concurrent.GenericFutureListener;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.net.URL;
@@ -17,9 +19,16 @@ public class DefaultDownloadPromise extends DefaultPromise<File> implements Down
 	protected Path downloadPath;
 	protected URL remoteUri;
 	protected HttpResponse response;
+	protected DownloadIntegrity integrity = DownloadIntegrity.UNVERIFIED;
+	protected final @NotNull TransferProgress progress = new TransferProgress();
 
 	public DefaultDownloadPromise(EventExecutor executor) {
 		super(executor);
+		super.addListener(new FutureListener<File>() {
+			@Override public void operationComplete(Future<File> future) {
+				progress.complete();
+			}
+		});
 	}
 
 	@Override public Path downloadPath() {
@@ -34,6 +43,14 @@ public class DefaultDownloadPromise extends DefaultPromise<File> implements Down
 		return response;
 	}
 
+	@Override public DownloadIntegrity integrity() {
+		return integrity;
+	}
+
+	@Override public @NotNull TransferProgress progress() {
+		return progress;
+	}
+
 	@Override public DefaultDownloadPromise setResponse(HttpResponse response) {
 		this.response = response;
 		return this;
@@ -49,6 +66,11 @@ public class DefaultDownloadPromise extends DefaultPromise<File> implements Down
 		return this;
 	}
 
+	@Override public DefaultDownloadPromise setIntegrity(DownloadIntegrity integrity) {
+		this.integrity = integrity;
+		return this;
+	}
+
 
 	@Override public DefaultDownloadPromise setSuccess(File result) {
 		super.setSuccess(result);
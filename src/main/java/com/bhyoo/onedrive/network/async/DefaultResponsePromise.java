@@ -37,13 +37,10 @@ public class DefaultResponsePromise extends DefaultPromise<ByteBufStream> implem
 		return channel;
 	}
 
-	@Override public boolean trySuccess(ByteBufStream result) {
-		result.setNoMoreBuf();
-		return super.trySuccess(result);
-	}
-
+	/**
+	 * {@code result} could be still being received, so producer of it must call {@link ByteBufStream#setNoMoreBuf()}.
+	 */
 	@Override public ResponsePromise setSuccess(ByteBufStream result) {
-		result.setNoMoreBuf();
 		super.setSuccess(result);
 		return this;
 	}
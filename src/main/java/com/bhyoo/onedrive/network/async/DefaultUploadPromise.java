@@ -4,6 +4,7 @@ import com.bhyoo.onedrive.container.items.FileItem;
 import io.netty.util.concurrent.DefaultPromise;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -17,17 +18,27 @@ import java.nio.file.Path;
 public class DefaultUploadPromise extends DefaultPromise<FileItem> implements UploadPromise {
 	@NotNull private final Path filePath;
 	@Nullable private URI uploadURI;
+	@NotNull private final TransferProgress progress = new TransferProgress();
 
 
 	public DefaultUploadPromise(EventExecutor executor, @NotNull Path filePath) {
 		super(executor);
 		this.filePath = filePath;
+		super.addListener(new FutureListener<FileItem>() {
+			@Override public void operationComplete(Future<FileItem> future) {
+				progress.complete();
+			}
+		});
 	}
 
 	@Override public @NotNull Path filePath() {
 		return filePath;
 	}
 
+	@Override public @NotNull TransferProgress progress() {
+		return progress;
+	}
+
 	@Override public @Nullable URI uploadURI() {
 		return uploadURI;
 	}
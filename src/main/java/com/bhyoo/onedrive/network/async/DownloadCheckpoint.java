@@ -0,0 +1,218 @@
+package com.bhyoo.onedrive.network.async;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sidecar file of partially downloaded file, that records which bytes of it are written durably.<br>
+ * <br>
+ * It is named after the file with {@value #SUFFIX} suffix, and has validator (<code>ETag</code> or
+ * <code>Last-Modified</code>) and size of remote content, and completed ranges. Download resumes only if validator
+ * and size of remote content are the same, so the file is not mixed with other version of content.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class DownloadCheckpoint {
+	static final String SUFFIX = ".checkpoint";
+
+	private final @NotNull Path path;
+	@Getter private final @NotNull String validator;
+	@Getter private final long size;
+	/**
+	 * Completed ranges that do not overlap nor touch each other. first byte to end (exclusive).
+	 */
+	private final @NotNull TreeMap<Long, Long> completed = new TreeMap<>();
+	/**
+	 * How many snapshots are taken. Guarded by {@code this}.
+	 */
+	private long snapshots;
+	/**
+	 * Held while the checkpoint is written to disk, so {@link #add(long, long)} does not wait for the disk.
+	 */
+	private final @NotNull Object saveLock = new Object();
+	/**
+	 * Sequence of the snapshot that is saved last, or {@link Long#MAX_VALUE} once it is deleted. Guarded by
+	 * {@link #saveLock}.
+	 */
+	private long saved;
+
+
+	/**
+	 * @param file      downloading file
+	 * @param validator <code>ETag</code> or <code>Last-Modified</code> of remote content
+	 * @param size      size of remote content
+	 */
+	DownloadCheckpoint(@NotNull Path file, @NotNull String validator, long size) {
+		this.path = file.resolveSibling(file.getFileName() + SUFFIX);
+		this.validator = validator;
+		this.size = size;
+	}
+
+
+	/**
+	 * @return checkpoint of {@code file}, or {@code null} if it does not exist or can not be read.
+	 */
+	static @Nullable DownloadCheckpoint load(@NotNull Path file) {
+		DownloadCheckpoint checkpoint = null;
+		Path path = file.resolveSibling(file.getFileName() + SUFFIX);
+
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String validator = reader.readLine();
+			String size = reader.readLine();
+			if (validator == null || size == null) return null;
+
+			checkpoint = new DownloadCheckpoint(file, validator, Long.parseLong(size));
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int dash = line.indexOf('-');
+				checkpoint.add(Long.parseLong(line.substring(0, dash)), Long.parseLong(line.substring(dash + 1)));
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			// missing or broken checkpoint, so download starts over
+			return null;
+		}
+
+		return checkpoint;
+	}
+
+	/**
+	 * @return {@code true} if the checkpoint is for remote content of {@code validator} and {@code size}.
+	 */
+	boolean matches(@Nullable String validator, long size) {
+		return this.validator.equals(validator) && this.size == size;
+	}
+
+	/**
+	 * Record that bytes from {@code first} to {@code end} (exclusive) are written.
+	 */
+	synchronized void add(long first, long end) {
+		if (first < 0 || end > size || first > end) {
+			throw new IllegalArgumentException("Wrong range " + first + '-' + end + " of " + size + " bytes");
+		}
+		if (first == end) return;
+
+		Map.Entry<Long, Long> before = completed.floorEntry(first);
+		if (before != null && before.getValue() >= first) {
+			first = before.getKey();
+			end = Math.max(end, before.getValue());
+		}
+
+		Map.Entry<Long, Long> after;
+		while ((after = completed.ceilingEntry(first)) != null && after.getKey() <= end) {
+			end = Math.max(end, after.getValue());
+			completed.remove(after.getKey());
+		}
+
+		completed.put(first, end);
+	}
+
+	/**
+	 * @return ranges between {@code from} and {@code to} (exclusive) that are not written yet, as pairs of first byte
+	 * and end (exclusive).
+	 */
+	synchronized @NotNull List<long[]> missing(long from, long to) {
+		List<long[]> missing = new ArrayList<>();
+
+		Map.Entry<Long, Long> before = completed.floorEntry(from);
+		if (before != null && before.getValue() > from) from = before.getValue();
+
+		for (Map.Entry<Long, Long> range : completed.tailMap(from, true).entrySet()) {
+			if (from >= to) break;
+			if (range.getKey() > from) missing.add(new long[]{from, Math.min(range.getKey(), to)});
+			from = range.getValue();
+		}
+		if (from < to) missing.add(new long[]{from, to});
+
+		return missing;
+	}
+
+	/**
+	 * @return the first byte that is not written yet, or {@link #getSize() size} if whole content is written.
+	 */
+	synchronized long firstMissing() {
+		Map.Entry<Long, Long> first = completed.firstEntry();
+		return first == null || first.getKey() > 0 ? 0 : first.getValue();
+	}
+
+	/**
+	 * @return current ranges to {@link #save(Snapshot, FileChannel) save} later. It is cheap enough for event loop.
+	 */
+	synchronized @NotNull Snapshot snapshot() {
+		StringBuilder builder = new StringBuilder().append(validator).append('\n').append(size).append('\n');
+		for (Map.Entry<Long, Long> range : completed.entrySet()) {
+			builder.append(range.getKey()).append('-').append(range.getValue()).append('\n');
+		}
+		return new Snapshot(++snapshots, builder.toString());
+	}
+
+	/**
+	 * Same as {@link #save(Snapshot, FileChannel)} with current ranges.
+	 */
+	void save(@NotNull FileChannel file) throws IOException {
+		save(snapshot(), file);
+	}
+
+	/**
+	 * Write {@code snapshot} to a temporary file, and replace old one with it atomically. {@code file} is forced to
+	 * disk first, and ranges of the snapshot are taken before that, so the checkpoint never records bytes that could
+	 * be lost.<br>
+	 * <br>
+	 * It blocks on disk, so it must not be called on event loop. It does nothing if newer snapshot is saved already
+	 * or the checkpoint is deleted.
+	 *
+	 * @param file channel of downloading file
+	 */
+	void save(@NotNull Snapshot snapshot, @NotNull FileChannel file) throws IOException {
+		synchronized (saveLock) {
+			if (snapshot.sequence <= saved) return;
+			file.force(false);
+
+			Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				writer.write(snapshot.content);
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			saved = snapshot.sequence;
+		}
+	}
+
+	/**
+	 * Delete the checkpoint file. Snapshots that are not saved yet are not saved from now.
+	 */
+	void delete() throws IOException {
+		synchronized (saveLock) {
+			saved = Long.MAX_VALUE;
+			Files.deleteIfExists(path);
+		}
+	}
+
+
+	/**
+	 * Ranges of the checkpoint at a moment.
+	 */
+	static final class Snapshot {
+		private final long sequence;
+		private final @NotNull String content;
+
+		private Snapshot(long sequence, @NotNull String content) {
+			this.sequence = sequence;
+			this.content = content;
+		}
+	}
+}
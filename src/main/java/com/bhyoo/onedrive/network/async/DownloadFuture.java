@@ -3,6 +3,7 @@ package com.bhyoo.onedrive.network.async;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.net.URL;
@@ -18,6 +19,16 @@ public interface DownloadFuture extends Future<File> {
 
 	HttpResponse response();
 
+	/**
+	 * @return whether content is checked against its hash. It is final once this future is done.
+	 */
+	DownloadIntegrity integrity();
+
+	/**
+	 * @return bytes that are downloaded so far. Add {@link ProgressListener} to it to be notified.
+	 */
+	@NotNull TransferProgress progress();
+
 
 	@Override DownloadFuture addListener(GenericFutureListener<? extends Future<? super File>> listener);
 
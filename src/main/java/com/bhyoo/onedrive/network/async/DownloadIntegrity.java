@@ -0,0 +1,23 @@
+package com.bhyoo.onedrive.network.async;
+
+/**
+ * Result of checking downloaded content against hash that OneDrive reports for the file.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public enum DownloadIntegrity {
+	/**
+	 * Not checked yet, or there was no hash to check with. Downloads by ranges are not checked either, because their
+	 * content does not arrive in order.
+	 */
+	UNVERIFIED,
+	/**
+	 * Content matches the hash.
+	 */
+	VERIFIED,
+	/**
+	 * Content does not match the hash. Download fails with
+	 * {@link com.bhyoo.onedrive.exceptions.ContentMismatchException}.
+	 */
+	MISMATCH
+}
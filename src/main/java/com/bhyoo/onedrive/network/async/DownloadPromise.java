@@ -19,6 +19,8 @@ public interface DownloadPromise extends DownloadFuture, Promise<File> {
 
 	DownloadPromise setPath(Path downloadPath);
 
+	DownloadPromise setIntegrity(DownloadIntegrity integrity);
+
 
 	@Override DownloadPromise setSuccess(File result);
 
@@ -0,0 +1,33 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.Future;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Receives content of a download as it arrives, instead of a file.<br>
+ * <br>
+ * Methods are called on event loop one by one, so they must not block. If a part of content can not be processed
+ * right away, return future of it from {@link #onContent(ByteBuf)}. Reading from the connection pauses until the
+ * future completes, so content is not piled up in memory.<br>
+ * <br>
+ * If download fails, {@link DownloadFuture} of it fails and {@link #onComplete()} is not called.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public interface DownloadSink {
+	/**
+	 * Called with each part of content in order. {@code content} is released after this returns, so
+	 * {@link ByteBuf#retain() retain} it to use later.
+	 *
+	 * @return future that completes when this sink can take next part, or {@code null} if it can right now. If the
+	 * future fails, download fails with its cause.
+	 */
+	@Nullable Future<?> onContent(@NotNull ByteBuf content) throws Exception;
+
+	/**
+	 * Called once after the last part of content is taken.
+	 */
+	void onComplete() throws Exception;
+}
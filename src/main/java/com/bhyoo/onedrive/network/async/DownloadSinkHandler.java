@@ -0,0 +1,170 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Hands body of download response to {@link DownloadSink} in order, and completes {@link DownloadPromise} with
+ * {@code null} after the sink takes all of it. If {@link ContentVerifier} is given, content is hashed as it arrives and
+ * checked before {@link DownloadSink#onComplete()}.<br>
+ * <br>
+ * While future that the sink returned is not completed, <code>autoRead</code> of the connection is turned off, and
+ * content that is already read is kept until the future completes.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class DownloadSinkHandler extends SimpleChannelInboundHandler<HttpObject> {
+	private final @NotNull DownloadPromise promise;
+	private final @NotNull DownloadSink sink;
+	private final @Nullable ContentVerifier verifier;
+	private final @NotNull Queue<HttpContent> pending = new ArrayDeque<>();
+	private boolean keepAlive;
+	/**
+	 * The sink is not ready for next content.
+	 */
+	private boolean waiting;
+	private boolean done;
+
+
+	DownloadSinkHandler(@NotNull DownloadPromise promise, @NotNull DownloadSink sink,
+						@Nullable ContentVerifier verifier) {
+		this.promise = promise;
+		this.sink = sink;
+		this.verifier = verifier;
+	}
+
+	@Override public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		super.channelInactive(ctx);
+		fail(ctx, new ClosedChannelException());
+	}
+
+	@Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+		fail(ctx, cause);
+	}
+
+	private void fail(@NotNull ChannelHandlerContext ctx, @NotNull Throwable cause) {
+		if (done) return;
+		done = true;
+
+		HttpContent content;
+		while ((content = pending.poll()) != null) content.release();
+
+		ConnectionPool.release(ctx.channel(), false);
+		promise.tryFailure(cause);
+	}
+
+	@Override protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+		if (done) return;
+
+		if (msg instanceof HttpResponse) {
+			HttpResponse response = (HttpResponse) msg;
+			promise.setResponse(response);
+			keepAlive = HttpUtil.isKeepAlive(response);
+			promise.progress().setTotalBytes(HttpUtil.getContentLength(response, -1L));
+
+			if (response.status().code() != HttpResponseStatus.OK.code()) {
+				throw new IOException("Unexpected response to download : " + response.status());
+			}
+		}
+
+		if (msg instanceof HttpContent) {
+			HttpContent content = (HttpContent) msg;
+			if (verifier != null) verifier.update(content.content());
+			promise.progress().add(content.content().readableBytes());
+			pending.add(content.retain());
+			drain(ctx);
+		}
+	}
+
+	/**
+	 * Hand pending content to the sink until it is not ready.
+	 */
+	private void drain(final @NotNull ChannelHandlerContext ctx) throws Exception {
+		HttpContent content;
+		while (!waiting && (content = pending.poll()) != null) {
+			Future<?> future;
+			try {
+				future = content.content().isReadable() ? sink.onContent(content.content()) : null;
+			}
+			finally {
+				content.release();
+			}
+
+			if (future != null && !future.isDone()) {
+				waiting = true;
+				ctx.channel().config().setAutoRead(false);
+
+				future.addListener(new FutureListener<Object>() {
+					@Override public void operationComplete(final Future<Object> future) {
+						ctx.executor().execute(new Runnable() {
+							@Override public void run() {
+								resume(ctx, future);
+							}
+						});
+					}
+				});
+			}
+			else if (future != null && !future.isSuccess()) {
+				throw new IOException("Sink failed to take content", future.cause());
+			}
+
+			if (content instanceof LastHttpContent) complete(ctx);
+		}
+	}
+
+	private void resume(@NotNull ChannelHandlerContext ctx, @NotNull Future<?> future) {
+		waiting = false;
+		if (done) return;
+
+		if (!future.isSuccess()) {
+			fail(ctx, future.cause());
+			return;
+		}
+
+		try {
+			drain(ctx);
+		}
+		catch (Exception e) {
+			fail(ctx, e);
+			return;
+		}
+
+		if (!waiting && !done) ctx.channel().config().setAutoRead(true);
+	}
+
+	/**
+	 * Called right after the last content is handed to the sink, but the sink could still be processing it.
+	 */
+	private void complete(@NotNull ChannelHandlerContext ctx) {
+		if (waiting) {
+			// completed once the sink takes it
+			pending.add(LastHttpContent.EMPTY_LAST_CONTENT);
+			return;
+		}
+
+		done = true;
+		// connection goes back to pool as it was
+		ctx.channel().config().setAutoRead(true);
+		ConnectionPool.release(ctx.channel(), keepAlive);
+
+		try {
+			// the sink is not completed with broken content
+			if (verifier != null) verifier.verify(promise);
+			sink.onComplete();
+			promise.trySuccess(null);
+		}
+		catch (Exception e) {
+			promise.tryFailure(e);
+		}
+	}
+}
@@ -1,38 +1,41 @@
 package com.bhyoo.onedrive.network.async;
 
 import com.bhyoo.onedrive.client.RequestTool;
-import com.bhyoo.onedrive.container.items.DriveItem;
 import com.bhyoo.onedrive.utils.ByteBufStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.LastHttpContent;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.RejectedExecutionException;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 
 /**
+ * Receives a response that has one drive item (or error) as body.<br>
+ * <br>
+ * Body is gathered in pooled buffer on event loop without blocking, and parsed on
+ * {@link com.bhyoo.onedrive.client.Transport#getParseExecutor() parse executor} of the client once it is complete,
+ * so neither a thread is created nor event loop waits for parsing.
+ *
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class DriveItemHandler extends SimpleChannelInboundHandler<HttpObject> {
 	private final @NotNull DefaultDriveItemPromise promise;
 	private final @NotNull RequestTool requestTool;
-	private final ByteBufStream stream;
+	private ByteBufStream stream;
 	private HttpResponse response;
-	private DriveItem driveItem;
-	private Thread workerThread;
-	private @Nullable Exception workerException;
+	private boolean received;
 
 	private final int expectedCode;
 
 	public DriveItemHandler(@NotNull DefaultDriveItemPromise promise, @NotNull RequestTool requestTool) {
-		this.promise = promise;
-		this.requestTool = requestTool;
-		this.stream = new ByteBufStream();
-		this.expectedCode = HTTP_OK;
+		this(promise, requestTool, HTTP_OK);
 	}
 
 	public DriveItemHandler(@NotNull DefaultDriveItemPromise promise,
@@ -40,55 +43,70 @@ public class DriveItemHandler extends SimpleChannelInboundHandler<HttpObject> {
 							int expectedCode) {
 		this.promise = promise;
 		this.requestTool = requestTool;
-		this.stream = new ByteBufStream();
 		this.expectedCode = expectedCode;
 	}
 
+	@Override public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		super.handlerAdded(ctx);
+		stream = new ByteBufStream(ctx.alloc().compositeBuffer());
+	}
+
+	@Override public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		super.channelInactive(ctx);
+		exceptionCaught(ctx, new ClosedChannelException());
+	}
+
 	@Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-		super.exceptionCaught(ctx, cause);
-		promise.setFailure(cause);
-		if (!stream.isClosed()) stream.close();
-		ctx.close();
+		ConnectionPool.release(ctx.channel(), false);
+		// body is handed to parser once whole response is received
+		if (received) return;
+
+		received = true;
+		promise.tryFailure(cause);
+		stream.close();
 	}
 
-	@Override protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+	@Override protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+		if (received) return;
+
 		if (msg instanceof HttpResponse) {
-			this.response = (HttpResponse) msg;
+			response = (HttpResponse) msg;
+		}
+
+		if (msg instanceof HttpContent) {
+			stream.writeByteBuf(((HttpContent) msg).content());
+
+			if (msg instanceof LastHttpContent) {
+				received = true;
+				ConnectionPool.release(ctx.channel(), HttpUtil.isKeepAlive(response));
+				stream.setNoMoreBuf();
+				parse();
+			}
+		}
+	}
+
+	private void parse() {
+		final ByteBufStream body = stream;
 
-			workerThread = new Thread() {
+		try {
+			requestTool.transport().getParseExecutor().execute(new Runnable() {
 				@Override public void run() {
 					try {
-						driveItem = requestTool.parseDriveItemAndHandle(response, stream, expectedCode);
+						promise.trySuccess(requestTool.parseDriveItemAndHandle(response, body, expectedCode));
 					}
 					catch (Exception e) {
-						workerException = e;
+						promise.tryFailure(e);
+					}
+					finally {
+						// parser closes it when it reads whole body
+						if (!body.isClosed()) body.close();
 					}
 				}
-			};
-			workerThread.start();
+			});
 		}
-		else if (msg instanceof HttpContent) {
-			HttpContent content = (HttpContent) msg;
-
-			if (content instanceof LastHttpContent) {
-				ctx.close();
-				stream.setNoMoreBuf();
-				workerThread.join();
-
-				if (workerException != null) {
-					promise.setFailure(workerException);
-				}
-				else if (response.status().code() == expectedCode) {
-					promise.setSuccess(driveItem);
-				}
-				else {
-					throw new IllegalStateException(
-							"HTTP response code is not " + expectedCode + " and not occurs any exception");
-				}
-			}
-			else {
-				stream.writeByteBuf(content.content());
-			}
+		catch (RejectedExecutionException e) {
+			body.close();
+			promise.tryFailure(e);
 		}
 	}
 }
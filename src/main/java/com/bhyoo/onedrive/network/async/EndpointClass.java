@@ -0,0 +1,52 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.handler.codec.http.HttpMethod;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URI;
+import java.util.Locale;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpMethod.PUT;
+
+/**
+ * Kind of traffic that {@link RateLimiter} limits separately, because service throttles them with different limits.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public enum EndpointClass {
+	/**
+	 * Reading or modifying items, permissions, drives and so on.
+	 */
+	METADATA,
+	/**
+	 * <code>search(q='...')</code> queries.
+	 */
+	SEARCH,
+	/**
+	 * File content that is sent by simple upload or by each fragment of upload session.
+	 */
+	UPLOAD,
+	/**
+	 * File content that is read through <code>/content</code>.
+	 */
+	DOWNLOAD;
+
+
+	/**
+	 * @return class of request that {@code method} sends to {@code uri}. Fragments of upload session are not
+	 * recognizable by URI, so they must be classified as {@link #UPLOAD} by sender.
+	 */
+	public static @NotNull EndpointClass of(@NotNull HttpMethod method, @NotNull URI uri) {
+		String path = uri.getRawPath();
+		if (path == null) return METADATA;
+		path = path.toLowerCase(Locale.ROOT);
+
+		if (path.contains("/search(") || path.contains("/search%28")) return SEARCH;
+		if (path.endsWith("/content")) {
+			if (GET.equals(method)) return DOWNLOAD;
+			if (PUT.equals(method)) return UPLOAD;
+		}
+		return METADATA;
+	}
+}
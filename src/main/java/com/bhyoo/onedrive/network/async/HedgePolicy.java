@@ -0,0 +1,134 @@
+package com.bhyoo.onedrive.network.async;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Decides when {@link HedgedCall} sends a copy of slow idempotent request, and how many copies can be sent.<br>
+ * <br>
+ * Delay is {@link #getPercentile() percentile} of recent latencies, so only the slowest requests are hedged. Until
+ * enough latencies are recorded, {@link #getInitialDelayMillis() initial delay} is used instead.<br>
+ * <br>
+ * Every request earns {@link #getBudgetRatio() budget ratio} of a hedge and every hedge spends one, so hedges stay
+ * below that ratio of requests even if the service slows down entirely. Unspent budget is capped, so a burst of
+ * hedges after long quiet period is small.<br>
+ * <br>
+ * Share one policy between requests of similar latency (e.g. metadata reads of a client).
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class HedgePolicy {
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	public static final double DEFAULT_BUDGET_RATIO = 0.05;
+	public static final long DEFAULT_MIN_DELAY_MILLIS = 10;
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 1000;
+	private static final int WINDOW = 256;
+	private static final int MIN_SAMPLES = 20;
+	/**
+	 * Delay is calculated again after this many latencies are recorded.
+	 */
+	private static final int RECALCULATE_INTERVAL = 16;
+	private static final double MAX_BUDGET = 10;
+
+	@Getter private double percentile = DEFAULT_PERCENTILE;
+	@Getter private double budgetRatio = DEFAULT_BUDGET_RATIO;
+	@Getter private long minDelayMillis = DEFAULT_MIN_DELAY_MILLIS;
+	@Getter private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+
+	private final @NotNull long[] latencies = new long[WINDOW];
+	private int samples;
+	private int nextSample;
+	private int sinceCalculated;
+	private long delayMillis = -1;
+	private double budget;
+
+
+	/**
+	 * @param percentile a request is hedged if it is slower than this fraction of requests. in <code>(0, 1)</code>.
+	 */
+	public synchronized @NotNull HedgePolicy setPercentile(double percentile) {
+		if (percentile <= 0 || percentile >= 1) {
+			throw new IllegalArgumentException("percentile must be between 0 and 1 : " + percentile);
+		}
+		this.percentile = percentile;
+		this.delayMillis = -1;
+		return this;
+	}
+
+	/**
+	 * @param budgetRatio at most this fraction of requests are hedged. in <code>[0, 1]</code>. {@code 0} disables
+	 *                    hedging.
+	 */
+	public synchronized @NotNull HedgePolicy setBudgetRatio(double budgetRatio) {
+		if (budgetRatio < 0 || budgetRatio > 1) {
+			throw new IllegalArgumentException("budgetRatio must be between 0 and 1 : " + budgetRatio);
+		}
+		this.budgetRatio = budgetRatio;
+		return this;
+	}
+
+	public synchronized @NotNull HedgePolicy setMinDelayMillis(long minDelayMillis) {
+		if (minDelayMillis < 0) {
+			throw new IllegalArgumentException("minDelayMillis must not be negative : " + minDelayMillis);
+		}
+		this.minDelayMillis = minDelayMillis;
+		this.delayMillis = -1;
+		return this;
+	}
+
+	public synchronized @NotNull HedgePolicy setInitialDelayMillis(long initialDelayMillis) {
+		if (initialDelayMillis < 0) {
+			throw new IllegalArgumentException("initialDelayMillis must not be negative : " + initialDelayMillis);
+		}
+		this.initialDelayMillis = initialDelayMillis;
+		return this;
+	}
+
+
+	/**
+	 * @return how long a request waits before its copy is sent, in milliseconds.
+	 */
+	public synchronized long delayMillis() {
+		if (samples < MIN_SAMPLES) return Math.max(initialDelayMillis, minDelayMillis);
+
+		if (delayMillis < 0) {
+			long[] sorted = Arrays.copyOf(latencies, samples);
+			Arrays.sort(sorted);
+			int index = Math.min(samples - 1, (int) Math.ceil(percentile * samples) - 1);
+			delayMillis = Math.max(minDelayMillis, sorted[Math.max(0, index)]);
+		}
+		return delayMillis;
+	}
+
+	/**
+	 * Record latency of a request that is completed. Only the latest ones are kept.
+	 */
+	public synchronized void record(long latencyMillis) {
+		latencies[nextSample] = latencyMillis;
+		nextSample = (nextSample + 1) % WINDOW;
+		if (samples < WINDOW) samples++;
+
+		if (++sinceCalculated >= RECALCULATE_INTERVAL) {
+			sinceCalculated = 0;
+			delayMillis = -1;
+		}
+	}
+
+	/**
+	 * Earn budget for a request that could be hedged.
+	 */
+	synchronized void onRequest() {
+		budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+	}
+
+	/**
+	 * @return {@code true} if budget is left for a hedge, and spend it.
+	 */
+	synchronized boolean tryHedge() {
+		if (budget < 1) return false;
+		budget -= 1;
+		return true;
+	}
+}
@@ -0,0 +1,113 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends an idempotent request, and a copy of it if the first one is not completed in delay of {@link HedgePolicy}
+ * and budget of it is left.<br>
+ * <br>
+ * {@code result} completes with whichever copy completes first, success or failure, because both are responses of
+ * service. Other copy is cancelled then, which closes its connection. If {@code result} is cancelled, every copy is
+ * cancelled too.
+ *
+ * @param <V> type of result
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public abstract class HedgedCall<V> {
+	private final @NotNull HedgePolicy policy;
+	private final @NotNull EventExecutor executor;
+	private final @NotNull Promise<V> result;
+	private final @NotNull List<Future<V>> copies = new CopyOnWriteArrayList<>();
+	private final @NotNull AtomicBoolean decided = new AtomicBoolean();
+
+
+	/**
+	 * @param executor executor that timer of hedge runs on
+	 * @param result   promise that is completed by the first copy
+	 */
+	protected HedgedCall(@NotNull HedgePolicy policy, @NotNull EventExecutor executor, @NotNull Promise<V> result) {
+		this.policy = policy;
+		this.executor = executor;
+		this.result = result;
+	}
+
+
+	/**
+	 * Send one copy of the request.
+	 *
+	 * @return future of the copy
+	 */
+	protected abstract @NotNull Future<V> send();
+
+	/**
+	 * Called with the copy that completes first, right before {@code result} is completed with it.
+	 */
+	protected void onWin(@NotNull Future<V> winner) {}
+
+	/**
+	 * Called with value of a copy that is not used, to release it.
+	 */
+	protected void discard(V value) {}
+
+
+	public void start() {
+		policy.onRequest();
+
+		final ScheduledFuture<?> timer = executor.schedule(new Runnable() {
+			@Override public void run() {
+				if (!result.isDone() && policy.tryHedge()) launch();
+			}
+		}, policy.delayMillis(), TimeUnit.MILLISECONDS);
+
+		result.addListener(new FutureListener<V>() {
+			@Override public void operationComplete(Future<V> future) {
+				timer.cancel(false);
+				for (Future<V> copy : copies) copy.cancel(false);
+			}
+		});
+
+		launch();
+	}
+
+	private void launch() {
+		final long startedAt = System.nanoTime();
+		Future<V> copy = send();
+		copies.add(copy);
+		// completed while it is being sent
+		if (result.isDone()) copy.cancel(false);
+
+		copy.addListener(new FutureListener<V>() {
+			@Override public void operationComplete(Future<V> future) {
+				if (future.isCancelled()) return;
+				if (future.isSuccess()) policy.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+				complete(future);
+			}
+		});
+	}
+
+	private void complete(@NotNull Future<V> copy) {
+		if (!decided.compareAndSet(false, true)) {
+			if (copy.isSuccess()) discard(copy.getNow());
+			return;
+		}
+
+		onWin(copy);
+		if (copy.isSuccess()) {
+			if (!result.trySuccess(copy.getNow())) discard(copy.getNow());
+		}
+		else {
+			result.tryFailure(copy.cause());
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Listens to {@link TransferProgress} of a download or an upload.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public interface ProgressListener {
+	/**
+	 * Called on event loop, at most once per interval of {@code progress} and once more when the transfer completes.
+	 * It must not block.
+	 */
+	void onProgress(@NotNull TransferProgress progress);
+}
@@ -0,0 +1,157 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.util.concurrent.EventExecutor;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side token buckets, one for each {@link EndpointClass}. Share one limiter between every
+ * {@link com.bhyoo.onedrive.client.Client Client} of an account, so that they hold below the limit of service
+ * together instead of being throttled.<br>
+ * <br>
+ * A request that finds its bucket empty is not rejected nor blocks a thread. It reserves a token in future, and is
+ * scheduled on event loop to be sent at that time. Buckets are unlimited until
+ * {@link #setRate(EndpointClass, double, double) rate is set}.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class RateLimiter {
+	private final @NotNull Map<EndpointClass, Bucket> buckets = new EnumMap<>(EndpointClass.class);
+
+
+	public RateLimiter() {
+		for (EndpointClass endpointClass : EndpointClass.values()) {
+			buckets.put(endpointClass, new Bucket(endpointClass));
+		}
+	}
+
+
+	/**
+	 * Change rate of {@code endpointClass}. It can be changed while requests are being sent.
+	 *
+	 * @param endpointClass    class of requests to limit
+	 * @param permitsPerSecond how many requests can be sent in a second on average. {@code 0} means unlimited.
+	 * @param burst            how many requests can be sent at once after idle. at least {@code 1}.
+	 *
+	 * @return this limiter
+	 */
+	public @NotNull RateLimiter setRate(@NotNull EndpointClass endpointClass, double permitsPerSecond, double burst) {
+		if (permitsPerSecond < 0) {
+			throw new IllegalArgumentException("permitsPerSecond must not be negative : " + permitsPerSecond);
+		}
+		if (burst < 1) throw new IllegalArgumentException("burst must be at least 1 : " + burst);
+
+		buckets.get(endpointClass).setRate(permitsPerSecond, burst);
+		return this;
+	}
+
+	public @NotNull Bucket bucket(@NotNull EndpointClass endpointClass) {
+		return buckets.get(endpointClass);
+	}
+
+	/**
+	 * Run {@code task} on {@code executor} when a token of {@code endpointClass} is available. If it is available
+	 * now, {@code task} runs on current thread immediately.
+	 */
+	public void acquire(@NotNull EndpointClass endpointClass, @NotNull EventExecutor executor,
+						@NotNull Runnable task) {
+		long delay = buckets.get(endpointClass).reserveNanos(1);
+		if (delay <= 0) task.run();
+		else executor.schedule(task, delay, TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * Token bucket of one {@link EndpointClass}. Tokens can be reserved in advance, so available permits go negative
+	 * while requests are waiting.
+	 */
+	public static class Bucket {
+		private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+		@Getter private final @NotNull EndpointClass endpointClass;
+		private double permitsPerSecond;
+		private double burst = 1;
+		private double tokens = 1;
+		private long refilledAt = System.nanoTime();
+		private long windowStartedAt = System.nanoTime();
+		private long windowPermits;
+		private long lastWindowPermits;
+
+		Bucket(@NotNull EndpointClass endpointClass) {this.endpointClass = endpointClass;}
+
+		synchronized void setRate(double permitsPerSecond, double burst) {
+			boolean wasUnlimited = this.permitsPerSecond == 0;
+			refill(System.nanoTime());
+
+			this.permitsPerSecond = permitsPerSecond;
+			this.burst = burst;
+			// newly limited bucket starts full, and shrunk bucket drops overflowed tokens.
+			if (wasUnlimited || tokens > burst) tokens = burst;
+		}
+
+		/**
+		 * Take {@code permits} tokens whether they are available or not.
+		 *
+		 * @return how long caller has to wait in nanoseconds until the tokens become valid. {@code 0} if it can
+		 * proceed now.
+		 */
+		public synchronized long reserveNanos(int permits) {
+			long now = System.nanoTime();
+			countPermits(now, permits);
+			if (permitsPerSecond == 0) return 0;
+
+			refill(now);
+			tokens -= permits;
+			if (tokens >= 0) return 0;
+			return (long) Math.ceil(-tokens / permitsPerSecond * SECOND_NANOS);
+		}
+
+		/**
+		 * @return configured requests per second. {@code 0} if unlimited.
+		 */
+		public synchronized double getPermitsPerSecond() {
+			return permitsPerSecond;
+		}
+
+		public synchronized double getBurst() {
+			return burst;
+		}
+
+		/**
+		 * @return tokens that can be taken without wait. negative if requests are waiting for future tokens.
+		 */
+		public synchronized double getAvailablePermits() {
+			if (permitsPerSecond == 0) return burst;
+			refill(System.nanoTime());
+			return tokens;
+		}
+
+		/**
+		 * @return how many permits were reserved during the last whole second.
+		 */
+		public synchronized long getCurrentRate() {
+			countPermits(System.nanoTime(), 0);
+			return lastWindowPermits;
+		}
+
+		private void refill(long now) {
+			long elapsed = now - refilledAt;
+			refilledAt = now;
+			if (elapsed > 0) tokens = Math.min(burst, tokens + elapsed * permitsPerSecond / SECOND_NANOS);
+		}
+
+		private void countPermits(long now, int permits) {
+			long elapsed = now - windowStartedAt;
+			if (elapsed >= SECOND_NANOS) {
+				lastWindowPermits = elapsed < 2 * SECOND_NANOS ? windowPermits : 0;
+				windowPermits = 0;
+				windowStartedAt = now - elapsed % SECOND_NANOS;
+			}
+			windowPermits += permits;
+		}
+	}
+}
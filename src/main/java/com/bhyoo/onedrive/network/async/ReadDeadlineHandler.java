@@ -0,0 +1,103 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces first-byte and idle-read limit of {@link Deadlines} on a connection (or HTTP/2 stream) while it is
+ * acquired. It sits right before request handler, so it sees requests that handler writes and responses that handler
+ * reads.<br>
+ * <br>
+ * First-byte timer starts when a request is completely written, and each read restarts idle-read timer until the
+ * response ends. No timer runs between responses, so a handler that writes several requests on one connection (like
+ * upload fragments) is not limited while it prepares next one. While <code>autoRead</code> is turned off by slow
+ * consumer of the response, idle-read timer does not expire. On expiry, {@link SocketTimeoutException} is fired to
+ * request handler and the connection is closed.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class ReadDeadlineHandler extends ChannelDuplexHandler {
+	private final long firstByteTimeoutMillis;
+	private final long idleReadTimeoutMillis;
+	private @Nullable ScheduledFuture<?> timer;
+	private boolean removed;
+
+
+	ReadDeadlineHandler(@NotNull Deadlines deadlines) {
+		this.firstByteTimeoutMillis = deadlines.getFirstByteTimeoutMillis();
+		this.idleReadTimeoutMillis = deadlines.getIdleReadTimeoutMillis();
+	}
+
+
+	@Override public void write(final ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+		if (!(msg instanceof LastHttpContent)) {
+			ctx.write(msg, promise);
+			return;
+		}
+
+		ChannelPromise written = promise.unvoid();
+		written.addListener(new ChannelFutureListener() {
+			@Override public void operationComplete(ChannelFuture future) {
+				if (future.isSuccess()) schedule(ctx, firstByteTimeoutMillis, "first byte");
+			}
+		});
+		ctx.write(msg, written);
+	}
+
+	@Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+		if (msg instanceof LastHttpContent) cancel();
+		else schedule(ctx, idleReadTimeoutMillis, "next read");
+
+		ctx.fireChannelRead(msg);
+	}
+
+	@Override public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		cancel();
+		super.channelInactive(ctx);
+	}
+
+	@Override public void handlerRemoved(ChannelHandlerContext ctx) {
+		removed = true;
+		cancel();
+	}
+
+
+	private void schedule(final @NotNull ChannelHandlerContext ctx, final long timeoutMillis,
+						  final @NotNull String waitingFor) {
+		cancel();
+		if (timeoutMillis <= 0 || removed) return;
+
+		timer = ctx.executor().schedule(new Runnable() {
+			@Override public void run() {
+				timer = null;
+				if (!ctx.channel().isActive()) return;
+				// reading is paused by consumer of the response, not by the server
+				if (!ctx.channel().config().isAutoRead()) {
+					schedule(ctx, timeoutMillis, waitingFor);
+					return;
+				}
+
+				ctx.fireExceptionCaught(new SocketTimeoutException(
+						"Waited " + waitingFor + " of " + ctx.channel() + " for " + timeoutMillis + "ms"));
+				ctx.close();
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void cancel() {
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.ReferenceCountUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stands for handler of a download from cached pre-authenticated location, until status of response arrives.<br>
+ * <br>
+ * If the service rejects the location (it could expire earlier than it is assumed), the response is dropped with its
+ * connection and {@code relocate} runs, so content is fetched through the API instead. Otherwise it replaces itself
+ * with the handler, so the handler sees the response as it is.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class RelocatingHandler extends ChannelInboundHandlerAdapter {
+	private final @NotNull ChannelHandler handler;
+	private final @NotNull Runnable relocate;
+	private boolean dropping;
+
+
+	/**
+	 * @param handler  handler of the download
+	 * @param relocate fetches content again through the API. It runs on event loop, at most once.
+	 */
+	RelocatingHandler(@NotNull ChannelHandler handler, @NotNull Runnable relocate) {
+		this.handler = handler;
+		this.relocate = relocate;
+	}
+
+	/**
+	 * @return {@code true} if the service answers with {@code status} to location that is not valid anymore.
+	 */
+	static boolean isExpired(int status) {
+		return status == HttpResponseStatus.UNAUTHORIZED.code() || status == HttpResponseStatus.FORBIDDEN.code()
+				|| status == HttpResponseStatus.NOT_FOUND.code() || status == HttpResponseStatus.GONE.code();
+	}
+
+	@Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+		if (dropping) {
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+
+		if (msg instanceof HttpResponse && isExpired(((HttpResponse) msg).status().code())) {
+			dropping = true;
+			ReferenceCountUtil.release(msg);
+			// body is not read, so the connection can not be reused
+			ConnectionPool.release(ctx.channel(), false);
+			relocate.run();
+			return;
+		}
+
+		handOver(ctx).fireChannelRead(msg);
+	}
+
+	@Override public void channelInactive(ChannelHandlerContext ctx) {
+		if (!dropping) handOver(ctx).fireChannelInactive();
+	}
+
+	@Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+		if (!dropping) handOver(ctx).fireExceptionCaught(cause);
+	}
+
+	/**
+	 * @return {@code ctx}, whose events go to the handler from now.
+	 */
+	private @NotNull ChannelHandlerContext handOver(@NotNull ChannelHandlerContext ctx) {
+		ctx.pipeline().replace(this, ConnectionPool.HANDLER_NAME, handler);
+		return ctx;
+	}
+}
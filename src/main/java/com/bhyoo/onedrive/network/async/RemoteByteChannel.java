@@ -0,0 +1,584 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.*;
+
+/**
+ * Read-only {@link SeekableByteChannel} over content of a remote file, that fetches only parts that are read by
+ * <code>Range</code> requests, instead of downloading whole content.<br>
+ * <br>
+ * Content is fetched in blocks of {@link #getBlockSize() blockSize}, and recently read blocks are kept in LRU cache
+ * of {@link #setCacheBlocks(int) cacheBlocks}. Adjacent blocks that are missing are fetched by one request. While
+ * reads go forward block by block, blocks after them are fetched before they are read, and how many of them doubles
+ * on each block up to {@link #setMaxReadAhead(int) maxReadAhead}. Read at other position stops read-ahead.<br>
+ * <br>
+ * Pre-authenticated location of content is asked again once if it is expired. Read fails if remote content is
+ * changed while it is open, instead of mixing its versions. Read blocks until blocks arrive, so it must not be used
+ * on event loop. It can be shared by threads, but reads are done one at a time.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ * @see AsyncDownloadClient#openChannel(long)
+ */
+public class RemoteByteChannel implements SeekableByteChannel {
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+	public static final int DEFAULT_CACHE_BLOCKS = 64;
+	public static final int DEFAULT_MAX_READ_AHEAD = 16;
+	/**
+	 * Adjacent missing blocks are fetched by one request up to this many, so a large read is fetched in parallel.
+	 */
+	static final int MAX_COALESCED_BLOCKS = 32;
+
+	private final @NotNull ConnectionPool pool;
+	private final @NotNull AsyncDownloadClient source;
+	private final @NotNull RequestOptions options;
+	private final long size;
+	private final int blockSize;
+	private volatile int cacheBlocks = DEFAULT_CACHE_BLOCKS;
+	private volatile int maxReadAhead = DEFAULT_MAX_READ_AHEAD;
+	private volatile boolean open = true;
+
+	/**
+	 * Guarded by {@code this}, because fetches complete on event loop.
+	 */
+	private final @NotNull LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private final @NotNull Map<Long, Fetch> fetching = new HashMap<>();
+	private @Nullable Future<URL> location;
+	private @Nullable String validator;
+
+	/**
+	 * Guarded by {@link #readLock}.
+	 */
+	private final @NotNull Object readLock = new Object();
+	private final @NotNull ReadAhead readAhead = new ReadAhead();
+	private volatile long position;
+
+
+	/**
+	 * @param source    asks location of content, and asks it again if it is expired
+	 * @param size      size of content
+	 * @param blockSize size of a block that is fetched and cached
+	 * @param options   options of each range request
+	 */
+	RemoteByteChannel(@NotNull ConnectionPool pool, @NotNull AsyncDownloadClient source, long size, int blockSize,
+					  @NotNull RequestOptions options) {
+		if (size < 0) throw new IllegalArgumentException("Negative size : " + size);
+		if (blockSize < 1) throw new IllegalArgumentException("blockSize must be positive : " + blockSize);
+		this.pool = pool;
+		this.source = source;
+		this.size = size;
+		this.blockSize = blockSize;
+		this.options = options;
+	}
+
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @param cacheBlocks how many blocks are kept after they are read. {@code 0} to keep none.
+	 *
+	 * @return this
+	 */
+	public @NotNull RemoteByteChannel setCacheBlocks(int cacheBlocks) {
+		if (cacheBlocks < 0) throw new IllegalArgumentException("Negative cacheBlocks : " + cacheBlocks);
+		this.cacheBlocks = cacheBlocks;
+		synchronized (this) {
+			trimCache();
+		}
+		return this;
+	}
+
+	/**
+	 * @param maxReadAhead how many blocks are fetched ahead of sequential reads at most. {@code 0} to disable
+	 *                     read-ahead.
+	 *
+	 * @return this
+	 */
+	public @NotNull RemoteByteChannel setMaxReadAhead(int maxReadAhead) {
+		if (maxReadAhead < 0) throw new IllegalArgumentException("Negative maxReadAhead : " + maxReadAhead);
+		this.maxReadAhead = maxReadAhead;
+		return this;
+	}
+
+
+	@Override public int read(ByteBuffer dst) throws IOException {
+		synchronized (readLock) {
+			ensureOpen();
+			if (!dst.hasRemaining()) return 0;
+
+			long position = this.position;
+			if (position >= size) return -1;
+
+			long first = position / blockSize;
+			long last = (Math.min(size, position + dst.remaining()) - 1) / blockSize;
+			// blocks fetched ahead are read from cache, so no more than it holds
+			int ahead = readAhead.next(first, last, Math.min(maxReadAhead, cacheBlocks));
+
+			int count = (int) (last - first + 1);
+			byte[][] cached = new byte[count][];
+			Fetch[] sources = new Fetch[count];
+			fetch(first, last, ahead, cached, sources);
+
+			int read = 0;
+			for (long index = first; index <= last; index++) {
+				int i = (int) (index - first);
+				byte[] block = cached[i] != null ? cached[i] : await(index, sources[i]);
+				int offset = (int) (position - index * blockSize);
+				int length = Math.min(block.length - offset, dst.remaining());
+
+				dst.put(block, offset, length);
+				position += length;
+				read += length;
+			}
+
+			this.position = position;
+			return read;
+		}
+	}
+
+	@Override public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override public long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override public @NotNull RemoteByteChannel position(long newPosition) throws IOException {
+		if (newPosition < 0) throw new IllegalArgumentException("Negative position : " + newPosition);
+		synchronized (readLock) {
+			ensureOpen();
+			this.position = newPosition;
+		}
+		return this;
+	}
+
+	@Override public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Cancel blocks that are being fetched, and drop cached blocks.
+	 */
+	@Override public void close() {
+		List<Fetch> running;
+		synchronized (this) {
+			if (!open) return;
+			open = false;
+
+			running = new ArrayList<>(new HashSet<>(fetching.values()));
+			fetching.clear();
+			cache.clear();
+		}
+		for (Fetch fetch : running) fetch.promise.cancel(false);
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (!open) throw new ClosedChannelException();
+	}
+
+
+	/*
+	 * Blocks
+	 */
+
+	private long blockCount() {
+		return (size + blockSize - 1) / blockSize;
+	}
+
+	private int blockLength(long index) {
+		return (int) Math.min(blockSize, size - index * blockSize);
+	}
+
+	/**
+	 * @return {@code true} if block of {@code index} is cached or being fetched. It does not touch order of cache.
+	 */
+	private boolean has(long index) {
+		return cache.containsKey(index) || fetching.containsKey(index);
+	}
+
+	/**
+	 * Fetch blocks from {@code first} to {@code last} that are missing, and {@code ahead} blocks after them.
+	 * Read-ahead is fetched in batches, once half of blocks that are fetched ahead is read.<br>
+	 * <br>
+	 * Each block from {@code first} to {@code last} is put in {@code cached} if it is cached, or its fetch is put in
+	 * {@code sources}. So the read takes them even if they are evicted from cache before it gets to them.
+	 */
+	private void fetch(long first, long last, int ahead, @NotNull byte[][] cached, @NotNull Fetch[] sources) {
+		List<Fetch> fetches = new ArrayList<>();
+		synchronized (this) {
+			long end = last;
+			if (ahead > 0) {
+				long mark = Math.min(last + 1 + ahead / 2, blockCount() - 1);
+				if (mark > last && !has(mark)) end = Math.min(last + ahead, blockCount() - 1);
+			}
+
+			long index = first;
+			while (index <= end) {
+				if (has(index)) {
+					index++;
+					continue;
+				}
+
+				long runFirst = index;
+				while (index <= end && index - runFirst < MAX_COALESCED_BLOCKS && !has(index)) index++;
+
+				Fetch fetch = new Fetch(runFirst, (int) (index - runFirst));
+				for (long i = runFirst; i < index; i++) fetching.put(i, fetch);
+				fetches.add(fetch);
+			}
+
+			// every block of the read is cached or being fetched now
+			for (index = first; index <= last; index++) {
+				int i = (int) (index - first);
+				cached[i] = cache.get(index);
+				if (cached[i] == null) sources[i] = fetching.get(index);
+			}
+		}
+
+		for (Fetch fetch : fetches) send(fetch);
+	}
+
+	/**
+	 * Wait until {@code fetch} that has block of {@code index} completes.
+	 */
+	private @NotNull byte[] await(long index, @NotNull Fetch fetch) throws IOException {
+		try {
+			fetch.promise.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading block " + index);
+		}
+
+		if (fetch.promise.isSuccess()) return fetch.block(index);
+		if (fetch.promise.isCancelled()) throw new AsynchronousCloseException();
+		throw new IOException("Failed to read bytes " + fetch.begin() + '-' + (fetch.end() - 1), fetch.promise.cause());
+	}
+
+	/**
+	 * Called on event loop once {@code fetch} completes. Blocks of it are cached if it succeeded.
+	 */
+	private synchronized void finished(@NotNull Fetch fetch) {
+		for (int i = 0; i < fetch.blocks.length; i++) {
+			long index = fetch.first + i;
+			if (fetching.get(index) == fetch) fetching.remove(index);
+			if (open && fetch.promise.isSuccess()) cache.put(index, fetch.blocks[i]);
+		}
+		trimCache();
+	}
+
+	private void trimCache() {
+		Iterator<byte[]> iterator = cache.values().iterator();
+		while (cache.size() > cacheBlocks && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+
+	/*
+	 * Requests
+	 */
+
+	/**
+	 * @return location of content. It is asked again if it is not asked yet, or asking it failed before.
+	 */
+	private synchronized @NotNull Future<URL> location() {
+		Future<URL> location = this.location;
+		if (location == null || (location.isDone() && !location.isSuccess())) {
+			location = this.location = source.locateContent();
+		}
+		return location;
+	}
+
+	/**
+	 * Forget {@code expired}, so next request asks location again.
+	 */
+	private synchronized void expire(@NotNull Future<URL> expired) {
+		if (location != expired) return;
+		location = null;
+		source.setLocation(null);
+	}
+
+	/**
+	 * Content of every range must come from the same version of remote content.
+	 */
+	private synchronized void checkValidator(@Nullable String validator) throws IOException {
+		if (validator == null) return;
+
+		if (this.validator == null) this.validator = validator;
+		else if (!this.validator.equals(validator)) {
+			throw new IOException("Remote content is changed while it is read : " + this.validator + " to " +
+					validator);
+		}
+	}
+
+	private void send(final @NotNull Fetch fetch) {
+		final Future<URL> location = location();
+		location.addListener(new FutureListener<URL>() {
+			@Override public void operationComplete(Future<URL> future) {
+				if (!future.isSuccess()) {
+					fetch.promise.tryFailure(future.cause());
+					return;
+				}
+				if (fetch.promise.isDone()) return;
+
+				try {
+					send(fetch, location, future.getNow().toURI());
+				}
+				catch (URISyntaxException e) {
+					fetch.promise.tryFailure(e);
+				}
+			}
+		});
+	}
+
+	private void send(final @NotNull Fetch fetch, final @NotNull Future<URL> location, @NotNull URI uri) {
+		HttpRequest request = AsyncDownloadClient.contentRequest(uri);
+		request.headers().set(HttpHeaderNames.RANGE, "bytes=" + fetch.begin() + '-' + (fetch.end() - 1));
+
+		final Promise<Void> attempt = pool.getGroup().next().newPromise();
+		fetch.attempt = attempt;
+		attempt.addListener(new FutureListener<Void>() {
+			@Override public void operationComplete(Future<Void> future) {
+				if (future.isSuccess()) {
+					fetch.promise.trySuccess(null);
+				}
+				else if (future.cause() instanceof ExpiredLocationException && !fetch.relocated) {
+					fetch.relocated = true;
+					expire(location);
+					send(fetch);
+				}
+				else {
+					fetch.promise.tryFailure(future.cause());
+				}
+			}
+		});
+
+		pool.send(uri, request, new RangeHandler(fetch, attempt), attempt, options);
+	}
+
+
+	/**
+	 * Decides how many blocks are fetched ahead of a read. It grows while reads go forward block by block.
+	 */
+	static final class ReadAhead {
+		/**
+		 * Block right after the previous read.
+		 */
+		private long nextBlock = -1;
+		private int window;
+
+		/**
+		 * @param first first block of this read
+		 * @param last  last block of this read
+		 * @param max   read-ahead at most
+		 *
+		 * @return how many blocks after {@code last} are fetched ahead
+		 */
+		int next(long first, long last, int max) {
+			if (first == nextBlock) window = Math.min(Math.max(1, window * 2), max);
+			// read that continues in the same block keeps read-ahead
+			else if (first != nextBlock - 1) window = 0;
+
+			nextBlock = last + 1;
+			return window;
+		}
+	}
+
+	/**
+	 * Adjacent blocks that are fetched by one range request.
+	 */
+	private final class Fetch {
+		private final long first;
+		private final @NotNull byte[][] blocks;
+		private final @NotNull Promise<Void> promise;
+		private volatile @Nullable Promise<Void> attempt;
+		private volatile boolean relocated;
+
+		Fetch(long first, int count) {
+			this.first = first;
+			this.blocks = new byte[count][];
+			for (int i = 0; i < count; i++) blocks[i] = new byte[blockLength(first + i)];
+
+			this.promise = pool.getGroup().next().newPromise();
+			promise.addListener(new FutureListener<Void>() {
+				@Override public void operationComplete(Future<Void> future) {
+					// cancelled by close
+					Promise<Void> attempt = Fetch.this.attempt;
+					if (!future.isSuccess() && attempt != null) attempt.cancel(false);
+					finished(Fetch.this);
+				}
+			});
+		}
+
+		long begin() {
+			return first * blockSize;
+		}
+
+		long end() {
+			return Math.min(size, (first + blocks.length) * blockSize);
+		}
+
+		@NotNull byte[] block(long index) {
+			return blocks[(int) (index - first)];
+		}
+	}
+
+	/**
+	 * Copies body of one range into blocks of {@link Fetch}.
+	 */
+	private final class RangeHandler extends SimpleChannelInboundHandler<HttpObject> {
+		private final @NotNull Fetch fetch;
+		private final @NotNull Promise<Void> attempt;
+		/**
+		 * Position of the next byte of body in content.
+		 */
+		private long position;
+		/**
+		 * {@code true} if server ignored range and sends whole content.
+		 */
+		private boolean whole;
+		private boolean keepAlive;
+		private boolean done;
+
+		RangeHandler(@NotNull Fetch fetch, @NotNull Promise<Void> attempt) {
+			this.fetch = fetch;
+			this.attempt = attempt;
+		}
+
+		@Override public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			super.channelInactive(ctx);
+			fail(ctx, new ClosedChannelException());
+		}
+
+		@Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			fail(ctx, cause);
+		}
+
+		private void fail(@NotNull ChannelHandlerContext ctx, @NotNull Throwable cause) {
+			if (done) return;
+			done = true;
+
+			ConnectionPool.release(ctx.channel(), false);
+			attempt.tryFailure(cause);
+		}
+
+		private void succeed(@NotNull ChannelHandlerContext ctx, boolean keepAlive) {
+			done = true;
+			ConnectionPool.release(ctx.channel(), keepAlive);
+			attempt.trySuccess(null);
+		}
+
+		@Override protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+			if (done) return;
+
+			if (msg instanceof HttpResponse) {
+				HttpResponse response = (HttpResponse) msg;
+				keepAlive = HttpUtil.isKeepAlive(response);
+				int status = response.status().code();
+
+				if (status == HttpResponseStatus.PARTIAL_CONTENT.code()) {
+					String contentRange = response.headers().get(HttpHeaderNames.CONTENT_RANGE);
+					if (SegmentedDownload.firstOf(contentRange) != fetch.begin()) {
+						throw new IOException("Unexpected range " + contentRange + " from " + fetch.begin());
+					}
+					position = fetch.begin();
+				}
+				else if (status == HttpResponseStatus.OK.code()) {
+					whole = true;
+					position = 0;
+				}
+				else if (RelocatingHandler.isExpired(status)) {
+					throw new ExpiredLocationException(response.status());
+				}
+				else {
+					throw new IOException("Unexpected response to range request : " + response.status());
+				}
+
+				checkValidator(SegmentedDownload.validatorOf(response));
+			}
+
+			if (msg instanceof HttpContent) {
+				ByteBuf content = ((HttpContent) msg).content();
+				copy(content);
+				position += content.readableBytes();
+
+				if (!whole && position > fetch.end()) {
+					throw new IOException("Range " + fetch.begin() + '-' + (fetch.end() - 1) +
+							" has more content than requested");
+				}
+
+				if (msg instanceof LastHttpContent) {
+					if (position < fetch.end()) {
+						throw new IOException("Range " + fetch.begin() + '-' + (fetch.end() - 1) + " ends at " +
+								position);
+					}
+					succeed(ctx, keepAlive);
+				}
+				// rest of whole content is not needed, so the connection can not be reused
+				else if (whole && position >= fetch.end()) {
+					succeed(ctx, false);
+				}
+			}
+		}
+
+		/**
+		 * Copy part of {@code content} that belongs to {@link #fetch}, to its blocks.
+		 */
+		private void copy(@NotNull ByteBuf content) {
+			long from = Math.max(position, fetch.begin());
+			long to = Math.min(position + content.readableBytes(), fetch.end());
+
+			while (from < to) {
+				long index = from / blockSize;
+				byte[] block = fetch.block(index);
+				int offset = (int) (from - index * blockSize);
+				int length = (int) Math.min(block.length - offset, to - from);
+
+				content.getBytes(content.readerIndex() + (int) (from - position), block, offset, length);
+				from += length;
+			}
+		}
+	}
+
+	/**
+	 * Pre-authenticated location of content is not valid anymore.
+	 */
+	private static final class ExpiredLocationException extends IOException {
+		ExpiredLocationException(@NotNull HttpResponseStatus status) {
+			super("Location of content is expired : " + status);
+		}
+	}
+}
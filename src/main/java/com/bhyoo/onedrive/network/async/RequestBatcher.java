@@ -0,0 +1,481 @@
+package com.bhyoo.onedrive.network.async;
+
+import com.bhyoo.onedrive.client.RequestTool;
+import com.bhyoo.onedrive.exceptions.InvalidJsonException;
+import com.bhyoo.onedrive.utils.ByteBufStream;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.handler.codec.http.*;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.bhyoo.onedrive.client.RequestTool.jsonFactory;
+import static io.netty.handler.codec.http.HttpHeaderNames.*;
+import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_JSON;
+import static io.netty.handler.codec.http.HttpHeaderValues.GZIP;
+import static io.netty.handler.codec.http.HttpMethod.POST;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Coalesces requests that are issued within short window into one
+ * <a href="https://docs.microsoft.com/en-us/graph/json-batching">JSON batch</a> request, and splits its result back
+ * into {@link ResponseFuture} of each request.<br>
+ * <br>
+ * Pending requests are sent when {@link #getMaxBatchSize()} requests are gathered, or {@link #getWindowMillis()}
+ * passed since first pending request. A window that gathered only one request is sent as it is.<br>
+ * <br>
+ * Response of each request is not streamed, {@link ResponseFuture#getNow()} holds whole body that re-serialized from
+ * batch response.<br>
+ * <br>
+ * Request that is throttled in batch (<code>429</code> or <code>503</code>) is put back to a later window after its
+ * <code>Retry-After</code>, as {@link ConnectionPool#getRetryPolicy()} says, and the delay holds other requests of the
+ * client to the host as throttled single request does.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class RequestBatcher {
+	/**
+	 * Maximum number of requests that Graph allows in one batch.
+	 */
+	public static final int MAX_BATCH_SIZE = 20;
+	public static final long DEFAULT_WINDOW_MILLIS = 5;
+	private static final String BATCH_API = "/$batch";
+
+	private final @NotNull RequestTool requestTool;
+	private final @NotNull ConnectionPool connectionPool;
+	@Getter private volatile int maxBatchSize = MAX_BATCH_SIZE;
+	@Getter private volatile long windowMillis = DEFAULT_WINDOW_MILLIS;
+
+	private @NotNull List<Entry> pending = new ArrayList<>();
+	private @Nullable ScheduledFuture<?> flushTask;
+
+
+	public RequestBatcher(@NotNull RequestTool requestTool, @NotNull ConnectionPool connectionPool) {
+		this.requestTool = requestTool;
+		this.connectionPool = connectionPool;
+	}
+
+
+	/**
+	 * @param maxBatchSize number of requests that flushes window immediately. Must be in 1 ~ {@value MAX_BATCH_SIZE}.
+	 *
+	 * @return this batcher
+	 */
+	public @NotNull RequestBatcher setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("Batch size must be in 1 ~ " + MAX_BATCH_SIZE + ", not " + maxBatchSize);
+		}
+		this.maxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	/**
+	 * @param windowMillis how long first pending request waits others.
+	 *
+	 * @return this batcher
+	 */
+	public @NotNull RequestBatcher setWindowMillis(long windowMillis) {
+		if (windowMillis < 0) throw new IllegalArgumentException("Negative window : " + windowMillis);
+		this.windowMillis = windowMillis;
+		return this;
+	}
+
+
+	public @NotNull ResponseFuture enqueue(@NotNull HttpMethod method, @NotNull String api, @Nullable byte[] content) {
+		return enqueue(method, api, content, null);
+	}
+
+	/**
+	 * Add request to current window.
+	 *
+	 * @param method  HTTP method of request
+	 * @param api     API to request. It must starts with <code>/</code>, and must be encoded.
+	 * @param content JSON body of request. <code>Content-Type</code> is <code>application/json</code> unless
+	 *                {@code headers} specifies other.
+	 * @param headers additional headers of request. <code>Authorization</code> is not needed.
+	 *
+	 * @return future of response of the request
+	 */
+	public @NotNull ResponseFuture enqueue(@NotNull HttpMethod method, @NotNull String api, @Nullable byte[] content,
+										   @Nullable HttpHeaders headers) {
+		DefaultResponsePromise promise = new DefaultResponsePromise(connectionPool.getGroup().next());
+		add(new Entry(method, api, content, headers, promise));
+		return promise;
+	}
+
+	private void add(@NotNull Entry entry) {
+		List<Entry> full = null;
+		synchronized (this) {
+			pending.add(entry);
+
+			if (pending.size() >= maxBatchSize) {
+				full = drain();
+			}
+			else if (flushTask == null) {
+				flushTask = connectionPool.getGroup().schedule(new Runnable() {
+					@Override public void run() {
+						flush();
+					}
+				}, windowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		if (full != null) dispatch(full);
+	}
+
+	/**
+	 * Send pending requests without waiting rest of window.
+	 */
+	public void flush() {
+		List<Entry> entries;
+		synchronized (this) {
+			entries = drain();
+		}
+
+		if (!entries.isEmpty()) dispatch(entries);
+	}
+
+	// must be called with lock
+	private @NotNull List<Entry> drain() {
+		if (flushTask != null) {
+			flushTask.cancel(false);
+			flushTask = null;
+		}
+
+		List<Entry> entries = pending;
+		pending = new ArrayList<>(maxBatchSize);
+		return entries;
+	}
+
+
+	private void dispatch(@NotNull List<Entry> drained) {
+		// requests that are cancelled while waiting are not sent
+		final List<Entry> entries = new ArrayList<>(drained.size());
+		for (Entry entry : drained) {
+			if (!entry.promise.isDone()) entries.add(entry);
+		}
+
+		if (entries.isEmpty()) return;
+		if (entries.size() == 1) {
+			dispatchAlone(entries.get(0));
+			return;
+		}
+
+		ByteBuf body = connectionPool.getAllocator().buffer();
+		try (JsonGenerator generator = jsonFactory.createGenerator((OutputStream) new ByteBufOutputStream(body))) {
+			writeBatch(generator, entries);
+		}
+		catch (IOException e) {
+			body.release();
+			failAll(entries, e);
+			return;
+		}
+
+		final URI uri = RequestTool.api2Uri(BATCH_API);
+		final DefaultFullHttpRequest request =
+				new DefaultFullHttpRequest(HTTP_1_1, POST, uri.toASCIIString(), body);
+		request.headers()
+				.set(HOST, uri.getHost())
+				.set(ACCEPT_ENCODING, GZIP)
+				.set(CONTENT_TYPE, APPLICATION_JSON)
+				.set(CONTENT_LENGTH, body.readableBytes())
+				.set(AUTHORIZATION, authorization());
+
+		long wait = reservePermits(entries);
+		if (wait <= 0) {
+			sendBatch(uri, request, entries);
+		}
+		else {
+			connectionPool.getGroup().schedule(new Runnable() {
+				@Override public void run() {
+					sendBatch(uri, request, entries);
+				}
+			}, wait, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Service counts each request in batch, so every entry takes a token of its own class.
+	 *
+	 * @return how long the batch has to wait in nanoseconds
+	 */
+	private long reservePermits(@NotNull List<Entry> entries) {
+		RateLimiter rateLimiter = requestTool.getRateLimiter();
+		if (rateLimiter == null) return 0;
+
+		long wait = 0;
+		for (Entry entry : entries) {
+			EndpointClass endpointClass = EndpointClass.of(entry.method, RequestTool.api2Uri(entry.api));
+			wait = Math.max(wait, rateLimiter.bucket(endpointClass).reserveNanos(1));
+		}
+		return wait;
+	}
+
+	/**
+	 * @return value of <code>Authorization</code> header of requests
+	 */
+	@NotNull String authorization() {
+		return requestTool.getClient().getFullToken();
+	}
+
+	private void sendBatch(@NotNull URI uri, @NotNull DefaultFullHttpRequest request,
+						   final @NotNull List<Entry> entries) {
+		for (Entry entry : entries) entry.attempts++;
+
+		ResponsePromise batchPromise = new DefaultResponsePromise(connectionPool.getGroup().next());
+		// tokens are already taken by entries
+		RequestOptions options = requestTool.requestOptions().setRateLimiter(null);
+		connectionPool.send(uri, request, new AsyncClientHandler(batchPromise), batchPromise, options);
+
+		batchPromise.addListener(new ResponseFutureListener() {
+			@Override public void operationComplete(ResponseFuture future) {
+				if (!future.isSuccess()) {
+					failAll(entries, future.cause());
+					return;
+				}
+
+				ByteBufStream stream = future.getNow();
+				try {
+					RequestTool.errorHandling(future.response(), stream, HTTP_OK);
+					split(stream, entries);
+				}
+				catch (Exception e) {
+					failAll(entries, e);
+				}
+				finally {
+					stream.close();
+				}
+			}
+		});
+	}
+
+	private void dispatchAlone(final @NotNull Entry entry) {
+		URI uri = RequestTool.api2Uri(entry.api);
+		AsyncClient client = new AsyncClient(connectionPool, entry.method, uri, entry.content)
+				.setOptions(requestTool.requestOptions());
+		client.setHeader(AUTHORIZATION, authorization());
+		if (entry.content != null) {
+			client.setHeader(CONTENT_TYPE, APPLICATION_JSON);
+			client.setHeader(CONTENT_LENGTH, String.valueOf(entry.content.length));
+		}
+		if (entry.headers != null) {
+			for (Map.Entry<String, String> header : entry.headers) {
+				client.setHeader(header.getKey(), header.getValue());
+			}
+		}
+
+		client.execute().addListener(new ResponseFutureListener() {
+			@Override public void operationComplete(ResponseFuture future) {
+				entry.promise.setChannel(future.channel());
+				if (future.isSuccess()) {
+					ByteBufStream stream = future.getNow();
+					if (!entry.promise.setResponse(future.response()).trySuccess(stream)) stream.close();
+				}
+				else {
+					entry.promise.tryFailure(future.cause());
+				}
+			}
+		});
+	}
+
+	private static void writeBatch(@NotNull JsonGenerator generator, @NotNull List<Entry> entries)
+			throws IOException {
+		generator.writeStartObject();
+		generator.writeArrayFieldStart("requests");
+
+		for (int i = 0; i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+
+			generator.writeStartObject();
+			generator.writeStringField("id", String.valueOf(i));
+			generator.writeStringField("method", entry.method.name());
+			generator.writeStringField("url", entry.api);
+
+			if (entry.content != null || entry.headers != null) {
+				generator.writeObjectFieldStart("headers");
+				if (entry.content != null &&
+						(entry.headers == null || !entry.headers.contains(CONTENT_TYPE))) {
+					generator.writeStringField(CONTENT_TYPE.toString(), APPLICATION_JSON.toString());
+				}
+				if (entry.headers != null) {
+					for (Map.Entry<String, String> header : entry.headers) {
+						generator.writeStringField(header.getKey(), header.getValue());
+					}
+				}
+				generator.writeEndObject();
+			}
+
+			if (entry.content != null) {
+				generator.writeFieldName("body");
+				generator.writeRawValue(new String(entry.content, StandardCharsets.UTF_8));
+			}
+
+			generator.writeEndObject();
+		}
+
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	private void split(@NotNull ByteBufStream stream, @NotNull List<Entry> entries) throws IOException {
+		boolean[] retried = new boolean[entries.size()];
+		JsonParser parser = jsonFactory.createParser(stream);
+		if (parser.nextToken() != JsonToken.START_OBJECT) throw new InvalidJsonException("Invalid batch response");
+
+		while (parser.nextToken() != JsonToken.END_OBJECT) {
+			String currentName = parser.getCurrentName();
+			parser.nextToken();
+
+			if ("responses".equals(currentName)) {
+				while (parser.nextToken() != JsonToken.END_ARRAY) {
+					int retriedId = splitOne(parser, entries);
+					if (retriedId >= 0) retried[retriedId] = true;
+				}
+			}
+			else {
+				parser.skipChildren();
+			}
+		}
+
+		for (int i = 0; i < entries.size(); i++) {
+			if (retried[i]) continue;
+			entries.get(i).promise.tryFailure(new InvalidJsonException("No response of request " + i + " in batch"));
+		}
+	}
+
+	/**
+	 * Complete promise of request that {@code parser} points, or put it back if it is throttled.
+	 *
+	 * @return id of the request if it is put back, {@code -1} otherwise.
+	 */
+	private int splitOne(@NotNull JsonParser parser, @NotNull List<Entry> entries) throws IOException {
+		ByteBufAllocator allocator = connectionPool.getAllocator();
+		int id = -1, status = 0;
+		HttpHeaders headers = new DefaultHttpHeaders();
+		ByteBuf body = null;
+
+		try {
+			while (parser.nextToken() != JsonToken.END_OBJECT) {
+				String currentName = parser.getCurrentName();
+				parser.nextToken();
+
+				switch (currentName) {
+					case "id":
+						id = Integer.parseInt(parser.getText());
+						break;
+					case "status":
+						status = parser.getIntValue();
+						break;
+					case "headers":
+						while (parser.nextToken() != JsonToken.END_OBJECT) {
+							String name = parser.getCurrentName();
+							parser.nextToken();
+							headers.add(name, parser.getText());
+						}
+						break;
+					case "body":
+						if (body == null) body = allocator.buffer();
+						try (JsonGenerator generator =
+									 jsonFactory.createGenerator((OutputStream) new ByteBufOutputStream(body))) {
+							generator.copyCurrentStructure(parser);
+						}
+						break;
+					default:
+						parser.skipChildren();
+				}
+			}
+
+			if (id < 0 || id >= entries.size() || status == 0) {
+				throw new InvalidJsonException("Invalid response in batch. id : " + id + ", status : " + status);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			if (body != null) body.release();
+			throw e;
+		}
+
+		if (retry(entries.get(id), status, headers.get(RETRY_AFTER))) {
+			if (body != null) body.release();
+			return id;
+		}
+
+		CompositeByteBuf composite = allocator.compositeBuffer();
+		if (body != null) composite.addComponent(true, body);
+
+		DefaultHttpResponse response = new DefaultHttpResponse(HTTP_1_1, HttpResponseStatus.valueOf(status), headers);
+		DefaultResponsePromise promise = entries.get(id).promise;
+		promise.setResponse(response);
+		ByteBufStream stream = new ByteBufStream(composite);
+		stream.setNoMoreBuf();
+		if (!promise.trySuccess(stream)) stream.close();
+		return -1;
+	}
+
+	/**
+	 * Put {@code entry} back to a later window if it is throttled and {@link ConnectionPool#getRetryPolicy()} allows
+	 * another try. The delay throttles the host, so other requests wait too.
+	 *
+	 * @return {@code true} if it is put back.
+	 */
+	private boolean retry(final @NotNull Entry entry, int status, @Nullable String retryAfter) {
+		if (status != RetryPolicy.TOO_MANY_REQUESTS && status != RetryPolicy.SERVICE_UNAVAILABLE) return false;
+
+		RetryPolicy policy = connectionPool.getRetryPolicy();
+		if (entry.promise.isDone() || !policy.shouldRetry(entry.method, status, entry.attempts)) return false;
+
+		long delayMillis = policy.delayMillis(entry.attempts, retryAfter);
+		connectionPool.throttleState().throttle(requestTool.requestOptions().getOwner(),
+				ConnectionPool.addressOf(RequestTool.api2Uri(BATCH_API)), delayMillis);
+		connectionPool.getGroup().schedule(new Runnable() {
+			@Override public void run() {
+				if (!entry.promise.isDone()) add(entry);
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	private static void failAll(@NotNull List<Entry> entries, @NotNull Throwable cause) {
+		for (Entry entry : entries) {
+			entry.promise.tryFailure(cause);
+		}
+	}
+
+
+	private static class Entry {
+		final @NotNull HttpMethod method;
+		final @NotNull String api;
+		final @Nullable byte[] content;
+		final @Nullable HttpHeaders headers;
+		final @NotNull DefaultResponsePromise promise;
+		/**
+		 * How many batches it is sent in. Only the batch that has it touches this.
+		 */
+		int attempts;
+
+		Entry(@NotNull HttpMethod method, @NotNull String api, @Nullable byte[] content,
+			  @Nullable HttpHeaders headers, @NotNull DefaultResponsePromise promise) {
+			this.method = method;
+			this.api = api;
+			this.content = content;
+			this.headers = headers;
+			this.promise = promise;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.bhyoo.onedrive.network.async;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * How {@link ConnectionPool} sends a request: which limiter it waits for, in what order it starts among waiting
+ * requests and how long it may take.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class RequestOptions {
+	/**
+	 * Limiter that each try of the request waits for. {@code null} if not limited.
+	 */
+	@Getter private @Nullable RateLimiter rateLimiter;
+	/**
+	 * {@code null} to decide by {@link EndpointClass} of the request.
+	 */
+	@Getter private @Nullable RequestPriority priority;
+	/**
+	 * Requests of different owners (usually {@link com.bhyoo.onedrive.client.Client Client}) take turns in
+	 * {@link RequestScheduler}. {@code null} means anonymous owner.
+	 */
+	@Getter private @Nullable Object owner;
+	@Getter private @NotNull Deadlines deadlines = new Deadlines();
+
+
+	public @NotNull RequestOptions setRateLimiter(@Nullable RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		return this;
+	}
+
+	public @NotNull RequestOptions setPriority(@Nullable RequestPriority priority) {
+		this.priority = priority;
+		return this;
+	}
+
+	public @NotNull RequestOptions setOwner(@Nullable Object owner) {
+		this.owner = owner;
+		return this;
+	}
+
+	public @NotNull RequestOptions setDeadlines(@NotNull Deadlines deadlines) {
+		this.deadlines = deadlines;
+		return this;
+	}
+
+	@NotNull RequestPriority priorityOf(@NotNull EndpointClass endpointClass) {
+		return priority != null ? priority : RequestPriority.of(endpointClass);
+	}
+}
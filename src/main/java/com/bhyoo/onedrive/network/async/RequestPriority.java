@@ -0,0 +1,38 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Order that {@link RequestScheduler} starts waiting requests in. Every waiting request of higher priority starts
+ * before lower ones, unless its host is full.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public enum RequestPriority {
+	/**
+	 * Metadata requests that user is waiting for.
+	 */
+	INTERACTIVE,
+	/**
+	 * Crawling requests such as following next pages of folder or recursive scan.
+	 */
+	BACKGROUND,
+	/**
+	 * File content transfer.
+	 */
+	BULK;
+
+
+	/**
+	 * @return priority of request that is not given explicitly.
+	 */
+	public static @NotNull RequestPriority of(@NotNull EndpointClass endpointClass) {
+		switch (endpointClass) {
+			case UPLOAD:
+			case DOWNLOAD:
+				return BULK;
+			default:
+				return INTERACTIVE;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounds how many requests of one {@link ConnectionPool} are in flight, in total and per host. Requests over the
+ * bounds wait in queue, and start as others complete:
+ * <ul>
+ * <li>by {@link RequestPriority}: all waiting requests of higher priority start before lower ones.</li>
+ * <li>in same priority, owners (usually {@link com.bhyoo.onedrive.client.Client Client}s) take turns, so a client
+ * that queued thousands of requests does not delay requests of other clients.</li>
+ * <li>requests of an owner start in order that they are submitted.</li>
+ * </ul>
+ * A request whose host is full does not block requests to other hosts. A request is in flight from its start until
+ * its promise completes, including retries and waiting for tokens of {@link RateLimiter}.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class RequestScheduler {
+	public static final int DEFAULT_MAX_IN_FLIGHT = 128;
+	private static final Object ANONYMOUS = new Object();
+
+	@Getter private final int maxInFlight;
+	@Getter private final int maxInFlightPerHost;
+	/**
+	 * Queue of each owner in each priority. Iteration order of map is turn of owners.
+	 */
+	private final @NotNull Map<RequestPriority, LinkedHashMap<Object, ArrayDeque<Task>>> queues =
+			new EnumMap<>(RequestPriority.class);
+	private final @NotNull Map<Object, Integer> inFlightPerHost = new HashMap<>();
+	private int inFlight;
+	private int queued;
+
+
+	public RequestScheduler(int maxInFlight, int maxInFlightPerHost) {
+		if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive : " + maxInFlight);
+		if (maxInFlightPerHost <= 0) {
+			throw new IllegalArgumentException("maxInFlightPerHost must be positive : " + maxInFlightPerHost);
+		}
+
+		this.maxInFlight = maxInFlight;
+		this.maxInFlightPerHost = maxInFlightPerHost;
+		for (RequestPriority priority : RequestPriority.values()) {
+			queues.put(priority, new LinkedHashMap<Object, ArrayDeque<Task>>());
+		}
+	}
+
+
+	/**
+	 * Run {@code start} when bounds allow. Slot is returned when {@code promise} completes, and {@code start} is
+	 * never run if {@code promise} completes (e.g. cancelled) while waiting.
+	 *
+	 * @param host     key of host that the request goes to
+	 * @param priority priority of the request
+	 * @param owner    owner of the request. {@code null} means anonymous owner.
+	 * @param promise  promise of the request
+	 * @param start    starts the request. It runs on the thread that submits or completes other request.
+	 */
+	public void submit(@NotNull Object host, @NotNull RequestPriority priority, @Nullable Object owner,
+					   @NotNull Future<?> promise, @NotNull Runnable start) {
+		Task task = new Task(host, promise, start);
+		if (owner == null) owner = ANONYMOUS;
+
+		synchronized (this) {
+			LinkedHashMap<Object, ArrayDeque<Task>> owners = queues.get(priority);
+			ArrayDeque<Task> queue = owners.get(owner);
+			if (queue == null) {
+				queue = new ArrayDeque<>();
+				owners.put(owner, queue);
+			}
+			queue.add(task);
+			queued++;
+		}
+
+		drain();
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getInFlight(@NotNull Object host) {
+		Integer count = inFlightPerHost.get(host);
+		return count == null ? 0 : count;
+	}
+
+	public synchronized int getQueued() {
+		return queued;
+	}
+
+
+	private void drain() {
+		List<Task> ready = new ArrayList<>();
+
+		synchronized (this) {
+			Task task;
+			while (inFlight < maxInFlight && (task = poll()) != null) {
+				inFlight++;
+				inFlightPerHost.put(task.host, getInFlight(task.host) + 1);
+				ready.add(task);
+			}
+		}
+
+		for (Task task : ready) task.start();
+	}
+
+	private void complete(@NotNull Task task) {
+		synchronized (this) {
+			inFlight--;
+			int count = getInFlight(task.host) - 1;
+			if (count == 0) inFlightPerHost.remove(task.host);
+			else inFlightPerHost.put(task.host, count);
+		}
+
+		drain();
+	}
+
+	/**
+	 * @return first task that can start now, or {@code null} if none. Owner of the task moves to the end of turns.
+	 */
+	private @Nullable Task poll() {
+		for (LinkedHashMap<Object, ArrayDeque<Task>> owners : queues.values()) {
+			Iterator<Map.Entry<Object, ArrayDeque<Task>>> iterator = owners.entrySet().iterator();
+
+			while (iterator.hasNext()) {
+				Map.Entry<Object, ArrayDeque<Task>> entry = iterator.next();
+				ArrayDeque<Task> queue = entry.getValue();
+
+				Task task = pollStartable(queue);
+				if (queue.isEmpty()) iterator.remove();
+				if (task == null) continue;
+
+				ArrayDeque<Task> rest = owners.remove(entry.getKey());
+				if (rest != null) owners.put(entry.getKey(), rest);
+				return task;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return first task in {@code queue} whose host is not full. Tasks that cancelled while waiting are dropped.
+	 */
+	private @Nullable Task pollStartable(@NotNull ArrayDeque<Task> queue) {
+		Iterator<Task> iterator = queue.iterator();
+
+		while (iterator.hasNext()) {
+			Task task = iterator.next();
+
+			if (task.promise.isDone()) {
+				iterator.remove();
+				queued--;
+			}
+			else if (getInFlight(task.host) < maxInFlightPerHost) {
+				iterator.remove();
+				queued--;
+				return task;
+			}
+		}
+		return null;
+	}
+
+
+	private class Task implements FutureListener<Object> {
+		private final @NotNull Object host;
+		private final @NotNull Future<?> promise;
+		private final @NotNull Runnable start;
+
+		Task(@NotNull Object host, @NotNull Future<?> promise, @NotNull Runnable start) {
+			this.host = host;
+			this.promise = promise;
+			this.start = start;
+		}
+
+		@SuppressWarnings("unchecked")
+		void start() {
+			((Future<Object>) promise).addListener(this);
+			if (!promise.isDone()) start.run();
+		}
+
+		@Override public void operationComplete(Future<Object> future) {
+			complete(this);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.HttpMethod;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.handler.codec.http.HttpMethod.*;
+
+/**
+ * Decides whether failed exchange of {@link ConnectionPool} is sent again, and how long it waits before that.<br>
+ * <br>
+ * <code>429 Too Many Requests</code> and <code>503 Service Unavailable</code> mean that server throttled the request
+ * without processing it, so they are retried regardless of method. Other failures (<code>502</code>,
+ * <code>504</code>, or connection broken after request is written) are retried only if the method is
+ * {@link #isIdempotent(HttpMethod) idempotent}, because server might already have processed the request.
+ * Failures before request is written are always retried.<br>
+ * <br>
+ * Delay follows <code>Retry-After</code> header if server gives it, otherwise it is exponential backoff with full
+ * jitter: random value between 0 and {@code min(maxDelay, baseDelay * 2^(attempt - 1))}.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class RetryPolicy {
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+	public static final int TOO_MANY_REQUESTS = 429;
+	public static final int BAD_GATEWAY = 502;
+	public static final int SERVICE_UNAVAILABLE = 503;
+	public static final int GATEWAY_TIMEOUT = 504;
+
+	/**
+	 * How many times an exchange is sent including the first one. {@code 1} disables retry.
+	 */
+	@Getter private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	@Getter private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+	@Getter private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+	private final @NotNull Set<HttpMethod> idempotentMethods =
+			new HashSet<>(Arrays.asList(GET, HEAD, OPTIONS, PUT, DELETE));
+
+
+	/**
+	 * @return policy that never retries.
+	 */
+	public static @NotNull RetryPolicy none() {
+		return new RetryPolicy().setMaxAttempts(1);
+	}
+
+
+	public @NotNull RetryPolicy setMaxAttempts(int maxAttempts) {
+		if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be positive : " + maxAttempts);
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	public @NotNull RetryPolicy setBaseDelayMillis(long baseDelayMillis) {
+		if (baseDelayMillis < 0) {
+			throw new IllegalArgumentException("baseDelayMillis must not be negative : " + baseDelayMillis);
+		}
+		this.baseDelayMillis = baseDelayMillis;
+		return this;
+	}
+
+	public @NotNull RetryPolicy setMaxDelayMillis(long maxDelayMillis) {
+		if (maxDelayMillis < 0) {
+			throw new IllegalArgumentException("maxDelayMillis must not be negative : " + maxDelayMillis);
+		}
+		this.maxDelayMillis = maxDelayMillis;
+		return this;
+	}
+
+	/**
+	 * Mark whether requests of {@code method} can be sent again safely after server might have processed it.
+	 * <code>GET</code>, <code>HEAD</code>, <code>OPTIONS</code>, <code>PUT</code> and <code>DELETE</code> are
+	 * idempotent by default.
+	 */
+	public synchronized @NotNull RetryPolicy setIdempotent(@NotNull HttpMethod method, boolean idempotent) {
+		if (idempotent) idempotentMethods.add(method);
+		else idempotentMethods.remove(method);
+		return this;
+	}
+
+	public synchronized boolean isIdempotent(@NotNull HttpMethod method) {
+		return idempotentMethods.contains(method);
+	}
+
+	public synchronized @NotNull Set<HttpMethod> getIdempotentMethods() {
+		return Collections.unmodifiableSet(new HashSet<>(idempotentMethods));
+	}
+
+
+	/**
+	 * @param method  method of the request
+	 * @param status  response code of {@code attempt}th try
+	 * @param attempt how many times the request was sent, starting from 1
+	 *
+	 * @return {@code true} if the request should be sent again.
+	 */
+	public boolean shouldRetry(@NotNull HttpMethod method, int status, int attempt) {
+		if (attempt >= maxAttempts) return false;
+
+		switch (status) {
+			case TOO_MANY_REQUESTS:
+			case SERVICE_UNAVAILABLE:
+				return true;
+			case BAD_GATEWAY:
+			case GATEWAY_TIMEOUT:
+				return isIdempotent(method);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @param method  method of the request
+	 * @param cause   why {@code attempt}th try failed
+	 * @param written {@code true} if the request was (maybe partially) sent to server
+	 * @param attempt how many times the request was tried, starting from 1
+	 *
+	 * @return {@code true} if the request should be sent again.
+	 */
+	public boolean shouldRetry(@NotNull HttpMethod method, @NotNull Throwable cause, boolean written, int attempt) {
+		if (attempt >= maxAttempts || !(cause instanceof IOException)) return false;
+		return !written || isIdempotent(method);
+	}
+
+	/**
+	 * @param attempt    how many times the request was tried, starting from 1
+	 * @param retryAfter value of <code>Retry-After</code> header. Both delay-seconds and HTTP-date form are accepted.
+	 *
+	 * @return how long to wait before next try.
+	 */
+	public long delayMillis(int attempt, @Nullable String retryAfter) {
+		long serverDelay = parseRetryAfter(retryAfter, System.currentTimeMillis());
+		if (serverDelay >= 0) return serverDelay;
+
+		int shift = Math.min(Math.max(attempt - 1, 0), 30);
+		long ceiling = Math.min(baseDelayMillis << shift, maxDelayMillis);
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * @param retryAfter value of <code>Retry-After</code> header
+	 * @param nowMillis  current time in epoch milliseconds, to resolve HTTP-date form
+	 *
+	 * @return delay in milliseconds, or {@code -1} if {@code retryAfter} is absent or malformed.
+	 */
+	static long parseRetryAfter(@Nullable String retryAfter, long nowMillis) {
+		if (retryAfter == null) return -1;
+		retryAfter = retryAfter.trim();
+		if (retryAfter.isEmpty()) return -1;
+
+		try {
+			long seconds = Long.parseLong(retryAfter);
+			return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+		}
+		catch (NumberFormatException ignored) {
+		}
+
+		Date date = DateFormatter.parseHttpDate(retryAfter);
+		if (date == null) return -1;
+		return Math.max(date.getTime() - nowMillis, 0);
+	}
+}
@@ -0,0 +1,294 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.RETRY_AFTER;
+
+/**
+ * One request-response exchange of {@link ConnectionPool#send}, that is sent again according to
+ * {@link ConnectionPool#getRetryPolicy()}.<br>
+ * <br>
+ * Each try attaches an {@link Attempt} as <code>handler</code> of the channel. It looks at status of response first;
+ * if the response should be retried, it drops the response, returns the channel and schedules next try. Otherwise it
+ * replaces itself with the handler of caller, so the caller sees only the last response.<br>
+ * <br>
+ * Throttled response (<code>429</code> or <code>503</code>) also delays every other request of the same owner to the
+ * same host by its delay, via {@link ThrottleState}. If {@link RateLimiter.Bucket} is given, each try waits for its token too.<br>
+ * <br>
+ * Each try is limited by connect limit of {@link Deadlines}, and read limits are enforced by
+ * {@link ReadDeadlineHandler}. If the exchange fails or is cancelled while a try is in flight, its connection is
+ * closed, so the handler releases its buffers.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class RetryingExchange {
+	private final @NotNull ConnectionPool pool;
+	private final @NotNull RetryPolicy policy;
+	private final @NotNull InetSocketAddress address;
+	/**
+	 * Owner of the request, that {@link ThrottleState} is kept for.
+	 */
+	private final @Nullable Object owner;
+	private final @NotNull HttpRequest request;
+	private final @NotNull ChannelHandler handler;
+	private final @NotNull Promise<?> promise;
+	private final @Nullable RateLimiter.Bucket bucket;
+	private final @NotNull Deadlines deadlines;
+	private final @NotNull AtomicBoolean requestReleased = new AtomicBoolean();
+	private volatile @Nullable Channel currentChannel;
+	private volatile @Nullable Attempt currentAttempt;
+	private int attempts;
+	private boolean permitReserved;
+
+
+	RetryingExchange(@NotNull ConnectionPool pool, @NotNull InetSocketAddress address, @Nullable Object owner,
+					 @NotNull HttpRequest request, @NotNull ChannelHandler handler, @NotNull Promise<?> promise,
+					 @Nullable RateLimiter.Bucket bucket, @NotNull Deadlines deadlines) {
+		this.pool = pool;
+		this.policy = pool.getRetryPolicy();
+		this.address = address;
+		this.owner = owner;
+		this.request = request;
+		this.handler = handler;
+		this.promise = promise;
+		this.bucket = bucket;
+		this.deadlines = deadlines;
+
+		// waiter could cancel the exchange or total limit could expire, so abort current try.
+		// request is released here too, if it is cancelled before start.
+		promise.addListener(new FutureListener<Object>() {
+			@Override public void operationComplete(Future<Object> future) {
+				if (!future.isSuccess()) abort();
+				releaseRequest();
+			}
+		});
+	}
+
+	void start() {
+		schedule(pool.throttleState().remainingMillis(owner, address));
+	}
+
+	private void schedule(long delayMillis) {
+		if (delayMillis <= 0) {
+			attempt();
+			return;
+		}
+
+		pool.getGroup().schedule(new Runnable() {
+			@Override public void run() {
+				attempt();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void attempt() {
+		if (promise.isDone()) {
+			releaseRequest();
+			return;
+		}
+
+		// other request could be throttled while this one was waiting
+		long throttled = pool.throttleState().remainingMillis(owner, address);
+		if (throttled > 0) {
+			schedule(throttled);
+			return;
+		}
+
+		// every try is a request that service counts, so each of them takes a token.
+		if (bucket != null && !permitReserved) {
+			permitReserved = true;
+			long wait = bucket.reserveNanos(1);
+			if (wait > 0) {
+				schedule(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+				return;
+			}
+		}
+		permitReserved = false;
+
+		final Attempt attempt = new Attempt(++attempts);
+		currentAttempt = attempt;
+		Promise<Void> acquisition = pool.getGroup().next().newPromise();
+		acquisition.addListener(new FutureListener<Void>() {
+			@Override public void operationComplete(Future<Void> future) {
+				if (!future.isSuccess()) attempt.fail(null, future.cause());
+			}
+		});
+
+		final ScheduledFuture<?> connectTimer = scheduleConnectTimeout(attempt);
+		pool.connect(address, attempt, acquisition, deadlines).addListener(new FutureListener<Channel>() {
+			@Override public void operationComplete(Future<Channel> future) {
+				if (connectTimer != null) connectTimer.cancel(false);
+				if (!future.isSuccess()) return;
+
+				final Channel channel = future.getNow();
+				// connect limit expired while waiting, so return the connection that is not used yet.
+				if (attempt.isFinished()) {
+					ConnectionPool.release(channel, true);
+					return;
+				}
+
+				currentChannel = channel;
+				if (promise.isDone()) {
+					attempt.fail(channel, new ClosedChannelException());
+					return;
+				}
+
+				attempt.written = true;
+				channel.writeAndFlush(duplicateRequest()).addListener(new ChannelFutureListener() {
+					@Override public void operationComplete(ChannelFuture future) {
+						if (!future.isSuccess()) attempt.fail(channel, future.cause());
+					}
+				});
+			}
+		});
+	}
+
+	private @Nullable ScheduledFuture<?> scheduleConnectTimeout(final @NotNull Attempt attempt) {
+		final long timeoutMillis = deadlines.getConnectTimeoutMillis();
+		if (timeoutMillis <= 0) return null;
+
+		return pool.getGroup().schedule(new Runnable() {
+			@Override public void run() {
+				attempt.fail(null, new ConnectTimeoutException(
+						"Connection to " + address + " is not ready in " + timeoutMillis + "ms"));
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Close connection of current try, only if it is still used by this exchange. Otherwise it already went back to
+	 * the pool, and could be used by other request.
+	 */
+	private void abort() {
+		final Channel channel = currentChannel;
+		if (channel == null) return;
+
+		channel.eventLoop().execute(new Runnable() {
+			@Override public void run() {
+				ChannelHandler current = channel.pipeline().get(ConnectionPool.HANDLER_NAME);
+				if (current != null && (current == handler || current == currentAttempt)) channel.close();
+			}
+		});
+	}
+
+	private void onFailure(@NotNull Attempt attempt, @NotNull Throwable cause) {
+		if (!promise.isDone() && policy.shouldRetry(request.method(), cause, attempt.written, attempt.number)) {
+			schedule(policy.delayMillis(attempt.number, null));
+		}
+		else {
+			promise.tryFailure(cause);
+			releaseRequest();
+		}
+	}
+
+	/**
+	 * @return request to write. Content is retained, because encoder releases it and next try needs it again.
+	 */
+	private @NotNull HttpRequest duplicateRequest() {
+		if (request instanceof FullHttpRequest) return ((FullHttpRequest) request).retainedDuplicate();
+		return request;
+	}
+
+	private void releaseRequest() {
+		if (requestReleased.compareAndSet(false, true)) ReferenceCountUtil.release(request);
+	}
+
+
+	private class Attempt extends ChannelInboundHandlerAdapter {
+		private final int number;
+		private final @NotNull AtomicBoolean finished = new AtomicBoolean();
+		private boolean written;
+		private boolean dropping;
+		private boolean keepAlive;
+		private long delayMillis;
+
+		Attempt(int number) {this.number = number;}
+
+		@Override public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			if (finished.get()) {
+				ReferenceCountUtil.release(msg);
+				return;
+			}
+
+			if (msg instanceof HttpResponse) {
+				HttpResponse response = (HttpResponse) msg;
+				int status = response.status().code();
+
+				if (!policy.shouldRetry(request.method(), status, number)) {
+					if (!finished.compareAndSet(false, true)) {
+						ReferenceCountUtil.release(msg);
+						return;
+					}
+					releaseRequest();
+					// events that fired on this context go to the new handler from now.
+					ctx.pipeline().replace(this, ConnectionPool.HANDLER_NAME, handler);
+					ctx.fireChannelRead(msg);
+					return;
+				}
+
+				dropping = true;
+				keepAlive = HttpUtil.isKeepAlive(response);
+				delayMillis = policy.delayMillis(number, response.headers().get(RETRY_AFTER));
+				if (status == RetryPolicy.TOO_MANY_REQUESTS || status == RetryPolicy.SERVICE_UNAVAILABLE) {
+					pool.throttleState().throttle(owner, address, delayMillis);
+				}
+			}
+
+			boolean last = msg instanceof LastHttpContent;
+			ReferenceCountUtil.release(msg);
+
+			if (dropping && last && finished.compareAndSet(false, true)) {
+				// the connection goes back to the pool, so it must not be closed by `abort()` from now.
+				currentChannel = null;
+				ConnectionPool.release(ctx.channel(), keepAlive);
+				schedule(delayMillis);
+			}
+		}
+
+		@Override public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			super.channelInactive(ctx);
+			fail(ctx.channel(), new ClosedChannelException());
+		}
+
+		@Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			fail(ctx.channel(), cause);
+		}
+
+		boolean isFinished() {
+			return finished.get();
+		}
+
+		/**
+		 * It could be called by timer of connect limit, so it is thread safe.
+		 */
+		void fail(@Nullable Channel channel, @NotNull Throwable cause) {
+			if (!finished.compareAndSet(false, true)) return;
+
+			if (channel != null) ConnectionPool.release(channel, false);
+			onFailure(this, cause);
+		}
+	}
+}
@@ -0,0 +1,685 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads content of pre-authenticated URL by several <code>Range</code> requests in parallel, into a file that is
+ * allocated to its whole size first.<br>
+ * <br>
+ * The first range is requested alone, and <code>Content-Range</code> of its response tells size of the content. Rest
+ * of the content is split into ranges of similar size, and each of them is written at its own offset of the file.
+ * If the server ignores <code>Range</code> and sends whole content, it is written as it is.<br>
+ * <br>
+ * If it is resumable, written bytes are recorded in {@link DownloadCheckpoint} next to the file, and download of the
+ * same file continues from them. Ranges are requested with <code>If-Range</code> then, so whole content is sent
+ * instead if remote content is changed.<br>
+ * <br>
+ * Checkpoint is read, written and forced to disk on {@link ConnectionPool#getBlockingExecutor() blocking executor},
+ * so ranges do not stall event loop. Only one save of a download is in flight; snapshots that are taken meanwhile are
+ * merged into the latest one. The file is opened and allocated there too, while reading the first range is paused and
+ * content that is already read is kept.<br>
+ * <br>
+ * Ranges go through {@link ConnectionPool}, so connections to download host are reused, and each range is retried
+ * and limited by deadlines like other requests.
+ * With HTTP/2 ranges share one connection, so it is faster with HTTP/1.1.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class SegmentedDownload {
+	static final long SEGMENT_SIZE_MIN = 8 * 1024 * 1024;
+	/**
+	 * A range saves checkpoint to disk whenever it writes this many bytes.
+	 */
+	static final long CHECKPOINT_INTERVAL = 16 * 1024 * 1024;
+
+	private final @NotNull ConnectionPool pool;
+	private final @NotNull DownloadPromise promise;
+	private final @NotNull URI location;
+	private final @Nullable String newName;
+	private final int segments;
+	private final boolean resumable;
+	private final @NotNull RequestOptions options;
+	/**
+	 * Fetches content again through the API if the service rejects {@link #location}. {@code null} if location is
+	 * not cached.
+	 */
+	private final @Nullable Runnable relocate;
+	/**
+	 * {@code true} once the first range is dropped and download is handed to {@link #relocate}.
+	 */
+	private volatile boolean relocated;
+	/**
+	 * Ranges that are requested but not completed yet.
+	 */
+	private final @NotNull AtomicInteger remaining = new AtomicInteger();
+	private volatile @Nullable FileChannel file;
+	private volatile @Nullable DownloadCheckpoint checkpoint;
+	/**
+	 * The latest snapshot of {@link #checkpoint} that is not saved yet.
+	 */
+	private final @NotNull AtomicReference<DownloadCheckpoint.Snapshot> pendingSnapshot = new AtomicReference<>();
+	/**
+	 * {@code true} while a task saves {@link #pendingSnapshot} on blocking executor.
+	 */
+	private final @NotNull AtomicBoolean saving = new AtomicBoolean();
+
+
+	/**
+	 * @param location  pre-authenticated URL of content
+	 * @param segments  how many ranges are downloaded in parallel at most
+	 * @param resumable {@code true} to record progress in {@link DownloadCheckpoint} and continue from it
+	 * @param options   options of each range request
+	 * @param relocate  fetches content through the API if the service rejects cached {@code location}, instead of
+	 *                  the first range. {@code null} if {@code location} is not cached.
+	 */
+	SegmentedDownload(@NotNull ConnectionPool pool, @NotNull DownloadPromise promise, @NotNull URI location,
+					  @Nullable String newName, int segments, boolean resumable, @NotNull RequestOptions options,
+					  @Nullable Runnable relocate) {
+		this.pool = pool;
+		this.promise = promise;
+		this.location = location;
+		this.newName = newName;
+		this.segments = segments;
+		this.resumable = resumable;
+		this.options = options;
+		this.relocate = relocate;
+	}
+
+
+	void start() {
+		promise.addListener(new FutureListener<File>() {
+			@Override public void operationComplete(Future<File> future) {
+				if (!future.isSuccess()) closeFile();
+			}
+		});
+
+		// otherwise name of the file is known only from response
+		if (!resumable || newName == null) {
+			fetchFirst();
+			return;
+		}
+
+		runBlocking(new Runnable() {
+			@Override public void run() {
+				Path path = promise.downloadPath().resolve(newName);
+				DownloadCheckpoint checkpoint = DownloadCheckpoint.load(path);
+				if (checkpoint != null && !hasPartialFile(path, checkpoint)) {
+					try {
+						checkpoint.delete();
+					}
+					catch (IOException ignored) {
+						// it is checked again when the file is prepared
+					}
+					checkpoint = null;
+				}
+				SegmentedDownload.this.checkpoint = checkpoint;
+				fetchFirst();
+			}
+		});
+	}
+
+	private void fetchFirst() {
+		DownloadCheckpoint checkpoint = this.checkpoint;
+		long first = 0;
+		String ifRange = null;
+		if (checkpoint != null) {
+			// even if whole content is written, the first range tells whether it is still the same
+			first = Math.min(checkpoint.firstMissing(), Math.max(0, checkpoint.getSize() - 1));
+			ifRange = checkpoint.getValidator();
+		}
+		fetch(first, segments > 1 ? first + SEGMENT_SIZE_MIN - 1 : -1, ifRange, true);
+	}
+
+	/**
+	 * @param last    last byte of the range, or {@code -1} for the end of content
+	 * @param ifRange validator that the range is requested with. {@code null} if it is not conditional.
+	 */
+	private void fetch(long first, long last, @Nullable String ifRange, boolean probe) {
+		remaining.incrementAndGet();
+
+		final Promise<Void> range = pool.getGroup().next().newPromise();
+		range.addListener(new FutureListener<Void>() {
+			@Override public void operationComplete(Future<Void> future) {
+				if (!future.isSuccess()) promise.tryFailure(future.cause());
+				else if (remaining.decrementAndGet() == 0 && !relocated) finish();
+			}
+		});
+		// cancelled, deadline expired or other range failed
+		promise.addListener(new FutureListener<File>() {
+			@Override public void operationComplete(Future<File> future) {
+				if (!future.isSuccess()) range.cancel(false);
+			}
+		});
+
+		HttpRequest request = AsyncDownloadClient.contentRequest(location);
+		request.headers().set(HttpHeaderNames.RANGE, "bytes=" + first + '-' + (last < 0 ? "" : String.valueOf(last)));
+		if (ifRange != null) request.headers().set(HttpHeaderNames.IF_RANGE, ifRange);
+
+		ChannelHandler handler = new RangeHandler(range, first, last < 0 ? Long.MAX_VALUE : last, probe);
+		final Runnable relocate = this.relocate;
+		if (probe && relocate != null) {
+			handler = new RelocatingHandler(handler, new Runnable() {
+				@Override public void run() {
+					relocated = true;
+					range.trySuccess(null);
+					relocate.run();
+				}
+			});
+		}
+		pool.send(location, request, handler, range, options);
+	}
+
+	/**
+	 * Called once with response of the first range on event loop. {@link #prepare(Path, String, long, boolean,
+	 * RangeHandler) Prepares} the file on blocking executor, and the handler holds content until it is prepared.
+	 */
+	private void onFirstResponse(final @NotNull ChannelHandlerContext ctx, final @NotNull HttpResponse response,
+								 final @NotNull RangeHandler handler) throws IOException {
+		int status = response.status().code();
+		long total;
+
+		if (status == HttpResponseStatus.PARTIAL_CONTENT.code()) {
+			String contentRange = response.headers().get(HttpHeaderNames.CONTENT_RANGE);
+			total = totalOf(contentRange);
+			if (firstOf(contentRange) != handler.first) {
+				throw new IOException("Unexpected range " + contentRange + " from " + handler.first);
+			}
+		}
+		else if (status == HttpResponseStatus.OK.code()) {
+			// server ignored range or content is changed, so whole content comes in this response
+			total = HttpUtil.getContentLength(response, -1L);
+			handler.first = handler.position = handler.saved = 0;
+			handler.last = total - 1;
+		}
+		else if (status == HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE.code()) {
+			// empty content has no range to request
+			total = totalOf(response.headers().get(HttpHeaderNames.CONTENT_RANGE));
+			if (total != 0) throw new IOException("Unexpected response to range request : " + response.status());
+			handler.first = handler.position = handler.saved = 0;
+			handler.last = -1;
+		}
+		else {
+			throw new IOException("Unexpected response to range request : " + response.status());
+		}
+		if (total < 0) throw new IOException("Size of content is unknown : " + location);
+
+		promise.setResponse(response);
+		final Path path = pathOf(response);
+		promise.setPath(path);
+		handler.last = Math.min(handler.last, total - 1);
+
+		final String validator = validatorOf(response);
+		final long size = total;
+		final boolean wholeContent = status == HttpResponseStatus.OK.code();
+		handler.hold(ctx);
+		runBlocking(new Runnable() {
+			@Override public void run() {
+				Throwable cause = null;
+				try {
+					prepare(path, validator, size, wholeContent, handler);
+				}
+				catch (IOException | RuntimeException e) {
+					cause = e;
+				}
+
+				final Throwable failure = cause;
+				ctx.executor().execute(new Runnable() {
+					@Override public void run() {
+						handler.prepared(ctx, failure);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Opens the file with whole size, and requests rest of ranges that are not written yet. It blocks on disk, so it
+	 * runs on blocking executor.
+	 */
+	private void prepare(@NotNull Path path, @Nullable String validator, long total, boolean wholeContent,
+						 @NotNull RangeHandler handler) throws IOException {
+		if (resumable) prepareCheckpoint(path, validator, total, wholeContent);
+		openFile(path, total);
+
+		DownloadCheckpoint checkpoint = this.checkpoint;
+		List<long[]> missing = new ArrayList<>();
+		if (checkpoint != null) {
+			missing.addAll(checkpoint.missing(0, handler.first));
+			missing.addAll(checkpoint.missing(handler.last + 1, total));
+		}
+		else {
+			// the first range could start in the middle, if checkpoint that it started from is thrown away
+			if (handler.first > 0) missing.add(new long[]{0, handler.first});
+			if (handler.last + 1 < total) missing.add(new long[]{handler.last + 1, total});
+		}
+
+		long rest = 0;
+		for (long[] range : missing) rest += range[1] - range[0];
+
+		// content that is in checkpoint already counts as downloaded
+		promise.progress().setTotalBytes(total);
+		promise.progress().add(Math.max(0, total - rest - (handler.last + 1 - handler.first)));
+		if (rest == 0) return;
+
+		long count = Math.max(1, Math.min(segments - 1, rest / SEGMENT_SIZE_MIN));
+		long size = (rest + count - 1) / count;
+		String ifRange = checkpoint != null ? checkpoint.getValidator() : null;
+		for (long[] range : missing) {
+			for (long first = range[0]; first < range[1]; first += size) {
+				fetch(first, Math.min(range[1], first + size) - 1, ifRange, false);
+			}
+		}
+	}
+
+	private @NotNull Path pathOf(@NotNull HttpResponse response) throws IOException {
+		String fileName = newName;
+		if (fileName == null) {
+			String disposition = response.headers().get(HttpHeaderNames.CONTENT_DISPOSITION);
+			if (disposition == null) throw new IOException("Response has no file name : " + location);
+			fileName = AsyncDownloadHandler.Extractor.extract(disposition);
+		}
+
+		return promise.downloadPath().resolve(fileName);
+	}
+
+	/**
+	 * Keep checkpoint of {@code path} only if it is for the same remote content and the file is still as it recorded,
+	 * and start new one otherwise.
+	 *
+	 * @param wholeContent {@code true} if whole content is sent (e.g. <code>If-Range</code> is not satisfied), so
+	 *                     the file is written again from the beginning.
+	 */
+	private void prepareCheckpoint(@NotNull Path path, @Nullable String validator, long total, boolean wholeContent)
+			throws IOException {
+		DownloadCheckpoint checkpoint = this.checkpoint;
+		if (checkpoint == null) checkpoint = DownloadCheckpoint.load(path);
+
+		if (checkpoint != null &&
+				(wholeContent || !checkpoint.matches(validator, total) || !hasPartialFile(path, checkpoint))) {
+			checkpoint.delete();
+			checkpoint = null;
+		}
+		// without validator, there is no way to know if remote content is the same later
+		if (checkpoint == null && validator != null) checkpoint = new DownloadCheckpoint(path, validator, total);
+
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * @return {@code true} if the file that {@code checkpoint} records is still there with its whole size. Otherwise
+	 * ranges of the checkpoint are not in the file anymore, and allocating it again would fill them with zeros.
+	 */
+	private static boolean hasPartialFile(@NotNull Path path, @NotNull DownloadCheckpoint checkpoint) {
+		try {
+			return Files.size(path) == checkpoint.getSize();
+		}
+		catch (IOException e) {
+			// deleted
+			return false;
+		}
+	}
+
+	private void openFile(@NotNull Path path, long total) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(path.toFile(), "rw");
+		try {
+			randomAccessFile.setLength(total);
+		}
+		catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+		file = randomAccessFile.getChannel();
+
+		// it could be failed while the file is opened
+		if (promise.isDone()) closeFile();
+	}
+
+	/**
+	 * Take snapshot of checkpoint here, and save it on blocking executor unless a save is in flight already. The save
+	 * in flight picks it up then.
+	 */
+	private void saveCheckpoint() {
+		DownloadCheckpoint checkpoint = this.checkpoint;
+		if (checkpoint == null) return;
+
+		pendingSnapshot.set(checkpoint.snapshot());
+		if (!saving.compareAndSet(false, true)) return;
+
+		runBlocking(new Runnable() {
+			@Override public void run() {
+				savePendingSnapshots();
+			}
+		});
+	}
+
+	private void savePendingSnapshots() {
+		while (true) {
+			DownloadCheckpoint.Snapshot snapshot = pendingSnapshot.getAndSet(null);
+			if (snapshot == null) {
+				saving.set(false);
+				// a snapshot could be taken right before the flag is cleared
+				if (pendingSnapshot.get() == null || !saving.compareAndSet(false, true)) return;
+				continue;
+			}
+
+			DownloadCheckpoint checkpoint = this.checkpoint;
+			FileChannel file = this.file;
+			try {
+				if (checkpoint != null && file != null && file.isOpen()) checkpoint.save(snapshot, file);
+			}
+			catch (IOException ignored) {
+				// it continues from older checkpoint next time
+			}
+		}
+	}
+
+	private void finish() {
+		final FileChannel file = this.file;
+		final DownloadCheckpoint checkpoint = this.checkpoint;
+		runBlocking(new Runnable() {
+			@Override public void run() {
+				try {
+					if (file != null) file.close();
+					// waits for the save in flight, and drops snapshots that are not saved yet
+					if (checkpoint != null) checkpoint.delete();
+					promise.trySuccess(promise.downloadPath().toFile());
+				}
+				catch (IOException e) {
+					promise.tryFailure(e);
+				}
+			}
+		});
+	}
+
+	private void closeFile() {
+		final FileChannel file = this.file;
+		if (file == null) return;
+
+		// keep what is written so far, to continue from it next time
+		final DownloadCheckpoint checkpoint = this.checkpoint;
+		final DownloadCheckpoint.Snapshot snapshot = checkpoint != null ? checkpoint.snapshot() : null;
+
+		runBlocking(new Runnable() {
+			@Override public void run() {
+				try {
+					if (checkpoint != null && file.isOpen()) checkpoint.save(snapshot, file);
+				}
+				catch (IOException ignored) {
+					// it continues from older checkpoint next time
+				}
+
+				try {
+					file.close();
+				}
+				catch (IOException ignored) {
+					// download is already failed
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run {@code task} on {@link ConnectionPool#getBlockingExecutor() blocking executor}, or right here if the
+	 * executor is shut down.
+	 */
+	private void runBlocking(@NotNull Runnable task) {
+		try {
+			pool.getBlockingExecutor().execute(task);
+		}
+		catch (RejectedExecutionException e) {
+			task.run();
+		}
+	}
+
+	/**
+	 * @return strong <code>ETag</code> or <code>Last-Modified</code> of {@code response} that can be used in
+	 * <code>If-Range</code>, or {@code null} if it has neither.
+	 */
+	static @Nullable String validatorOf(@NotNull HttpResponse response) {
+		String eTag = response.headers().get(HttpHeaderNames.ETAG);
+		if (eTag != null && !eTag.startsWith("W/")) return eTag;
+		return response.headers().get(HttpHeaderNames.LAST_MODIFIED);
+	}
+
+	/**
+	 * @return complete length of <code>Content-Range</code> header value (e.g. <code>bytes 0-99/1234</code>), or
+	 * {@code -1} if it is unknown.
+	 */
+	static long totalOf(@Nullable String contentRange) throws IOException {
+		if (contentRange == null) return -1;
+
+		int slash = contentRange.lastIndexOf('/');
+		if (slash < 0) return -1;
+
+		String total = contentRange.substring(slash + 1).trim();
+		if ("*".equals(total)) return -1;
+
+		try {
+			return Long.parseLong(total);
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Wrong Content-Range : " + contentRange, e);
+		}
+	}
+
+	/**
+	 * @return first byte position of <code>Content-Range</code> header value, or {@code -1} if it is unknown.
+	 */
+	static long firstOf(@Nullable String contentRange) {
+		if (contentRange == null) return -1;
+
+		int begin = contentRange.indexOf(' ') + 1;
+		int end = contentRange.indexOf('-', begin);
+		if (end < 0) return -1;
+
+		try {
+			return Long.parseLong(contentRange.substring(begin, end).trim());
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	static void write(@NotNull FileChannel file, @NotNull ByteBuf buf, long position) throws IOException {
+		for (ByteBuffer nioBuffer : buf.nioBuffers()) {
+			while (nioBuffer.hasRemaining()) position += file.write(nioBuffer, position);
+		}
+	}
+
+
+	/**
+	 * Writes body of one range at its offset of the file.
+	 */
+	private class RangeHandler extends SimpleChannelInboundHandler<HttpObject> {
+		private final @NotNull Promise<Void> range;
+		private final boolean probe;
+		private long first;
+		private long last;
+		private long position;
+		/**
+		 * Position when this range saved checkpoint last time.
+		 */
+		private long saved;
+		private boolean keepAlive;
+		private boolean done;
+		/**
+		 * Content that is read while the file is prepared, or {@code null} if it is not being prepared.
+		 */
+		private @Nullable Queue<HttpContent> held;
+		/**
+		 * The connection is closed while the file is prepared.
+		 */
+		private boolean inactive;
+
+		RangeHandler(@NotNull Promise<Void> range, long first, long last, boolean probe) {
+			this.range = range;
+			this.first = first;
+			this.last = last;
+			this.probe = probe;
+			this.position = this.saved = first;
+		}
+
+		@Override public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			super.channelInactive(ctx);
+			// whole content could be held already, so it is decided once the file is prepared
+			if (held != null) inactive = true;
+			else fail(ctx, new ClosedChannelException());
+		}
+
+		@Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			fail(ctx, cause);
+		}
+
+		private void fail(@NotNull ChannelHandlerContext ctx, @NotNull Throwable cause) {
+			if (done) return;
+			done = true;
+
+			releaseHeld();
+			saveCheckpoint();
+			ConnectionPool.release(ctx.channel(), false);
+			range.tryFailure(cause);
+		}
+
+		@Override protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+			if (done) return;
+
+			if (msg instanceof HttpResponse) {
+				HttpResponse response = (HttpResponse) msg;
+				keepAlive = HttpUtil.isKeepAlive(response);
+
+				if (probe) {
+					onFirstResponse(ctx, response, this);
+				}
+				else if (response.status().code() != HttpResponseStatus.PARTIAL_CONTENT.code() ||
+						firstOf(response.headers().get(HttpHeaderNames.CONTENT_RANGE)) != first) {
+					// with If-Range, remote content could be changed during download
+					throw new IOException("Unexpected response to range " + first + '-' + last + " : " +
+							response.status() + ", " + response.headers().get(HttpHeaderNames.CONTENT_RANGE));
+				}
+			}
+
+			if (msg instanceof HttpContent) {
+				if (held != null) held.add(((HttpContent) msg).retain());
+				else onContent(ctx, (HttpContent) msg);
+			}
+		}
+
+		/**
+		 * Pause reading, and hold content that is already read until {@link #prepared(ChannelHandlerContext,
+		 * Throwable)}.
+		 */
+		void hold(@NotNull ChannelHandlerContext ctx) {
+			held = new ArrayDeque<>();
+			ctx.channel().config().setAutoRead(false);
+		}
+
+		/**
+		 * Called on event loop once the file is prepared, or failed to be prepared with {@code cause}. Writes held
+		 * content and continues reading.
+		 */
+		void prepared(@NotNull ChannelHandlerContext ctx, @Nullable Throwable cause) {
+			if (done) return;
+			if (cause != null) {
+				fail(ctx, cause);
+				return;
+			}
+
+			Queue<HttpContent> held = this.held;
+			this.held = null;
+			try {
+				HttpContent content;
+				while (!done && held != null && (content = held.poll()) != null) {
+					try {
+						onContent(ctx, content);
+					}
+					finally {
+						content.release();
+					}
+				}
+			}
+			catch (Exception e) {
+				fail(ctx, e);
+			}
+			finally {
+				release(held);
+			}
+
+			if (done) return;
+			if (inactive) fail(ctx, new ClosedChannelException());
+			else ctx.channel().config().setAutoRead(true);
+		}
+
+		private void releaseHeld() {
+			Queue<HttpContent> held = this.held;
+			this.held = null;
+			release(held);
+		}
+
+		private void release(@Nullable Queue<HttpContent> held) {
+			if (held == null) return;
+			HttpContent content;
+			while ((content = held.poll()) != null) content.release();
+		}
+
+		private void onContent(@NotNull ChannelHandlerContext ctx, @NotNull HttpContent msg) throws IOException {
+			ByteBuf content = msg.content();
+			int length = content.readableBytes();
+
+			if (position + length > last + 1) {
+				throw new IOException("Range " + first + '-' + last + " has more content than requested");
+			}
+			FileChannel file = SegmentedDownload.this.file;
+			if (file == null) throw new ClosedChannelException();
+
+			write(file, content, position);
+			// recorded in memory right away, so whatever is written is saved when download stops
+			DownloadCheckpoint checkpoint = SegmentedDownload.this.checkpoint;
+			if (checkpoint != null) checkpoint.add(position, position + length);
+			position += length;
+			promise.progress().add(length);
+
+			if (msg instanceof LastHttpContent) {
+				if (position != last + 1) {
+					throw new IOException("Range " + first + '-' + last + " ends at " + position);
+				}
+
+				done = true;
+				// connection goes back to pool as it was
+				ctx.channel().config().setAutoRead(true);
+				ConnectionPool.release(ctx.channel(), keepAlive);
+				range.trySuccess(null);
+			}
+			else if (position - saved >= CHECKPOINT_INTERVAL) {
+				saved = position;
+				saveCheckpoint();
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.bhyoo.onedrive.network.async;
+
+import com.bhyoo.onedrive.exceptions.InternalException;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.*;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.util.ReferenceCountUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * {@link SslContext}s that shared by every connection.<br>
+ * <br>
+ * OpenSSL (netty-tcnative) is used if it is on classpath and loadable, otherwise JDK's engine is used. Each context
+ * keeps client-side session cache, so new connection to host that was connected before (like graph API host or CDN
+ * host of download) can resume TLS session instead of full handshake. To resume, handler must be created with peer
+ * host and port ({@link SslContext#newHandler(io.netty.buffer.ByteBufAllocator, String, int)}).
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class SslContexts {
+	static final int SESSION_CACHE_SIZE = 1024;
+	static final long SESSION_TIMEOUT_SECONDS = 60 * 60;
+
+	private SslContexts() {}
+
+
+	/**
+	 * @return provider that contexts are built with.
+	 */
+	static @NotNull SslProvider provider() {
+		return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+	}
+
+	/**
+	 * @return context for HTTP/1.1 connections.
+	 *
+	 * @throws InternalException if neither OpenSSL nor JDK can make context.
+	 */
+	static @NotNull SslContext http1() {
+		if (Http1Holder.CONTEXT == null) {
+			throw new InternalException("Fail to initialize SslContext.", Http1Holder.FAILURE);
+		}
+		return Http1Holder.CONTEXT;
+	}
+
+	/**
+	 * @return context that offers <code>h2</code> and <code>http/1.1</code> via ALPN. {@code null} if current
+	 * runtime does not support ALPN.
+	 */
+	static @Nullable SslContext http2() {
+		return Http2Holder.CONTEXT;
+	}
+
+
+	private static @NotNull SslContextBuilder builder(@NotNull SslProvider provider) {
+		return SslContextBuilder.forClient()
+				.sslProvider(provider)
+				.sessionCacheSize(SESSION_CACHE_SIZE)
+				.sessionTimeout(SESSION_TIMEOUT_SECONDS);
+	}
+
+	private static class Http1Holder {
+		static final @Nullable SslContext CONTEXT;
+		static final @Nullable SSLException FAILURE;
+
+		static {
+			SslContext context = null;
+			SSLException failure = null;
+
+			try {
+				context = builder(provider()).build();
+			}
+			catch (SSLException e) {
+				failure = e;
+			}
+
+			if (context == null && provider() != SslProvider.JDK) {
+				try {
+					context = builder(SslProvider.JDK).build();
+				}
+				catch (SSLException e) {
+					failure = e;
+				}
+			}
+
+			CONTEXT = context;
+			FAILURE = context == null ? failure : null;
+		}
+	}
+
+	private static class Http2Holder {
+		static final @Nullable SslContext CONTEXT;
+
+		static {
+			SslContext context = null;
+
+			if (provider() == SslProvider.OPENSSL && OpenSsl.isAlpnSupported()) {
+				context = build(SslProvider.OPENSSL);
+			}
+			if (context == null) {
+				context = build(SslProvider.JDK);
+			}
+
+			CONTEXT = context;
+		}
+
+		private static @Nullable SslContext build(@NotNull SslProvider provider) {
+			try {
+				SslContext context = builder(provider)
+						.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+						.applicationProtocolConfig(new ApplicationProtocolConfig(
+								Protocol.ALPN,
+								SelectorFailureBehavior.NO_ADVERTISE,
+								SelectedListenerFailureBehavior.ACCEPT,
+								ApplicationProtocolNames.HTTP_2,
+								ApplicationProtocolNames.HTTP_1_1))
+						.build();
+
+				// ALPN support of JDK is checked only when engine is created
+				ReferenceCountUtil.release(context.newEngine(UnpooledByteBufAllocator.DEFAULT));
+				return context;
+			}
+			catch (SSLException | RuntimeException e) {
+				return null;
+			}
+		}
+	}
+}
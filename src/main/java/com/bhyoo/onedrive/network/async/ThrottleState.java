@@ -0,0 +1,79 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Throttled until" time of each owner and host, shared by every request of one {@link ConnectionPool}. Once a host
+ * throttles any request of an owner, following requests of the owner to the host wait until the time instead of
+ * hitting the service again.<br>
+ * <br>
+ * Service throttles each account, so owner (see {@link RequestOptions#getOwner()}, usually
+ * {@link com.bhyoo.onedrive.client.Client Client}) is a part of the key. Other clients that share the pool keep
+ * sending to the host. {@code null} owner is an owner too.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+final class ThrottleState {
+	private final @NotNull ConcurrentMap<Key, Long> throttledUntil = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Extend throttled time of {@code owner} on {@code address} to at least {@code delayMillis} from now.
+	 */
+	void throttle(@Nullable Object owner, @NotNull InetSocketAddress address, long delayMillis) {
+		if (delayMillis <= 0) return;
+		Key key = new Key(owner, address);
+		long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+
+		while (true) {
+			Long old = throttledUntil.putIfAbsent(key, until);
+			if (old == null) return;
+			if (old - until >= 0 || throttledUntil.replace(key, old, until)) return;
+		}
+	}
+
+	/**
+	 * @return how long requests of {@code owner} to {@code address} have to wait in milliseconds. {@code 0} if it is
+	 * not throttled.
+	 */
+	long remainingMillis(@Nullable Object owner, @NotNull InetSocketAddress address) {
+		Key key = new Key(owner, address);
+		Long until = throttledUntil.get(key);
+		if (until == null) return 0;
+
+		long remaining = until - System.nanoTime();
+		if (remaining <= 0) {
+			throttledUntil.remove(key, until);
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(remaining) + 1;
+	}
+
+
+	private static final class Key {
+		private final @Nullable Object owner;
+		private final @NotNull InetSocketAddress address;
+
+		Key(@Nullable Object owner, @NotNull InetSocketAddress address) {
+			this.owner = owner;
+			this.address = address;
+		}
+
+		@Override public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return address.equals(other.address) && (owner == null ? other.owner == null : owner.equals(other.owner));
+		}
+
+		@Override public int hashCode() {
+			return 31 * address.hashCode() + (owner == null ? 0 : owner.hashCode());
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes that a download or an upload transferred so far, and its rates.<br>
+ * <br>
+ * Transfer counts bytes as they are written to (or acknowledged by) the other side, and {@link ProgressListener}s
+ * are notified at most once per {@link #setIntervalMillis(long) interval}, and once more when the transfer
+ * completes. Instantaneous rate is the rate since the previous notification, and average rate is the rate since
+ * the first byte is counted. Listeners are called on event loop, so they must not block. Notifications do not
+ * overlap, and nothing is notified after the last one.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class TransferProgress {
+	public static final long DEFAULT_INTERVAL_MILLIS = 500;
+
+	private final @NotNull List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+	private final @NotNull AtomicLong bytesDone = new AtomicLong();
+	/**
+	 * Time of the last notification, and who sets it notifies.
+	 */
+	private final @NotNull AtomicLong notifiedNanos = new AtomicLong();
+	/**
+	 * Set under lock of this, that notifications hold.
+	 */
+	private final @NotNull AtomicBoolean completed = new AtomicBoolean();
+	private volatile long totalBytes = -1;
+	private volatile long intervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INTERVAL_MILLIS);
+	private volatile long startNanos;
+	private volatile long notifiedBytes;
+	private volatile long instantRate;
+
+
+	/**
+	 * @param listener called with this progress, at most once per interval
+	 *
+	 * @return this
+	 */
+	public @NotNull TransferProgress addListener(@NotNull ProgressListener listener) {
+		listeners.add(listener);
+		return this;
+	}
+
+	public @NotNull TransferProgress removeListener(@NotNull ProgressListener listener) {
+		listeners.remove(listener);
+		return this;
+	}
+
+	/**
+	 * @param intervalMillis minimum time between notifications of listeners. {@code 0} to notify on every chunk.
+	 *
+	 * @return this
+	 */
+	public @NotNull TransferProgress setIntervalMillis(long intervalMillis) {
+		if (intervalMillis < 0) throw new IllegalArgumentException("Negative interval : " + intervalMillis);
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		return this;
+	}
+
+
+	public long getBytesDone() {
+		return bytesDone.get();
+	}
+
+	/**
+	 * @return size of whole content, or {@code -1} if it is not known yet.
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return bytes per second since previous notification.
+	 */
+	public long getInstantRate() {
+		return instantRate;
+	}
+
+	/**
+	 * @return bytes per second since the transfer started.
+	 */
+	public long getAverageRate() {
+		long start = startNanos;
+		if (start == 0) return 0;
+		return rate(bytesDone.get(), System.nanoTime() - start);
+	}
+
+	public boolean isCompleted() {
+		return completed.get();
+	}
+
+
+	void setTotalBytes(long totalBytes) {
+		this.totalBytes = totalBytes;
+	}
+
+	/**
+	 * Count {@code bytes} that are transferred, and notify listeners if interval passed.
+	 */
+	void add(long bytes) {
+		long now = System.nanoTime();
+		if (startNanos == 0) {
+			synchronized (this) {
+				if (startNanos == 0) {
+					startNanos = now;
+					notifiedNanos.set(now);
+				}
+			}
+		}
+
+		bytesDone.addAndGet(bytes);
+
+		long last = notifiedNanos.get();
+		if (now - last >= intervalNanos && notifiedNanos.compareAndSet(last, now)) {
+			synchronized (this) {
+				// the last notification could be done while this one was coming
+				if (!completed.get()) notify(now - last);
+			}
+		}
+	}
+
+	/**
+	 * Notify listeners for the last time. Called once the transfer completes, successfully or not.
+	 */
+	void complete() {
+		synchronized (this) {
+			if (!completed.compareAndSet(false, true)) return;
+
+			long now = System.nanoTime();
+			notify(now - notifiedNanos.getAndSet(now));
+		}
+	}
+
+	private void notify(long elapsedNanos) {
+		long done = bytesDone.get();
+		instantRate = rate(done - notifiedBytes, elapsedNanos);
+		notifiedBytes = done;
+
+		for (ProgressListener listener : listeners) {
+			try {
+				listener.onProgress(this);
+			}
+			catch (Throwable ignored) {
+				// a broken listener does not break the transfer
+			}
+		}
+	}
+
+	private static long rate(long bytes, long elapsedNanos) {
+		if (elapsedNanos <= 0) return 0;
+		return (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+	}
+}
@@ -13,6 +13,11 @@ import java.nio.file.Path;
 public interface UploadFuture extends Future<FileItem> {
 	@NotNull Path filePath();
 
+	/**
+	 * @return bytes that are acknowledged by server so far. Add {@link ProgressListener} to it to be notified.
+	 */
+	@NotNull TransferProgress progress();
+
 	@Override UploadFuture addListener(GenericFutureListener<? extends Future<? super FileItem>> listener);
 
 	@Override UploadFuture addListeners(GenericFutureListener<? extends Future<? super FileItem>>[] listeners);
@@ -1,49 +1,94 @@
 package com.bhyoo.onedrive.network.sync;
 
+import com.bhyoo.onedrive.client.Transport;
+import com.bhyoo.onedrive.network.async.AsyncClientHandler;
+import com.bhyoo.onedrive.network.async.ConnectionPool;
+import com.bhyoo.onedrive.network.async.DefaultResponsePromise;
+import com.bhyoo.onedrive.network.async.RequestOptions;
+import com.bhyoo.onedrive.network.async.ResponsePromise;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
-import lombok.SneakyThrows;
-import lombok.val;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.*;
+import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.ProtocolException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.zip.GZIPInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.*;
+import static io.netty.handler.codec.http.HttpHeaderValues.GZIP;
+import static io.netty.handler.codec.http.HttpMethod.*;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
+ * Blocking facade of {@link ConnectionPool}. Each request borrows pooled connection (or HTTP/2 stream), and waits
+ * for whole response up to {@link #getTimeoutMillis()}.<br>
+ * <br>
+ * Note that calling {@code do*} methods in event loop thread causes dead lock, so Netty rejects it.<br>
+ * Like {@link java.net.HttpURLConnection}, one instance sends only one request. Calling {@code do*} methods again
+ * throws {@link IllegalStateException}.
+ *
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class SyncRequest {
 	public static final String NETWORK_ERR_MSG = "Network connection error. Please retry later or contact API author.";
-	private final HttpURLConnection httpConnection;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 60 * 1000;
+
+	private final @NotNull ConnectionPool connectionPool;
+	private final @NotNull URI uri;
+	private final @NotNull HttpHeaders headers = new DefaultHttpHeaders();
+	private @NotNull HttpMethod method = GET;
+	@Getter private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	@Getter private @NotNull RequestOptions options = new RequestOptions();
+	private final @NotNull AtomicBoolean sent = new AtomicBoolean();
 
-	@SneakyThrows(MalformedURLException.class)
+	/**
+	 * Request through connection pool of {@link Transport#defaultTransport()}.
+	 */
 	public SyncRequest(@NotNull String url) {
-		URL url1 = new URL(url);
-		try {
-			httpConnection = (HttpURLConnection) url1.openConnection();
-		}
-		catch (IOException e) {
-			// FIXME: custom exception
-			throw new RuntimeException(NETWORK_ERR_MSG, e);
-		}
+		this(toURI(url), Transport.defaultTransport().getConnectionPool());
 	}
 
+	/**
+	 * Request through connection pool of {@link Transport#defaultTransport()}.
+	 */
 	public SyncRequest(@NotNull URL url) {
+		this(toURI(url.toString()), Transport.defaultTransport().getConnectionPool());
+	}
+
+	public SyncRequest(@NotNull String url, @NotNull ConnectionPool connectionPool) {
+		this(toURI(url), connectionPool);
+	}
+
+	public SyncRequest(@NotNull URL url, @NotNull ConnectionPool connectionPool) {
+		this(toURI(url.toString()), connectionPool);
+	}
+
+	public SyncRequest(@NotNull URI uri, @NotNull ConnectionPool connectionPool) {
+		this.uri = uri;
+		this.connectionPool = connectionPool;
+
+		headers.set(HOST, uri.getHost())
+				.set(ACCEPT_ENCODING, GZIP);
+	}
+
+	private static @NotNull URI toURI(@NotNull String url) {
 		try {
-			httpConnection = (HttpURLConnection) url.openConnection();
+			return new URI(url);
 		}
-		catch (IOException e) {
-			// FIXME: custom exception
-			throw new RuntimeException(NETWORK_ERR_MSG, e);
+		catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Wrong URL : \"" + url + "\".", e);
 		}
 	}
 
@@ -55,7 +100,25 @@ public class SyncRequest {
 	 * @param value Value to add in request's header. It could be {@code null}.
 	 */
 	public SyncRequest setHeader(@NotNull CharSequence key, @Nullable CharSequence value) {
-		httpConnection.setRequestProperty(key.toString(), value != null ? value.toString() : null);
+		if (value == null) headers.remove(key);
+		else headers.set(key, value);
+		return this;
+	}
+
+	/**
+	 * @param timeoutMillis how long {@code do*} methods wait whole response.
+	 */
+	public SyncRequest setTimeoutMillis(long timeoutMillis) {
+		if (timeoutMillis <= 0) throw new IllegalArgumentException("timeout must be positive : " + timeoutMillis);
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param options how this request is scheduled and limited before it is sent.
+	 */
+	public SyncRequest setOptions(@NotNull RequestOptions options) {
+		this.options = options;
 		return this;
 	}
 
@@ -74,13 +137,8 @@ public class SyncRequest {
 
 	@NotNull
 	public SyncResponse doPost(byte[] content) {
-		try {
-			httpConnection.setRequestMethod("POST");
-			return sendContent(content);
-		}
-		catch (ProtocolException e) {
-			throw new UnsupportedOperationException("unsupported method POST. contact author with stacktrace", e);
-		}
+		method = POST;
+		return sendContent(content);
 	}
 
 
@@ -98,15 +156,8 @@ public class SyncRequest {
 
 	@NotNull
 	public SyncResponse doPatch(byte[] content) {
-		try {
-			// FIXME: unstable, not common way
-			httpConnection.setRequestMethod("POST");
-			setHeader("X-HTTP-Method-Override", "PATCH");
-			return sendContent(content);
-		}
-		catch (ProtocolException e) {
-			throw new UnsupportedOperationException("unsupported method PATCH. contact author with stacktrace", e);
-		}
+		method = PATCH;
+		return sendContent(content);
 	}
 
 
@@ -124,121 +175,113 @@ public class SyncRequest {
 
 	@NotNull
 	public SyncResponse doPut(byte[] content) {
-		try {
-			httpConnection.setRequestMethod("PUT");
-			return sendContent(content);
-		}
-		catch (ProtocolException e) {
-			throw new UnsupportedOperationException("unsupported method PUT. contact author with stacktrace", e);
-		}
+		method = PUT;
+		return sendContent(content);
 	}
 
 
+	/**
+	 * Send {@code content} with method that set before (<code>GET</code> if never set).
+	 */
 	public SyncResponse sendContent(byte[] content) {
-		try {
-			httpConnection.setDoOutput(true);
-
-			httpConnection.setFixedLengthStreamingMode(content.length);
-
-			OutputStream out = httpConnection.getOutputStream();
-			out.write(content);
-			out.flush();
-			out.close();
-
-			return makeResponse();
-		}
-		catch (IOException e) {
-			// FIXME: custom exception
-			throw new RuntimeException(NETWORK_ERR_MSG, e);
-		}
+		return makeResponse(Unpooled.wrappedBuffer(content));
 	}
 
 
 	@NotNull
 	public SyncResponse doDelete() {
-		try {
-			httpConnection.setRequestMethod("DELETE");
-			return makeResponse();
-		}
-		catch (ProtocolException e) {
-			throw new UnsupportedOperationException("unsupported method DELETE. contact author with stacktrace", e);
-		}
+		method = DELETE;
+		return makeResponse(Unpooled.EMPTY_BUFFER);
 	}
 
 
 	@NotNull
 	public SyncResponse doGet() {
-		try {
-			httpConnection.setRequestMethod("GET");
-			return makeResponse();
-		}
-		catch (ProtocolException e) {
-			throw new UnsupportedOperationException("unsupported method GET. contact author with stacktrace", e);
-		}
+		method = GET;
+		return makeResponse(Unpooled.EMPTY_BUFFER);
 	}
 
 
 	/**
 	 * @return Response object.
 	 *
-	 * @throws RuntimeException fail to network connection or fail to read response.
+	 * @throws IllegalStateException this request is already sent.
+	 * @throws RuntimeException      fail to network connection, fail to read response or timeout.
 	 */
 	@NotNull
-	protected SyncResponse makeResponse() {
+	protected SyncResponse makeResponse(@NotNull ByteBuf content) {
+		if (!sent.compareAndSet(false, true)) {
+			content.release();
+			throw new IllegalStateException("Already sent : " + method + " " + uri);
+		}
+
+		DefaultFullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, method, uri.toASCIIString(), content);
+		request.headers().set(headers);
+		if (content.isReadable() || method == POST || method == PUT || method == PATCH) {
+			request.headers().set(CONTENT_LENGTH, content.readableBytes());
+		}
+
+		ResponsePromise promise = new DefaultResponsePromise(connectionPool.getGroup().next());
+		connectionPool.send(uri, request, new AsyncClientHandler(promise), promise, options);
+
+		boolean completed;
 		try {
-			int code = httpConnection.getResponseCode();
-			String message = httpConnection.getResponseMessage();
-			val header = httpConnection.getHeaderFields();
-			URL url = httpConnection.getURL();
-
-			// TODO: performance test for directBuffer or Pooled buffer
-			ByteBuf byteBuf = Unpooled.buffer(512);
-			InputStream body;
-
-			// TODO: how about directly pass this steams to jackson for performance
-			if (code < 400)
-				if ("gzip".equals(httpConnection.getContentEncoding()))
-					body = new GZIPInputStream(httpConnection.getInputStream());
-				else
-					body = httpConnection.getInputStream();
-			else
-				body = httpConnection.getErrorStream();
-
-			byte[] buffer = new byte[512];
-
-			int readBytes;
-			while ((readBytes = body.read(buffer)) >= 0) {
-				byteBuf.writeBytes(buffer, 0, readBytes);
-			}
-			body.close();
-			return new SyncResponse(url, code, message, header, byteBuf);
-
-			// which one is better?
-			/*
-			val byteStream = new ByteArrayOutputStream();
-			BufferedInputStream body;
-
-			if (code < 400)
-				body = new BufferedInputStream(httpConnection.getInputStream());
-			else
-				body = new BufferedInputStream(httpConnection.getErrorStream());
-
-			int bytes;
-			while ((bytes = body.read()) != -1) {
-				byteStream.write(bytes);
-			}
-
-			byteStream.close();
-			body.close();
-			return new SyncResponse(url, code, message, header, byteStream.toByteArray());
-			*/
+			completed = promise.await(timeoutMillis);
 		}
-		catch (IOException e) {
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abandon(promise);
 			// FIXME: custom exception
 			throw new RuntimeException(NETWORK_ERR_MSG, e);
 		}
-		finally {
-			httpConnection.disconnect();
+
+		if (!completed) {
+			abandon(promise);
+			// FIXME: custom exception
+			throw new RuntimeException(NETWORK_ERR_MSG, new TimeoutException(
+					method + " " + uri + " is not responded in " + timeoutMillis + "ms"));
+		}
+		else if (!promise.isSuccess()) {
+			// FIXME: custom exception
+			throw new RuntimeException(NETWORK_ERR_MSG, promise.cause());
+		}
+
+		HttpResponse response = promise.response();
+		// pass received buffers as they are. `SyncResponse` owns them from now.
+		ByteBuf body = promise.getNow().getRawBuffer();
+
+		try {
+			return new SyncResponse(uri.toURL(), response.status().code(), response.status().reasonPhrase(),
+					headerMap(response.headers()), body);
+		}
+		catch (MalformedURLException e) {
+			body.release();
+			throw new IllegalStateException("URI that already requested is not URL : " + uri, e);
+		}
+	}
+
+	/**
+	 * Give up {@code promise}. Its connection is closed if the response is still being received, or the body is
+	 * released if the response arrived just now, because its connection is already back in the pool.
+	 */
+	private static void abandon(@NotNull ResponsePromise promise) {
+		if (promise.cancel(false)) {
+			Channel channel = promise.channel();
+			if (channel != null) channel.close();
+		}
+		else if (promise.isSuccess()) {
+			promise.getNow().close();
+		}
+	}
+
+	/**
+	 * @return case insensitive view of {@code headers}, because HTTP/2 sends header names in lower case.
+	 */
+	private static @NotNull Map<String, List<String>> headerMap(@NotNull HttpHeaders headers) {
+		Map<String, List<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (String name : headers.names()) {
+			map.put(name, headers.getAll(name));
 		}
+		return map;
 	}
 }
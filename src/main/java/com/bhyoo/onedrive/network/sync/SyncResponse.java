@@ -1,15 +1,33 @@
 package com.bhyoo.onedrive.network.sync;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Response of {@link SyncRequest}.<br>
+ * <br>
+ * Body is kept in pooled buffer that received from network as it is, so it must be {@link #release() released}
+ * after use. {@code parse*AndHandle} and {@code errorHandling} of
+ * {@link com.bhyoo.onedrive.client.RequestTool RequestTool} release it by themselves.<br>
+ * <br>
+ * {@link #getContent()} and {@link #getContentString()} copy body to heap once and release the pooled buffer, so
+ * they can be called in any order and any times. After that, {@link #getContentStream()} and
+ * {@link #createParser(JsonFactory)} read the copy, and {@link #getContentBuf()} must not be used.
+ *
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class SyncResponse {
@@ -17,8 +35,16 @@ public class SyncResponse {
 	@Getter protected final int code;
 	@Getter protected final String message;
 	@Getter protected final Map<String, List<String>> header;
+	/**
+	 * Body of response. Its readable bytes are exactly whole body.
+	 */
 	@Getter protected final ByteBuf contentBuf;
 	protected String contentString;
+	/**
+	 * Heap copy of body. It is set when body is copied and the pooled buffer is released.
+	 */
+	protected byte[] content;
+	private final AtomicBoolean released = new AtomicBoolean();
 
 	public SyncResponse(URL url, int code, String message,
 						Map<String, List<String>> header, ByteBuf contentBuf) {
@@ -39,23 +65,65 @@ public class SyncResponse {
 	@NotNull
 	public String getContentString() {
 		if (contentString == null) {
-			contentString = new String(contentBuf.array(), 0, contentBuf.readableBytes(), StandardCharsets.UTF_8);
+			contentString = new String(getContent(), StandardCharsets.UTF_8);
 		}
 
 		return contentString;
 	}
 
+	/**
+	 * @return copy of body that has exactly same length. body is released after copy.
+	 */
 	public byte[] getContent() {
 		return getContent(true);
 	}
 
+	/**
+	 * @param autoRelease whether the pooled body is released after copy. Once released, the same copy is returned.
+	 *
+	 * @return copy of body that has exactly same length.
+	 */
 	public byte[] getContent(boolean autoRelease) {
-		byte[] array = contentBuf.array();
-		if (autoRelease) release();
+		if (content != null) return content;
+
+		byte[] array = ByteBufUtil.getBytes(contentBuf);
+		if (autoRelease) {
+			content = array;
+			release();
+		}
 		return array;
 	}
 
+	/**
+	 * @return stream that reads body without copy. Closing it does not release body.
+	 */
+	public @NotNull InputStream getContentStream() {
+		if (content != null) return new ByteArrayInputStream(content);
+		return new ByteBufInputStream(contentBuf.duplicate());
+	}
+
+	/**
+	 * Make parser that reads body in place. If body is a single heap buffer, its backing array is parsed directly.
+	 *
+	 * @param factory factory of parser
+	 *
+	 * @return parser of body. Body must not be released until parsing ends.
+	 *
+	 * @throws IOException if {@code factory} fails to make parser
+	 */
+	public @NotNull JsonParser createParser(@NotNull JsonFactory factory) throws IOException {
+		if (content != null) return factory.createParser(content);
+		if (contentBuf.hasArray()) {
+			int offset = contentBuf.arrayOffset() + contentBuf.readerIndex();
+			return factory.createParser(contentBuf.array(), offset, contentBuf.readableBytes());
+		}
+		return factory.createParser(getContentStream());
+	}
+
+	/**
+	 * Release the pooled body. Calling it again has no effect.
+	 */
 	public void release() {
-		contentBuf.release();
+		if (released.compareAndSet(false, true)) contentBuf.release();
 	}
 }
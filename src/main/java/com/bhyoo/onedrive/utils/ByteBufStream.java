@@ -2,53 +2,171 @@ package com.bhyoo.onedrive.utils;
 
 import com.bhyoo.onedrive.exceptions.InternalException;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * {@link InputStream} of buffers that one producer (usually event loop) writes while one consumer reads.<br>
+ * <br>
+ * Written buffers are handed to the consumer as they are, through lock-free queue, and copied in bulk by
+ * {@link #read(byte[], int, int)}. Consumer parks only when there is nothing to read, and each buffer is released as
+ * soon as it is read, so memory is held only for bytes that are not read yet.<br>
+ * <br>
+ * If {@link #setBackpressure(Channel, long, long) backpressure} is set, <code>autoRead</code> of the channel is turned
+ * off while unread bytes exceed high-water mark, and turned on again once consumer reads them below low-water mark.
+ * So the consumer must read on other thread than event loop of the channel.<br>
+ * <br>
+ * Producer ends the stream by {@link #setNoMoreBuf()} once whole content is written, or by {@link #fail(Throwable)}
+ * if content is cut off. Consumer reads what is written either way, and gets {@link IOException} instead of end of
+ * stream in the latter.
+ *
  * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
  */
 public class ByteBufStream extends InputStream {
+	public static final long DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+	public static final long DEFAULT_LOW_WATER_MARK = 256 * 1024;
 	@NotNull private static final IndexOutOfBoundsException INDEX_EXCEPTION = new IndexOutOfBoundsException();
-	@NotNull final private CompositeByteBuf compositeBuf;
-	private boolean noMoreBuf;
-	@Getter private boolean closed;
+
+	@NotNull private final ByteBufAllocator allocator;
+	@NotNull private final Queue<ByteBuf> queue = new ConcurrentLinkedQueue<>();
+	/**
+	 * Bytes that are written but not read yet.
+	 */
+	@NotNull private final AtomicLong unread = new AtomicLong();
+	@NotNull private final AtomicBoolean paused = new AtomicBoolean();
+	@NotNull private final AtomicBoolean closed = new AtomicBoolean();
+	/**
+	 * Buffer that consumer is reading. Only consumer touches it.
+	 */
+	@Nullable private ByteBuf current;
+	@Nullable private volatile Thread consumer;
+	@Nullable private volatile Channel channel;
+	private long highWaterMark;
+	private long lowWaterMark;
+	private volatile boolean noMoreBuf;
+	/**
+	 * {@code true} if producer wrote whole content.
+	 */
+	@Getter private volatile boolean ended;
+	/**
+	 * Why content is cut off, or {@code null} if it is not.
+	 */
+	@Getter @Nullable private volatile Throwable failure;
 
 
 	public ByteBufStream() {
 		this(PooledByteBufAllocator.DEFAULT.compositeBuffer());
 	}
 
+	/**
+	 * @param byteBuf content that this stream starts with. This stream takes ownership of it, and allocator of it is
+	 *                used by {@link #getRawBuffer()}.
+	 */
 	public ByteBufStream(@NotNull CompositeByteBuf byteBuf) {
-		compositeBuf = byteBuf;
+		allocator = byteBuf.alloc();
+
+		if (byteBuf.isReadable()) {
+			queue.add(byteBuf);
+			unread.set(byteBuf.readableBytes());
+		}
+		else {
+			byteBuf.release();
+		}
 	}
 
 
-	public ByteBuf getRawBuffer() {
-		return compositeBuf.duplicate().readerIndex(0);
+	/**
+	 * Limit unread bytes by pausing {@code channel} that produces them. It is detached when
+	 * {@link #setNoMoreBuf() producer finishes} or stream is {@link #close() closed}.
+	 *
+	 * @param channel       channel that writes to this stream
+	 * @param highWaterMark unread bytes that pauses {@code channel}
+	 * @param lowWaterMark  unread bytes that resumes paused {@code channel}
+	 */
+	public void setBackpressure(@NotNull Channel channel, long highWaterMark, long lowWaterMark) {
+		if (lowWaterMark < 0 || highWaterMark <= lowWaterMark) {
+			throw new IllegalArgumentException(
+					"Wrong water marks. high : " + highWaterMark + ", low : " + lowWaterMark);
+		}
+
+		this.highWaterMark = highWaterMark;
+		this.lowWaterMark = lowWaterMark;
+		this.channel = channel;
+	}
+
+	/**
+	 * Take all unread content out of this stream without copy. The caller owns returned buffer, and this stream has
+	 * nothing to read from now.
+	 */
+	public @NotNull ByteBuf getRawBuffer() {
+		CompositeByteBuf raw = allocator.compositeBuffer(Integer.MAX_VALUE);
+
+		if (current != null) {
+			raw.addComponent(true, current);
+			current = null;
+		}
+		ByteBuf buf;
+		while ((buf = queue.poll()) != null) raw.addComponent(true, buf);
+
+		unread.set(0);
+		return raw;
 	}
 
 
-	public synchronized void setNoMoreBuf() {
+	public void setNoMoreBuf() {
+		ended = noMoreBuf = true;
+		detach();
+		wakeUp();
+	}
+
+	/**
+	 * Producer could not write whole content because of {@code cause}. Consumer reads what is written so far, and then
+	 * gets {@link IOException} caused by {@code cause}. It does nothing if the stream is already ended or closed.
+	 */
+	public void fail(@NotNull Throwable cause) {
+		if (noMoreBuf) return;
+
+		failure = cause;
 		noMoreBuf = true;
-		notifyAll();
+		detach();
+		wakeUp();
+	}
+
+	public boolean isClosed() {
+		return closed.get();
 	}
 
 
 	/**
-	 * Closes this input stream and releases any system resources associated with the stream.
+	 * Closes this input stream and releases any system resources associated with the stream. Closing it again has no
+	 * effect.<br>
+	 * The buffer that consumer is reading is released by consumer on its next read, if other thread closes this.
 	 */
 	@Override
-	public synchronized void close() {
-		if (closed) throw new IllegalStateException("The stream already closed");
+	public void close() {
+		if (!closed.compareAndSet(false, true)) return;
 
-		noMoreBuf = closed = true;
-		compositeBuf.release();
-		notifyAll();
+		noMoreBuf = true;
+		if (consumer == null || consumer == Thread.currentThread()) releaseCurrent();
+		releaseQueue();
+		detach();
+		wakeUp();
 	}
 
 
@@ -56,17 +174,13 @@ public class ByteBufStream extends InputStream {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized int read() {
-		while (!closed && !noMoreBuf && !compositeBuf.isReadable()) {
-			try {
-				wait();
-			}
-			catch (InterruptedException e) {
-				throw new InternalException("wait() is wrong in " + this.getClass().getName() + ".", e);
-			}
-		}
+	public int read() throws IOException {
+		ByteBuf buf = nextReadable();
+		if (buf == null) return -1;
 
-		return !closed && compositeBuf.isReadable() ? compositeBuf.readByte() : -1;
+		int value = buf.readByte() & 0xFF;
+		consumed(1);
+		return value;
 	}
 
 
@@ -74,55 +188,214 @@ public class ByteBufStream extends InputStream {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized int read(@NotNull byte[] b) {
+	public int read(@NotNull byte[] b) throws IOException {
 		return read(b, 0, b.length);
 	}
 
 
 	/**
-	 * {@inheritDoc}
+	 * Same as {@link InputStream#read(byte[], int, int)}, but it waits until {@code len} bytes are read or the stream
+	 * ends.
+	 *
+	 * @throws IOException if content is cut off, after everything that is written is read.
 	 */
 	@Override
-	public synchronized int read(@NotNull byte[] b, int off, int len) {
+	public int read(@NotNull byte[] b, int off, int len) throws IOException {
 		if (off < 0 || len < 0 || len > b.length - off) throw INDEX_EXCEPTION;
 		else if (len == 0) return 0;
-		else if (closed) return -1;
-
-		final int end = len + off - 1;
-		int cur = off;
-
-		while (cur <= end) {
-			while (!closed && !noMoreBuf && !compositeBuf.isReadable()) {
-				try {
-					wait();
-				}
-				catch (InterruptedException e) {
-					throw new InternalException("wait() is wrong in " + this.getClass().getName() + ".", e);
-				}
+
+		int read = 0;
+		while (read < len) {
+			ByteBuf buf;
+			try {
+				buf = nextReadable();
 			}
+			catch (IOException e) {
+				// hand what is read first. next read throws again.
+				if (read > 0) break;
+				throw e;
+			}
+			if (buf == null) break;
+
+			int fetched = Math.min(buf.readableBytes(), len - read);
+			buf.readBytes(b, off + read, fetched);
+			read += fetched;
+			consumed(fetched);
+		}
 
-			if (closed) return cur == off ? -1 : cur - off;
-			else if (compositeBuf.isReadable()) {
-				int fetched = Math.min(compositeBuf.readableBytes(), end - cur + 1);
-				compositeBuf.readBytes(b, cur, fetched);
-				cur += fetched;
+		return read == 0 ? -1 : read;
+	}
+
+	/**
+	 * Write content of this stream to {@code target} until the stream ends, without copying it to an array. It waits
+	 * if there is nothing to read yet.
+	 *
+	 * @param target channel in blocking mode
+	 *
+	 * @return how many bytes are written
+	 *
+	 * @throws IOException if content is cut off, after everything that is written is transferred.
+	 */
+	public long transferTo(@NotNull WritableByteChannel target) throws IOException {
+		long transferred = 0;
+
+		ByteBuf buf;
+		while ((buf = nextReadable()) != null) {
+			int length = buf.readableBytes();
+			for (ByteBuffer nioBuffer : buf.nioBuffers()) {
+				while (nioBuffer.hasRemaining()) target.write(nioBuffer);
 			}
-			else if (noMoreBuf) return cur == off ? -1 : cur - off;
+			buf.skipBytes(length);
+
+			transferred += length;
+			consumed(length);
 		}
 
-		return len;
+		return transferred;
+	}
+
+	/**
+	 * Write content of this stream to {@code out} until the stream ends. It waits if there is nothing to read yet.
+	 *
+	 * @return how many bytes are written
+	 *
+	 * @throws IOException if content is cut off, after everything that is written is transferred.
+	 */
+	public long transferTo(@NotNull OutputStream out) throws IOException {
+		long transferred = 0;
+
+		ByteBuf buf;
+		while ((buf = nextReadable()) != null) {
+			int length = buf.readableBytes();
+			buf.readBytes(out, length);
+
+			transferred += length;
+			consumed(length);
+		}
+
+		return transferred;
 	}
 
 	/**
 	 * Write {@code sourceBuf}'s content to this stream without copy.
-	 * This method will take ownership of {@code sourceBuf}.
+	 * This method retains {@code sourceBuf}, so caller still has to release its own reference.
 	 *
 	 * @param sourceBuf A {@link ByteBuf} to write
+	 *
+	 * @throws IllegalStateException if the stream is closed or {@link #setNoMoreBuf()} is called.
+	 */
+	public void writeByteBuf(@NotNull ByteBuf sourceBuf) {
+		if (!offer(sourceBuf)) throw new IllegalStateException("The stream already closed");
+	}
+
+	/**
+	 * Same as {@link #writeByteBuf(ByteBuf)}, but returns {@code false} instead of throwing if the stream is closed,
+	 * because consumer could close it at any time.
+	 */
+	public boolean offer(@NotNull ByteBuf sourceBuf) {
+		if (closed.get() || noMoreBuf) return false;
+		if (!sourceBuf.isReadable()) return true;
+
+		queue.add(sourceBuf.retain());
+		long total = unread.addAndGet(sourceBuf.readableBytes());
+
+		// consumer closed it meanwhile, so nobody releases what is queued.
+		if (closed.get()) {
+			releaseQueue();
+			return false;
+		}
+
+		wakeUp();
+		if (total >= highWaterMark) pause();
+		return true;
+	}
+
+
+	/**
+	 * @return buffer that has something to read, or {@code null} if the stream ended. It waits if there is nothing to
+	 * read yet.
+	 *
+	 * @throws IOException if the stream is failed and everything before it is read.
+	 */
+	private @Nullable ByteBuf nextReadable() throws IOException {
+		consumer = Thread.currentThread();
+
+		while (true) {
+			if (closed.get()) {
+				releaseCurrent();
+				return null;
+			}
+
+			if (current != null && current.isReadable()) return current;
+			releaseCurrent();
+
+			current = queue.poll();
+			if (current != null) continue;
+			// producer might write just before it finishes
+			if (noMoreBuf) {
+				current = queue.poll();
+				if (current != null) continue;
+
+				Throwable failure = this.failure;
+				if (failure != null) throw new IOException("Content is cut off", failure);
+				return null;
+			}
+
+			resumeIfDrained();
+			LockSupport.park(this);
+			if (Thread.interrupted()) {
+				throw new InternalException("Interrupted while waiting in " + this.getClass().getName() + ".");
+			}
+		}
+	}
+
+	private void consumed(int bytes) {
+		unread.addAndGet(-bytes);
+		resumeIfDrained();
+	}
+
+	private void releaseCurrent() {
+		if (current != null) {
+			current.release();
+			current = null;
+		}
+	}
+
+	private void releaseQueue() {
+		ByteBuf buf;
+		while ((buf = queue.poll()) != null) buf.release();
+		unread.set(0);
+	}
+
+	private void wakeUp() {
+		Thread thread = consumer;
+		if (thread != null) LockSupport.unpark(thread);
+	}
+
+
+	private void pause() {
+		Channel channel = this.channel;
+		if (channel == null || !paused.compareAndSet(false, true)) return;
+
+		channel.config().setAutoRead(false);
+		// consumer might have read everything before it is paused
+		resumeIfDrained();
+	}
+
+	private void resumeIfDrained() {
+		if (paused.get() && unread.get() <= lowWaterMark) resume();
+	}
+
+	private void resume() {
+		Channel channel = this.channel;
+		if (channel != null && paused.compareAndSet(true, false)) channel.config().setAutoRead(true);
+	}
+
+	/**
+	 * Leave the channel as it was, because it goes back to connection pool.
 	 */
-	public synchronized void writeByteBuf(@NotNull ByteBuf sourceBuf) {
-		if (closed || noMoreBuf) throw new IllegalStateException("The stream already closed");
-		sourceBuf.retain();
-		compositeBuf.addComponent(true, sourceBuf);
-		notifyAll();
+	private void detach() {
+		resume();
+		channel = null;
 	}
 }
@@ -0,0 +1,87 @@
+package com.bhyoo.onedrive.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <a href="https://docs.microsoft.com/onedrive/developer/code-snippets/quickxorhash">quickXorHash</a> of OneDrive
+ * for Business, that can be computed incrementally as content arrives.<br>
+ * <br>
+ * Each byte is XORed into a 160 bits circular buffer, 11 bits further than previous byte, and length of content is
+ * XORed into last 64 bits of it at the end.
+ *
+ * @author <a href="mailto:bh322yoo@gmail.com" target="_top">isac322</a>
+ */
+public class QuickXorHash {
+	private static final int WIDTH_IN_BITS = 160;
+	private static final int SHIFT = 11;
+	private static final int BITS_IN_LAST_CELL = 32;
+
+	private final long[] data = new long[(WIDTH_IN_BITS - 1) / 64 + 1];
+	private int shiftSoFar;
+	private long lengthSoFar;
+
+
+	public void update(@NotNull byte[] bytes, int offset, int length) {
+		update(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	/**
+	 * Hash remaining bytes of {@code buffer}. Position of {@code buffer} is not changed.
+	 */
+	public void update(@NotNull ByteBuffer buffer) {
+		int start = buffer.position();
+		int size = buffer.remaining();
+
+		int vectorArrayIndex = shiftSoFar / 64;
+		int vectorOffset = shiftSoFar % 64;
+		int iterations = Math.min(size, WIDTH_IN_BITS);
+
+		for (int i = 0; i < iterations; i++) {
+			boolean isLastCell = vectorArrayIndex == data.length - 1;
+			int bitsInVectorCell = isLastCell ? BITS_IN_LAST_CELL : 64;
+
+			// bytes that are WIDTH_IN_BITS apart go to the same bits, so they are XORed together first
+			int xoredByte = 0;
+			for (int j = start + i; j < start + size; j += WIDTH_IN_BITS) {
+				xoredByte ^= buffer.get(j) & 0xFF;
+			}
+
+			if (vectorOffset <= bitsInVectorCell - 8) {
+				data[vectorArrayIndex] ^= (long) xoredByte << vectorOffset;
+			}
+			else {
+				// the byte spans two cells
+				int nextIndex = isLastCell ? 0 : vectorArrayIndex + 1;
+				data[vectorArrayIndex] ^= (long) xoredByte << vectorOffset;
+				data[nextIndex] ^= (long) xoredByte >>> (bitsInVectorCell - vectorOffset);
+			}
+
+			vectorOffset += SHIFT;
+			while (vectorOffset >= bitsInVectorCell) {
+				vectorArrayIndex = isLastCell ? 0 : vectorArrayIndex + 1;
+				vectorOffset -= bitsInVectorCell;
+			}
+		}
+
+		shiftSoFar = (int) ((shiftSoFar + (long) SHIFT * (size % WIDTH_IN_BITS)) % WIDTH_IN_BITS);
+		lengthSoFar += size;
+	}
+
+	/**
+	 * @return 20 bytes of hash. It can be called only once, after all content is {@link #update(ByteBuffer) hashed}.
+	 */
+	public @NotNull byte[] digest() {
+		byte[] result = new byte[WIDTH_IN_BITS / 8];
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (byte) (data[i / 8] >>> (i % 8 * 8));
+		}
+		for (int i = 0; i < 8; i++) {
+			result[result.length - 8 + i] ^= (byte) (lengthSoFar >>> (i * 8));
+		}
+
+		return result;
+	}
+}
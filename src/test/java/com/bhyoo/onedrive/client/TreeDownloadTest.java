@@ -0,0 +1,82 @@
+package com.bhyoo.onedrive.client;
+
+import com.bhyoo.onedrive.container.items.AbstractDriveItem;
+import com.bhyoo.onedrive.container.items.FileItem;
+import com.bhyoo.onedrive.container.items.FolderItem;
+import com.bhyoo.onedrive.network.async.DefaultDownloadPromise;
+import com.bhyoo.onedrive.network.async.DownloadFuture;
+import com.bhyoo.onedrive.network.async.DownloadPromise;
+import com.fasterxml.jackson.core.JsonParser;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeDownloadTest {
+	private static final int FILES = 40;
+
+	@Test
+	void transfersDoNotExceedLimit() throws IOException {
+		Transport transport = new Transport();
+		try {
+			Client client = new Client("id", new String[]{"Files.Read"}, "http://localhost", "secret", false,
+					transport);
+			FolderItem folder = folder(client, FILES);
+			Path dir = Files.createTempDirectory("tree");
+
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger peak = new AtomicInteger();
+			TreeDownload download = new TreeDownload(client, folder, dir) {
+				@Override @NotNull DownloadFuture download(@NotNull FileItem file, @NotNull Path folder) {
+					peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+					DownloadPromise promise = new DefaultDownloadPromise(transport.getGroup().next());
+					transport.getGroup().schedule(() -> {
+						running.decrementAndGet();
+						promise.trySuccess(folder.resolve(file.getName()).toFile());
+					}, 5, TimeUnit.MILLISECONDS);
+					return promise;
+				}
+			}.setMaxTransfers(3);
+
+			assertTrue(download.start().future().awaitUninterruptibly(30, TimeUnit.SECONDS));
+			assertTrue(download.future().isSuccess(), String.valueOf(download.future().cause()));
+			assertEquals(FILES, download.getFilesDone());
+			assertEquals(FILES, download.getBytesDone());
+			assertTrue(peak.get() <= 3, "peak : " + peak.get());
+		}
+		finally {
+			transport.close();
+		}
+	}
+
+	/**
+	 * @return folder that has {@code files} files of 1 byte, as their listing says.
+	 */
+	private static @NotNull FolderItem folder(@NotNull Client client, int files) throws IOException {
+		StringBuilder json = new StringBuilder(item("root"))
+				.append("\"folder\":{\"childCount\":").append(files).append("},\"children\":[");
+		for (int i = 0; i < files; i++) {
+			if (i > 0) json.append(',');
+			json.append(item("file" + i)).append("\"size\":1,\"file\":{\"mimeType\":\"text/plain\"}}");
+		}
+		json.append("]}");
+
+		JsonParser parser = RequestTool.jsonFactory.createParser(json.toString());
+		parser.nextToken();
+		return (FolderItem) AbstractDriveItem.deserialize(client, parser, true);
+	}
+
+	private static @NotNull String item(@NotNull String id) {
+		String identity = "{\"user\":{\"id\":\"user\",\"displayName\":\"user\"}}";
+		return "{\"id\":\"" + id + "\",\"name\":\"" + id + "\",\"eTag\":\"e\",\"cTag\":\"c\"," +
+				"\"createdDateTime\":\"2020-01-01T00:00:00Z\",\"lastModifiedDateTime\":\"2020-01-01T00:00:00Z\"," +
+				"\"webUrl\":\"https://example.com/" + id + "\",\"createdBy\":" + identity + ",\"lastModifiedBy\":" +
+				identity + ",\"parentReference\":{\"driveId\":\"drive\",\"driveType\":\"personal\"},";
+	}
+}
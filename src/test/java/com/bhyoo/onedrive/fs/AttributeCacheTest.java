@@ -0,0 +1,82 @@
+package com.bhyoo.onedrive.fs;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttributeCacheTest {
+	private static final long TTL = 60_000;
+
+	private static OneDriveFileAttributes folder(String id) {
+		return new OneDriveFileAttributes(id, id, 0, FileTime.fromMillis(0), FileTime.fromMillis(0), true, false, 2);
+	}
+
+	private static OneDriveFileAttributes file(String id) {
+		return new OneDriveFileAttributes(id, id, 10, FileTime.fromMillis(0), FileTime.fromMillis(0), false, true, -1);
+	}
+
+	@Test
+	void listedFolderKnowsMissingChild() {
+		AttributeCache cache = new AttributeCache(TTL, 100);
+		long since = System.nanoTime();
+		cache.put("/dir", folder("dir"));
+		cache.put("/dir/a", file("a"));
+		cache.listed("/dir", since);
+
+		assertNull(cache.lookup("/dir", "/"));
+		assertEquals("a", cache.lookup("/dir/a", "/dir").attributes.getId());
+		assertSame(AttributeCache.MISSING, cache.lookup("/dir/b", "/dir"));
+	}
+
+	@Test
+	void folderChangedDuringListingIsNotListed() {
+		AttributeCache cache = new AttributeCache(TTL, 100);
+		long since = System.nanoTime();
+		cache.put("/dir", folder("dir"));
+		cache.invalidate("/dir/a", "/dir");
+		cache.put("/dir", folder("dir"));
+
+		cache.listed("/dir", since - 1);
+		assertNull(cache.lookup("/dir/b", "/dir"));
+	}
+
+	@Test
+	void evictedChildIsNotMissing() {
+		AttributeCache cache = new AttributeCache(TTL, 3);
+		long since = System.nanoTime();
+		cache.put("/dir", folder("dir"));
+		cache.put("/dir/a", file("a"));
+		cache.put("/dir/b", file("b"));
+		cache.listed("/dir", since);
+
+		// keep the folder recently used, so a child is evicted
+		cache.lookup("/dir", "/");
+		cache.put("/other", file("other"));
+
+		assertEquals(3, cache.size());
+		assertNull(cache.lookup("/dir/a", "/dir"), "evicted child must be asked again");
+		assertEquals("b", cache.lookup("/dir/b", "/dir").attributes.getId());
+	}
+
+	@Test
+	void invalidateRemovesSubtree() {
+		AttributeCache cache = new AttributeCache(TTL, 100);
+		cache.put("/dir", folder("dir"));
+		cache.put("/dir/a", file("a"));
+		cache.put("/dirt", file("dirt"));
+
+		cache.invalidate("/dir", "/");
+		assertNull(cache.lookup("/dir", "/"));
+		assertNull(cache.lookup("/dir/a", "/dir"));
+		assertNotNull(cache.lookup("/dirt", "/"));
+	}
+
+	@Test
+	void parentOfPath() {
+		assertNull(AttributeCache.parentOf("/"));
+		assertEquals("/", AttributeCache.parentOf("/dir"));
+		assertEquals("/dir", AttributeCache.parentOf("/dir/a"));
+	}
+}
@@ -0,0 +1,51 @@
+package com.bhyoo.onedrive.fs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GlobsTest {
+	private static boolean matches(String glob, String path) {
+		return Pattern.matches(Globs.toRegex(glob), path);
+	}
+
+	@Test
+	void starStaysInName() {
+		assertTrue(matches("*.txt", "a.txt"));
+		assertFalse(matches("*.txt", "dir/a.txt"));
+		assertTrue(matches("**.txt", "dir/a.txt"));
+		assertTrue(matches("/docs/**", "/docs/a/b"));
+	}
+
+	@Test
+	void questionAndBracket() {
+		assertTrue(matches("a?c", "abc"));
+		assertFalse(matches("a?c", "a/c"));
+		assertTrue(matches("[a-c]x", "bx"));
+		assertFalse(matches("[!a-c]x", "bx"));
+		assertTrue(matches("[!a-c]x", "dx"));
+		assertFalse(matches("[!a-c]x", "/x"));
+	}
+
+	@Test
+	void groupAndEscape() {
+		assertTrue(matches("*.{java,class}", "A.class"));
+		assertFalse(matches("*.{java,class}", "A.txt"));
+		assertTrue(matches("a\\*b", "a*b"));
+		assertFalse(matches("a\\*b", "axb"));
+		assertTrue(matches("(1).txt", "(1).txt"));
+	}
+
+	@Test
+	void invalidPatterns() {
+		assertThrows(PatternSyntaxException.class, () -> Globs.toRegex("[abc"));
+		assertThrows(PatternSyntaxException.class, () -> Globs.toRegex("{a,{b}}"));
+		assertThrows(PatternSyntaxException.class, () -> Globs.toRegex("{a,b"));
+		assertThrows(PatternSyntaxException.class, () -> Globs.toRegex("a\\"));
+	}
+}
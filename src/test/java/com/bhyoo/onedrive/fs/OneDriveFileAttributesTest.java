@@ -0,0 +1,27 @@
+package com.bhyoo.onedrive.fs;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OneDriveFileAttributesTest {
+	@Test
+	void parseUtcTime() {
+		assertEquals(1502714096000L, OneDriveFileAttributes.parseTime("2017-08-14T12:34:56Z").toMillis());
+		assertEquals(1502714096789L, OneDriveFileAttributes.parseTime("2017-08-14T12:34:56.789Z").toMillis());
+		assertEquals(1502714096700L, OneDriveFileAttributes.parseTime("2017-08-14T12:34:56.7Z").toMillis());
+		assertEquals(1502714096123L, OneDriveFileAttributes.parseTime("2017-08-14T12:34:56.1234567Z").toMillis());
+	}
+
+	@Test
+	void parseTimeWithOffset() {
+		assertEquals(1502714096000L, OneDriveFileAttributes.parseTime("2017-08-14T21:34:56+09:00").toMillis());
+		assertEquals(1502714096000L, OneDriveFileAttributes.parseTime("2017-08-14T07:34:56-05:00").toMillis());
+	}
+
+	@Test
+	void unrecognizableTimeIsEpoch() {
+		assertEquals(0, OneDriveFileAttributes.parseTime(null).toMillis());
+		assertEquals(0, OneDriveFileAttributes.parseTime("yesterday").toMillis());
+	}
+}
@@ -0,0 +1,68 @@
+package com.bhyoo.onedrive.network.async;
+
+import com.bhyoo.onedrive.utils.ByteBufStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncClientHandlerTest {
+	private static final byte[] HALF = {0, 1, 2, 3};
+
+	@Test
+	void connectionLostMidBodyFailsConsumer() throws IOException {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		DefaultResponsePromise promise = new DefaultResponsePromise(channel.eventLoop());
+		channel.pipeline().addLast(new AsyncClientHandler(promise, true));
+
+		HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+		HttpUtil.setContentLength(response, HALF.length * 2);
+		channel.writeInbound(response);
+		channel.writeInbound(new DefaultHttpContent(Unpooled.wrappedBuffer(HALF)));
+
+		assertTrue(promise.isSuccess());
+		ByteBufStream stream = promise.getNow();
+
+		// connection drops before the rest of body
+		channel.close();
+
+		Path file = Files.createTempFile("truncated", null);
+		try (FileChannel target = FileChannel.open(file, WRITE)) {
+			IOException exception = assertThrows(IOException.class, () -> stream.transferTo(target));
+			assertTrue(exception.getCause() instanceof ClosedChannelException);
+			assertFalse(stream.isEnded());
+		}
+		finally {
+			stream.close();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void wholeBodyEndsStream() throws IOException {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		DefaultResponsePromise promise = new DefaultResponsePromise(channel.eventLoop());
+		channel.pipeline().addLast(new AsyncClientHandler(promise, true));
+
+		channel.writeInbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+		channel.writeInbound(new DefaultHttpContent(Unpooled.wrappedBuffer(HALF)));
+		channel.writeInbound(new DefaultLastHttpContent(Unpooled.wrappedBuffer(HALF)));
+		// connection closes after the response, which must not fail the body
+		channel.close();
+
+		ByteBufStream stream = promise.getNow();
+		assertEquals(HALF.length * 2, stream.read(new byte[16]));
+		assertEquals(-1, stream.read());
+		assertTrue(stream.isEnded());
+		stream.close();
+	}
+}
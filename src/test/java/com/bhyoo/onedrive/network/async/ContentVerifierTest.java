@@ -0,0 +1,85 @@
+package com.bhyoo.onedrive.network.async;
+
+import com.bhyoo.onedrive.exceptions.ContentMismatchException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentVerifierTest {
+	private static final String CONTENT = "Hello, World!";
+
+	@Test
+	void verifiesEachHash() throws ContentMismatchException {
+		assertVerified(ContentVerifier.of("SCgDG9jwBhaA4ApvnQMbyBACAAA=", null, null));
+		assertVerified(ContentVerifier.of(null, "0a0a9f2a6772942557ab5355d76af442f8f65e01", null));
+		// little endian
+		assertVerified(ContentVerifier.of(null, null, "D0C34AEC"));
+
+		assertNull(ContentVerifier.of(null, null, null));
+	}
+
+	@Test
+	void mismatch() {
+		DownloadPromise promise = new DefaultDownloadPromise(ImmediateEventExecutor.INSTANCE);
+		ContentVerifier verifier = ContentVerifier.of("scgdg9jwbhaa4apvnqmbybacaaa=", "wrong", "wrong");
+		assertNotNull(verifier);
+		update(verifier, CONTENT);
+
+		ContentMismatchException e = assertThrows(ContentMismatchException.class, () -> verifier.verify(promise));
+		assertEquals("quickXorHash", e.getAlgorithm());
+		assertEquals(DownloadIntegrity.MISMATCH, promise.integrity());
+	}
+
+	@Test
+	void quickXorHashOfParts() throws ContentMismatchException {
+		byte[] content = new byte[1000];
+		new Random(1).nextBytes(content);
+
+		ContentVerifier whole = ContentVerifier.of("", null, null);
+		assertNotNull(whole);
+		whole.update(Unpooled.wrappedBuffer(content));
+
+		ContentVerifier parts = ContentVerifier.of(whole.actual(), null, null);
+		assertNotNull(parts);
+		int offset = 0;
+		for (int length : new int[]{1, 7, 160, 3, 500, 329}) {
+			ByteBuf part = Unpooled.directBuffer(length).writeBytes(content, offset, length);
+			parts.update(part);
+			part.release();
+			offset += length;
+		}
+
+		DownloadPromise promise = new DefaultDownloadPromise(ImmediateEventExecutor.INSTANCE);
+		parts.verify(promise);
+		assertEquals(DownloadIntegrity.VERIFIED, promise.integrity());
+	}
+
+	@Test
+	void quickXorHashOfEmpty() {
+		ContentVerifier verifier = ContentVerifier.of("", null, null);
+		assertNotNull(verifier);
+		assertEquals("AAAAAAAAAAAAAAAAAAAAAAAAAAA=", verifier.actual());
+	}
+
+	private static void assertVerified(ContentVerifier verifier) throws ContentMismatchException {
+		assertNotNull(verifier);
+		update(verifier, CONTENT);
+
+		DownloadPromise promise = new DefaultDownloadPromise(ImmediateEventExecutor.INSTANCE);
+		assertEquals(DownloadIntegrity.UNVERIFIED, promise.integrity());
+		verifier.verify(promise);
+		assertEquals(DownloadIntegrity.VERIFIED, promise.integrity());
+	}
+
+	private static void update(ContentVerifier verifier, String content) {
+		ByteBuf buf = Unpooled.copiedBuffer(content, CharsetUtil.US_ASCII);
+		verifier.update(buf);
+		buf.release();
+	}
+}
@@ -0,0 +1,100 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadCheckpointTest {
+	@Test
+	void mergesRanges() {
+		DownloadCheckpoint checkpoint = new DownloadCheckpoint(Paths.get("file"), "\"tag\"", 100);
+		assertEquals(0, checkpoint.firstMissing());
+
+		checkpoint.add(10, 20);
+		checkpoint.add(30, 40);
+		assertEquals(0, checkpoint.firstMissing());
+		assertRanges(checkpoint.missing(0, 100), 0, 10, 20, 30, 40, 100);
+
+		checkpoint.add(0, 10);
+		assertEquals(20, checkpoint.firstMissing());
+		// overlaps both
+		checkpoint.add(15, 35);
+		assertEquals(40, checkpoint.firstMissing());
+		assertRanges(checkpoint.missing(0, 100), 40, 100);
+		assertRanges(checkpoint.missing(5, 50), 40, 50);
+		assertRanges(checkpoint.missing(0, 40));
+
+		checkpoint.add(40, 100);
+		assertEquals(100, checkpoint.firstMissing());
+		assertThrows(IllegalArgumentException.class, () -> checkpoint.add(90, 101));
+	}
+
+	@Test
+	void saveAndLoad() throws IOException {
+		Path dir = Files.createTempDirectory("checkpoint");
+		Path file = dir.resolve("file");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, "\"tag\"", 100);
+			checkpoint.add(0, 10);
+			checkpoint.add(50, 60);
+			checkpoint.save(channel);
+		}
+
+		DownloadCheckpoint loaded = DownloadCheckpoint.load(file);
+		assertNotNull(loaded);
+		assertTrue(loaded.matches("\"tag\"", 100));
+		assertFalse(loaded.matches("\"other\"", 100));
+		assertFalse(loaded.matches("\"tag\"", 101));
+		assertRanges(loaded.missing(0, 100), 10, 50, 60, 100);
+
+		loaded.delete();
+		assertNull(DownloadCheckpoint.load(file));
+
+		Files.delete(file);
+		Files.delete(dir);
+	}
+
+	@Test
+	void olderSnapshotDoesNotOverwriteNewer() throws IOException {
+		Path dir = Files.createTempDirectory("checkpoint");
+		Path file = dir.resolve("file");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, "\"tag\"", 100);
+			checkpoint.add(0, 10);
+			DownloadCheckpoint.Snapshot older = checkpoint.snapshot();
+			checkpoint.add(10, 20);
+			DownloadCheckpoint.Snapshot newer = checkpoint.snapshot();
+
+			// saves could finish out of order on blocking executor
+			checkpoint.save(newer, channel);
+			checkpoint.save(older, channel);
+			assertEquals(20, DownloadCheckpoint.load(file).firstMissing());
+
+			// finished download must not leave checkpoint behind
+			checkpoint.add(20, 30);
+			DownloadCheckpoint.Snapshot late = checkpoint.snapshot();
+			checkpoint.delete();
+			checkpoint.save(late, channel);
+			assertNull(DownloadCheckpoint.load(file));
+		}
+
+		Files.delete(file);
+		Files.delete(dir);
+	}
+
+	private static void assertRanges(List<long[]> ranges, long... expected) {
+		assertEquals(expected.length / 2, ranges.size());
+		for (int i = 0; i < ranges.size(); i++) {
+			assertEquals(expected[i * 2], ranges.get(i)[0]);
+			assertEquals(expected[i * 2 + 1], ranges.get(i)[1]);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgePolicyTest {
+	@Test
+	void delayIsPercentileOfLatencies() {
+		HedgePolicy policy = new HedgePolicy().setPercentile(0.9).setMinDelayMillis(0).setInitialDelayMillis(777);
+		assertEquals(777, policy.delayMillis());
+
+		for (int i = 1; i <= 100; i++) policy.record(i);
+		assertEquals(90, policy.delayMillis());
+
+		policy.setMinDelayMillis(200);
+		assertEquals(200, policy.delayMillis());
+	}
+
+	@Test
+	void budgetLimitsHedges() {
+		HedgePolicy policy = new HedgePolicy().setBudgetRatio(0.1);
+
+		int hedges = 0;
+		for (int i = 0; i < 1000; i++) {
+			policy.onRequest();
+			if (policy.tryHedge()) hedges++;
+		}
+		assertEquals(100, hedges, 1);
+
+		policy.setBudgetRatio(0);
+		for (int i = 0; i < 100; i++) policy.onRequest();
+		assertFalse(policy.tryHedge());
+	}
+
+	@Test
+	void wrongArguments() {
+		HedgePolicy policy = new HedgePolicy();
+		assertThrows(IllegalArgumentException.class, () -> policy.setPercentile(1));
+		assertThrows(IllegalArgumentException.class, () -> policy.setBudgetRatio(-0.1));
+	}
+}
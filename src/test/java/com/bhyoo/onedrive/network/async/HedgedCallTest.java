@@ -0,0 +1,69 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedCallTest {
+	private final EventExecutor executor = new DefaultEventExecutor();
+	private final List<Promise<String>> copies = new ArrayList<>();
+
+	@AfterEach
+	void shutdown() {
+		executor.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	private Promise<String> call(HedgePolicy policy) {
+		Promise<String> result = executor.newPromise();
+		new HedgedCall<String>(policy, executor, result) {
+			@Override protected @NotNull Future<String> send() {
+				Promise<String> copy = executor.newPromise();
+				synchronized (copies) {
+					copies.add(copy);
+				}
+				return copy;
+			}
+		}.start();
+		return result;
+	}
+
+	@Test
+	void hedgeWinsAndPrimaryIsCancelled() throws Exception {
+		HedgePolicy policy = new HedgePolicy().setBudgetRatio(1).setInitialDelayMillis(10);
+		Promise<String> result = call(policy);
+
+		Thread.sleep(200);
+		synchronized (copies) {
+			assertEquals(2, copies.size());
+			copies.get(1).setSuccess("hedge");
+		}
+
+		assertEquals("hedge", result.get());
+		// listener of result cancels the loser after waiters wake up
+		assertTrue(copies.get(0).await(1000));
+		assertTrue(copies.get(0).isCancelled());
+	}
+
+	@Test
+	void noHedgeWithoutBudget() throws Exception {
+		HedgePolicy policy = new HedgePolicy().setBudgetRatio(0.5).setInitialDelayMillis(10);
+		Promise<String> result = call(policy);
+
+		Thread.sleep(200);
+		synchronized (copies) {
+			assertEquals(1, copies.size());
+			copies.get(0).setSuccess("primary");
+		}
+		assertEquals("primary", result.get());
+	}
+}
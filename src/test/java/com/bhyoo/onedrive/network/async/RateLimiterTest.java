@@ -0,0 +1,61 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static com.bhyoo.onedrive.network.async.EndpointClass.*;
+import static io.netty.handler.codec.http.HttpMethod.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+	@Test
+	void unlimitedByDefault() {
+		RateLimiter limiter = new RateLimiter();
+
+		for (int i = 0; i < 10_000; i++) {
+			assertEquals(0, limiter.bucket(METADATA).reserveNanos(1));
+		}
+		assertEquals(0, limiter.bucket(SEARCH).getPermitsPerSecond());
+	}
+
+	@Test
+	void burstThenWait() {
+		RateLimiter limiter = new RateLimiter().setRate(SEARCH, 10, 3);
+		RateLimiter.Bucket bucket = limiter.bucket(SEARCH);
+
+		assertEquals(0, bucket.reserveNanos(1));
+		assertEquals(0, bucket.reserveNanos(1));
+		assertEquals(0, bucket.reserveNanos(1));
+
+		// each waiting permit reserves next 100ms slot
+		long first = bucket.reserveNanos(1);
+		long second = bucket.reserveNanos(1);
+		assertTrue(first > 0 && first <= TimeUnit.MILLISECONDS.toNanos(100), "first wait : " + first);
+		assertTrue(second - first >= TimeUnit.MILLISECONDS.toNanos(99), "second wait : " + second);
+		assertTrue(bucket.getAvailablePermits() < 0);
+
+		// other classes are not affected
+		assertEquals(0, limiter.bucket(METADATA).reserveNanos(1));
+	}
+
+	@Test
+	void rejectsWrongRate() {
+		final RateLimiter limiter = new RateLimiter();
+		assertThrows(IllegalArgumentException.class, () -> limiter.setRate(UPLOAD, -1, 1));
+		assertThrows(IllegalArgumentException.class, () -> limiter.setRate(UPLOAD, 1, 0.5));
+	}
+
+	@Test
+	void classify() {
+		String base = "https://graph.microsoft.com/v1.0";
+
+		assertEquals(METADATA, of(GET, URI.create(base + "/me/drive/items/ABC")));
+		assertEquals(METADATA, of(POST, URI.create(base + "/$batch")));
+		assertEquals(SEARCH, of(GET, URI.create(base + "/me/drive/root/search(q='cat')")));
+		assertEquals(DOWNLOAD, of(GET, URI.create(base + "/me/drive/items/ABC/content")));
+		assertEquals(UPLOAD, of(PUT, URI.create(base + "/me/drive/root:/a.txt:/content")));
+		assertEquals(METADATA, of(POST, URI.create(base + "/me/drive/root:/a.txt:/createUploadSession")));
+	}
+}
@@ -0,0 +1,47 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelocatingHandlerTest {
+	private static EmbeddedChannel channelOf(AtomicInteger relocations) {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		channel.pipeline().addLast(ConnectionPool.HANDLER_NAME,
+				new RelocatingHandler(new HttpObjectAggregator(1024), relocations::incrementAndGet));
+		return channel;
+	}
+
+	@Test
+	void rejectedLocationIsRelocated() {
+		AtomicInteger relocations = new AtomicInteger();
+		EmbeddedChannel channel = channelOf(relocations);
+
+		channel.writeInbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.FORBIDDEN));
+
+		assertEquals(1, relocations.get());
+		assertNull(channel.readInbound());
+		// body of rejected response is not read, so the connection is not reused
+		assertFalse(channel.isOpen());
+	}
+
+	@Test
+	void acceptedLocationGoesToHandler() {
+		AtomicInteger relocations = new AtomicInteger();
+		EmbeddedChannel channel = channelOf(relocations);
+
+		channel.writeInbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+		channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+
+		assertEquals(0, relocations.get());
+		assertTrue(channel.pipeline().get(ConnectionPool.HANDLER_NAME) instanceof HttpObjectAggregator);
+		FullHttpResponse response = channel.readInbound();
+		assertEquals(HttpResponseStatus.OK, response.status());
+		response.release();
+		channel.finishAndReleaseAll();
+	}
+}
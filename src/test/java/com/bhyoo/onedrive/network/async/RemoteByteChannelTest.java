@@ -0,0 +1,129 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.util.concurrent.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RemoteByteChannelTest {
+	@Test
+	void readAheadGrowsOnSequentialBlocks() {
+		RemoteByteChannel.ReadAhead readAhead = new RemoteByteChannel.ReadAhead();
+
+		// the first read could be anywhere, so it does not read ahead
+		assertEquals(0, readAhead.next(0, 0, 8));
+		assertEquals(1, readAhead.next(1, 1, 8));
+		assertEquals(2, readAhead.next(2, 3, 8));
+		assertEquals(4, readAhead.next(4, 4, 8));
+		assertEquals(8, readAhead.next(5, 5, 8));
+		assertEquals(8, readAhead.next(6, 6, 8));
+	}
+
+	@Test
+	void readInSameBlockKeepsReadAhead() {
+		RemoteByteChannel.ReadAhead readAhead = new RemoteByteChannel.ReadAhead();
+
+		readAhead.next(0, 0, 8);
+		assertEquals(1, readAhead.next(1, 1, 8));
+		assertEquals(1, readAhead.next(1, 1, 8));
+		assertEquals(2, readAhead.next(2, 2, 8));
+	}
+
+	@Test
+	void seekStopsReadAhead() {
+		RemoteByteChannel.ReadAhead readAhead = new RemoteByteChannel.ReadAhead();
+
+		readAhead.next(0, 0, 8);
+		readAhead.next(1, 1, 8);
+		assertEquals(2, readAhead.next(2, 2, 8));
+		assertEquals(0, readAhead.next(100, 100, 8));
+		assertEquals(0, readAhead.next(3, 3, 8));
+		assertEquals(1, readAhead.next(4, 4, 8));
+	}
+
+	@Test
+	void readAheadIsDisabledByZero() {
+		RemoteByteChannel.ReadAhead readAhead = new RemoteByteChannel.ReadAhead();
+
+		readAhead.next(0, 0, 0);
+		assertEquals(0, readAhead.next(1, 1, 0));
+		assertEquals(0, readAhead.next(2, 2, 0));
+	}
+
+	@Test
+	void readWithoutCacheFetchesEachRangeOnce() throws IOException {
+		final byte[] content = new byte[8 * 16];
+		for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+
+		NioEventLoopGroup group = new NioEventLoopGroup(1);
+		try {
+			RangeServer pool = new RangeServer(group, content);
+			RemoteByteChannel channel =
+					new AsyncDownloadClient(pool, "token", URI.create("https://graph.microsoft.com/v1.0/content"))
+							.setLocation(new URL("https://example.com/content"))
+							.openChannel(content.length, 16)
+							.setCacheBlocks(0);
+
+			ByteBuffer buffer = ByteBuffer.allocate(content.length);
+			assertEquals(content.length, channel.read(buffer));
+			assertEquals(ByteBuffer.wrap(content), buffer.flip());
+			// every block of the read comes from one coalesced request, even though none of them is cached
+			assertEquals(1, pool.requests.get());
+
+			channel.position(20);
+			buffer = ByteBuffer.allocate(30);
+			assertEquals(30, channel.read(buffer));
+			assertEquals(ByteBuffer.wrap(content, 20, 30), buffer.flip());
+			assertEquals(2, pool.requests.get());
+
+			channel.close();
+		}
+		finally {
+			group.shutdownGracefully();
+		}
+	}
+
+	/**
+	 * Answers range requests from {@code content} on embedded channel, instead of connecting.
+	 */
+	private static final class RangeServer extends ConnectionPool {
+		private final byte[] content;
+		final AtomicInteger requests = new AtomicInteger();
+
+		RangeServer(NioEventLoopGroup group, byte[] content) {
+			super(group, NioSocketChannel.class);
+			this.content = content;
+		}
+
+		@Override public void send(@NotNull URI uri, @NotNull HttpRequest request, @NotNull ChannelHandler handler,
+								   @NotNull Promise<?> promise, @NotNull RequestOptions options) {
+			requests.incrementAndGet();
+
+			String[] range = request.headers().get(HttpHeaderNames.RANGE).substring("bytes=".length()).split("-");
+			int first = Integer.parseInt(range[0]), last = Integer.parseInt(range[1]);
+
+			HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.PARTIAL_CONTENT);
+			response.headers().set(HttpHeaderNames.CONTENT_RANGE,
+					"bytes " + first + '-' + last + '/' + content.length);
+
+			EmbeddedChannel channel = new EmbeddedChannel(handler);
+			channel.writeInbound(response);
+			channel.writeInbound(new DefaultLastHttpContent(
+					Unpooled.wrappedBuffer(content, first, last - first + 1)));
+			channel.finishAndReleaseAll();
+		}
+	}
+}
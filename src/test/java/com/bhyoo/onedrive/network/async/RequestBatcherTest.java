@@ -0,0 +1,176 @@
+package com.bhyoo.onedrive.network.async;
+
+import com.bhyoo.onedrive.client.Client;
+import com.bhyoo.onedrive.client.RequestTool;
+import com.bhyoo.onedrive.client.Transport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestBatcherTest {
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	void throttledRequestInBatchIsSentAgain() throws IOException {
+		Transport transport = new Transport();
+		try {
+			Client client = new Client("id", new String[]{"Files.Read"}, "http://localhost", "secret", false,
+					transport);
+			FakeGraph graph = new FakeGraph(transport.getGroup(), "/items/7");
+			RequestBatcher batcher = new RequestBatcher(client.requestTool(), graph) {
+				@Override @NotNull String authorization() {
+					return "bearer token";
+				}
+			}.setWindowMillis(200);
+
+			List<ResponseFuture> futures = new ArrayList<>();
+			for (int i = 0; i < RequestBatcher.MAX_BATCH_SIZE; i++) {
+				futures.add(batcher.enqueue(GET, "/items/" + i, null));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				if (i == 7) continue;
+				ResponseFuture future = futures.get(i).syncUninterruptibly();
+				assertEquals(200, future.response().status().code());
+				future.getNow().close();
+			}
+			// throttled one holds the host for its Retry-After, only for the client
+			InetSocketAddress host = ConnectionPool.addressOf(RequestTool.api2Uri("/$batch"));
+			assertTrue(graph.throttleState().remainingMillis(client, host) > 0);
+			assertEquals(0, graph.throttleState().remainingMillis(null, host));
+			assertFalse(futures.get(7).isDone());
+
+			// it is put back to a later window, and sent after Retry-After
+			ResponseFuture throttled = futures.get(7).syncUninterruptibly();
+			assertEquals(200, throttled.response().status().code());
+			JsonNode body = mapper.readTree(throttled.getNow());
+			assertEquals("/items/7", body.get("url").asText());
+			throttled.getNow().close();
+
+			assertEquals(1, graph.batches.get());
+			assertEquals(1, graph.singles.get());
+		}
+		finally {
+			transport.close();
+		}
+	}
+
+	@Test
+	void cancelledRequestIsNotSent() throws IOException {
+		Transport transport = new Transport();
+		try {
+			Client client = new Client("id", new String[]{"Files.Read"}, "http://localhost", "secret", false,
+					transport);
+			FakeGraph graph = new FakeGraph(transport.getGroup(), "");
+			RequestBatcher batcher = new RequestBatcher(client.requestTool(), graph) {
+				@Override @NotNull String authorization() {
+					return "bearer token";
+				}
+			}.setWindowMillis(10_000);
+
+			List<ResponseFuture> futures = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				futures.add(batcher.enqueue(GET, "/items/" + i, null));
+			}
+			assertTrue(futures.get(1).cancel(false));
+			batcher.flush();
+
+			for (int i : new int[]{0, 2}) {
+				ResponseFuture future = futures.get(i).syncUninterruptibly();
+				assertEquals(200, future.response().status().code());
+				future.getNow().close();
+			}
+			assertEquals(1, graph.batches.get());
+			assertEquals(2, graph.urls.size());
+			assertFalse(graph.urls.contains("/items/1"));
+		}
+		finally {
+			transport.close();
+		}
+	}
+
+	/**
+	 * Answers batch and single requests on embedded channel. {@code throttled} is throttled once in batch.
+	 */
+	private static final class FakeGraph extends ConnectionPool {
+		private final String throttled;
+		final AtomicInteger batches = new AtomicInteger();
+		final AtomicInteger singles = new AtomicInteger();
+		final List<String> urls = new CopyOnWriteArrayList<>();
+
+		FakeGraph(EventLoopGroup group, String throttled) {
+			super(group, NioSocketChannel.class);
+			this.throttled = throttled;
+		}
+
+		@Override public void send(@NotNull URI uri, @NotNull HttpRequest request, @NotNull ChannelHandler handler,
+								   @NotNull Promise<?> promise, @NotNull RequestOptions options) {
+			try {
+				ObjectNode body;
+				if (uri.getPath().endsWith("/$batch")) {
+					batches.incrementAndGet();
+					body = batchResponse(((FullHttpRequest) request).content().toString(StandardCharsets.UTF_8));
+				}
+				else {
+					singles.incrementAndGet();
+					body = mapper.createObjectNode().put("url", uri.getPath().replace("/v1.0", ""));
+				}
+
+				FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+						Unpooled.wrappedBuffer(mapper.writeValueAsBytes(body)));
+				EmbeddedChannel channel = new EmbeddedChannel(handler);
+				channel.writeInbound(response);
+				channel.finishAndReleaseAll();
+			}
+			catch (IOException e) {
+				promise.tryFailure(e);
+			}
+			finally {
+				ReferenceCountUtil.release(request);
+			}
+		}
+
+		private ObjectNode batchResponse(String batch) throws IOException {
+			ObjectNode result = mapper.createObjectNode();
+			ArrayNode responses = result.putArray("responses");
+
+			for (JsonNode request : mapper.readTree(batch).get("requests")) {
+				String url = request.get("url").asText();
+				urls.add(url);
+				ObjectNode response = responses.addObject().put("id", request.get("id").asText());
+				if (url.equals(throttled)) {
+					response.put("status", 429);
+					response.putObject("headers").put("Retry-After", "1");
+				}
+				else {
+					response.put("status", 200);
+					response.putObject("body").put("url", url);
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.bhyoo.onedrive.network.async.RequestPriority.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestSchedulerTest {
+	private final List<String> started = new ArrayList<>();
+	private final Map<String, Promise<Void>> promises = new HashMap<>();
+
+	private Promise<Void> submit(RequestScheduler scheduler, String host, RequestPriority priority, Object owner,
+								 String name) {
+		Promise<Void> promise = new DefaultPromise<>(ImmediateEventExecutor.INSTANCE);
+		promises.put(name, promise);
+		scheduler.submit(host, priority, owner, promise, () -> started.add(name));
+		return promise;
+	}
+
+	@Test
+	void globalAndPerHostLimit() {
+		RequestScheduler scheduler = new RequestScheduler(3, 2);
+
+		Promise<Void> a1 = submit(scheduler, "a", INTERACTIVE, null, "a1");
+		submit(scheduler, "a", INTERACTIVE, null, "a2");
+		submit(scheduler, "a", INTERACTIVE, null, "a3");
+		submit(scheduler, "b", INTERACTIVE, null, "b1");
+		submit(scheduler, "b", INTERACTIVE, null, "b2");
+
+		// host `a` is full, but it does not block `b`
+		assertEquals(Arrays.asList("a1", "a2", "b1"), started);
+		assertEquals(3, scheduler.getInFlight());
+		assertEquals(2, scheduler.getInFlight("a"));
+		assertEquals(2, scheduler.getQueued());
+
+		a1.setSuccess(null);
+		assertEquals(Arrays.asList("a1", "a2", "b1", "a3"), started);
+		assertEquals(1, scheduler.getQueued());
+	}
+
+	@Test
+	void higherPriorityFirst() {
+		RequestScheduler scheduler = new RequestScheduler(1, 1);
+
+		Promise<Void> first = submit(scheduler, "h", INTERACTIVE, null, "first");
+		submit(scheduler, "h", BULK, null, "bulk");
+		submit(scheduler, "h", BACKGROUND, null, "background");
+		submit(scheduler, "h", INTERACTIVE, null, "interactive");
+
+		first.setSuccess(null);
+		assertEquals(Arrays.asList("first", "interactive"), started);
+	}
+
+	@Test
+	void ownersTakeTurns() {
+		RequestScheduler scheduler = new RequestScheduler(1, 1);
+		Object crawler = new Object();
+		Object user = new Object();
+
+		for (int i = 0; i <= 3; i++) submit(scheduler, "h", BACKGROUND, crawler, "c" + i);
+		for (int i = 1; i <= 2; i++) submit(scheduler, "h", BACKGROUND, user, "u" + i);
+
+		// complete whatever is running, one by one
+		for (int i = 0; i < 5; i++) promises.get(started.get(started.size() - 1)).setSuccess(null);
+
+		assertEquals(Arrays.asList("c0", "c1", "u1", "c2", "u2", "c3"), started);
+	}
+
+	@Test
+	void cancelledWhileQueuedIsDropped() {
+		RequestScheduler scheduler = new RequestScheduler(1, 1);
+
+		Promise<Void> first = submit(scheduler, "h", INTERACTIVE, null, "first");
+		Promise<Void> cancelled = submit(scheduler, "h", INTERACTIVE, null, "cancelled");
+		submit(scheduler, "h", INTERACTIVE, null, "last");
+
+		cancelled.cancel(false);
+		first.setSuccess(null);
+
+		assertEquals(Arrays.asList("first", "last"), started);
+		assertEquals(1, scheduler.getInFlight());
+		assertEquals(0, scheduler.getQueued());
+	}
+}
@@ -0,0 +1,81 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.handler.codec.DateFormatter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Date;
+
+import static io.netty.handler.codec.http.HttpMethod.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+	@Test
+	void retryAfter() {
+		long now = 1_500_000_000_000L;
+
+		assertEquals(-1, RetryPolicy.parseRetryAfter(null, now));
+		assertEquals(-1, RetryPolicy.parseRetryAfter(" ", now));
+		assertEquals(-1, RetryPolicy.parseRetryAfter("soon", now));
+		assertEquals(-1, RetryPolicy.parseRetryAfter("-3", now));
+		assertEquals(0, RetryPolicy.parseRetryAfter("0", now));
+		assertEquals(120_000, RetryPolicy.parseRetryAfter(" 120 ", now));
+
+		String date = DateFormatter.format(new Date(now + 30_000));
+		assertEquals(30_000, RetryPolicy.parseRetryAfter(date, now));
+		// date in the past means retry right now
+		assertEquals(0, RetryPolicy.parseRetryAfter(date, now + 60_000));
+	}
+
+	@Test
+	void retryAfterWins() {
+		RetryPolicy policy = new RetryPolicy();
+		assertEquals(7_000, policy.delayMillis(1, "7"));
+		assertEquals(7_000, policy.delayMillis(4, "7"));
+	}
+
+	@Test
+	void backoffIsBounded() {
+		RetryPolicy policy = new RetryPolicy().setBaseDelayMillis(100).setMaxDelayMillis(1_000);
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(policy.delayMillis(1, null) <= 100);
+			assertTrue(policy.delayMillis(3, null) <= 400);
+			assertTrue(policy.delayMillis(10, null) <= 1_000);
+			assertTrue(policy.delayMillis(100, null) >= 0);
+		}
+
+		assertEquals(0, new RetryPolicy().setBaseDelayMillis(0).delayMillis(3, null));
+	}
+
+	@Test
+	void throttledResponses() {
+		RetryPolicy policy = new RetryPolicy().setMaxAttempts(3);
+
+		assertTrue(policy.shouldRetry(POST, 429, 1));
+		assertTrue(policy.shouldRetry(PATCH, 503, 2));
+		assertFalse(policy.shouldRetry(GET, 429, 3));
+
+		assertTrue(policy.shouldRetry(GET, 504, 1));
+		assertFalse(policy.shouldRetry(POST, 502, 1));
+		assertFalse(policy.shouldRetry(GET, 404, 1));
+		assertFalse(policy.shouldRetry(GET, 500, 1));
+
+		assertFalse(RetryPolicy.none().shouldRetry(GET, 429, 1));
+	}
+
+	@Test
+	void failures() {
+		RetryPolicy policy = new RetryPolicy();
+		IOException reset = new IOException("Connection reset by peer");
+
+		assertTrue(policy.shouldRetry(POST, reset, false, 1));
+		assertFalse(policy.shouldRetry(POST, reset, true, 1));
+		assertTrue(policy.shouldRetry(DELETE, reset, true, 1));
+		assertFalse(policy.shouldRetry(GET, new IllegalStateException(), false, 1));
+
+		policy.setIdempotent(POST, true).setIdempotent(DELETE, false);
+		assertTrue(policy.shouldRetry(POST, reset, true, 1));
+		assertFalse(policy.shouldRetry(DELETE, reset, true, 1));
+	}
+}
@@ -0,0 +1,271 @@
+package com.bhyoo.onedrive.network.async;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.util.concurrent.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedDownloadTest {
+	private static final String NAME = "file.bin";
+	private static final String ETAG = "\"v1\"";
+	private static final URI LOCATION = URI.create("https://example.com/content");
+
+	private NioEventLoopGroup group;
+	private Path dir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		group = new NioEventLoopGroup(2);
+		dir = Files.createTempDirectory("segmented");
+	}
+
+	@AfterEach
+	void tearDown() {
+		group.shutdownGracefully();
+	}
+
+	@Test
+	void contentRange() throws IOException {
+		assertEquals(1234, SegmentedDownload.totalOf("bytes 0-99/1234"));
+		assertEquals(0, SegmentedDownload.totalOf("bytes */0"));
+		assertEquals(-1, SegmentedDownload.totalOf("bytes 0-99/*"));
+		assertEquals(-1, SegmentedDownload.totalOf(null));
+		assertThrows(IOException.class, () -> SegmentedDownload.totalOf("bytes 0-99/lots"));
+
+		assertEquals(0, SegmentedDownload.firstOf("bytes 0-99/1234"));
+		assertEquals(8_388_608, SegmentedDownload.firstOf("bytes 8388608-16777215/50000000"));
+		assertEquals(-1, SegmentedDownload.firstOf("bytes */0"));
+		assertEquals(-1, SegmentedDownload.firstOf(null));
+	}
+
+	@Test
+	void splitsIntoRangesAndWritesThemInPlace() throws Exception {
+		byte[] content = content((int) (3 * SegmentedDownload.SEGMENT_SIZE_MIN + 12345));
+		RangeServer pool = new RangeServer(group, content, true);
+
+		DownloadPromise promise = download(pool, 4, false);
+		assertTrue(promise.isSuccess(), String.valueOf(promise.cause()));
+
+		long rest = content.length - SegmentedDownload.SEGMENT_SIZE_MIN;
+		assertEquals("bytes=0-" + (SegmentedDownload.SEGMENT_SIZE_MIN - 1), pool.ranges.get(0));
+		// the first range tells the size, and rest of content is split in two ranges of similar size
+		assertEquals(3, pool.ranges.size());
+		assertTrue(pool.ranges.contains(
+				"bytes=" + SegmentedDownload.SEGMENT_SIZE_MIN + '-' +
+						(SegmentedDownload.SEGMENT_SIZE_MIN + (rest + 1) / 2 - 1)));
+		assertArrayEquals(content, Files.readAllBytes(dir.resolve(NAME)));
+		assertEquals(content.length, promise.progress().getBytesDone());
+	}
+
+	@Test
+	void wholeContentIfRangeIsIgnored() throws Exception {
+		byte[] content = content((int) (2 * SegmentedDownload.SEGMENT_SIZE_MIN + 100));
+		RangeServer pool = new RangeServer(group, content, false);
+
+		DownloadPromise promise = download(pool, 4, false);
+		assertTrue(promise.isSuccess(), String.valueOf(promise.cause()));
+
+		// whole content is in the first response, so nothing else is requested
+		assertEquals(1, pool.ranges.size());
+		assertArrayEquals(content, Files.readAllBytes(dir.resolve(NAME)));
+	}
+
+	@Test
+	void emptyContent() throws Exception {
+		RangeServer pool = new RangeServer(group, new byte[0], true);
+
+		DownloadPromise promise = download(pool, 4, false);
+		assertTrue(promise.isSuccess(), String.valueOf(promise.cause()));
+
+		assertEquals(1, pool.ranges.size());
+		assertEquals(0, Files.size(dir.resolve(NAME)));
+	}
+
+	@Test
+	void resumesFromCheckpoint() throws Exception {
+		byte[] content = content(1000);
+		Path file = dir.resolve(NAME);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(content, 0, 400));
+			DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, ETAG, content.length);
+			checkpoint.add(0, 400);
+			checkpoint.save(channel);
+		}
+		RangeServer pool = new RangeServer(group, content, true);
+
+		DownloadPromise promise = download(pool, 1, true);
+		assertTrue(promise.isSuccess(), String.valueOf(promise.cause()));
+
+		// only bytes that are not in checkpoint are requested, and only if remote content is the same
+		assertEquals(1, pool.ranges.size());
+		assertEquals("bytes=400-", pool.ranges.get(0));
+		assertEquals(ETAG, pool.ifRanges.get(0));
+		assertArrayEquals(content, Files.readAllBytes(file));
+		assertNull(DownloadCheckpoint.load(file));
+	}
+
+	@Test
+	void startsOverIfPartialFileIsGone() throws Exception {
+		byte[] content = content(1000);
+		Path file = dir.resolve(NAME);
+		RangeServer pool = new RangeServer(group, content, true);
+
+		// the first run leaves checkpoint of the first 400 bytes
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(content), 0);
+			channel.truncate(content.length);
+			DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, ETAG, content.length);
+			checkpoint.add(0, 400);
+			checkpoint.save(channel);
+		}
+		Files.delete(file);
+
+		DownloadPromise promise = download(pool, 1, true);
+		assertTrue(promise.isSuccess(), String.valueOf(promise.cause()));
+		assertEquals("bytes=0-", pool.ranges.get(0));
+		assertArrayEquals(content, Files.readAllBytes(file));
+
+		// truncated file is not trusted either
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, ETAG, content.length);
+			checkpoint.add(0, 400);
+			checkpoint.save(channel);
+			channel.truncate(100);
+		}
+
+		promise = download(pool, 1, true);
+		assertTrue(promise.isSuccess(), String.valueOf(promise.cause()));
+		assertEquals("bytes=0-", pool.ranges.get(1));
+		assertArrayEquals(content, Files.readAllBytes(file));
+		assertNull(DownloadCheckpoint.load(file));
+	}
+
+	private @NotNull DownloadPromise download(@NotNull RangeServer pool, int segments, boolean resumable)
+			throws InterruptedException {
+		DownloadPromise promise = new DefaultDownloadPromise(group.next()).setPath(dir);
+		new SegmentedDownload(pool, promise, LOCATION, NAME, segments, resumable, new RequestOptions(), null)
+				.start();
+		assertTrue(promise.await(30, TimeUnit.SECONDS));
+		return promise;
+	}
+
+	private static byte[] content(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+
+	/**
+	 * Answers range requests from {@code content} through local channel, instead of connecting.
+	 */
+	private static final class RangeServer extends ConnectionPool {
+		private final LocalAddress address = new LocalAddress("segmented-" + System.nanoTime());
+		private final byte[] content;
+		private final boolean supportsRange;
+		final List<String> ranges = new CopyOnWriteArrayList<>();
+		final List<String> ifRanges = new CopyOnWriteArrayList<>();
+
+		RangeServer(NioEventLoopGroup group, byte[] content, boolean supportsRange) throws InterruptedException {
+			super(group, NioSocketChannel.class);
+			this.content = content;
+			this.supportsRange = supportsRange;
+
+			new ServerBootstrap()
+					.group(group)
+					.channel(LocalServerChannel.class)
+					.childHandler(new ChannelInitializer<LocalChannel>() {
+						@Override protected void initChannel(LocalChannel ch) {
+							ch.pipeline().addLast(new HttpServerCodec(), new HttpObjectAggregator(1024),
+									new SimpleChannelInboundHandler<FullHttpRequest>() {
+										@Override protected void channelRead0(ChannelHandlerContext ctx,
+																			  FullHttpRequest request) {
+											ctx.writeAndFlush(answer(request));
+										}
+									});
+						}
+					})
+					.bind(address)
+					.sync();
+		}
+
+		private @NotNull FullHttpResponse answer(@NotNull FullHttpRequest request) {
+			String range = request.headers().get(HttpHeaderNames.RANGE);
+			String ifRange = request.headers().get(HttpHeaderNames.IF_RANGE);
+			ranges.add(range);
+			if (ifRange != null) ifRanges.add(ifRange);
+
+			FullHttpResponse response;
+			if (!supportsRange || range == null || (ifRange != null && !ETAG.equals(ifRange))) {
+				response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+						Unpooled.wrappedBuffer(content));
+			}
+			else if (content.length == 0) {
+				response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+						HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+				response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */0");
+			}
+			else {
+				String[] bounds = range.substring("bytes=".length()).split("-", -1);
+				int first = Integer.parseInt(bounds[0]);
+				int last = bounds[1].isEmpty() ? content.length - 1 :
+						Math.min(content.length - 1, Integer.parseInt(bounds[1]));
+
+				response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.PARTIAL_CONTENT,
+						Unpooled.wrappedBuffer(content, first, last - first + 1));
+				response.headers().set(HttpHeaderNames.CONTENT_RANGE,
+						"bytes " + first + '-' + last + '/' + content.length);
+			}
+
+			response.headers()
+					.set(HttpHeaderNames.ETAG, ETAG)
+					.setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+			return response;
+		}
+
+		@Override public void send(@NotNull URI uri, @NotNull final HttpRequest request,
+								   @NotNull final ChannelHandler handler, @NotNull final Promise<?> promise,
+								   @NotNull RequestOptions options) {
+			new Bootstrap()
+					.group(getGroup())
+					.channel(LocalChannel.class)
+					.handler(new ChannelInitializer<LocalChannel>() {
+						@Override protected void initChannel(LocalChannel ch) {
+							ch.pipeline().addLast(new HttpClientCodec(), handler);
+						}
+					})
+					.connect(address)
+					.addListener(new ChannelFutureListener() {
+						@Override public void operationComplete(ChannelFuture future) {
+							if (future.isSuccess()) future.channel().writeAndFlush(request);
+							else promise.tryFailure(future.cause());
+						}
+					});
+		}
+	}
+}
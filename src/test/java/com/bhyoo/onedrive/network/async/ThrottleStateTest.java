@@ -0,0 +1,35 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThrottleStateTest {
+	private static final InetSocketAddress HOST = InetSocketAddress.createUnresolved("graph.microsoft.com", 443);
+	private static final InetSocketAddress OTHER_HOST = InetSocketAddress.createUnresolved("api.onedrive.com", 443);
+
+	@Test
+	void throttleIsKeptPerOwnerAndHost() {
+		ThrottleState state = new ThrottleState();
+		Object account = new Object(), otherAccount = new Object();
+
+		state.throttle(account, HOST, 10_000);
+
+		assertTrue(state.remainingMillis(account, HOST) > 0);
+		assertEquals(0, state.remainingMillis(otherAccount, HOST));
+		assertEquals(0, state.remainingMillis(null, HOST));
+		assertEquals(0, state.remainingMillis(account, OTHER_HOST));
+	}
+
+	@Test
+	void shorterDelayDoesNotShortenThrottle() {
+		ThrottleState state = new ThrottleState();
+
+		state.throttle(null, HOST, 10_000);
+		state.throttle(null, HOST, 1);
+
+		assertTrue(state.remainingMillis(null, HOST) > 1_000);
+	}
+}
@@ -0,0 +1,77 @@
+package com.bhyoo.onedrive.network.async;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferProgressTest {
+	@Test
+	void throttlesNotifications() {
+		TransferProgress progress = new TransferProgress().setIntervalMillis(60_000);
+		AtomicInteger notified = new AtomicInteger();
+		progress.addListener(p -> notified.incrementAndGet());
+
+		progress.setTotalBytes(300);
+		progress.add(100);
+		progress.add(100);
+		assertEquals(200, progress.getBytesDone());
+		assertEquals(300, progress.getTotalBytes());
+		assertEquals(0, notified.get());
+
+		progress.complete();
+		progress.complete();
+		assertTrue(progress.isCompleted());
+		assertEquals(1, notified.get());
+	}
+
+	@Test
+	void notifiesEveryChunkWithoutInterval() throws InterruptedException {
+		TransferProgress progress = new TransferProgress().setIntervalMillis(0);
+		AtomicInteger notified = new AtomicInteger();
+		progress.addListener(p -> notified.incrementAndGet());
+		assertEquals(-1, progress.getTotalBytes());
+		assertEquals(0, progress.getAverageRate());
+
+		progress.add(10);
+		Thread.sleep(5);
+		progress.add(1000);
+		assertTrue(notified.get() >= 1);
+		assertTrue(progress.getInstantRate() > 0);
+		assertTrue(progress.getAverageRate() > 0);
+	}
+
+	@Test
+	void nothingIsNotifiedAfterComplete() throws InterruptedException {
+		TransferProgress progress = new TransferProgress().setIntervalMillis(0);
+		AtomicInteger afterComplete = new AtomicInteger();
+		AtomicInteger completed = new AtomicInteger();
+		progress.addListener(p -> {
+			if (completed.get() > 0) afterComplete.incrementAndGet();
+			if (p.isCompleted()) completed.incrementAndGet();
+		});
+
+		Thread adder = new Thread(() -> {
+			for (int i = 0; i < 100_000; i++) progress.add(1);
+		});
+		adder.start();
+		progress.complete();
+		adder.join();
+		progress.add(1);
+
+		assertEquals(1, completed.get());
+		assertEquals(0, afterComplete.get());
+	}
+
+	@Test
+	void brokenListenerDoesNotThrow() {
+		TransferProgress progress = new TransferProgress().setIntervalMillis(0);
+		progress.addListener(p -> {
+			throw new IllegalStateException();
+		});
+		progress.complete();
+
+		assertThrows(IllegalArgumentException.class, () -> progress.setIntervalMillis(-1));
+	}
+}
@@ -0,0 +1,108 @@
+package com.bhyoo.onedrive.network.sync;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyncResponseTest {
+	private static final String BODY = "{\"id\":\"abc\",\"size\":1024}";
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static SyncResponse responseOf(ByteBuf body) throws IOException {
+		return new SyncResponse(new URL("https://localhost/"), 200, "OK",
+				Collections.emptyMap(), body);
+	}
+
+	private static ByteBuf heapWithSpare() {
+		ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+		buf.writeBytes("garbage".getBytes(StandardCharsets.UTF_8));
+		buf.writeBytes(BODY.getBytes(StandardCharsets.UTF_8));
+		buf.skipBytes("garbage".length());
+		return buf;
+	}
+
+	private static ByteBuf composite() {
+		byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+		CompositeByteBuf buf = Unpooled.compositeBuffer();
+		buf.addComponent(true, Unpooled.directBuffer().writeBytes(bytes, 0, 5));
+		buf.addComponent(true, Unpooled.directBuffer().writeBytes(bytes, 5, bytes.length - 5));
+		return buf;
+	}
+
+	private static void assertParsed(SyncResponse response) throws IOException {
+		try (JsonParser parser = response.createParser(JSON_FACTORY)) {
+			assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+			assertEquals("id", parser.nextFieldName());
+			assertEquals("abc", parser.nextTextValue());
+			assertEquals("size", parser.nextFieldName());
+			assertEquals(JsonToken.VALUE_NUMBER_INT, parser.nextToken());
+			assertEquals(1024, parser.getIntValue());
+			assertEquals(JsonToken.END_OBJECT, parser.nextToken());
+		}
+	}
+
+	@Test
+	void exactLengthContent() throws IOException {
+		SyncResponse response = responseOf(heapWithSpare());
+		assertEquals(BODY, response.getContentString());
+
+		ByteBuf body = response.getContentBuf();
+		assertArrayEquals(BODY.getBytes(StandardCharsets.UTF_8), response.getContent());
+		assertEquals(0, body.refCnt());
+	}
+
+	@Test
+	void exactLengthCompositeContent() throws IOException {
+		SyncResponse response = responseOf(composite());
+		assertArrayEquals(BODY.getBytes(StandardCharsets.UTF_8), response.getContent(false));
+		assertEquals(1, response.getContentBuf().refCnt());
+		response.release();
+	}
+
+	@Test
+	void mixedAccessors() throws IOException {
+		SyncResponse response = responseOf(composite());
+		ByteBuf body = response.getContentBuf();
+		byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+
+		assertArrayEquals(bytes, response.getContent());
+		assertEquals(0, body.refCnt());
+		assertArrayEquals(bytes, response.getContent());
+		assertArrayEquals(bytes, response.getContent(false));
+		assertEquals(BODY, response.getContentString());
+		assertParsed(response);
+		response.release();
+
+		response = responseOf(heapWithSpare());
+		body = response.getContentBuf();
+		assertEquals(BODY, response.getContentString());
+		assertEquals(0, body.refCnt());
+		assertArrayEquals(bytes, response.getContent());
+		response.release();
+	}
+
+	@Test
+	void parseInPlace() throws IOException {
+		SyncResponse response = responseOf(heapWithSpare());
+		assertParsed(response);
+		assertEquals(7, response.getContentBuf().readerIndex());
+		response.release();
+
+		response = responseOf(composite());
+		assertParsed(response);
+		assertEquals(0, response.getContentBuf().readerIndex());
+		response.release();
+	}
+}
@@ -1,15 +1,23 @@
 package com.bhyoo.onedrive.utils;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 class ByteBufStreamTest {
@@ -21,6 +29,15 @@ class ByteBufStreamTest {
 
 		Thread end = new Thread() {
 			@Override public void run() {
+				try {
+					readAll();
+				}
+				catch (IOException e) {
+					throw new AssertionError(e);
+				}
+			}
+
+			private void readAll() throws IOException {
 				byte[] bytes = new byte[3];
 				int n;
 
@@ -68,13 +85,13 @@ class ByteBufStreamTest {
 
 		Thread end = new Thread() {
 			@Override public void run() {
-				byte[] bytes = new byte[3];
-				int n;
-
-				n = inputStream.read(bytes);
-				assertEquals(-1, n);
-
-				assertEquals(-1, inputStream.read());
+				try {
+					assertEquals(-1, inputStream.read(new byte[3]));
+					assertEquals(-1, inputStream.read());
+				}
+				catch (IOException e) {
+					throw new AssertionError(e);
+				}
 			}
 		};
 		end.start();
@@ -105,14 +122,14 @@ class ByteBufStreamTest {
 		});
 	}
 
-	@Test void readAfterClosed() {
+	@Test void readAfterClosed() throws IOException {
 		ByteBufStream stream = new ByteBufStream();
 		stream.close();
 
 		assertEquals(-1, stream.read());
 	}
 
-	@Test void readWithOffset() {
+	@Test void readWithOffset() throws IOException {
 		ByteBufStream stream = new ByteBufStream();
 		ByteBuf buf = Unpooled.buffer(100);
 		buf.writeBytes(first);
@@ -136,4 +153,130 @@ class ByteBufStreamTest {
 
 		stream.close();
 	}
-}
\ No newline at end of file
+
+	@Test void releaseAsRead() throws IOException {
+		ByteBufStream stream = new ByteBufStream();
+		ByteBuf buf = Unpooled.buffer(100);
+		buf.writeBytes(first);
+		stream.writeByteBuf(buf);
+		buf.release();
+		stream.setNoMoreBuf();
+
+		assertEquals(1, buf.refCnt());
+		assertEquals(4, stream.read(new byte[4]));
+		assertEquals(-1, stream.read());
+		assertEquals(0, buf.refCnt());
+
+		stream.close();
+	}
+
+	@Test void closeReleasesUnread() {
+		ByteBufStream stream = new ByteBufStream();
+		ByteBuf buf = Unpooled.buffer(100);
+		buf.writeBytes(first);
+		stream.writeByteBuf(buf);
+		buf.release();
+
+		stream.close();
+		assertEquals(0, buf.refCnt());
+		assertFalse(stream.offer(Unpooled.wrappedBuffer(second)));
+	}
+
+	@Test void backpressure() throws IOException {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		ByteBufStream stream = new ByteBufStream();
+		stream.setBackpressure(channel, 6, 2);
+
+		stream.writeByteBuf(Unpooled.wrappedBuffer(first));
+		assertTrue(channel.config().isAutoRead());
+		stream.writeByteBuf(Unpooled.wrappedBuffer(second));
+		assertFalse(channel.config().isAutoRead());
+
+		byte[] bytes = new byte[5];
+		assertEquals(5, stream.read(bytes));
+		assertFalse(channel.config().isAutoRead());
+		assertEquals(second[1], stream.read());
+		assertTrue(channel.config().isAutoRead());
+
+		// channel goes back as it was once response ends
+		stream.writeByteBuf(Unpooled.wrappedBuffer(first));
+		assertFalse(channel.config().isAutoRead());
+		stream.setNoMoreBuf();
+		assertTrue(channel.config().isAutoRead());
+
+		stream.close();
+		channel.finishAndReleaseAll();
+	}
+
+	@Test void startWithContent() throws IOException {
+		CompositeByteBuf composite = Unpooled.compositeBuffer();
+		composite.addComponent(true, Unpooled.wrappedBuffer(first));
+		ByteBufStream stream = new ByteBufStream(composite);
+		stream.writeByteBuf(Unpooled.wrappedBuffer(second));
+
+		assertEquals(first[0], stream.read());
+
+		ByteBuf raw = stream.getRawBuffer();
+		assertEquals(7, raw.readableBytes());
+		assertEquals(first[1], raw.getByte(0));
+		assertEquals(second[3], raw.getByte(6));
+		raw.release();
+
+		assertEquals(0, composite.refCnt());
+		stream.close();
+	}
+
+	@Test void closeTwice() {
+		ByteBufStream stream = new ByteBufStream();
+		stream.writeByteBuf(Unpooled.wrappedBuffer(first));
+
+		stream.close();
+		stream.close();
+		assertTrue(stream.isClosed());
+	}
+
+	@Test void failAfterContent() throws IOException {
+		ByteBufStream stream = new ByteBufStream();
+		stream.writeByteBuf(Unpooled.wrappedBuffer(first));
+		final ClosedChannelException cause = new ClosedChannelException();
+		stream.fail(cause);
+
+		assertFalse(stream.isEnded());
+		assertSame(cause, stream.getFailure());
+
+		// what is written is read first
+		byte[] bytes = new byte[8];
+		assertEquals(4, stream.read(bytes));
+
+		IOException exception = assertThrows(IOException.class, () -> stream.read(bytes));
+		assertSame(cause, exception.getCause());
+		assertThrows(IOException.class, stream::read);
+
+		stream.close();
+	}
+
+	@Test void transferOfFailedStreamThrows() {
+		ByteBufStream stream = new ByteBufStream();
+		stream.writeByteBuf(Unpooled.wrappedBuffer(first));
+		stream.fail(new ClosedChannelException());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThrows(IOException.class, () -> stream.transferTo(out));
+		assertArrayEquals(first, out.toByteArray());
+
+		stream.close();
+	}
+
+	@Test void failAfterEndIsIgnored() throws IOException {
+		ByteBufStream stream = new ByteBufStream();
+		stream.writeByteBuf(Unpooled.wrappedBuffer(first));
+		stream.setNoMoreBuf();
+		stream.fail(new ClosedChannelException());
+
+		assertTrue(stream.isEnded());
+		assertEquals(4, stream.read(new byte[8]));
+		assertEquals(-1, stream.read());
+
+		stream.close();
+	}
+}